@@ -0,0 +1,481 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Headless batch mode: runs the editor's commands over many files on a fork-join pool.
+//
+//   java TextEditor --batch count <files/dirs...>
+//   java TextEditor --batch find <text> <files/dirs...>
+//   java TextEditor --batch replace <find> <replace> <files/dirs...>
+//   java TextEditor --batch db-save <files/dirs...>
+//   java TextEditor --batch import <files/dirs...>
+//   java TextEditor --batch [--to DIR] [--resume] export
+//   java TextEditor --batch sync <dir>
+//   java TextEditor --batch [--ignore-case] [--reverse] sort|unique|count-duplicates <in> <out>
+//   java TextEditor --batch [--tab-size N] transform <in> <out> <stages...>
+//
+// Options (before the command): --threads N, and for import --batch-size N (rows per JDBC batch)
+// and --commit-rows N (rows per transaction). import is the bulk path into the database: batched
+// statements, and files already stored as they are on disk are skipped. export writes the files in
+// the database back to their paths, or below DIR; --resume goes on after an export that stopped.
+// db-save, import, export and sync open the files table as earlier runs left it, where the
+// editor recreates it unless -Deditor.keepTables=true.
+// sync uploads and downloads whatever changed on one side since the last sync or import (it takes
+// --batch-size and --commit-rows too) and lists files changed on both. sort, unique and
+// count-duplicates sort the lines of a file of any size into another (or the same) file with an
+// external merge sort, in -Deditor.sortMemoryMB of memory. transform streams a file through
+// TextTransform stages (upper, lower, trim, tabs-to-spaces, spaces-to-tabs, eol-lf, eol-crlf, eol-cr,
+// regex <pattern> <replacement>), applied in the order given.
+class BatchRunner {
+    private static final int SEQUENTIAL_THRESHOLD = 4;
+
+    private final String command;
+    private final String find, replace;
+    private final List<File> files;
+    private final String[] output;
+    private DatabaseManager dbManager;
+
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong matches = new AtomicLong();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    BatchRunner(String command, String find, String replace, List<File> files) {
+        this.command = command;
+        this.find = find;
+        this.replace = replace;
+        this.files = files;
+        this.output = new String[files.size()];
+    }
+
+    static int run(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int batchSize = FileImporter.BATCH_SIZE, commitRows = FileImporter.COMMIT_ROWS;
+        File exportRoot = null;
+        boolean resume = false;
+        boolean ignoreCase = false, reverse = false;
+        int tabSize = 4;
+        int i = 0;
+        try {
+            while (i < args.length && args[i].startsWith("--")) {
+                if (args[i].equals("--threads") && i + 1 < args.length) {
+                    threads = parseCount(args[i], args[i + 1]);
+                    i += 2;
+                } else if (args[i].equals("--batch-size") && i + 1 < args.length) {
+                    batchSize = parseCount(args[i], args[i + 1]);
+                    i += 2;
+                } else if (args[i].equals("--commit-rows") && i + 1 < args.length) {
+                    commitRows = parseCount(args[i], args[i + 1]);
+                    i += 2;
+                } else if (args[i].equals("--to") && i + 1 < args.length) {
+                    exportRoot = new File(args[i + 1]);
+                    i += 2;
+                } else if (args[i].equals("--resume")) {
+                    resume = true;
+                    i++;
+                } else if (args[i].equals("--tab-size") && i + 1 < args.length) {
+                    tabSize = parseCount(args[i], args[i + 1]);
+                    i += 2;
+                } else if (args[i].equals("--ignore-case")) {
+                    ignoreCase = true;
+                    i++;
+                } else if (args[i].equals("--reverse")) {
+                    reverse = true;
+                    i++;
+                } else {
+                    return usage("Unknown option: " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return usage(e.getMessage());
+        }
+        if (i >= args.length)
+            return usage(null);
+
+        String command = args[i++];
+        String find = null, replace = null;
+        switch (command) {
+            case "count":
+            case "db-save":
+                break;
+            case "import":
+                if (i >= args.length) return usage("No input files");
+                List<File> roots = new ArrayList<>();
+                for (; i < args.length; i++)
+                    roots.add(new File(args[i]));
+                return runImport(roots, threads, batchSize, commitRows);
+            case "export":
+                if (i < args.length) return usage("export takes no files; use --to DIR");
+                return runExport(exportRoot, resume, threads);
+            case "sync":
+                if (i + 1 != args.length) return usage("sync takes one directory");
+                return runSync(new File(args[i]), threads, batchSize, commitRows);
+            case "sort":
+            case "unique":
+            case "count-duplicates":
+                if (i + 2 != args.length) return usage(command + " takes an input and an output file");
+                LineSorter.Mode mode = command.equals("sort") ? LineSorter.Mode.SORT
+                        : command.equals("unique") ? LineSorter.Mode.UNIQUE : LineSorter.Mode.COUNT;
+                return runSortLines(command, mode, new File(args[i]), new File(args[i + 1]), ignoreCase, reverse, threads);
+            case "transform":
+                if (i + 3 > args.length) return usage("transform needs an input file, an output file and stages");
+                TextTransform transform;
+                try {
+                    transform = TextTransform.parse(Arrays.asList(args).subList(i + 2, args.length), tabSize);
+                } catch (IllegalArgumentException e) {
+                    return usage(e.getMessage());
+                }
+                return runTransform(new File(args[i]), new File(args[i + 1]), transform, threads);
+            case "find":
+                if (i >= args.length) return usage("find needs a search text");
+                find = args[i++];
+                break;
+            case "replace":
+                if (i + 1 >= args.length) return usage("replace needs a search and a replacement text");
+                find = args[i++];
+                replace = args[i++];
+                break;
+            default:
+                return usage("Unknown command: " + command);
+        }
+
+        List<File> files = new ArrayList<>();
+        for (; i < args.length; i++) {
+            try {
+                collectFiles(new File(args[i]), files);
+            } catch (IOException e) {
+                System.err.println("Cannot read " + args[i] + ": " + e.getMessage());
+            }
+        }
+        if (files.isEmpty())
+            return usage("No input files");
+
+        BatchRunner runner = new BatchRunner(command, find, replace, files);
+        return runner.execute(threads);
+    }
+
+    // The value of a count option: a whole number of at least 1
+    private static int parseCount(String option, String value) {
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 1)
+                return n;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException(option + " needs a whole number of at least 1, not " + value);
+    }
+
+    private static int usage(String error) {
+        if (error != null)
+            System.err.println(error);
+        System.err.println("Usage: java TextEditor --batch [--threads N] count|find <text>|replace <find> <replace>|db-save <files or directories...>");
+        System.err.println("       java TextEditor --batch [--threads N] [--batch-size N] [--commit-rows N] import <files or directories...>");
+        System.err.println("       java TextEditor --batch [--threads N] [--to DIR] [--resume] export");
+        System.err.println("       java TextEditor --batch [--threads N] [--batch-size N] [--commit-rows N] sync <directory>");
+        System.err.println("       java TextEditor --batch [--threads N] [--ignore-case] [--reverse] sort|unique|count-duplicates <in> <out>");
+        System.err.println("       java TextEditor --batch [--threads N] [--tab-size N] transform <in> <out> upper|lower|trim|tabs-to-spaces|spaces-to-tabs|eol-lf|eol-crlf|eol-cr|regex <pattern> <replacement>...");
+        System.err.println("db-save, import, export and sync work on the files stored by earlier runs; they never drop or recreate the files table.");
+        return 2;
+    }
+
+    // Runs a FileImporter on this thread and waits for it
+    private static int runImport(List<File> roots, int threads, int batchSize, int commitRows) {
+        for (File root : roots) {
+            if (!root.exists())
+                return usage("No such file: " + root);
+        }
+        DatabaseManager dbManager = new DatabaseManager();
+        dbManager.openDatabase();
+        String[] error = new String[1];
+        FileImporter importer = new FileImporter(roots, FileImporter.Mode.DATABASE, 0, dbManager, new FileImporter.Listener() {
+            public void opened(List<FileImporter.Loaded> files) {
+            }
+
+            public void finished(String message) {
+                error[0] = message;
+            }
+        });
+        importer.setThreads(threads);
+        importer.setBatching(batchSize, commitRows);
+        try {
+            importer.run();
+            importer.get();
+        } catch (Exception e) {
+            error[0] = e.getMessage();
+        } finally {
+            dbManager.closeConnection();
+        }
+        String message = error[0] != null ? error[0] : importer.getError();
+
+        double secs = Math.max(importer.getElapsedNanos() / 1e9, 1e-9);
+        double mb = importer.getBytesDone() / (1024.0 * 1024.0);
+        int done = importer.getFilesDone();
+        System.err.println(String.format(Locale.ROOT,
+                "import: %d files (%d unchanged, %d failed), %.1f MB in %.3f s on %d threads, batches of %d, commit every %d -> %.1f files/s, %.1f MB/s",
+                done, importer.getFilesUnchanged(), importer.getFilesFailed(), mb, secs, importer.getThreads(),
+                importer.getBatchSize(), importer.getCommitRows(), done / secs, mb / secs));
+        if (message != null) {
+            System.err.println(message);
+            return 1;
+        }
+        return importer.getFilesFailed() == 0 ? 0 : 1;
+    }
+
+    // Runs a FileExporter on this thread and waits for it
+    private static int runExport(File root, boolean resume, int threads) {
+        DatabaseManager dbManager = new DatabaseManager();
+        dbManager.openDatabase();
+        FileExporter exporter = new FileExporter(dbManager, root, FileExporter.checkpointFor(root), resume, message -> {
+        });
+        exporter.setThreads(threads);
+        String message = null;
+        try {
+            exporter.run();
+            exporter.get();
+        } catch (Exception e) {
+            message = e.getMessage();
+        } finally {
+            dbManager.closeConnection();
+        }
+        if (message == null)
+            message = exporter.getError();
+
+        double secs = Math.max(exporter.getElapsedNanos() / 1e9, 1e-9);
+        double mb = exporter.getBytesDone() / (1024.0 * 1024.0);
+        int done = exporter.getFilesDone();
+        System.err.println(String.format(Locale.ROOT,
+                "export: %d files (%d failed%s), %.1f MB in %.3f s on %d threads -> %.1f files/s, %.1f MB/s",
+                done, exporter.getFilesFailed(), exporter.getResumedAfter() > 0 ? ", resumed after #" + exporter.getResumedAfter() : "",
+                mb, secs, exporter.getThreads(), done / secs, mb / secs));
+        for (String failure : exporter.getFailures())
+            System.err.println("  " + failure);
+        if (message != null) {
+            System.err.println(message);
+            return 1;
+        }
+        return exporter.getFilesFailed() == 0 ? 0 : 1;
+    }
+
+    // Runs a LineSorter on this thread and waits for it; the output keeps the input's encoding
+    private static int runSortLines(String command, LineSorter.Mode mode, File in, File out,
+                                    boolean ignoreCase, boolean reverse, int threads) {
+        if (!in.isFile())
+            return usage("No such file: " + in);
+        LineSorter sorter;
+        try {
+            TextBuffer.Encoding enc = TextBuffer.detectEncoding(in);
+            sorter = new LineSorter(TextBuffer.newReader(in, enc), in.length(), mode, ignoreCase, reverse, out, enc, message -> {
+            });
+        } catch (IOException e) {
+            System.err.println("Cannot read " + in + ": " + e.getMessage());
+            return 1;
+        }
+        sorter.setThreads(threads);
+        String message = null;
+        try {
+            sorter.run();
+            sorter.get();
+        } catch (Exception e) {
+            message = e.getMessage();
+        }
+        if (message == null)
+            message = sorter.getError();
+
+        double secs = Math.max(sorter.getElapsedNanos() / 1e9, 1e-9);
+        double mb = in.length() / (1024.0 * 1024.0);
+        System.err.println(String.format(Locale.ROOT,
+                "%s: %d lines -> %d lines, %.1f MB in %.3f s (%s) on %d threads -> %.1f MB/s",
+                command, sorter.getLinesIn(), sorter.getLinesOut(), mb, secs,
+                sorter.getRuns() == 0 ? "in memory" : sorter.getRuns() + " runs spilled",
+                sorter.getThreads(), mb / secs));
+        if (message != null) {
+            System.err.println(message);
+            return 1;
+        }
+        return 0;
+    }
+
+    // Runs a TransformWorker from file to file on this thread and waits for it
+    private static int runTransform(File in, File out, TextTransform transform, int threads) {
+        if (!in.isFile())
+            return usage("No such file: " + in);
+        TransformWorker worker = TransformWorker.forFile(transform, in, out, message -> {
+        });
+        worker.setThreads(threads);
+        String message = null;
+        try {
+            worker.run();
+            worker.get();
+        } catch (Exception e) {
+            message = e.getMessage();
+        }
+        if (message == null)
+            message = worker.getError();
+
+        double secs = Math.max(worker.getElapsedNanos() / 1e9, 1e-9);
+        double mb = in.length() / (1024.0 * 1024.0);
+        System.err.println(String.format(Locale.ROOT, "transform (%s): %.1f MB in %.3f s on %d threads -> %.1f MB/s",
+                transform, mb, secs, worker.getThreads(), mb / secs));
+        if (message != null) {
+            System.err.println(message);
+            return 1;
+        }
+        return 0;
+    }
+
+    // Runs a FileSynchronizer on this thread and waits for it
+    private static int runSync(File root, int threads, int batchSize, int commitRows) {
+        if (!root.isDirectory())
+            return usage("Not a directory: " + root);
+        DatabaseManager dbManager = new DatabaseManager();
+        dbManager.openDatabase();
+        FileSynchronizer sync = new FileSynchronizer(dbManager, root, message -> {
+        });
+        sync.setThreads(threads);
+        sync.setBatching(batchSize, commitRows);
+        String message = null;
+        try {
+            sync.run();
+            sync.get();
+        } catch (Exception e) {
+            message = e.getMessage();
+        } finally {
+            dbManager.closeConnection();
+        }
+        if (message == null)
+            message = sync.getError();
+
+        double secs = Math.max(sync.getElapsedNanos() / 1e9, 1e-9);
+        double mb = sync.getBytesDone() / (1024.0 * 1024.0);
+        System.err.println(String.format(Locale.ROOT,
+                "sync: %d files, %d uploaded, %d downloaded, %d unchanged, %d conflicts, %d failed, %.1f MB in %.3f s on %d threads",
+                sync.getFilesDone(), sync.getUploaded(), sync.getDownloaded(), sync.getFilesUnchanged(), sync.getConflicts(),
+                sync.getFilesFailed(), mb, secs, sync.getThreads()));
+        for (String path : sync.getConflictPaths())
+            System.err.println("  conflict: " + path);
+        if (message != null) {
+            System.err.println(message);
+            return 1;
+        }
+        return sync.getFilesFailed() == 0 && sync.getConflicts() == 0 ? 0 : 1;
+    }
+
+    private static void collectFiles(File f, List<File> into) throws IOException {
+        if (f.isDirectory()) {
+            try (Stream<Path> walk = Files.walk(f.toPath())) {
+                walk.filter(Files::isRegularFile).forEach(p -> into.add(p.toFile()));
+            }
+        } else if (f.isFile()) {
+            into.add(f);
+        } else {
+            throw new FileNotFoundException("no such file");
+        }
+    }
+
+    int execute(int threads) {
+        if (command.equals("db-save")) {
+            dbManager = new DatabaseManager();
+            dbManager.openDatabase();
+            if (!dbManager.isConnected()) {
+                System.err.println("db-save: no database connection");
+                return 1;
+            }
+        }
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new FileRange(0, files.size()));
+        } finally {
+            pool.shutdown();
+            if (dbManager != null)
+                dbManager.closeConnection();
+        }
+        long elapsed = System.nanoTime() - start;
+        Metrics.BATCH_JOB.done(start, bytes.get(), failed.get() == 0);
+        Metrics.batchFiles.addAndGet(files.size());
+        Metrics.batchMatches.addAndGet(matches.get());
+
+        for (String line : output) {
+            if (line != null)
+                System.out.println(line);
+        }
+        printStats(threads, elapsed);
+        return failed.get() == 0 ? 0 : 1;
+    }
+
+    private class FileRange extends RecursiveAction {
+        private final int from, to;
+
+        FileRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++)
+                    process(i);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FileRange(from, mid), new FileRange(mid, to));
+            }
+        }
+    }
+
+    private void process(int index) {
+        File f = files.get(index);
+        try {
+            TextBuffer buffer = TextBuffer.load(f);
+            String text = buffer.getText();
+            bytes.addAndGet(f.length());
+            switch (command) {
+                case "count":
+                    output[index] = f.getPath() + ": " + TextBuffer.countLines(text) + " lines, "
+                            + TextBuffer.countWords(text) + " words, " + text.length() + " characters";
+                    break;
+                case "find":
+                    int n = TextBuffer.countMatches(text, find);
+                    matches.addAndGet(n);
+                    if (n > 0)
+                        output[index] = f.getPath() + ": " + n + " matches";
+                    break;
+                case "replace":
+                    int r = buffer.replaceAll(find, replace);
+                    matches.addAndGet(r);
+                    if (r > 0) {
+                        buffer.save();
+                        output[index] = f.getPath() + ": " + r + " replacements";
+                    }
+                    break;
+                case "db-save":
+                    if (!dbManager.saveFileToDatabase(f.getName(), text, f.getAbsolutePath())) {
+                        failed.incrementAndGet();
+                        output[index] = f.getPath() + ": ERROR not saved to the database";
+                    }
+                    break;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            failed.incrementAndGet();
+            output[index] = f.getPath() + ": ERROR " + e.getMessage();
+        }
+    }
+
+    private void printStats(int threads, long elapsedNanos) {
+        double secs = Math.max(elapsedNanos / 1e9, 1e-9);
+        double mb = bytes.get() / (1024.0 * 1024.0);
+        System.err.println(String.format(Locale.ROOT,
+                "%s: %d files (%d failed), %.1f MB in %.3f s on %d threads -> %.1f files/s, %.1f MB/s",
+                command, files.size(), failed.get(), mb, secs, threads, files.size() / secs, mb / secs));
+        if (find != null)
+            System.err.println((replace != null ? "Replacements: " : "Matches: ") + matches.get());
+    }
+}
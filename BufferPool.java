@@ -0,0 +1,308 @@
+import javax.swing.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Keeps the heap used by open buffers under a shared budget. When the resident total goes over,
+// the least recently used inactive buffers are compressed in the background; if the compressed
+// copies still don't fit they are spilled to a swap file. Buffers are restored when focused.
+// A buffer can also start out MAPPED: its content is still in a mapped file (a restored session)
+// and only becomes a document when first focused. All methods are called on the EDT.
+class BufferPool {
+    enum State { RESIDENT, COMPRESSING, COMPRESSED, SPILLED, MAPPED }
+
+    // Implemented by whatever owns a document (an editor tab)
+    interface Buffer {
+        String getName();
+        boolean isActive();
+        boolean isSwappable();
+        int getLength();
+        int getLineCount();
+        // Hand over the content and drop the live document
+        String detachText();
+        // Rebuild the live document from previously detached content
+        void attachText(String text);
+        // Build the live document from the content it was mapped with
+        void attachMapped();
+    }
+
+    class Entry {
+        final Buffer buffer;
+        State state = State.RESIDENT;
+        long lastUsed = System.nanoTime();
+        int chars, lines;
+        String pendingText;
+        byte[] compressed;
+        long swapOffset;
+        int swapLength;
+
+        Entry(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public Buffer getBuffer() { return buffer; }
+        public State getState() { return state; }
+        public int getChars() { return state == State.RESIDENT ? buffer.getLength() : chars; }
+        public int getLines() { return state == State.RESIDENT ? buffer.getLineCount() : lines; }
+        public int getCompressedSize() { return state == State.SPILLED ? swapLength : compressed == null ? 0 : compressed.length; }
+
+        // Estimated heap held for this buffer: char[] content plus line elements when resident
+        public long getHeapBytes() {
+            switch (state) {
+                case RESIDENT:
+                    return residentCost(buffer.getLength(), buffer.getLineCount());
+                case COMPRESSING:
+                    return (long) chars * 2;
+                case COMPRESSED:
+                    return compressed.length;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    private static final int LINE_OVERHEAD = 64;
+
+    private final long budgetBytes;
+    private final List<Entry> entries = new ArrayList<>();
+    private File swapFile;
+    private RandomAccessFile swap;
+    private long swapEnd;
+    // Written on the EDT, read by the Editor MBean
+    private volatile long hits, restores, compressions, spills;
+
+    BufferPool(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    public long getBudgetBytes() { return budgetBytes; }
+    public List<Entry> getEntries() { return entries; }
+    public File getSwapFile() { return swapFile; }
+    // Focus on a buffer that was resident / had to be brought back
+    public long getHits() { return hits; }
+    public long getRestores() { return restores; }
+    public long getCompressions() { return compressions; }
+    public long getSpills() { return spills; }
+
+    void resetCounters() {
+        hits = restores = compressions = spills = 0;
+    }
+
+    static long residentCost(int chars, int lines) {
+        return (long) chars * 2 + (long) lines * LINE_OVERHEAD;
+    }
+
+    public long getTotalHeapBytes() {
+        long total = 0;
+        for (Entry e : entries)
+            total += e.getHeapBytes();
+        return total;
+    }
+
+    Entry add(Buffer buffer) {
+        Entry e = new Entry(buffer);
+        entries.add(e);
+        return e;
+    }
+
+    void remove(Entry e) {
+        entries.remove(e);
+        e.pendingText = null;
+        e.compressed = null;
+        releaseSwapIfUnused();
+    }
+
+    // Marks the buffer as in use, bringing its content back if it was swapped out
+    void touch(Entry e) {
+        e.lastUsed = System.nanoTime();
+        if (e.state == State.RESIDENT) {
+            hits++;
+            return;
+        }
+        restores++;
+        if (e.state == State.MAPPED) {
+            e.state = State.RESIDENT;
+            e.buffer.attachMapped();
+            return;
+        }
+        String text;
+        try {
+            text = restoreText(e);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Could not restore " + e.buffer.getName() + " from swap", ex);
+        }
+        e.state = State.RESIDENT;
+        e.pendingText = null;
+        e.compressed = null;
+        e.buffer.attachText(text);
+        releaseSwapIfUnused();
+    }
+
+    // The buffer's content stays outside the heap until it is touched
+    void mapped(Entry e, int chars, int lines) {
+        e.chars = chars;
+        e.lines = lines;
+        e.state = State.MAPPED;
+    }
+
+    // The content of a swapped-out buffer, leaving it swapped out
+    String peekText(Entry e) throws IOException {
+        if (e.state == State.RESIDENT || e.state == State.MAPPED)
+            throw new IllegalStateException(e.buffer.getName() + " is resident");
+        return restoreText(e);
+    }
+
+    private String restoreText(Entry e) throws IOException {
+        if (e.pendingText != null)
+            return e.pendingText;
+        byte[] data = e.compressed;
+        if (e.state == State.SPILLED) {
+            data = new byte[e.swapLength];
+            swap.seek(e.swapOffset);
+            swap.readFully(data);
+        }
+        return inflate(data, e.chars);
+    }
+
+    // Compresses and spills least recently used inactive buffers until the total fits the budget
+    void enforceBudget() {
+        long total = getTotalHeapBytes();
+        if (total <= budgetBytes)
+            return;
+
+        List<Entry> lru = new ArrayList<>(entries);
+        lru.sort(Comparator.comparingLong(e -> e.lastUsed));
+
+        for (Entry e : lru) {
+            if (total <= budgetBytes)
+                return;
+            if (e.state == State.RESIDENT && !e.buffer.isActive() && e.buffer.isSwappable() && e.buffer.getLength() > 0) {
+                long before = e.getHeapBytes();
+                compress(e);
+                // Assume text deflates about 4:1 (an eighth of its UTF-16 heap size) until the real size is known
+                total -= before - before / 8;
+            }
+        }
+
+        for (Entry e : lru) {
+            if (total <= budgetBytes)
+                return;
+            if (e.state == State.COMPRESSED) {
+                long before = e.getHeapBytes();
+                try {
+                    spill(e);
+                    total -= before;
+                } catch (IOException ex) {
+                    System.err.println("Could not spill buffer to swap file: " + ex.getMessage());
+                    return;
+                }
+            }
+        }
+    }
+
+    private void compress(Entry e) {
+        e.chars = e.buffer.getLength();
+        e.lines = e.buffer.getLineCount();
+        String text = e.buffer.detachText();
+        e.pendingText = text;
+        e.state = State.COMPRESSING;
+        compressions++;
+
+        new SwingWorker<byte[], Void>() {
+            protected byte[] doInBackground() throws IOException {
+                return deflate(text);
+            }
+
+            protected void done() {
+                // Focused again (or closed) while compressing: keep the text as it is
+                if (e.state != State.COMPRESSING || e.pendingText != text)
+                    return;
+                try {
+                    e.compressed = get();
+                    e.pendingText = null;
+                    e.state = State.COMPRESSED;
+                    enforceBudget();
+                } catch (Exception ex) {
+                    // Keep the uncompressed copy; it is restored as is on focus
+                    System.err.println("Could not compress buffer: " + ex.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private void spill(Entry e) throws IOException {
+        if (swap == null) {
+            swapFile = File.createTempFile("editor-swap", ".bin");
+            swapFile.deleteOnExit();
+            swap = new RandomAccessFile(swapFile, "rw");
+            swapEnd = 0;
+        }
+        swap.seek(swapEnd);
+        swap.write(e.compressed);
+        e.swapOffset = swapEnd;
+        e.swapLength = e.compressed.length;
+        swapEnd += e.swapLength;
+        e.compressed = null;
+        e.state = State.SPILLED;
+        spills++;
+    }
+
+    // The swap file is append-only; it is truncated once nothing lives in it any more
+    private void releaseSwapIfUnused() {
+        if (swap == null)
+            return;
+        for (Entry e : entries) {
+            if (e.state == State.SPILLED)
+                return;
+        }
+        try {
+            swap.setLength(0);
+            swapEnd = 0;
+        } catch (IOException ex) {
+            System.err.println("Could not truncate swap file: " + ex.getMessage());
+        }
+    }
+
+    void close() {
+        try {
+            if (swap != null)
+                swap.close();
+        } catch (IOException ignored) {
+        }
+        if (swapFile != null)
+            swapFile.delete();
+    }
+
+    static byte[] deflate(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, text.length() / 4));
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (Writer w = new OutputStreamWriter(new DeflaterOutputStream(bytes, deflater, 64 * 1024), StandardCharsets.UTF_8)) {
+            int chunk = 64 * 1024;
+            for (int i = 0; i < text.length(); i += chunk)
+                w.write(text, i, Math.min(chunk, text.length() - i));
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    static String inflate(byte[] data, int expectedChars) throws IOException {
+        StringBuilder sb = new StringBuilder(expectedChars);
+        Inflater inflater = new Inflater();
+        try (Reader r = new InputStreamReader(new InflaterInputStream(new ByteArrayInputStream(data), inflater, 64 * 1024), StandardCharsets.UTF_8)) {
+            char[] buf = new char[64 * 1024];
+            int n;
+            while ((n = r.read(buf)) > 0)
+                sb.append(buf, 0, n);
+        } finally {
+            inflater.end();
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,28 @@
+// Progress of a bulk job over files (FileImporter, FileExporter, FileSynchronizer, and
+// TransformWorker on a file), polled from the EDT by the progress dialog. All of them are
+// BulkWorkers, which bring getElapsedNanos; the last three come with SwingWorker.
+interface BulkProgress {
+    String getTitle();
+
+    int getThreads();
+
+    // -1 while not known yet
+    int getFilesTotal();
+
+    int getFilesDone();
+
+    int getFilesFailed();
+
+    // Left alone because they were already up to date
+    int getFilesUnchanged();
+
+    long getBytesDone();
+
+    long getElapsedNanos();
+
+    boolean isDone();
+
+    boolean isCancelled();
+
+    boolean cancel(boolean mayInterruptIfRunning);
+}
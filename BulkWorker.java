@@ -0,0 +1,78 @@
+import javax.swing.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+// The SwingWorker side of the bulk jobs (FileImporter, FileExporter, FileSynchronizer,
+// DatabaseReplacer, LineSorter, TransformWorker): times the work for getElapsedNanos, keeps the
+// error a job stopped on, and once it is done tells the listener that error, or the message of
+// whatever the work threw.
+abstract class BulkWorker<V> extends SwingWorker<Void, V> {
+    // Called on the EDT; error is null when the job ran to the end (or was cancelled)
+    interface Listener {
+        void finished(String error);
+    }
+
+    private final Listener listener;
+    private volatile long startNanos, endNanos;
+    private volatile String error;
+
+    BulkWorker(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Runs on the worker thread
+    protected abstract void work() throws Exception;
+
+    protected final Void doInBackground() throws Exception {
+        startNanos = System.nanoTime();
+        try {
+            work();
+        } finally {
+            endNanos = System.nanoTime();
+        }
+        return null;
+    }
+
+    public long getElapsedNanos() {
+        long start = startNanos;
+        long end = endNanos;
+        return start == 0 ? 0 : (end != 0 ? end : System.nanoTime()) - start;
+    }
+
+    // The work has returned or thrown
+    boolean hasEnded() {
+        return endNanos != 0;
+    }
+
+    // Set when the job stopped on an error
+    public String getError() {
+        return error;
+    }
+
+    protected void setError(String error) {
+        this.error = error;
+    }
+
+    // The error, or what the work threw; null when it went through or was cancelled. On the EDT,
+    // once done.
+    protected String outcome() {
+        String message = error;
+        if (message == null && !isCancelled()) {
+            try {
+                get();
+            } catch (ExecutionException e) {
+                message = e.getCause().getMessage();
+            } catch (InterruptedException | CancellationException ignored) {
+            }
+        }
+        return message;
+    }
+
+    protected void finish(String error) {
+        listener.finished(error);
+    }
+
+    protected void done() {
+        finish(outcome());
+    }
+}
@@ -0,0 +1,19 @@
+// A row of the files table as getAllFiles returns it, content included
+class DatabaseFile {
+    private String fileName;
+    private String filePath;
+    private String content;
+    private String lastModified;
+
+    public DatabaseFile(String fileName, String filePath, String content, String lastModified) {
+        this.fileName = fileName;
+        this.filePath = filePath;
+        this.content = content;
+        this.lastModified = lastModified;
+    }
+
+    public String getFileName() { return fileName; }
+    public String getFilePath() { return filePath; }
+    public String getContent() { return content; }
+    public String getLastModified() { return lastModified; }
+}
@@ -0,0 +1,888 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The Oracle XE connection behind the editor's database features and every query they make on the
+// files table. Methods that use the connection are synchronized, as JDBC connections are not
+// meant for several threads at once; jobs that go through the whole table take the lock a page at
+// a time.
+class DatabaseManager {
+    // How a missing last_modified sorts in the Database Manager: before everything else
+    static final Timestamp NO_TIMESTAMP = Timestamp.valueOf("0001-01-01 00:00:00");
+
+    private Connection connection;
+    private FileIndex index; // told about every file saved, when set
+    private static final String DB_URL = "jdbc:oracle:thin:@localhost:1521:XE";
+    private static final String DB_USER = "system";
+    private static final String DB_PASSWORD = "manager";
+
+    public DatabaseManager() {
+    }
+
+    // Uses an already-open connection instead of connecting to Oracle XE (benchmarks, tooling)
+    DatabaseManager(Connection connection) {
+        this.connection = connection;
+    }
+
+    void setIndex(FileIndex index) {
+        this.index = index;
+    }
+
+    public void initializeDatabase() {
+        connect(Boolean.getBoolean("editor.keepTables"));
+    }
+
+    // Connects without dropping what earlier runs stored: the files table is created only when it
+    // is missing (the batch commands, which work on the stored files)
+    public void openDatabase() {
+        connect(true);
+    }
+
+    private void connect(boolean keepTables) {
+        try {
+            Class.forName("oracle.jdbc.driver.OracleDriver");
+            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+            createTables(keepTables);
+        } catch (ClassNotFoundException e) {
+            System.err.println("Oracle JDBC driver not found: " + e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error initializing database: " + e.getMessage());
+        }
+    }
+
+    private void createTables(boolean keepTables) throws SQLException {
+        // Create sequence for auto-incrementing ID
+        String createSequenceSQL = """
+            CREATE SEQUENCE files_seq
+            START WITH 1
+            INCREMENT BY 1
+            NOCACHE
+            NOCYCLE
+        """;
+        
+        // Create table with Oracle-compatible syntax
+        String createTableSQL = """
+            CREATE TABLE files (
+                id NUMBER PRIMARY KEY,
+                filename VARCHAR2(255) NOT NULL,
+                filepath VARCHAR2(500) NOT NULL,
+                content CLOB NOT NULL,
+                last_modified TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                synced_at TIMESTAMP,
+                source_size NUMBER(19),
+                source_modified NUMBER(19),
+                content_hash NUMBER(19)
+            )
+        """;
+
+        // The disk file a row was imported from, as size, mtime (epoch ms) and CRC32C of its bytes;
+        // lets an import skip files that have not changed. Added to tables kept from older versions.
+        String addSourceColumnsSQL = "ALTER TABLE files ADD (source_size NUMBER(19), source_modified NUMBER(19), content_hash NUMBER(19))";
+        // last_modified as it was when the row last matched its file; a later save is a change to sync
+        String addSyncedColumnSQL = "ALTER TABLE files ADD (synced_at TIMESTAMP)";
+        
+        // Create trigger for auto-incrementing ID
+        String createTriggerSQL = """
+            CREATE OR REPLACE TRIGGER files_trigger
+            BEFORE INSERT ON files
+            FOR EACH ROW
+            BEGIN
+                IF :NEW.id IS NULL THEN
+                    :NEW.id := files_seq.NEXTVAL;
+                END IF;
+            END;
+        """;
+        
+        // Keyset pagination in the Database Manager walks these (id breaks ties)
+        String[] createIndexSQL = {
+            "CREATE INDEX files_filename_idx ON files (filename, id)",
+            "CREATE INDEX files_filepath_idx ON files (filepath, id)",
+            "CREATE INDEX files_modified_idx ON files (NVL(last_modified, TIMESTAMP '0001-01-01 00:00:00'), id)"
+        };
+        
+        try (Statement stmt = connection.createStatement()) {
+            // -Deditor.keepTables=true keeps the files of earlier runs
+            if (keepTables && tableExists(stmt)) {
+                for (String sql : new String[]{addSourceColumnsSQL, addSyncedColumnSQL, createIndexSQL[0], createIndexSQL[1], createIndexSQL[2]}) {
+                    try {
+                        stmt.execute(sql);
+                    } catch (SQLException e) {
+                        // Already there
+                    }
+                }
+                return;
+            }
+
+            // Drop sequence if exists (for clean reinstall)
+            try {
+                stmt.execute("DROP SEQUENCE files_seq");
+            } catch (SQLException e) {
+                // Sequence doesn't exist, which is fine
+            }
+            
+            // Drop table if exists (for clean reinstall)
+            try {
+                stmt.execute("DROP TABLE files");
+            } catch (SQLException e) {
+                // Table doesn't exist, which is fine
+            }
+            
+            // Create sequence
+            stmt.execute(createSequenceSQL);
+            
+            // Create table
+            stmt.execute(createTableSQL);
+            
+            // Create trigger
+            stmt.execute(createTriggerSQL);
+
+            for (String sql : createIndexSQL)
+                stmt.execute(sql);
+        }
+    }
+
+    private static boolean tableExists(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM user_tables WHERE table_name = 'FILES'")) {
+            return rs.next() && rs.getInt(1) > 0;
+        }
+    }
+
+    // Returns whether the file was stored; a failure is reported on stderr
+    public synchronized boolean saveFileToDatabase(String filename, String content, String filepath) {
+        // First try to update existing record
+        String updateSQL = """
+            UPDATE files 
+            SET content = ?, last_modified = CURRENT_TIMESTAMP 
+            WHERE filename = ? AND filepath = ?
+        """;
+        
+        String insertSQL = """
+            INSERT INTO files (filename, filepath, content, last_modified)
+            VALUES (?, ?, ?, CURRENT_TIMESTAMP)
+        """;
+        
+        EditorEvents.DatabaseSave event = new EditorEvents.DatabaseSave();
+        event.begin();
+        event.filepath = filepath;
+        event.chars = content == null ? 0 : content.length();
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        try (PreparedStatement updateStmt = connection.prepareStatement(updateSQL)) {
+            updateStmt.setString(1, content);
+            updateStmt.setString(2, filename);
+            updateStmt.setString(3, filepath);
+            
+            int rowsUpdated = updateStmt.executeUpdate();
+            
+            // If no rows were updated, insert new record
+            if (rowsUpdated == 0) {
+                event.inserted = true;
+                try (PreparedStatement insertStmt = connection.prepareStatement(insertSQL)) {
+                    insertStmt.setString(1, filename);
+                    insertStmt.setString(2, filepath);
+                    insertStmt.setString(3, content);
+                    insertStmt.executeUpdate();
+                }
+            }
+            ok = true;
+        } catch (SQLException e) {
+            System.err.println("Error saving file to database: " + e.getMessage());
+        }
+        if (ok && index != null)
+            index.update(filename, filepath, content);
+        Metrics.DB_SAVE.done(t0, Metrics.textBytes(content), ok);
+        event.succeeded = ok;
+        event.commit();
+        return ok;
+    }
+
+    // Saves many files in one transaction: one query for which of them already have a row, then
+    // batched UPDATEs and INSERTs. Up to 1000 files per call (Oracle's IN list limit).
+    public synchronized void saveFilesToDatabase(List<DatabaseFile> files) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        if (files.isEmpty())
+            return;
+
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < files.size(); i++)
+            in.append(i == 0 ? "?" : ", ?");
+        String existingSQL = "SELECT filename, filepath FROM files WHERE filepath IN (" + in + ")";
+
+        String updateSQL = """
+            UPDATE files
+            SET content = ?, last_modified = CURRENT_TIMESTAMP
+            WHERE filename = ? AND filepath = ?
+        """;
+
+        String insertSQL = """
+            INSERT INTO files (filename, filepath, content, last_modified)
+            VALUES (?, ?, ?, CURRENT_TIMESTAMP)
+        """;
+
+        long t0 = System.nanoTime();
+        long bytes = 0;
+        for (DatabaseFile f : files)
+            bytes += Metrics.textBytes(f.getContent());
+        boolean ok = false;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            Set<String> existing = new HashSet<>();
+            try (PreparedStatement stmt = connection.prepareStatement(existingSQL)) {
+                for (int i = 0; i < files.size(); i++)
+                    stmt.setString(i + 1, files.get(i).getFilePath());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next())
+                        existing.add(rs.getString("filename") + "\0" + rs.getString("filepath"));
+                }
+            }
+
+            try (PreparedStatement updateStmt = connection.prepareStatement(updateSQL);
+                 PreparedStatement insertStmt = connection.prepareStatement(insertSQL)) {
+                int updates = 0, inserts = 0;
+                for (DatabaseFile f : files) {
+                    if (existing.contains(f.getFileName() + "\0" + f.getFilePath())) {
+                        updateStmt.setString(1, f.getContent());
+                        updateStmt.setString(2, f.getFileName());
+                        updateStmt.setString(3, f.getFilePath());
+                        updateStmt.addBatch();
+                        updates++;
+                    } else {
+                        insertStmt.setString(1, f.getFileName());
+                        insertStmt.setString(2, f.getFilePath());
+                        insertStmt.setString(3, f.getContent());
+                        insertStmt.addBatch();
+                        inserts++;
+                    }
+                }
+                if (updates > 0)
+                    updateStmt.executeBatch();
+                if (inserts > 0)
+                    insertStmt.executeBatch();
+            }
+            connection.commit();
+            ok = true;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            Metrics.DB_SAVE_BATCH.done(t0, bytes, ok);
+        }
+        if (index != null) {
+            for (DatabaseFile f : files)
+                index.update(f.getFileName(), f.getFilePath(), f.getContent());
+        }
+    }
+
+    public synchronized List<DatabaseFile> getAllFiles() {
+        List<DatabaseFile> files = new ArrayList<>();
+        String sql = "SELECT filename, filepath, content, last_modified FROM files ORDER BY last_modified DESC";
+        
+        EditorEvents.DatabaseQuery event = new EditorEvents.DatabaseQuery();
+        event.begin();
+        long t0 = System.nanoTime();
+        long bytes = 0;
+        boolean ok = false;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            
+            while (rs.next()) {
+                DatabaseFile file = new DatabaseFile(
+                    rs.getString("filename"),
+                    rs.getString("filepath"),
+                    rs.getString("content"),
+                    rs.getString("last_modified")
+                );
+                files.add(file);
+                bytes += Metrics.textBytes(file.getContent());
+            }
+            ok = true;
+        } catch (SQLException e) {
+            System.err.println("Error retrieving files from database: " + e.getMessage());
+        }
+        Metrics.DB_GET_ALL.done(t0, bytes, ok);
+        event.rows = files.size();
+        event.chars = bytes / 2;
+        event.succeeded = ok;
+        event.commit();
+        
+        return files;
+    }
+
+    // ---------- BULK IMPORT ----------
+
+    // What the database knows about a row's source file; fingerprint is null for rows that were
+    // never imported (saved from the editor). changedInDatabase: saved since it last matched its file.
+    static final class SourceInfo {
+        final long id;
+        final String filename, filepath;
+        final FileChangeWatcher.Fingerprint fingerprint;
+        final Timestamp lastModified;
+        final boolean changedInDatabase;
+
+        SourceInfo(long id, String filename, String filepath, FileChangeWatcher.Fingerprint fingerprint,
+                   Timestamp lastModified, boolean changedInDatabase) {
+            this.id = id;
+            this.filename = filename;
+            this.filepath = filepath;
+            this.fingerprint = fingerprint;
+            this.lastModified = lastModified;
+            this.changedInDatabase = changedInDatabase;
+        }
+    }
+
+    // The rows whose path starts with the prefix (all rows for ""), keyed by path, in one query
+    public synchronized Map<String, SourceInfo> getSourceInfo(String pathPrefix) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        String sql = """
+            SELECT id, filename, filepath, source_size, source_modified, content_hash, last_modified,
+                   CASE WHEN synced_at = NVL(last_modified, TIMESTAMP '0001-01-01 00:00:00') THEN 0 ELSE 1 END
+            FROM files""" + (pathPrefix.isEmpty() ? "" : " WHERE filepath LIKE ? ESCAPE '\\'");
+        Map<String, SourceInfo> rows = new HashMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            if (!pathPrefix.isEmpty())
+                stmt.setString(1, pathPrefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");
+            stmt.setFetchSize(1000);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    long size = rs.getLong(4);
+                    FileChangeWatcher.Fingerprint fp = rs.wasNull() ? null : new FileChangeWatcher.Fingerprint(size, rs.getLong(5), rs.getLong(6));
+                    rows.put(rs.getString(3), new SourceInfo(rs.getLong(1), rs.getString(2), rs.getString(3), fp,
+                            rs.getTimestamp(7), rs.getInt(8) != 0));
+                }
+            }
+        }
+        return rows;
+    }
+
+    // A file to import: inserted when id is null, otherwise written over that row. With content
+    // null only the source fingerprint is updated (the file was touched but its bytes are the same).
+    // readModified is the row's last_modified when it was looked at (syncFiles only).
+    static final class ImportRow {
+        final Long id;
+        final String filename, filepath, content;
+        final FileChangeWatcher.Fingerprint fingerprint;
+        final Timestamp readModified;
+
+        ImportRow(Long id, String filename, String filepath, String content, FileChangeWatcher.Fingerprint fingerprint) {
+            this(id, filename, filepath, content, fingerprint, null);
+        }
+
+        ImportRow(Long id, String filename, String filepath, String content, FileChangeWatcher.Fingerprint fingerprint,
+                  Timestamp readModified) {
+            this.id = id;
+            this.filename = filename;
+            this.filepath = filepath;
+            this.content = content;
+            this.fingerprint = fingerprint;
+            this.readModified = readModified;
+        }
+    }
+
+    // Writes the rows in one transaction, sending each kind of statement with addBatch/executeBatch
+    // every batchSize rows
+    public synchronized void importFiles(List<ImportRow> rows, int batchSize) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        if (rows.isEmpty())
+            return;
+        String insertSQL = """
+            INSERT INTO files (filename, filepath, content, last_modified, synced_at, source_size, source_modified, content_hash)
+            VALUES (?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, ?, ?, ?)""";
+        String updateSQL = """
+            UPDATE files
+            SET content = ?, last_modified = CURRENT_TIMESTAMP, synced_at = CURRENT_TIMESTAMP,
+                source_size = ?, source_modified = ?, content_hash = ?
+            WHERE id = ?""";
+        String touchSQL = "UPDATE files SET source_size = ?, source_modified = ?, content_hash = ? WHERE id = ?";
+
+        long t0 = System.nanoTime();
+        long bytes = 0;
+        boolean ok = false;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(insertSQL);
+             PreparedStatement update = connection.prepareStatement(updateSQL);
+             PreparedStatement touch = connection.prepareStatement(touchSQL)) {
+            int inserts = 0, updates = 0, touches = 0;
+            for (ImportRow r : rows) {
+                FileChangeWatcher.Fingerprint fp = r.fingerprint;
+                if (r.content == null) {
+                    touch.setLong(1, fp.size);
+                    touch.setLong(2, fp.modified);
+                    touch.setLong(3, fp.hash);
+                    touch.setLong(4, r.id);
+                    touch.addBatch();
+                    if (++touches % batchSize == 0)
+                        touch.executeBatch();
+                } else if (r.id == null) {
+                    insert.setString(1, r.filename);
+                    insert.setString(2, r.filepath);
+                    insert.setString(3, r.content);
+                    insert.setLong(4, fp.size);
+                    insert.setLong(5, fp.modified);
+                    insert.setLong(6, fp.hash);
+                    insert.addBatch();
+                    if (++inserts % batchSize == 0)
+                        insert.executeBatch();
+                } else {
+                    update.setString(1, r.content);
+                    update.setLong(2, fp.size);
+                    update.setLong(3, fp.modified);
+                    update.setLong(4, fp.hash);
+                    update.setLong(5, r.id);
+                    update.addBatch();
+                    if (++updates % batchSize == 0)
+                        update.executeBatch();
+                }
+                bytes += Metrics.textBytes(r.content);
+            }
+            if (inserts % batchSize != 0)
+                insert.executeBatch();
+            if (updates % batchSize != 0)
+                update.executeBatch();
+            if (touches % batchSize != 0)
+                touch.executeBatch();
+            connection.commit();
+            ok = true;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            Metrics.DB_IMPORT.done(t0, bytes, ok);
+        }
+        if (index != null) {
+            for (ImportRow r : rows) {
+                if (r.content != null)
+                    index.update(r.filename, r.filepath, r.content);
+            }
+        }
+    }
+
+    // ---------- SYNC ----------
+
+    // Streams the given rows (at most 1000, Oracle's IN list limit) in no particular order
+    public synchronized void fetchFiles(List<Long> ids, RowConsumer consumer) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        if (ids.isEmpty())
+            return;
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < ids.size(); i++)
+            in.append(i == 0 ? "?" : ", ?");
+        String sql = "SELECT id, filename, filepath, content, last_modified FROM files WHERE id IN (" + in + ")";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 0; i < ids.size(); i++)
+                stmt.setLong(i + 1, ids.get(i));
+            stmt.setFetchSize(50);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (!consumer.accept(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getTimestamp(5)))
+                        return;
+                }
+            }
+        }
+    }
+
+    // Like importFiles, but a row with an id is only written if it has not been saved since
+    // readModified, and every row written is marked as matching its file (synced_at). A row without
+    // content just records the fingerprint of a file that now holds what the row holds. Returns, per
+    // row, whether it was written; false means it changed in the database meanwhile.
+    public synchronized boolean[] syncFiles(List<ImportRow> rows, int batchSize) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        boolean[] written = new boolean[rows.size()];
+        if (rows.isEmpty())
+            return written;
+        String insertSQL = """
+            INSERT INTO files (filename, filepath, content, last_modified, synced_at, source_size, source_modified, content_hash)
+            VALUES (?, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, ?, ?, ?)""";
+        String updateSQL = """
+            UPDATE files
+            SET content = ?, last_modified = CURRENT_TIMESTAMP, synced_at = CURRENT_TIMESTAMP,
+                source_size = ?, source_modified = ?, content_hash = ?
+            WHERE id = ? AND NVL(last_modified, TIMESTAMP '0001-01-01 00:00:00') = ?""";
+        String recordSQL = """
+            UPDATE files
+            SET synced_at = NVL(last_modified, TIMESTAMP '0001-01-01 00:00:00'),
+                source_size = ?, source_modified = ?, content_hash = ?
+            WHERE id = ? AND NVL(last_modified, TIMESTAMP '0001-01-01 00:00:00') = ?""";
+
+        long t0 = System.nanoTime();
+        long bytes = 0;
+        boolean ok = false;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(insertSQL);
+             PreparedStatement update = connection.prepareStatement(updateSQL);
+             PreparedStatement record = connection.prepareStatement(recordSQL)) {
+            // Positions in rows of what each statement has batched, to map update counts back
+            List<Integer> inserts = new ArrayList<>(), updates = new ArrayList<>(), records = new ArrayList<>();
+            for (int i = 0; i < rows.size(); i++) {
+                ImportRow r = rows.get(i);
+                FileChangeWatcher.Fingerprint fp = r.fingerprint;
+                Timestamp read = r.readModified != null ? r.readModified : NO_TIMESTAMP;
+                if (r.content == null) {
+                    record.setLong(1, fp.size);
+                    record.setLong(2, fp.modified);
+                    record.setLong(3, fp.hash);
+                    record.setLong(4, r.id);
+                    record.setTimestamp(5, read);
+                    record.addBatch();
+                    records.add(i);
+                    if (records.size() % batchSize == 0)
+                        collectCounts(record.executeBatch(), records, written);
+                } else if (r.id == null) {
+                    insert.setString(1, r.filename);
+                    insert.setString(2, r.filepath);
+                    insert.setString(3, r.content);
+                    insert.setLong(4, fp.size);
+                    insert.setLong(5, fp.modified);
+                    insert.setLong(6, fp.hash);
+                    insert.addBatch();
+                    inserts.add(i);
+                    if (inserts.size() % batchSize == 0)
+                        collectCounts(insert.executeBatch(), inserts, written);
+                } else {
+                    update.setString(1, r.content);
+                    update.setLong(2, fp.size);
+                    update.setLong(3, fp.modified);
+                    update.setLong(4, fp.hash);
+                    update.setLong(5, r.id);
+                    update.setTimestamp(6, read);
+                    update.addBatch();
+                    updates.add(i);
+                    if (updates.size() % batchSize == 0)
+                        collectCounts(update.executeBatch(), updates, written);
+                }
+                bytes += Metrics.textBytes(r.content);
+            }
+            if (inserts.size() % batchSize != 0)
+                collectCounts(insert.executeBatch(), inserts, written);
+            if (updates.size() % batchSize != 0)
+                collectCounts(update.executeBatch(), updates, written);
+            if (records.size() % batchSize != 0)
+                collectCounts(record.executeBatch(), records, written);
+            connection.commit();
+            ok = true;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            Metrics.DB_SYNC.done(t0, bytes, ok);
+        }
+        if (index != null) {
+            for (int i = 0; i < written.length; i++) {
+                ImportRow r = rows.get(i);
+                if (written[i] && r.content != null)
+                    index.update(r.filename, r.filepath, r.content);
+            }
+        }
+        return written;
+    }
+
+    // The counts of the last executeBatch belong to the last counts.length positions batched
+    private static void collectCounts(int[] counts, List<Integer> batched, boolean[] written) {
+        int from = batched.size() - counts.length;
+        for (int i = 0; i < counts.length; i++)
+            written[batched.get(from + i)] = counts[i] != 0; // SUCCESS_NO_INFO (-2) counts as written
+    }
+
+    // ---------- PAGED METADATA (Database Manager) ----------
+
+    public synchronized int countFiles(String filter) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        String sql = "SELECT COUNT(*) FROM files" + (filter.isEmpty() ? "" : " WHERE " + FILTER_SQL);
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            if (!filter.isEmpty())
+                bindFilter(stmt, 1, filter);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    public synchronized int countFilesAfter(long afterId) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT COUNT(*) FROM files WHERE id > ?")) {
+            stmt.setLong(1, afterId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    // Up to limit rows in the query's order. With after set, the rows that follow it (keyset:
+    // key > ? OR (key = ? AND id > ?), which the (key, id) indexes answer without counting);
+    // otherwise the rows from offset on.
+    public synchronized List<FileTableModel.Row> getFilePage(FileTableModel.Query q, FileTableModel.Row after,
+                                                            long offset, int limit) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        String key = sortKey(q.sort);
+        String cmp = q.ascending ? ">" : "<";
+        String dir = q.ascending ? " ASC" : " DESC";
+        StringBuilder sql = new StringBuilder("""
+            SELECT id, filename, filepath, DBMS_LOB.GETLENGTH(content) AS chars, last_modified
+            FROM files
+            WHERE 1 = 1""");
+        if (!q.filter.isEmpty())
+            sql.append(" AND (").append(FILTER_SQL).append(')');
+        if (after != null) {
+            if (q.sort == FileTableModel.Column.ID)
+                sql.append(" AND id ").append(cmp).append(" ?");
+            else
+                sql.append(" AND (").append(key).append(' ').append(cmp).append(" ? OR (")
+                        .append(key).append(" = ? AND id ").append(cmp).append(" ?))");
+        }
+        sql.append(" ORDER BY ").append(key).append(dir);
+        if (q.sort != FileTableModel.Column.ID)
+            sql.append(", id").append(dir);
+        if (offset > 0)
+            sql.append(" OFFSET ? ROWS");
+        sql.append(" FETCH ").append(offset > 0 ? "NEXT" : "FIRST").append(" ? ROWS ONLY");
+
+        long t0 = System.nanoTime();
+        boolean ok = false;
+        List<FileTableModel.Row> rows = new ArrayList<>(limit);
+        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+            int p = 1;
+            if (!q.filter.isEmpty())
+                p = bindFilter(stmt, p, q.filter);
+            if (after != null) {
+                Object k = after.key(q.sort);
+                stmt.setObject(p++, k);
+                if (q.sort != FileTableModel.Column.ID) {
+                    stmt.setObject(p++, k);
+                    stmt.setLong(p++, after.id);
+                }
+            }
+            if (offset > 0)
+                stmt.setLong(p++, offset);
+            stmt.setInt(p, limit);
+            stmt.setFetchSize(limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next())
+                    rows.add(new FileTableModel.Row(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getLong(4), rs.getTimestamp(5)));
+            }
+            ok = true;
+        } finally {
+            Metrics.DB_PAGE.done(t0, 0, ok);
+        }
+        return rows;
+    }
+
+    // The start of a file's content, for a preview (DBMS_LOB.SUBSTR is limited to 4000 bytes in SQL)
+    public synchronized String getContentPreview(long id, int chars) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT DBMS_LOB.SUBSTR(content, ?, 1) FROM files WHERE id = ?")) {
+            stmt.setInt(1, Math.min(chars, 1000));
+            stmt.setLong(2, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    // A file's metadata by name and path (the full-text index knows files by those), or null
+    public synchronized FileTableModel.Row findFile(String filename, String filepath) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        String sql = """
+            SELECT id, filename, filepath, DBMS_LOB.GETLENGTH(content) AS chars, last_modified
+            FROM files
+            WHERE filename = ? AND filepath = ?""";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, filename);
+            stmt.setString(2, filepath);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new FileTableModel.Row(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getLong(4), rs.getTimestamp(5)) : null;
+            }
+        }
+    }
+
+    // Hands every file to the consumer one row at a time, for building the full-text index without
+    // holding all contents in memory
+    public void forEachFile(FileIndex.FileConsumer consumer) throws SQLException {
+        forEachFileRow(null, (id, filename, filepath, content, lastModified) -> {
+            consumer.accept(filename, filepath, content);
+            return true;
+        });
+    }
+
+    // Called for each row streamed by forEachFileRow; false stops the scan. May call back into this
+    // DatabaseManager (the lock is not held while it runs).
+    interface RowConsumer {
+        boolean accept(long id, String filename, String filepath, String content, Timestamp lastModified) throws SQLException;
+    }
+
+    // Rows forEachFileRow reads per query
+    private static final int SCAN_PAGE = 50;
+
+    // One row of a forEachFileRow page
+    private static final class ScannedRow {
+        final long id;
+        final String filename, filepath, content;
+        final Timestamp lastModified;
+
+        ScannedRow(long id, String filename, String filepath, String content, Timestamp lastModified) {
+            this.id = id;
+            this.filename = filename;
+            this.filepath = filepath;
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+
+    // Streams the files' contents without holding more than a page of them. With containing set,
+    // only rows whose content has that text in it (exactly, case included) are read.
+    public void forEachFileRow(String containing, RowConsumer consumer) throws SQLException {
+        forEachFileRow(containing, 0, consumer);
+    }
+
+    // The same, in id order and starting after afterId (where an interrupted export left off). Each
+    // page is a query of its own (keyset: id > the last one handed over), and the lock is only held
+    // while it is read, so a save or lookup from the EDT waits for one page rather than the whole scan.
+    public void forEachFileRow(String containing, long afterId, RowConsumer consumer) throws SQLException {
+        String sql = "SELECT id, filename, filepath, content, last_modified FROM files WHERE id > ?"
+                + (containing != null ? " AND DBMS_LOB.INSTR(content, ?) > 0" : "")
+                + " ORDER BY id FETCH FIRST " + SCAN_PAGE + " ROWS ONLY";
+        for (long after = afterId; ; ) {
+            List<ScannedRow> page = scanPage(sql, containing, after);
+            for (ScannedRow r : page) {
+                if (!consumer.accept(r.id, r.filename, r.filepath, r.content, r.lastModified))
+                    return;
+            }
+            if (page.size() < SCAN_PAGE)
+                return;
+            after = page.get(page.size() - 1).id;
+        }
+    }
+
+    private synchronized List<ScannedRow> scanPage(String sql, String containing, long afterId) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        List<ScannedRow> page = new ArrayList<>(SCAN_PAGE);
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, afterId);
+            if (containing != null)
+                stmt.setString(2, containing);
+            stmt.setFetchSize(SCAN_PAGE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next())
+                    page.add(new ScannedRow(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getTimestamp(5)));
+            }
+        }
+        return page;
+    }
+
+    // New content for a row, written only if the row has not been saved since it was read
+    static final class ContentUpdate {
+        final long id;
+        final String filename, filepath, content;
+        final Timestamp readModified;
+
+        ContentUpdate(long id, String filename, String filepath, String content, Timestamp readModified) {
+            this.id = id;
+            this.filename = filename;
+            this.filepath = filepath;
+            this.content = content;
+            this.readModified = readModified;
+        }
+    }
+
+    // Writes the updates in one transaction of batched UPDATEs. Returns, per update, whether it was
+    // written; false means the row changed (or went away) after it was read, and it is left alone.
+    public synchronized boolean[] replaceContents(List<ContentUpdate> updates) throws SQLException {
+        if (connection == null)
+            throw new SQLException("Not connected to the database");
+        String sql = """
+            UPDATE files
+            SET content = ?, last_modified = CURRENT_TIMESTAMP
+            WHERE id = ? AND NVL(last_modified, TIMESTAMP '0001-01-01 00:00:00') = ?""";
+        long t0 = System.nanoTime();
+        long bytes = 0;
+        boolean ok = false;
+        boolean[] written = new boolean[updates.size()];
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (ContentUpdate u : updates) {
+                    stmt.setString(1, u.content);
+                    stmt.setLong(2, u.id);
+                    stmt.setTimestamp(3, u.readModified != null ? u.readModified : NO_TIMESTAMP);
+                    stmt.addBatch();
+                    bytes += Metrics.textBytes(u.content);
+                }
+                int[] counts = stmt.executeBatch();
+                for (int i = 0; i < counts.length; i++)
+                    written[i] = counts[i] != 0; // SUCCESS_NO_INFO (-2) from older drivers counts as written
+            }
+            connection.commit();
+            ok = true;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            Metrics.DB_REPLACE.done(t0, bytes, ok);
+        }
+        if (index != null) {
+            for (int i = 0; i < written.length; i++) {
+                if (written[i])
+                    index.update(updates.get(i).filename, updates.get(i).filepath, updates.get(i).content);
+            }
+        }
+        return written;
+    }
+
+    // A case-insensitive substring of the name or path; the two LIKE patterns are bound by bindFilter
+    private static final String FILTER_SQL = "LOWER(filename) LIKE ? ESCAPE '\\' OR LOWER(filepath) LIKE ? ESCAPE '\\'";
+
+    private static int bindFilter(PreparedStatement stmt, int p, String filter) throws SQLException {
+        String like = "%" + filter.toLowerCase().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        stmt.setString(p++, like);
+        stmt.setString(p++, like);
+        return p;
+    }
+
+    private static String sortKey(FileTableModel.Column c) {
+        switch (c) {
+            case ID: return "id";
+            case FILENAME: return "filename";
+            case PATH: return "filepath";
+            case SIZE: return "DBMS_LOB.GETLENGTH(content)";
+            default: return "NVL(last_modified, TIMESTAMP '0001-01-01 00:00:00')";
+        }
+    }
+
+    boolean isConnected() {
+        return connection != null;
+    }
+
+    public void closeConnection() {
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error closing database connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,223 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Find and replace across every file in the database. Rows are streamed from DatabaseManager and
+// the replacing done on a pool of threads, a bounded number of rows at a time; changed files are
+// written back in batched transactions by the streaming thread as results come in. A row saved
+// again after it was read is not overwritten but reported as a conflict. A dry run only counts the
+// matches per file. For a literal that matches case, the database itself picks the rows that
+// contain it, so files without it are never transferred.
+class DatabaseReplacer extends BulkWorker<DatabaseReplacer.FileResult> {
+    // Rows per transaction, -Deditor.replaceBatchSize=...; a batch is also cut at BATCH_BYTES
+    static final int BATCH_SIZE = Math.min(1000, Integer.getInteger("editor.replaceBatchSize", 100));
+    private static final long BATCH_BYTES = 32L << 20;
+
+    enum Status { PREVIEW, REPLACED, CONFLICT }
+
+    // A file with matches
+    static final class FileResult {
+        final long id;
+        final String filename, filepath;
+        final int matches;
+        final Status status;
+
+        FileResult(long id, String filename, String filepath, int matches, Status status) {
+            this.id = id;
+            this.filename = filename;
+            this.filepath = filepath;
+            this.matches = matches;
+            this.status = status;
+        }
+    }
+
+    // Called on the EDT
+    interface Listener extends BulkWorker.Listener {
+        void found(List<FileResult> files);
+    }
+
+    // One row after replacing, on its way from a pool thread to the writer
+    private static final class Change {
+        final long id;
+        final String filename, filepath;
+        final Timestamp lastModified;
+        final int matches;
+        final String content; // null in a dry run or without matches
+
+        Change(long id, String filename, String filepath, Timestamp lastModified, int matches, String content) {
+            this.id = id;
+            this.filename = filename;
+            this.filepath = filepath;
+            this.lastModified = lastModified;
+            this.matches = matches;
+            this.content = content;
+        }
+    }
+
+    private final DatabaseManager dbManager;
+    private final String find, replace;
+    private final Pattern pattern; // null for a literal that matches case
+    private final String replacement;
+    private final boolean dryRun;
+    private final Listener listener;
+    private final int threads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicInteger rowsScanned = new AtomicInteger();
+    private final AtomicInteger filesMatched = new AtomicInteger();
+    private final AtomicLong matchCount = new AtomicLong();
+    private final AtomicInteger filesWritten = new AtomicInteger();
+    private final AtomicInteger conflicts = new AtomicInteger();
+    private final AtomicLong charsScanned = new AtomicLong();
+
+    // Used by the streaming thread only
+    private final List<DatabaseManager.ContentUpdate> batch = new ArrayList<>();
+    private final List<Change> batchChanges = new ArrayList<>();
+    private long batchChars;
+
+    // regex: find is a java.util.regex pattern and replace may refer to its groups ($1); otherwise
+    // both are taken literally. Throws PatternSyntaxException for a bad pattern.
+    DatabaseReplacer(DatabaseManager dbManager, String find, String replace, boolean regex, boolean matchCase,
+                     boolean dryRun, Listener listener) {
+        super(listener);
+        this.dbManager = dbManager;
+        this.find = find;
+        this.replace = replace;
+        this.dryRun = dryRun;
+        this.listener = listener;
+        int flags = matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        this.pattern = regex ? Pattern.compile(find, flags) : matchCase ? null : Pattern.compile(Pattern.quote(find), flags);
+        this.replacement = regex ? replace : Matcher.quoteReplacement(replace);
+    }
+
+    public boolean isDryRun() { return dryRun; }
+    public int getThreads() { return threads; }
+    public int getRowsScanned() { return rowsScanned.get(); }
+    public int getFilesMatched() { return filesMatched.get(); }
+    public long getMatchCount() { return matchCount.get(); }
+    public int getFilesWritten() { return filesWritten.get(); }
+    public int getConflicts() { return conflicts.get(); }
+    public long getCharsScanned() { return charsScanned.get(); }
+
+    protected void work() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "db-replace");
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<Change> results = new ExecutorCompletionService<>(pool);
+        // Rows handed out but not yet written or counted; bounds the contents held in memory
+        Semaphore inFlight = new Semaphore(threads * 2);
+        int[] submitted = {0};
+        int[] received = {0};
+        try {
+            dbManager.forEachFileRow(pattern == null ? find : null, (id, filename, filepath, content, lastModified) -> {
+                if (isCancelled())
+                    return false;
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                results.submit(() -> {
+                    try {
+                        return apply(id, filename, filepath, content, lastModified);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+                submitted[0]++;
+                Future<Change> f;
+                while ((f = results.poll()) != null) {
+                    received[0]++;
+                    collect(f);
+                }
+                return true;
+            });
+            while (received[0] < submitted[0] && !isCancelled()) {
+                received[0]++;
+                collect(results.take());
+            }
+            if (!isCancelled())
+                flush();
+        } catch (SQLException e) {
+            setError("Database error: " + e.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Change apply(long id, String filename, String filepath, String content, Timestamp lastModified) {
+        rowsScanned.incrementAndGet();
+        charsScanned.addAndGet(content.length());
+        int matches;
+        String replaced = null;
+        if (pattern == null) {
+            matches = TextBuffer.countMatches(content, find);
+            if (matches > 0 && !dryRun)
+                replaced = TextBuffer.replaceAll(content, find, replace);
+        } else {
+            Matcher m = pattern.matcher(content);
+            matches = 0;
+            StringBuilder sb = dryRun ? null : new StringBuilder(content.length());
+            while (m.find()) {
+                matches++;
+                if (sb != null)
+                    m.appendReplacement(sb, replacement);
+            }
+            if (sb != null && matches > 0) {
+                m.appendTail(sb);
+                replaced = sb.toString();
+            }
+        }
+        return new Change(id, filename, filepath, lastModified, matches, replaced);
+    }
+
+    private void collect(Future<Change> f) throws SQLException {
+        Change c;
+        try {
+            c = f.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new SQLException("Replacing failed: " + e.getMessage(), e);
+        }
+        if (c.matches == 0)
+            return;
+        filesMatched.incrementAndGet();
+        matchCount.addAndGet(c.matches);
+        if (dryRun || c.content == null) {
+            publish(new FileResult(c.id, c.filename, c.filepath, c.matches, Status.PREVIEW));
+            return;
+        }
+        batch.add(new DatabaseManager.ContentUpdate(c.id, c.filename, c.filepath, c.content, c.lastModified));
+        batchChanges.add(c);
+        batchChars += c.content.length();
+        if (batch.size() >= BATCH_SIZE || 2 * batchChars >= BATCH_BYTES)
+            flush();
+    }
+
+    private void flush() throws SQLException {
+        if (batch.isEmpty())
+            return;
+        boolean[] written = dbManager.replaceContents(batch);
+        List<FileResult> done = new ArrayList<>(written.length);
+        for (int i = 0; i < written.length; i++) {
+            Change c = batchChanges.get(i);
+            (written[i] ? filesWritten : conflicts).incrementAndGet();
+            done.add(new FileResult(c.id, c.filename, c.filepath, c.matches, written[i] ? Status.REPLACED : Status.CONFLICT));
+        }
+        publish(done.toArray(new FileResult[0]));
+        batch.clear();
+        batchChanges.clear();
+        batchChars = 0;
+    }
+
+    protected void process(List<FileResult> chunks) {
+        if (!isCancelled())
+            listener.found(chunks);
+    }
+}
@@ -0,0 +1,246 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Side-by-side view of a LineDiff.diffLines result: old text on the left, new on the right. Runs of
+// unchanged lines are cut down to CONTEXT lines next to each change, the rest folded into one row
+// that expands when clicked. The view keeps only its segments (one per hunk or unchanged run) and row offsets for
+// them; painting looks up the segment of the first row in the clip and draws just the rows and
+// columns that are visible, so a diff of two 100 MB texts scrolls like a small one.
+class DiffView extends JComponent implements Scrollable {
+    // Unchanged lines shown before and after each change
+    static final int CONTEXT = 3;
+
+    private static final Color REMOVED = new Color(255, 220, 220);
+    private static final Color ADDED = new Color(215, 250, 215);
+    private static final Color CHANGED = new Color(255, 245, 200);
+    private static final Color FOLD = new Color(232, 236, 244);
+    private static final Color GUTTER = new Color(245, 245, 245);
+    private static final Color GUTTER_TEXT = new Color(140, 140, 140);
+    private static final int TAB_WIDTH = 4;
+
+    private enum Kind { SAME, CHANGE, FOLD }
+
+    // Lines [aLine, aLine + aCount) of the old text beside [bLine, bLine + bCount) of the new one
+    private static final class Segment {
+        Kind kind;
+        final int aLine, aCount, bLine, bCount;
+
+        Segment(Kind kind, int aLine, int aCount, int bLine, int bCount) {
+            this.kind = kind;
+            this.aLine = aLine;
+            this.aCount = aCount;
+            this.bLine = bLine;
+            this.bCount = bCount;
+        }
+
+        int rows() {
+            return kind == Kind.FOLD ? 1 : Math.max(aCount, bCount);
+        }
+    }
+
+    private final String a, b;
+    private final int[] aLines, bLines;
+    private final List<Segment> segments = new ArrayList<>();
+    private int[] rowStart; // first row of each segment, and the row count at the end
+    private final int[] changeSegments; // indexes of the CHANGE segments
+    private int lineHeight, ascent, charWidth, gutterWidth;
+
+    DiffView(String a, int[] aLines, String b, int[] bLines, List<LineDiff.LineHunk> hunks) {
+        this.a = a;
+        this.b = b;
+        this.aLines = aLines;
+        this.bLines = bLines;
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        setForeground(Color.BLACK);
+
+        int ai = 0, bi = 0;
+        List<Integer> changes = new ArrayList<>();
+        for (LineDiff.LineHunk h : hunks) {
+            addUnchanged(ai, bi, h.oldLine - ai, ai == 0, false);
+            changes.add(segments.size());
+            segments.add(new Segment(Kind.CHANGE, h.oldLine, h.oldCount, h.newLine, h.newCount));
+            ai = h.oldLine + h.oldCount;
+            bi = h.newLine + h.newCount;
+        }
+        addUnchanged(ai, bi, aLines.length - 1 - ai, ai == 0, true);
+        changeSegments = changes.stream().mapToInt(Integer::intValue).toArray();
+        layoutRows();
+
+        addMouseListener(new MouseAdapter() {
+            public void mouseClicked(MouseEvent e) {
+                expandAt(e.getY() / lineHeight);
+            }
+        });
+    }
+
+    // Unchanged lines, with CONTEXT lines kept next to each change and the rest folded
+    private void addUnchanged(int ai, int bi, int count, boolean atStart, boolean atEnd) {
+        int head = atStart ? 0 : CONTEXT, tail = atEnd ? 0 : CONTEXT;
+        if (count <= head + tail + 1) {
+            if (count > 0)
+                segments.add(new Segment(Kind.SAME, ai, count, bi, count));
+            return;
+        }
+        if (head > 0)
+            segments.add(new Segment(Kind.SAME, ai, head, bi, head));
+        int folded = count - head - tail;
+        segments.add(new Segment(Kind.FOLD, ai + head, folded, bi + head, folded));
+        if (tail > 0)
+            segments.add(new Segment(Kind.SAME, ai + head + folded, tail, bi + head + folded, tail));
+    }
+
+    private void layoutRows() {
+        rowStart = new int[segments.size() + 1];
+        long rows = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            rowStart[i] = (int) Math.min(rows, Integer.MAX_VALUE);
+            rows += segments.get(i).rows();
+        }
+        rowStart[segments.size()] = (int) Math.min(rows, Integer.MAX_VALUE);
+    }
+
+    public void setFont(Font font) {
+        super.setFont(font);
+        FontMetrics fm = getFontMetrics(font);
+        lineHeight = fm.getHeight();
+        ascent = fm.getAscent();
+        charWidth = Math.max(1, fm.charWidth('m'));
+        revalidate();
+        repaint();
+    }
+
+    int getChangeCount() {
+        return changeSegments.length;
+    }
+
+    // Scrolls the nth change near the top of the viewport
+    void showChange(int change) {
+        int y = rowStart[changeSegments[change]] * lineHeight;
+        Rectangle visible = getVisibleRect();
+        scrollRectToVisible(new Rectangle(0, Math.max(0, y - CONTEXT * lineHeight), 1, visible.height));
+    }
+
+    private int segmentAt(int row) {
+        int i = Arrays.binarySearch(rowStart, 0, segments.size(), row);
+        return Math.max(0, i < 0 ? -i - 2 : i);
+    }
+
+    private void expandAt(int row) {
+        if (row >= rowStart[segments.size()])
+            return;
+        Segment s = segments.get(segmentAt(row));
+        if (s.kind != Kind.FOLD)
+            return;
+        s.kind = Kind.SAME;
+        layoutRows();
+        revalidate();
+        repaint();
+    }
+
+    private int digits() {
+        return Integer.toString(Math.max(aLines.length, bLines.length)).length();
+    }
+
+    public Dimension getPreferredSize() {
+        gutterWidth = (digits() + 2) * charWidth;
+        long height = (long) rowStart[segments.size()] * lineHeight;
+        return new Dimension(2 * (gutterWidth + 80 * charWidth), (int) Math.min(height, Integer.MAX_VALUE - lineHeight));
+    }
+
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setFont(getFont());
+        gutterWidth = (digits() + 2) * charWidth;
+        int half = getWidth() / 2;
+        int totalRows = rowStart[segments.size()];
+        int first = Math.max(0, clip.y / lineHeight);
+        int last = Math.min(totalRows - 1, (clip.y + clip.height) / lineHeight);
+        int columns = Math.max(1, (half - gutterWidth) / charWidth + 1);
+        char[] buf = new char[columns];
+
+        int seg = first <= last ? segmentAt(first) : segments.size();
+        for (int row = first; row <= last && seg < segments.size(); row++) {
+            while (seg + 1 < segments.size() && rowStart[seg + 1] <= row)
+                seg++;
+            Segment s = segments.get(seg);
+            int y = row * lineHeight;
+            int offset = row - rowStart[seg];
+            if (s.kind == Kind.FOLD) {
+                g.setColor(FOLD);
+                g.fillRect(0, y, getWidth(), lineHeight);
+                g.setColor(GUTTER_TEXT);
+                g.drawString("⋯ " + s.aCount + " unchanged line" + (s.aCount == 1 ? "" : "s") + " (click to show)",
+                        gutterWidth, y + ascent);
+                continue;
+            }
+            boolean hasA = offset < s.aCount, hasB = offset < s.bCount;
+            Color aColor = null, bColor = null;
+            if (s.kind == Kind.CHANGE) {
+                aColor = hasA ? (s.bCount == 0 || !hasB ? REMOVED : CHANGED) : FOLD;
+                bColor = hasB ? (s.aCount == 0 || !hasA ? ADDED : CHANGED) : FOLD;
+            }
+            paintSide(g, 0, half, y, hasA ? s.aLine + offset : -1, a, aLines, aColor, buf);
+            paintSide(g, half, half, y, hasB ? s.bLine + offset : -1, b, bLines, bColor, buf);
+        }
+        g.setColor(Color.LIGHT_GRAY);
+        g.drawLine(half - 1, clip.y, half - 1, clip.y + clip.height);
+    }
+
+    private void paintSide(Graphics g, int x, int width, int y, int line, String text, int[] lines, Color background, char[] buf) {
+        g.setColor(GUTTER);
+        g.fillRect(x, y, gutterWidth, lineHeight);
+        if (background != null) {
+            g.setColor(background);
+            g.fillRect(x + gutterWidth, y, width - gutterWidth, lineHeight);
+        }
+        if (line < 0)
+            return;
+        g.setColor(GUTTER_TEXT);
+        String number = Integer.toString(line + 1);
+        g.drawString(number, x + gutterWidth - (number.length() + 1) * charWidth, y + ascent);
+
+        // Only the columns that fit; tabs expanded, line breaks left out
+        int n = 0;
+        for (int i = lines[line], end = lines[line + 1]; i < end && n < buf.length; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r')
+                continue;
+            if (c == '\t') {
+                do buf[n++] = ' '; while (n % TAB_WIDTH != 0 && n < buf.length);
+            } else {
+                buf[n++] = c;
+            }
+        }
+        g.setColor(getForeground());
+        g.drawChars(buf, 0, n, x + gutterWidth, y + ascent);
+    }
+
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(1000, 600);
+    }
+
+    public int getScrollableUnitIncrement(Rectangle visible, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? lineHeight : charWidth;
+    }
+
+    public int getScrollableBlockIncrement(Rectangle visible, int orientation, int direction) {
+        return orientation == SwingConstants.VERTICAL ? Math.max(lineHeight, visible.height - lineHeight) : visible.width;
+    }
+
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+}
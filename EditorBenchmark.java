@@ -0,0 +1,528 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.List;
+
+// Micro-benchmarks for the editor's hot paths. Follows the JMH model (warmup and measurement
+// iterations, average time per operation, a sink to defeat dead-code elimination) and writes
+// results in JMH's JSON layout so runs can be diffed between versions.
+//
+//   javac -encoding UTF-8 TextEditor.java EditorBenchmark.java
+//   java -Xmx8g EditorBenchmark --sizes 1K,1M,64M --out bench-results.json
+public class EditorBenchmark {
+
+    private static final long[] DEFAULT_SIZES = {
+        1L << 10, 64L << 10, 1L << 20, 16L << 20, 256L << 20, 1L << 30
+    };
+    private static final String[] WORDS = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel",
+        "india", "juliet", "kilo", "lima", "mike", "november", "oscar", "papa"
+    };
+    private static final String NEEDLE = "zulu-needle";
+
+    private static volatile long sink;
+
+    private int warmupIterations = 2;
+    private int measurementIterations = 5;
+    private long iterationMillis = 500;
+    private long[] sizes = DEFAULT_SIZES;
+    private Set<String> only = new HashSet<>();
+    private File out = new File("bench-results.json");
+    private final List<Result> results = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        EditorBenchmark bench = new EditorBenchmark();
+        bench.parseArgs(args);
+        bench.runAll();
+        bench.writeJson();
+        System.out.println("Results written to " + bench.out.getAbsolutePath());
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--sizes":
+                    String[] parts = args[++i].split(",");
+                    sizes = new long[parts.length];
+                    for (int p = 0; p < parts.length; p++)
+                        sizes[p] = parseSize(parts[p].trim());
+                    break;
+                case "--bench":
+                    only = new HashSet<>(Arrays.asList(args[++i].split(",")));
+                    break;
+                case "--warmup":
+                    warmupIterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    measurementIterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--time":
+                    iterationMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--out":
+                    out = new File(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.err.println("Usage: EditorBenchmark [--sizes 1K,1M,1G] [--bench names] "
+                            + "[--warmup n] [--iterations n] [--time ms] [--out file.json]");
+                    System.exit(2);
+            }
+        }
+    }
+
+    static long parseSize(String s) {
+        String u = s.toUpperCase(Locale.ROOT);
+        long mult = 1;
+        if (u.endsWith("K")) mult = 1L << 10;
+        else if (u.endsWith("M")) mult = 1L << 20;
+        else if (u.endsWith("G")) mult = 1L << 30;
+        if (mult > 1) u = u.substring(0, u.length() - 1);
+        return Long.parseLong(u) * mult;
+    }
+
+    static String formatSize(long size) {
+        if (size >= 1L << 30 && size % (1L << 30) == 0) return (size >> 30) + "G";
+        if (size >= 1L << 20 && size % (1L << 20) == 0) return (size >> 20) + "M";
+        if (size >= 1L << 10 && size % (1L << 10) == 0) return (size >> 10) + "K";
+        return String.valueOf(size);
+    }
+
+    // ---------- BENCHMARKS ----------
+    private void runAll() throws Exception {
+        for (long size : sizes) {
+            // getText() copies plus the document's own char[] need several times the raw size
+            if (size * 8 > Runtime.getRuntime().maxMemory()) {
+                System.out.println("Skipping " + formatSize(size) + ": needs about " + (size * 8 >> 20)
+                        + " MB heap, have " + (Runtime.getRuntime().maxMemory() >> 20) + " MB (raise -Xmx)");
+                continue;
+            }
+            String text = generateText(size);
+            runSize(size, text);
+            System.gc();
+        }
+    }
+
+    private void runSize(long size, String text) throws Exception {
+        JTextArea textArea = new JTextArea();
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        textArea.setText(text);
+
+        bench("updateStatus", size, () -> TextBuffer.countWords(textArea.getText()) + textArea.getText().length());
+
+        bench("findNext", size, () -> {
+            textArea.setCaretPosition(0);
+            return TextEditor.FindReplaceDialog.findNext(textArea, NEEDLE);
+        });
+
+        boolean[] flip = {false};
+        bench("replaceAll", size, () -> {
+            flip[0] = !flip[0];
+            if (flip[0])
+                TextEditor.FindReplaceDialog.replaceAll(textArea, "alpha", "omega");
+            else
+                TextEditor.FindReplaceDialog.replaceAll(textArea, "omega", "alpha");
+            return textArea.getDocument().getLength();
+        });
+
+        if (selected("gutterPaint")) {
+            Dimension pref = textArea.getPreferredSize();
+            textArea.setSize(pref);
+            TextEditor.LineNumberGutter gutter = new TextEditor.LineNumberGutter(textArea);
+            gutter.setSize(40, 700);
+            BufferedImage img = new BufferedImage(40, 700, BufferedImage.TYPE_INT_RGB);
+            bench("gutterPaint", size, () -> {
+                Graphics2D g = img.createGraphics();
+                try {
+                    g.setClip(0, 0, 40, 700);
+                    gutter.paintComponent(g);
+                } finally {
+                    g.dispose();
+                }
+                return img.getRGB(5, 5);
+            });
+        }
+
+        // Per-keystroke cost with syntax highlighting; at ~80 chars per line, 8M is about 100k lines.
+        // Relexing stops once the lexer state converges, so this should not grow with the size.
+        if (selected("keystroke") || selected("highlightPaint")) {
+            JTextArea highlighted = new JTextArea();
+            highlighted.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+            highlighted.setText(text);
+            SyntaxHighlighter.forTextArea(highlighted).setLexer(SyntaxHighlighter.lexerFor("Bench.java"));
+            javax.swing.text.Document doc = highlighted.getDocument();
+            int middle = highlighted.getLineStartOffset(highlighted.getLineCount() / 2);
+            bench("keystroke", size, () -> {
+                doc.insertString(middle, "x", null);
+                doc.remove(middle, 1);
+                return doc.getLength();
+            });
+
+            highlighted.setSize(highlighted.getPreferredSize());
+            int y = (int) highlighted.modelToView2D(middle).getY();
+            BufferedImage img = new BufferedImage(800, 700, BufferedImage.TYPE_INT_RGB);
+            bench("highlightPaint", size, () -> {
+                Graphics2D g = img.createGraphics();
+                try {
+                    g.translate(0, -y);
+                    g.setClip(0, y, 800, 700);
+                    highlighted.paint(g);
+                } finally {
+                    g.dispose();
+                }
+                return img.getRGB(5, 5);
+            });
+        }
+
+        if (selected("openFile")) {
+            Path tmp = Files.createTempFile("editor-bench", ".txt");
+            try {
+                Files.writeString(tmp, text, StandardCharsets.UTF_8);
+                JTextArea target = new JTextArea();
+                // As the editor opens files: a FileLoader decodes in chunks and the EDT appends them
+                bench("openFile", size, () -> {
+                    target.setText("");
+                    IOException[] error = new IOException[1];
+                    FileLoader loader = new FileLoader(tmp.toFile(), new FileLoader.Listener() {
+                        public void loaded(String chunk, long bytesRead, long totalBytes) {
+                            target.append(chunk);
+                        }
+
+                        public void finished(FileChangeWatcher.Fingerprint fp, TextBuffer.Encoding encoding) {
+                        }
+
+                        public void failed(IOException e) {
+                            error[0] = e;
+                        }
+
+                        public void cancelled() {
+                        }
+                    });
+                    loader.run();
+                    SwingUtilities.invokeAndWait(() -> { }); // after the chunks queued to the EDT
+                    if (error[0] != null)
+                        throw error[0];
+                    return target.getDocument().getLength();
+                });
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        if (selected("dbSave") || selected("dbSaveBatch") || selected("dbList")) {
+            InMemoryJdbc db = new InMemoryJdbc();
+            DatabaseManager dbManager = new DatabaseManager(db.connection());
+            bench("dbSave", size, () -> {
+                dbManager.saveFileToDatabase("bench.txt", text, "/bench/bench.txt");
+                return db.rowCount();
+            });
+            // The same document saved as 16 rows in one batched transaction
+            List<DatabaseFile> batch = new ArrayList<>();
+            for (int i = 0; i < 16; i++)
+                batch.add(new DatabaseFile("batch" + i + ".txt", "/bench/batch" + i + ".txt", text, null));
+            bench("dbSaveBatch", size, () -> {
+                dbManager.saveFilesToDatabase(batch);
+                return db.rowCount();
+            });
+            // Keep the listed table around 64 MB of content regardless of document size
+            int rows = (int) Math.max(1, Math.min(100, (64L << 20) / size));
+            for (int i = 0; i < rows; i++)
+                dbManager.saveFileToDatabase("file" + i + ".txt", text, "/bench/file" + i + ".txt");
+            bench("dbList", size, () -> dbManager.getAllFiles().size());
+        }
+    }
+
+    private boolean selected(String name) {
+        return only.isEmpty() || only.contains(name);
+    }
+
+    interface Op {
+        Object run() throws Exception;
+    }
+
+    private void bench(String name, long size, Op op) throws Exception {
+        if (!selected(name))
+            return;
+        for (int i = 0; i < warmupIterations; i++)
+            iteration(op);
+        double[] scores = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++)
+            scores[i] = iteration(op);
+        Result r = new Result(name, size, scores);
+        results.add(r);
+        System.out.printf(Locale.ROOT, "%-14s %6s  %12.4f ms/op  +- %.4f%n",
+                name, formatSize(size), r.mean(), r.error());
+    }
+
+    // Runs the operation until the iteration time is used up (at least once); returns ms/op
+    private double iteration(Op op) throws Exception {
+        long budget = iterationMillis * 1_000_000L;
+        long start = System.nanoTime();
+        long ops = 0;
+        long elapsed;
+        do {
+            consume(op.run());
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < budget);
+        return elapsed / 1e6 / ops;
+    }
+
+    private static void consume(Object o) {
+        sink += o == null ? 0 : o.hashCode();
+    }
+
+    static String generateText(long size) {
+        StringBuilder sb = new StringBuilder((int) Math.min(size + 64, Integer.MAX_VALUE - 8));
+        long seed = 42;
+        int wordsOnLine = 0;
+        while (sb.length() < size) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            sb.append(WORDS[(int) ((seed >>> 33) % WORDS.length)]);
+            if (++wordsOnLine == 12) {
+                sb.append('\n');
+                wordsOnLine = 0;
+            } else {
+                sb.append(' ');
+            }
+        }
+        sb.setLength((int) size);
+        // One match near the end so find has to scan the whole document
+        int at = Math.max(0, sb.length() - NEEDLE.length() - 16);
+        if (sb.length() >= NEEDLE.length())
+            sb.replace(at, at + NEEDLE.length(), NEEDLE);
+        return sb.toString();
+    }
+
+    // ---------- RESULTS ----------
+    static class Result {
+        final String name;
+        final long size;
+        final double[] scores;
+
+        Result(String name, long size, double[] scores) {
+            this.name = name;
+            this.size = size;
+            this.scores = scores;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double s : scores) sum += s;
+            return sum / scores.length;
+        }
+
+        // Half-width of the 99.9% confidence interval (normal approximation)
+        double error() {
+            if (scores.length < 2) return Double.NaN;
+            double m = mean(), var = 0;
+            for (double s : scores) var += (s - m) * (s - m);
+            return 3.291 * Math.sqrt(var / (scores.length - 1)) / Math.sqrt(scores.length);
+        }
+    }
+
+    private void writeJson() throws IOException {
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8))) {
+            pw.println("[");
+            for (int i = 0; i < results.size(); i++) {
+                Result r = results.get(i);
+                double err = r.error();
+                pw.println("  {");
+                pw.println("    \"benchmark\": \"EditorBenchmark." + r.name + "\",");
+                pw.println("    \"mode\": \"avgt\",");
+                pw.println("    \"warmupIterations\": " + warmupIterations + ",");
+                pw.println("    \"measurementIterations\": " + measurementIterations + ",");
+                pw.println("    \"params\": { \"size\": \"" + formatSize(r.size) + "\" },");
+                pw.println("    \"primaryMetric\": {");
+                pw.println("      \"score\": " + num(r.mean()) + ",");
+                pw.println("      \"scoreError\": " + num(err) + ",");
+                pw.println("      \"scoreConfidence\": [ " + num(r.mean() - err) + ", " + num(r.mean() + err) + " ],");
+                pw.println("      \"scoreUnit\": \"ms/op\",");
+                StringBuilder raw = new StringBuilder();
+                for (double s : r.scores) {
+                    if (raw.length() > 0) raw.append(", ");
+                    raw.append(num(s));
+                }
+                pw.println("      \"rawData\": [ [ " + raw + " ] ]");
+                pw.println("    }");
+                pw.println("  }" + (i < results.size() - 1 ? "," : ""));
+            }
+            pw.println("]");
+        }
+    }
+
+    private static String num(double d) {
+        return Double.isNaN(d) || Double.isInfinite(d) ? "\"NaN\"" : String.format(Locale.ROOT, "%.6f", d);
+    }
+
+    // ---------- IN-PROCESS JDBC STAND-IN ----------
+    // Just enough of java.sql for DatabaseManager's statements against the FILES table,
+    // so database cost can be measured without an Oracle XE instance.
+    static class InMemoryJdbc {
+        private final List<Map<String, Object>> rows = new ArrayList<>();
+        private long nextId = 1;
+
+        synchronized int rowCount() {
+            return rows.size();
+        }
+
+        Connection connection() {
+            return proxy(Connection.class, (p, m, a) -> {
+                switch (m.getName()) {
+                    case "prepareStatement":
+                        return preparedStatement((String) a[0]);
+                    case "createStatement":
+                        return statement();
+                    case "isClosed":
+                    case "isReadOnly":
+                        return false;
+                    case "getAutoCommit":
+                    case "isValid":
+                        return true;
+                    default:
+                        return defaultValue(m.getReturnType());
+                }
+            });
+        }
+
+        private Statement statement() {
+            return proxy(Statement.class, (p, m, a) -> {
+                switch (m.getName()) {
+                    case "executeQuery":
+                        return resultSet(query(normalize((String) a[0]), Collections.emptyMap()));
+                    case "execute":
+                        return false;
+                    case "executeUpdate":
+                        return 0;
+                    default:
+                        return defaultValue(m.getReturnType());
+                }
+            });
+        }
+
+        private PreparedStatement preparedStatement(String sql) {
+            String norm = normalize(sql);
+            Map<Integer, Object> params = new HashMap<>();
+            List<Map<Integer, Object>> batch = new ArrayList<>();
+            return proxy(PreparedStatement.class, (p, m, a) -> {
+                String name = m.getName();
+                if (name.startsWith("set") && a != null && a.length >= 2 && a[0] instanceof Integer) {
+                    params.put((Integer) a[0], a[1]);
+                    return null;
+                }
+                switch (name) {
+                    case "executeUpdate":
+                        return update(norm, params);
+                    case "executeQuery":
+                        return resultSet(query(norm, params));
+                    case "clearParameters":
+                        params.clear();
+                        return null;
+                    case "addBatch":
+                        batch.add(new HashMap<>(params));
+                        return null;
+                    case "executeBatch":
+                        int[] counts = new int[batch.size()];
+                        for (int i = 0; i < counts.length; i++)
+                            counts[i] = update(norm, batch.get(i));
+                        batch.clear();
+                        return counts;
+                    default:
+                        return defaultValue(m.getReturnType());
+                }
+            });
+        }
+
+        private synchronized int update(String sql, Map<Integer, Object> params) {
+            if (sql.startsWith("UPDATE FILES SET CONTENT = ?")) {
+                int n = 0;
+                for (Map<String, Object> row : rows) {
+                    if (row.get("filename").equals(params.get(2)) && row.get("filepath").equals(params.get(3))) {
+                        row.put("content", params.get(1));
+                        row.put("last_modified", new Timestamp(System.currentTimeMillis()).toString());
+                        n++;
+                    }
+                }
+                return n;
+            }
+            if (sql.startsWith("INSERT INTO FILES (FILENAME, FILEPATH, CONTENT")) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("id", nextId++);
+                row.put("filename", params.get(1));
+                row.put("filepath", params.get(2));
+                row.put("content", params.get(3));
+                row.put("last_modified", new Timestamp(System.currentTimeMillis()).toString());
+                rows.add(row);
+                return 1;
+            }
+            throw new UnsupportedOperationException("InMemoryJdbc: " + sql);
+        }
+
+        private synchronized List<Map<String, Object>> query(String sql, Map<Integer, Object> params) {
+            if (sql.startsWith("SELECT") && sql.contains("FROM FILES")) {
+                List<Map<String, Object>> copy = new ArrayList<>(rows.size());
+                for (int i = rows.size() - 1; i >= 0; i--)
+                    copy.add(new HashMap<>(rows.get(i)));
+                return copy;
+            }
+            throw new UnsupportedOperationException("InMemoryJdbc: " + sql);
+        }
+
+        private ResultSet resultSet(List<Map<String, Object>> data) {
+            int[] cursor = {-1};
+            Object[] last = {null};
+            return proxy(ResultSet.class, (p, m, a) -> {
+                switch (m.getName()) {
+                    case "next":
+                        return ++cursor[0] < data.size();
+                    case "wasNull":
+                        return last[0] == null;
+                    case "close":
+                        return null;
+                    default:
+                        if (m.getName().startsWith("get") && a != null && a.length == 1) {
+                            Object v = a[0] instanceof String
+                                    ? data.get(cursor[0]).get(((String) a[0]).toLowerCase(Locale.ROOT))
+                                    : null;
+                            last[0] = v;
+                            return convert(v, m.getReturnType());
+                        }
+                        return defaultValue(m.getReturnType());
+                }
+            });
+        }
+
+        private static Object convert(Object v, Class<?> type) {
+            if (type == String.class) return v == null ? null : v.toString();
+            if (type == long.class) return v == null ? 0L : ((Number) v).longValue();
+            if (type == int.class) return v == null ? 0 : ((Number) v).intValue();
+            return v;
+        }
+
+        private static String normalize(String sql) {
+            return sql.trim().replaceAll("\\s+", " ").toUpperCase(Locale.ROOT);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, InvocationHandler h) {
+            return (T) Proxy.newProxyInstance(EditorBenchmark.class.getClassLoader(), new Class<?>[]{type}, h);
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (type == boolean.class) return false;
+            if (type == int.class) return 0;
+            if (type == long.class) return 0L;
+            if (type == int[].class) return new int[0];
+            return null;
+        }
+    }
+}
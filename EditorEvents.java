@@ -0,0 +1,149 @@
+import jdk.jfr.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+// Java Flight Recorder events for editor-level operations, so a recording shows which open, save,
+// search or database call a stretch of samples belongs to. They show up under "Text Editor" in
+// JDK Mission Control. Events cost next to nothing while no recording is running; fields that take
+// work to compute are only filled in when shouldCommit() says the event will be kept.
+final class EditorEvents {
+    private static Recording recording;
+
+    private EditorEvents() {
+    }
+
+    @Name("texteditor.OpenFile")
+    @Label("Open File")
+    @Category({"Text Editor", "Files"})
+    @Description("From choosing a file until it is loaded into its tab")
+    static class OpenFile extends Event {
+        @Label("Path")
+        String path;
+        @Label("File Size")
+        @DataAmount
+        long fileSize;
+        @Label("Characters")
+        long chars;
+        @Label("Lines")
+        int lines;
+        @Label("Encoding")
+        String encoding;
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("texteditor.SaveFile")
+    @Label("Save File")
+    @Category({"Text Editor", "Files"})
+    static class SaveFile extends Event {
+        @Label("Path")
+        String path;
+        @Label("File Size")
+        @DataAmount
+        long fileSize;
+        @Label("Characters")
+        long chars;
+        @Label("Encoding")
+        String encoding;
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("texteditor.SaveFileToDatabase")
+    @Label("Save File to Database")
+    @Category({"Text Editor", "Database"})
+    static class DatabaseSave extends Event {
+        @Label("File Path")
+        String filepath;
+        @Label("Characters")
+        long chars;
+        @Label("Inserted")
+        @Description("No row existed yet for the file")
+        boolean inserted;
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("texteditor.GetAllFiles")
+    @Label("Get All Files")
+    @Category({"Text Editor", "Database"})
+    static class DatabaseQuery extends Event {
+        @Label("Rows Fetched")
+        int rows;
+        @Label("Characters Fetched")
+        long chars;
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+
+    @Name("texteditor.FindNext")
+    @Label("Find Next")
+    @Category({"Text Editor", "Search"})
+    static class FindNext extends Event {
+        @Label("Pattern Length")
+        int patternLength;
+        @Label("Document Characters")
+        long documentChars;
+        @Label("Match Offset")
+        @Description("-1 when nothing was found")
+        int matchOffset;
+    }
+
+    @Name("texteditor.ReplaceAll")
+    @Label("Replace All")
+    @Category({"Text Editor", "Search"})
+    static class ReplaceAll extends Event {
+        @Label("Pattern Length")
+        int patternLength;
+        @Label("Document Characters")
+        long documentChars;
+        @Label("Matches")
+        int matches;
+    }
+
+    @Name("texteditor.ApplyColorScheme")
+    @Label("Apply Color Scheme")
+    @Category({"Text Editor", "View"})
+    static class ApplyColorScheme extends Event {
+        @Label("Scheme")
+        String scheme;
+        @Label("Tabs")
+        int tabs;
+    }
+
+    static synchronized boolean isRecording() {
+        return recording != null;
+    }
+
+    // Records with the JDK's "profile" settings (method samples, allocations, locks, I/O) plus
+    // the events above, until stopRecording() writes it out to the file
+    static synchronized void startRecording(Path file) throws IOException {
+        if (recording != null)
+            throw new IllegalStateException("A recording is already running");
+        Recording r;
+        try {
+            r = new Recording(Configuration.getConfiguration("profile"));
+        } catch (ParseException e) {
+            throw new IOException("Could not read the JFR profile settings", e);
+        }
+        r.setName("Text Editor");
+        r.setToDisk(true);
+        r.setDestination(file);
+        r.start();
+        recording = r;
+    }
+
+    // Returns where the recording went
+    static synchronized Path stopRecording() {
+        Recording r = recording;
+        recording = null;
+        if (r == null)
+            return null;
+        Path file = r.getDestination();
+        r.stop(); // writes the destination file
+        r.close();
+        return file;
+    }
+}
@@ -0,0 +1,228 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+// Measures how responsive the event dispatch thread is. A pushed EventQueue times every event it
+// dispatches (time spent waiting inside nested loops of modal dialogs is left out), and a
+// RepaintManager times painting and closes keystroke-to-paint measurements: a key event that
+// asked for a repaint counts from when it was generated (its "when") to the end of the paint
+// that follows. A watchdog thread takes the EDT's stack whenever one event has been running for
+// longer than the stall threshold, -Deditor.stallMs=... (500 by default).
+final class EdtMonitor {
+    static final long STALL_MS = Long.getLong("editor.stallMs", 500);
+    private static final int MAX_STALLS = 50;
+    private static EdtMonitor instance;
+
+    final LatencyHistogram keyToPaint = new LatencyHistogram("Keystroke to paint");
+    final LatencyHistogram tasks = new LatencyHistogram("EDT events");
+    final LatencyHistogram paints = new LatencyHistogram("Paint");
+
+    // A stretch where the EDT was busy with one event for longer than STALL_MS
+    static final class Stall {
+        final long when;
+        final String event;
+        final StackTraceElement[] stack;
+        volatile long millis; // how long the event ran in the end; -1 while it still runs
+
+        Stall(long when, String event, StackTraceElement[] stack) {
+            this.when = when;
+            this.event = event;
+            this.stack = stack;
+            this.millis = -1;
+        }
+    }
+
+    private final ArrayDeque<Stall> stalls = new ArrayDeque<>();
+    private final long startedAt = System.currentTimeMillis();
+
+    // Written by the EDT, read by the watchdog
+    private volatile Thread edt;
+    private volatile long busySince;     // nanoTime the current event started; 0 while waiting for one
+    private volatile AWTEvent current;
+    private volatile Stall openStall;
+    private volatile AWTEvent openStallEvent;
+    private long waitingNanos;           // total time spent waiting for events, to take out of nested ones
+    private volatile int dirtyRequests;  // repaint requests so far
+    private long keyPressedAt, keyPending;
+
+    private EdtMonitor() {
+    }
+
+    static synchronized EdtMonitor install() {
+        if (instance == null) {
+            EdtMonitor m = new EdtMonitor();
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(m.new TimedQueue());
+            SwingUtilities.invokeLater(() -> RepaintManager.setCurrentManager(m.new TimedRepaintManager()));
+            Thread watchdog = new Thread(m::watch, "edt-watchdog");
+            watchdog.setDaemon(true);
+            watchdog.start();
+            instance = m;
+        }
+        return instance;
+    }
+
+    List<LatencyHistogram> getHistograms() {
+        return List.of(keyToPaint, tasks, paints);
+    }
+
+    List<Stall> getStalls() {
+        synchronized (stalls) {
+            return new ArrayList<>(stalls);
+        }
+    }
+
+    void reset() {
+        for (LatencyHistogram h : getHistograms())
+            h.reset();
+        synchronized (stalls) {
+            stalls.clear();
+        }
+    }
+
+    private class TimedQueue extends EventQueue {
+        public AWTEvent getNextEvent() throws InterruptedException {
+            long t0 = System.nanoTime();
+            busySince = 0;
+            try {
+                return super.getNextEvent();
+            } finally {
+                long t1 = System.nanoTime();
+                waitingNanos += t1 - t0;
+                busySince = t1;
+            }
+        }
+
+        protected void dispatchEvent(AWTEvent e) {
+            long start = System.nanoTime();
+            long waitedBefore = waitingNanos;
+            int dirtyBefore = dirtyRequests;
+            AWTEvent outer = current;
+            edt = Thread.currentThread();
+            current = e;
+            int id = e.getID();
+            if (id == KeyEvent.KEY_PRESSED)
+                keyPressedAt = start - queuedNanos((KeyEvent) e);
+            try {
+                super.dispatchEvent(e);
+            } finally {
+                long end = System.nanoTime();
+                long busy = end - start - (waitingNanos - waitedBefore);
+                tasks.recordNanos(busy);
+                if ((id == KeyEvent.KEY_PRESSED || id == KeyEvent.KEY_TYPED) && dirtyRequests != dirtyBefore && keyPending == 0)
+                    keyPending = keyPressedAt != 0 ? keyPressedAt : start;
+                Stall s = openStall;
+                if (s != null && openStallEvent == e) {
+                    s.millis = busy / 1_000_000;
+                    openStall = null;
+                    openStallEvent = null;
+                }
+                current = outer;
+            }
+        }
+    }
+
+    // How long ago the key event was generated, from its millisecond timestamp
+    private static long queuedNanos(KeyEvent e) {
+        long ms = System.currentTimeMillis() - e.getWhen();
+        return ms > 0 && ms < 10_000 ? ms * 1_000_000 : 0;
+    }
+
+    private class TimedRepaintManager extends RepaintManager {
+        public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+            dirtyRequests++;
+            super.addDirtyRegion(c, x, y, w, h);
+        }
+
+        public void paintDirtyRegions() {
+            long start = System.nanoTime();
+            super.paintDirtyRegions();
+            long end = System.nanoTime();
+            paints.recordNanos(end - start);
+            if (keyPending != 0) {
+                // A key whose repaint never got painted (hidden component) is not measured
+                if (end - keyPending < 10_000_000_000L)
+                    keyToPaint.recordNanos(end - keyPending);
+                keyPending = 0;
+                keyPressedAt = 0;
+            }
+        }
+    }
+
+    private void watch() {
+        long threshold = STALL_MS * 1_000_000;
+        long captured = 0;
+        while (true) {
+            try {
+                Thread.sleep(Math.max(10, STALL_MS / 5));
+            } catch (InterruptedException e) {
+                return;
+            }
+            long since = busySince;
+            Thread t = edt;
+            AWTEvent e = current;
+            if (since == 0 || since == captured || t == null || System.nanoTime() - since < threshold)
+                continue;
+            StackTraceElement[] stack = t.getStackTrace();
+            if (busySince != since)
+                continue; // finished while the stack was being taken
+            captured = since;
+            Stall s = new Stall(System.currentTimeMillis() - (System.nanoTime() - since) / 1_000_000, describe(e), stack);
+            synchronized (stalls) {
+                if (stalls.size() == MAX_STALLS)
+                    stalls.removeFirst();
+                stalls.addLast(s);
+            }
+            openStallEvent = e;
+            openStall = s;
+            if (busySince != since && openStall == s) {
+                s.millis = (System.nanoTime() - since) / 1_000_000; // ended just now; close enough
+                openStall = null;
+            }
+        }
+    }
+
+    // Without calling into the event itself, which belongs to the EDT
+    private static String describe(AWTEvent e) {
+        if (e == null)
+            return "(between events)";
+        Object src = e.getSource();
+        return e.getClass().getSimpleName() + " #" + e.getID() + (src != null ? " from " + src.getClass().getName() : "");
+    }
+
+    static String millis(long micros) {
+        return String.format("%.2f", micros / 1000.0);
+    }
+
+    void writeReport(PrintWriter out) {
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        out.println("EDT diagnostics at " + fmt.format(new Date()) + ", measuring since " + fmt.format(new Date(startedAt))
+                + ", stall threshold " + STALL_MS + " ms");
+        out.println();
+        out.printf("%-20s %10s %10s %10s %10s %10s %10s %10s%n", "(ms)", "count", "mean", "p50", "p90", "p99", "p99.9", "max");
+        for (LatencyHistogram h : getHistograms()) {
+            out.printf("%-20s %10d %10s %10s %10s %10s %10s %10s%n", h.getName(), h.getCount(),
+                    millis((long) h.getMeanMicros()), millis(h.getPercentileMicros(50)), millis(h.getPercentileMicros(90)),
+                    millis(h.getPercentileMicros(99)), millis(h.getPercentileMicros(99.9)), millis(h.getMaxMicros()));
+        }
+        out.println();
+        writeStalls(out);
+    }
+
+    void writeStalls(PrintWriter out) {
+        List<Stall> list = getStalls();
+        out.println(list.isEmpty() ? "No stalls." : list.size() + " stall" + (list.size() == 1 ? "" : "s") + ", most recent last:");
+        SimpleDateFormat fmt = new SimpleDateFormat("HH:mm:ss.SSS");
+        for (Stall s : list) {
+            out.println();
+            out.println(fmt.format(new Date(s.when)) + "  " + (s.millis < 0 ? "still running" : s.millis + " ms") + "  " + s.event);
+            for (StackTraceElement el : s.stack)
+                out.println("    at " + el);
+        }
+    }
+}
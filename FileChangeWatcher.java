@@ -0,0 +1,149 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+// Notices when open files are changed by other programs. A Swing timer collects the watched
+// files on the EDT; a background thread compares size and modification time against the last
+// known fingerprint and only hashes (and reads) a file whose stat has changed. A file that was
+// merely touched gets its new fingerprint silently.
+class FileChangeWatcher {
+    // What is known about a file's content on disk
+    static final class Fingerprint {
+        final long size, modified, hash;
+
+        Fingerprint(long size, long modified, long hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        static Fingerprint of(File f) throws IOException {
+            long modified = f.lastModified();
+            CRC32C crc = new CRC32C();
+            long size = 0;
+            try (InputStream in = new FileInputStream(f)) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    crc.update(buf, 0, n);
+                    size += n;
+                }
+            }
+            return new Fingerprint(size, modified, crc.getValue());
+        }
+
+        // Of a file just written through a CheckedOutputStream with this CRC32C
+        static Fingerprint written(File f, Checksum crc) {
+            return new Fingerprint(f.length(), f.lastModified(), crc.getValue());
+        }
+
+        static Fingerprint of(byte[] content, long modified) {
+            CRC32C crc = new CRC32C();
+            crc.update(content, 0, content.length);
+            return new Fingerprint(content.length, modified, crc.getValue());
+        }
+
+        boolean sameStat(File f) {
+            return f.length() == size && f.lastModified() == modified;
+        }
+
+        boolean sameContent(Fingerprint other) {
+            return other != null && size == other.size && hash == other.hash;
+        }
+    }
+
+    // Implemented by whatever shows a file (an editor tab); all methods are called on the EDT
+    interface Target {
+        // The file to check, or null to skip this target for now
+        File getWatchedFile();
+
+        Fingerprint getFingerprint();
+
+        TextBuffer.Encoding getEncoding();
+
+        void setFingerprint(Fingerprint fp);
+
+        // The content on disk differs from what was loaded or saved
+        void changedOnDisk(Fingerprint fp, String text);
+    }
+
+    private final Supplier<List<? extends Target>> targets;
+    private final Timer timer;
+    private final ExecutorService checker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "file-change-watcher");
+        t.setDaemon(true);
+        return t;
+    });
+    private boolean checking;
+
+    FileChangeWatcher(int intervalMillis, Supplier<List<? extends Target>> targets) {
+        this.targets = targets;
+        this.timer = new Timer(intervalMillis, e -> poll());
+    }
+
+    void start() {
+        timer.start();
+    }
+
+    void stop() {
+        timer.stop();
+        checker.shutdownNow();
+    }
+
+    // Checks all targets now, e.g. when the window regains focus
+    void poll() {
+        if (checking)
+            return;
+        List<? extends Target> list = targets.get();
+        int n = list.size();
+        Target[] watched = new Target[n];
+        File[] files = new File[n];
+        Fingerprint[] known = new Fingerprint[n];
+        TextBuffer.Encoding[] encodings = new TextBuffer.Encoding[n];
+        for (int i = 0; i < n; i++) {
+            watched[i] = list.get(i);
+            files[i] = watched[i].getWatchedFile();
+            known[i] = files[i] != null ? watched[i].getFingerprint() : null;
+            encodings[i] = watched[i].getEncoding();
+        }
+        checking = true;
+        checker.execute(() -> {
+            try {
+                for (int i = 0; i < n; i++) {
+                    if (files[i] != null && known[i] != null)
+                        check(watched[i], files[i], known[i], encodings[i]);
+                }
+            } finally {
+                SwingUtilities.invokeLater(() -> checking = false);
+            }
+        });
+    }
+
+    private void check(Target target, File file, Fingerprint known, TextBuffer.Encoding encoding) {
+        if (!file.isFile() || known.sameStat(file))
+            return;
+        try {
+            Fingerprint now = Fingerprint.of(file);
+            String text = now.sameContent(known) ? null : TextBuffer.read(file, encoding);
+            SwingUtilities.invokeLater(() -> {
+                // Saved or reloaded meanwhile: the next poll compares against the new fingerprint
+                if (target.getFingerprint() != known || target.getWatchedFile() != file)
+                    return;
+                if (text == null)
+                    target.setFingerprint(now);
+                else
+                    target.changedOnDisk(now, text);
+            });
+        } catch (IOException e) {
+            // Being rewritten or unreadable right now; try again on the next poll
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Writes the files stored in the database back to disk: each to its own path, or below a chosen
+// folder (its stored path turned into a relative one). Rows are streamed in id order and written by
+// a pool of threads, each to a temporary file next to the target that is then moved over it, so a
+// file on disk is always either the old or the new version. The rows being written are held to
+// MEMORY_BYTES of text between them, however big the table is. Every second the id up to which
+// every row has been written is saved to a checkpoint file; an export started again with resume
+// goes on from there (rewriting a few files twice at most), and one that wrote everything removes it. Exported files are UTF-8 (the database keeps
+// text, not the encoding it came in).
+class FileExporter extends BulkWorker<Void> implements BulkProgress {
+    // Text held by rows waiting for or being written, -Deditor.exportMemoryMB=...
+    static final long MEMORY_BYTES = Math.max(1, Long.getLong("editor.exportMemoryMB", 64)) << 20;
+    private static final long CHECKPOINT_MS = 1000;
+    private static final int MAX_REPORTED_FAILURES = 20;
+
+    private final DatabaseManager dbManager;
+    private final Path root; // null: every file goes to its stored path
+    private final File checkpoint;
+    private final boolean resume;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicInteger filesTotal = new AtomicInteger(-1);
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final List<String> failures = new ArrayList<>();
+    private volatile long resumedAfter;
+
+    // Used by the streaming thread: rows handed out in ascending id order, and those not written yet
+    // (a row whose write failed stays here, so a resumed export tries it again)
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+    private long lastDispatched;
+    private long lastCheckpointNanos;
+
+    // root: the folder to export into, or null for the stored paths. checkpoint: where progress is
+    // kept (see checkpointFor). resume: go on after the row the checkpoint names, if it belongs to
+    // an export to the same place.
+    // listener: error is null when everything went through (or the export was cancelled)
+    FileExporter(DatabaseManager dbManager, File root, File checkpoint, boolean resume, Listener listener) {
+        super(listener);
+        this.dbManager = dbManager;
+        this.root = root != null ? root.toPath().toAbsolutePath().normalize() : null;
+        this.checkpoint = checkpoint;
+        this.resume = resume;
+    }
+
+    // Inside the folder for an export there, in the home folder for one to the stored paths
+    static File checkpointFor(File root) {
+        return root != null ? new File(root, ".texteditor-export")
+                : new File(System.getProperty("user.home"), ".texteditor-export");
+    }
+
+    // The row id a resumed export would go on after, or 0
+    static long checkpointedId(File checkpoint, File root) {
+        try (InputStream in = new FileInputStream(checkpoint)) {
+            Properties p = new Properties();
+            p.load(in);
+            if (!p.getProperty("target", "").equals(target(root)))
+                return 0;
+            return Long.parseLong(p.getProperty("afterId", "0"));
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String target(File root) {
+        return root != null ? root.toPath().toAbsolutePath().normalize().toString() : "";
+    }
+
+    // Before execute()
+    void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public String getTitle() { return "Exporting Files from Database"; }
+    public int getThreads() { return threads; }
+    public int getFilesTotal() { return filesTotal.get(); }
+    public int getFilesDone() { return filesDone.get(); }
+    public int getFilesFailed() { return filesFailed.get(); }
+    public int getFilesUnchanged() { return 0; }
+    public long getBytesDone() { return bytesDone.get(); }
+    // The id the export went on after, 0 when it started from the beginning
+    public long getResumedAfter() { return resumedAfter; }
+
+    public synchronized List<String> getFailures() {
+        return new ArrayList<>(failures);
+    }
+
+    protected void work() throws InterruptedException {
+        long afterId = resume ? checkpointedId(checkpoint, root != null ? root.toFile() : null) : 0;
+        resumedAfter = afterId;
+        lastDispatched = afterId;
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "export-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        // In KB, so one permit stands for a little text and the budget fits an int
+        int budget = (int) (MEMORY_BYTES >> 10);
+        Semaphore memory = new Semaphore(budget);
+        try {
+            filesTotal.set(dbManager.countFilesAfter(afterId));
+            if (root != null)
+                Files.createDirectories(root);
+            dbManager.forEachFileRow(null, afterId, (id, filename, filepath, content, lastModified) -> {
+                if (isCancelled() || getError() != null)
+                    return false;
+                // A row bigger than the whole budget waits until it has it to itself
+                int kb = (int) Math.min(budget, (2L * content.length() >> 10) + 1);
+                try {
+                    memory.acquire(kb);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                inFlight.add(id);
+                lastDispatched = id;
+                pool.execute(() -> {
+                    try {
+                        if (!isCancelled() && write(filepath, content))
+                            inFlight.remove(id);
+                    } finally {
+                        memory.release(kb);
+                    }
+                });
+                if (System.nanoTime() - lastCheckpointNanos > CHECKPOINT_MS * 1_000_000)
+                    saveCheckpoint();
+                return true;
+            });
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (SQLException | IOException e) {
+            setError("Export failed: " + e.getMessage());
+            // The rows already read are still written, so a resume starts after them
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            // Not shutdownNow: an interrupted write would fail. Writes still running stay in
+            // inFlight and so are left out of the checkpoint.
+            pool.shutdown();
+            if (isCancelled() || getError() != null || filesFailed.get() > 0)
+                saveCheckpoint();
+            else
+                checkpoint.delete();
+        }
+    }
+
+    // False when the write failed and is worth trying again
+    private boolean write(String filepath, String content) {
+        Path target = targetOf(filepath);
+        if (target == null) {
+            failed(filepath, "not a path below the export folder");
+            return true;
+        }
+        Path tmp = target.resolveSibling("." + target.getFileName() + "." + Thread.currentThread().getId() + ".export");
+        try {
+            Path parent = target.getParent();
+            if (parent != null)
+                Files.createDirectories(parent);
+            try (Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(tmp), StandardCharsets.UTF_8), 1 << 16)) {
+                w.write(content);
+            }
+            long size = Files.size(tmp);
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            bytesDone.addAndGet(size);
+            filesDone.incrementAndGet();
+            return true;
+        } catch (IOException | UncheckedIOException e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+            failed(filepath, e.toString());
+            return false;
+        }
+    }
+
+    private synchronized void failed(String filepath, String why) {
+        filesFailed.incrementAndGet();
+        filesDone.incrementAndGet();
+        System.err.println("Could not export " + filepath + ": " + why);
+        if (failures.size() < MAX_REPORTED_FAILURES)
+            failures.add(filepath + ": " + why);
+    }
+
+    // The stored path itself, or its parts below the root (drive letters and leading slashes
+    // dropped, no way out of the root through "..")
+    Path targetOf(String filepath) {
+        if (root == null) {
+            Path p = Paths.get(filepath);
+            return p.isAbsolute() ? p.normalize() : null;
+        }
+        Path p = root;
+        for (String part : filepath.split("[/\\\\]+")) {
+            part = part.replace(":", "");
+            if (part.isEmpty() || part.equals(".") || part.equals(".."))
+                continue;
+            p = p.resolve(part);
+        }
+        p = p.normalize();
+        return p.startsWith(root) && !p.equals(root) ? p : null;
+    }
+
+    // Every row up to the id saved has been written (or can never be, and was reported)
+    private void saveCheckpoint() {
+        lastCheckpointNanos = System.nanoTime();
+        Long first = inFlight.isEmpty() ? null : inFlight.first();
+        long done = first != null ? first - 1 : lastDispatched;
+        Properties p = new Properties();
+        p.setProperty("target", target(root != null ? root.toFile() : null));
+        p.setProperty("afterId", Long.toString(done));
+        Path file = checkpoint.toPath().toAbsolutePath();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                p.store(out, "Text editor export progress");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not save the export checkpoint: " + e.getMessage());
+        }
+    }
+
+    protected void done() {
+        String message = outcome();
+        if (message == null && filesFailed.get() > 0) {
+            StringBuilder sb = new StringBuilder(filesFailed.get() + " file(s) could not be written:");
+            for (String f : getFailures())
+                sb.append('\n').append(f);
+            message = sb.toString();
+        }
+        finish(message);
+    }
+}
@@ -0,0 +1,282 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Imports many files at once (a drop of files and folders, or the batch "import" command). Folders
+// are walked and the files read and decoded on a pool of threads. Each file is either handed to the
+// EDT to open in its own tab, or queued for the database and written by this worker while the pool
+// keeps reading: rows go out with JDBC batching every batchSize rows and are committed every
+// commitRows rows. Going to the database, one query first fetches what the table knows about the
+// files (size, mtime and hash of the file each row came from); files whose size and mtime match are
+// skipped without being read, and files whose bytes hash the same only get their mtime updated.
+// Progress counters can be polled from any thread.
+class FileImporter extends BulkWorker<Void> implements BulkProgress {
+    enum Mode { OPEN, DATABASE }
+
+    static final class Loaded {
+        final File file;
+        final String text;
+        final TextBuffer.Encoding encoding;
+        final FileChangeWatcher.Fingerprint fingerprint;
+
+        Loaded(File file, String text, TextBuffer.Encoding encoding, FileChangeWatcher.Fingerprint fingerprint) {
+            this.file = file;
+            this.text = text;
+            this.encoding = encoding;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    // Called on the EDT; error is null when everything went through (or the import was cancelled)
+    interface Listener extends BulkWorker.Listener {
+        // OPEN mode: files read since the last call
+        void opened(List<Loaded> files);
+    }
+
+    // Rows per JDBC batch and per transaction, -Deditor.importBatchSize=... and
+    // -Deditor.importCommitRows=...; a transaction is also cut at COMMIT_BYTES
+    static final int BATCH_SIZE = Math.max(1, Integer.getInteger("editor.importBatchSize", 200));
+    static final int COMMIT_ROWS = Math.max(1, Integer.getInteger("editor.importCommitRows", 1000));
+    static final long COMMIT_BYTES = 32L << 20;
+
+    private final List<File> roots;
+    private final Mode mode;
+    private final int maxFiles;
+    private final DatabaseManager dbManager;
+    private final Listener listener;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int batchSize = BATCH_SIZE, commitRows = COMMIT_ROWS;
+    private Map<String, DatabaseManager.SourceInfo> known = Collections.emptyMap();
+
+    private final AtomicInteger filesTotal = new AtomicInteger(-1);
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+    private final AtomicInteger filesUnchanged = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+
+    private final List<Loaded> pending = new ArrayList<>();
+    private boolean flushScheduled;
+
+    // maxFiles limits how many files OPEN mode will put into tabs
+    FileImporter(List<File> roots, Mode mode, int maxFiles, DatabaseManager dbManager, Listener listener) {
+        super(listener);
+        this.roots = roots;
+        this.mode = mode;
+        this.maxFiles = maxFiles;
+        this.dbManager = dbManager;
+        this.listener = listener;
+    }
+
+    // Before execute()
+    void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    void setBatching(int batchSize, int commitRows) {
+        this.batchSize = Math.max(1, batchSize);
+        this.commitRows = Math.max(1, commitRows);
+    }
+
+    public Mode getMode() { return mode; }
+    public String getTitle() { return mode == Mode.OPEN ? "Opening Files" : "Saving Files to Database"; }
+    public int getThreads() { return threads; }
+    public int getBatchSize() { return batchSize; }
+    public int getCommitRows() { return commitRows; }
+    // -1 while the folders are still being walked
+    public int getFilesTotal() { return filesTotal.get(); }
+    public int getFilesDone() { return filesDone.get(); }
+    public int getFilesFailed() { return filesFailed.get(); }
+    // Already in the database as they are on disk
+    public int getFilesUnchanged() { return filesUnchanged.get(); }
+    public long getBytesDone() { return bytesDone.get(); }
+
+    protected void work() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (File root : roots)
+            collectFiles(root, files);
+        if (mode == Mode.OPEN && files.size() > maxFiles) {
+            setError(files.size() + " files found; at most " + maxFiles + " are opened in tabs.\nSave them to the database instead.");
+            return;
+        }
+        if (mode == Mode.DATABASE) {
+            try {
+                known = sourceInfo();
+            } catch (SQLException e) {
+                setError("Database error: " + e.getMessage());
+                return;
+            }
+        }
+        filesTotal.set(files.size());
+        run(files);
+    }
+
+    private static void collectFiles(File f, List<File> into) throws IOException {
+        if (f.isDirectory()) {
+            try (Stream<Path> walk = Files.walk(f.toPath())) {
+                walk.filter(Files::isRegularFile).forEach(p -> into.add(p.toFile()));
+            }
+        } else if (f.isFile()) {
+            into.add(f);
+        }
+    }
+
+    private Map<String, DatabaseManager.SourceInfo> sourceInfo() throws SQLException {
+        Map<String, DatabaseManager.SourceInfo> rows = new HashMap<>();
+        for (File root : roots)
+            rows.putAll(dbManager.getSourceInfo(root.getAbsolutePath()));
+        return rows;
+    }
+
+    private void run(List<File> files) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "import-reader");
+            t.setDaemon(true);
+            return t;
+        });
+        // Bounded, so readers wait for the database instead of holding every file in memory
+        BlockingQueue<DatabaseManager.ImportRow> queue = new ArrayBlockingQueue<>(Math.min(batchSize * 2, 2000));
+        try {
+            for (File f : files) {
+                pool.execute(() -> {
+                    if (isCancelled() || getError() != null)
+                        return;
+                    if (mode == Mode.OPEN) {
+                        Loaded loaded = read(f);
+                        if (loaded != null)
+                            deliver(loaded);
+                        return;
+                    }
+                    DatabaseManager.ImportRow row = prepare(f);
+                    if (row == null)
+                        return;
+                    try {
+                        queue.put(row);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            pool.shutdown();
+            if (mode == Mode.DATABASE)
+                writeBatches(pool, queue);
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Loaded read(File f) {
+        try {
+            long modified = f.lastModified();
+            byte[] bytes = Files.readAllBytes(f.toPath());
+            TextBuffer.Encoding enc = TextBuffer.detectEncoding(bytes, Math.min(bytes.length, TextBuffer.DETECT_BYTES));
+            String text = TextBuffer.decode(bytes, enc);
+            filesDone.incrementAndGet();
+            bytesDone.addAndGet(bytes.length);
+            return new Loaded(f, text, enc, FileChangeWatcher.Fingerprint.of(bytes, modified));
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not read " + f + ": " + e.getMessage());
+            filesFailed.incrementAndGet();
+            filesDone.incrementAndGet();
+            return null;
+        }
+    }
+
+    // DATABASE mode: null when the file is skipped (unchanged or unreadable); a row without content
+    // when only its mtime changed
+    private DatabaseManager.ImportRow prepare(File f) {
+        String path = f.getAbsolutePath();
+        DatabaseManager.SourceInfo info = known.get(path);
+        Long id = info != null ? info.id : null;
+        try {
+            if (info != null && info.fingerprint != null && info.fingerprint.sameStat(f)) {
+                filesUnchanged.incrementAndGet();
+                filesDone.incrementAndGet();
+                return null;
+            }
+            long modified = f.lastModified();
+            byte[] bytes = Files.readAllBytes(f.toPath());
+            FileChangeWatcher.Fingerprint fp = FileChangeWatcher.Fingerprint.of(bytes, modified);
+            if (info != null && fp.sameContent(info.fingerprint)) {
+                filesUnchanged.incrementAndGet();
+                return new DatabaseManager.ImportRow(id, f.getName(), path, null, fp);
+            }
+            TextBuffer.Encoding enc = TextBuffer.detectEncoding(bytes, Math.min(bytes.length, TextBuffer.DETECT_BYTES));
+            return new DatabaseManager.ImportRow(id, f.getName(), path, TextBuffer.decode(bytes, enc), fp);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Could not read " + f + ": " + e.getMessage());
+            filesFailed.incrementAndGet();
+            filesDone.incrementAndGet();
+            return null;
+        }
+    }
+
+    private void writeBatches(ExecutorService readers, BlockingQueue<DatabaseManager.ImportRow> queue) throws InterruptedException {
+        List<DatabaseManager.ImportRow> batch = new ArrayList<>(Math.min(commitRows, 10000));
+        long batchBytes = 0;
+        while (!isCancelled()) {
+            DatabaseManager.ImportRow row = queue.poll(50, TimeUnit.MILLISECONDS);
+            if (row != null) {
+                batch.add(row);
+                batchBytes += row.fingerprint.size;
+            }
+            boolean drained = row == null && readers.isTerminated() && queue.isEmpty();
+            if (batch.size() >= commitRows || batchBytes >= COMMIT_BYTES || (drained && !batch.isEmpty())) {
+                try {
+                    dbManager.importFiles(batch, batchSize);
+                } catch (SQLException e) {
+                    setError("Database error: " + e.getMessage());
+                    readers.shutdownNow();
+                    return;
+                }
+                filesDone.addAndGet(batch.size());
+                bytesDone.addAndGet(batchBytes);
+                batch.clear();
+                batchBytes = 0;
+            }
+            if (drained)
+                return;
+        }
+        readers.shutdownNow();
+    }
+
+    // Files for tabs go to the EDT in batches; at most one flush is queued at a time
+    private void deliver(Loaded loaded) {
+        synchronized (pending) {
+            pending.add(loaded);
+            if (flushScheduled)
+                return;
+            flushScheduled = true;
+        }
+        SwingUtilities.invokeLater(this::flush);
+    }
+
+    private void flush() {
+        List<Loaded> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            flushScheduled = false;
+        }
+        if (!isCancelled() && !batch.isEmpty())
+            listener.opened(batch);
+    }
+
+    protected void done() {
+        flush();
+        super.done();
+    }
+}
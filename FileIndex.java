@@ -0,0 +1,581 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Full-text index over the files stored in the database, kept in a local file. Words are runs of
+// letters, digits and '_', lower-cased; every word maps to postings that list, per document, the
+// word positions within it, delta- and varint-encoded into one byte array per word. Saving a file
+// to the database indexes it again on the index's own thread: the old document is marked dead
+// and the new one appended, since document numbers only grow; dead documents are squeezed out
+// once they make up half of the index. The file is rewritten in the background a moment after
+// the last change, and on close.
+//
+// Queries: words must all occur (AND), "quoted words" must occur next to each other, and a
+// trailing * matches any word with that prefix. Hits are ranked by how often the terms occur,
+// weighted by how rare they are.
+final class FileIndex {
+    private static final int MAGIC = 0x54454958; // "TEIX"
+    private static final int VERSION = 1;
+    private static final long SAVE_DELAY_MS = 2000;
+    private static final int MAX_PREFIX_TERMS = 200;
+
+    // A file matched by a query
+    static final class Hit {
+        final String filename, filepath;
+        final int matches;
+        final double score;
+
+        Hit(String filename, String filepath, int matches, double score) {
+            this.filename = filename;
+            this.filepath = filepath;
+            this.matches = matches;
+            this.score = score;
+        }
+    }
+
+    private static final class Doc {
+        final String filename, filepath;
+        boolean live = true;
+
+        Doc(String filename, String filepath) {
+            this.filename = filename;
+            this.filepath = filepath;
+        }
+    }
+
+    // One word's postings: per document (ascending) the document delta, the count, then the
+    // position deltas, all as varints
+    private static final class Postings {
+        byte[] data = new byte[16];
+        int length;
+        int lastDoc = -1;
+        int docFreq;
+
+        void add(int doc, int[] positions, int n) {
+            ensure(5 * (n + 2));
+            writeVarint(doc - lastDoc);
+            writeVarint(n);
+            int prev = 0;
+            for (int i = 0; i < n; i++) {
+                writeVarint(positions[i] - prev);
+                prev = positions[i];
+            }
+            lastDoc = doc;
+            docFreq++;
+        }
+
+        private void ensure(int more) {
+            if (length + more > data.length)
+                data = Arrays.copyOf(data, Math.max(length + more, data.length * 2));
+        }
+
+        private void writeVarint(int v) {
+            while ((v & ~0x7F) != 0) {
+                data[length++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            data[length++] = (byte) v;
+        }
+
+        Reader reader() {
+            return new Reader(data, length);
+        }
+    }
+
+    // Walks postings a document at a time
+    private static final class Reader {
+        private final byte[] data;
+        private final int end;
+        private int pos;
+        int doc = -1, freq;
+        private int positionsAt;
+
+        Reader(byte[] data, int end) {
+            this.data = data;
+            this.end = end;
+        }
+
+        boolean next() {
+            if (pos >= end)
+                return false;
+            doc += readVarint();
+            freq = readVarint();
+            positionsAt = pos;
+            for (int i = 0; i < freq; i++)
+                readVarint();
+            return true;
+        }
+
+        int[] positions() {
+            int saved = pos;
+            pos = positionsAt;
+            int[] p = new int[freq];
+            int prev = 0;
+            for (int i = 0; i < freq; i++)
+                p[i] = prev += readVarint();
+            pos = saved;
+            return p;
+        }
+
+        private int readVarint() {
+            int v = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[pos++];
+                v |= (b & 0x7F) << shift;
+                if (b >= 0)
+                    return v;
+            }
+        }
+    }
+
+    private final File file;
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "file-index");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> pendingSave;
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    // Guarded by this
+    private List<Doc> docs = new ArrayList<>();
+    private Map<String, Integer> liveDocs = new HashMap<>(); // filename \0 filepath -> doc
+    private TreeMap<String, Postings> terms = new TreeMap<>();
+    private long changes; // since the last save
+
+    FileIndex(File file) {
+        this.file = file;
+        worker.execute(this::load);
+    }
+
+    // Indexes the file's new content; returns at once, the work happens on the index thread
+    void update(String filename, String filepath, String content) {
+        worker.execute(() -> {
+            synchronized (this) {
+                add(filename, filepath, content);
+                compactIfNeeded();
+            }
+            scheduleSave();
+        });
+    }
+
+    // Both wait for the index file to be read
+    int getDocumentCount() {
+        awaitLoaded();
+        synchronized (this) {
+            return liveDocs.size();
+        }
+    }
+
+    List<Hit> search(String query, int limit) {
+        awaitLoaded();
+        synchronized (this) {
+            return searchLoaded(query, limit);
+        }
+    }
+
+    private void awaitLoaded() {
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Replaces the whole index with what the source hands over (every row of the files table).
+    // Runs on the index thread, after updates queued before it; searches see the old index until
+    // it is done.
+    interface Source {
+        void forEachFile(FileConsumer consumer) throws Exception;
+    }
+
+    interface FileConsumer {
+        void accept(String filename, String filepath, String content);
+    }
+
+    Future<Integer> rebuild(Source source) {
+        return worker.submit(() -> {
+            FileIndex fresh = new FileIndex();
+            source.forEachFile(fresh::add);
+            synchronized (this) {
+                docs = fresh.docs;
+                liveDocs = fresh.liveDocs;
+                terms = fresh.terms;
+                changes++;
+            }
+            scheduleSave();
+            return fresh.liveDocs.size();
+        });
+    }
+
+    // Scratch index for a rebuild, never saved itself
+    private FileIndex() {
+        this.file = null;
+        loaded.countDown();
+        worker.shutdown();
+    }
+
+    // Writes pending changes and stops the index thread
+    void close() {
+        worker.shutdown();
+        try {
+            worker.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        save();
+    }
+
+    // ---------- SEARCH ----------
+
+    private List<Hit> searchLoaded(String query, int limit) {
+        List<List<String>> clauses = parse(query);
+        if (clauses.isEmpty())
+            return Collections.emptyList();
+
+        // Indexed by document: how often all clauses so far matched (0 once one missed), and the score
+        int[] matches = null;
+        double[] scores = new double[docs.size()];
+        for (List<String> clause : clauses) {
+            int[] found = new int[docs.size()];
+            if (clause.size() == 1)
+                matchWord(clause.get(0), found, scores);
+            else
+                matchPhrase(clause, found, scores);
+            if (matches == null) {
+                matches = found;
+            } else {
+                for (int d = 0; d < matches.length; d++)
+                    matches[d] = matches[d] == 0 || found[d] == 0 ? 0 : matches[d] + found[d];
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>();
+        for (int d = 0; d < matches.length; d++) {
+            Doc doc = docs.get(d);
+            if (matches[d] > 0 && doc.live)
+                hits.add(new Hit(doc.filename, doc.filepath, matches[d], scores[d]));
+        }
+        hits.sort((x, y) -> Double.compare(y.score, x.score));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    // Documents containing the word (or, with a trailing *, any word starting with the rest)
+    private void matchWord(String word, int[] found, double[] scores) {
+        Collection<Postings> lists;
+        if (word.endsWith("*")) {
+            String prefix = word.substring(0, word.length() - 1);
+            lists = new ArrayList<>();
+            for (Postings p : terms.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                lists.add(p);
+                if (lists.size() == MAX_PREFIX_TERMS)
+                    break;
+            }
+        } else {
+            Postings p = terms.get(word);
+            lists = p != null ? List.of(p) : List.of();
+        }
+        for (Postings p : lists) {
+            double idf = idf(p);
+            Reader r = p.reader();
+            while (r.next()) {
+                found[r.doc] += r.freq;
+                scores[r.doc] += r.freq * idf;
+            }
+        }
+    }
+
+    // Documents where the words occur one after the other
+    private void matchPhrase(List<String> words, int[] found, double[] scores) {
+        Reader[] readers = new Reader[words.size()];
+        double idf = 0;
+        for (int i = 0; i < readers.length; i++) {
+            Postings p = terms.get(words.get(i));
+            if (p == null)
+                return;
+            idf += idf(p);
+            readers[i] = p.reader();
+            if (!readers[i].next())
+                return;
+        }
+        // Walk all lists in step to the documents they share
+        while (true) {
+            int max = 0;
+            for (Reader r : readers)
+                max = Math.max(max, r.doc);
+            boolean aligned = true;
+            for (Reader r : readers) {
+                while (r.doc < max) {
+                    if (!r.next())
+                        return;
+                }
+                if (r.doc != max)
+                    aligned = false;
+            }
+            if (!aligned)
+                continue;
+            int n = countPhrase(readers);
+            if (n > 0) {
+                found[max] = n;
+                scores[max] += n * idf;
+            }
+            if (!readers[0].next())
+                return;
+        }
+    }
+
+    private static int countPhrase(Reader[] readers) {
+        int[][] positions = new int[readers.length][];
+        for (int i = 0; i < readers.length; i++)
+            positions[i] = readers[i].positions(); // ascending
+        int n = 0;
+        outer:
+        for (int p : positions[0]) {
+            for (int i = 1; i < readers.length; i++) {
+                if (Arrays.binarySearch(positions[i], p + i) < 0)
+                    continue outer;
+            }
+            n++;
+        }
+        return n;
+    }
+
+    private double idf(Postings p) {
+        return Math.log(1 + (double) docs.size() / p.docFreq);
+    }
+
+    // Clauses: a single word (maybe with *) or the words of a quoted phrase
+    static List<List<String>> parse(String query) {
+        List<List<String>> clauses = new ArrayList<>();
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            if (i % 2 == 1) {
+                List<String> phrase = tokens(parts[i]);
+                if (!phrase.isEmpty())
+                    clauses.add(phrase);
+                continue;
+            }
+            for (String w : parts[i].trim().split("\\s+")) {
+                List<String> words = tokens(w);
+                for (int j = 0; j < words.size(); j++) {
+                    boolean prefix = j == words.size() - 1 && w.endsWith("*");
+                    clauses.add(List.of(prefix ? words.get(j) + "*" : words.get(j)));
+                }
+            }
+        }
+        return clauses;
+    }
+
+    // ---------- INDEXING ----------
+
+    private void add(String filename, String filepath, String content) {
+        String key = filename + "\0" + filepath;
+        Integer old = liveDocs.remove(key);
+        if (old != null)
+            docs.get(old).live = false;
+        int doc = docs.size();
+        docs.add(new Doc(filename, filepath));
+        liveDocs.put(key, doc);
+
+        // Positions per word, in order
+        Map<String, int[]> positions = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        int position = 0;
+        int len = content.length();
+        int i = 0;
+        while (i < len) {
+            while (i < len && !isWordChar(content.charAt(i)))
+                i++;
+            int start = i;
+            while (i < len && isWordChar(content.charAt(i)))
+                i++;
+            if (i == start)
+                break;
+            String word = content.substring(start, i).toLowerCase(Locale.ROOT);
+            int n = counts.merge(word, 1, Integer::sum);
+            int[] p = positions.get(word);
+            if (p == null)
+                positions.put(word, p = new int[4]);
+            else if (n > p.length)
+                positions.put(word, p = Arrays.copyOf(p, p.length * 2));
+            p[n - 1] = position++;
+        }
+        for (Map.Entry<String, int[]> e : positions.entrySet())
+            terms.computeIfAbsent(e.getKey(), k -> new Postings()).add(doc, e.getValue(), counts.get(e.getKey()));
+        changes++;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static List<String> tokens(String s) {
+        List<String> out = new ArrayList<>();
+        int i = 0;
+        while (i < s.length()) {
+            while (i < s.length() && !isWordChar(s.charAt(i)))
+                i++;
+            int start = i;
+            while (i < s.length() && isWordChar(s.charAt(i)))
+                i++;
+            if (i > start)
+                out.add(s.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        return out;
+    }
+
+    // Renumbers the live documents and rewrites every posting list without the dead ones
+    private void compactIfNeeded() {
+        int dead = docs.size() - liveDocs.size();
+        if (dead < 64 || dead < liveDocs.size())
+            return;
+        int[] renumber = new int[docs.size()];
+        List<Doc> kept = new ArrayList<>(liveDocs.size());
+        for (int d = 0; d < docs.size(); d++) {
+            renumber[d] = docs.get(d).live ? kept.size() : -1;
+            if (docs.get(d).live)
+                kept.add(docs.get(d));
+        }
+        TreeMap<String, Postings> compacted = new TreeMap<>();
+        for (Map.Entry<String, Postings> e : terms.entrySet()) {
+            Postings p = null;
+            Reader r = e.getValue().reader();
+            while (r.next()) {
+                if (renumber[r.doc] < 0)
+                    continue;
+                if (p == null)
+                    p = new Postings();
+                p.add(renumber[r.doc], r.positions(), r.freq);
+            }
+            if (p != null)
+                compacted.put(e.getKey(), p);
+        }
+        Map<String, Integer> live = new HashMap<>();
+        for (Map.Entry<String, Integer> e : liveDocs.entrySet())
+            live.put(e.getKey(), renumber[e.getValue()]);
+        docs = kept;
+        liveDocs = live;
+        terms = compacted;
+    }
+
+    // ---------- FILE ----------
+
+    private void scheduleSave() {
+        if (file == null)
+            return;
+        synchronized (worker) {
+            if (pendingSave != null)
+                pendingSave.cancel(false);
+            pendingSave = worker.schedule(this::save, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void load() {
+        try {
+            if (file.isFile())
+                read();
+        } catch (IOException e) {
+            // Rebuilt from the database when the Database Manager finds it out of step
+            System.err.println("Could not read the file index " + file + ": " + e.getMessage());
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("not an index file of this version");
+            List<Doc> d = new ArrayList<>();
+            Map<String, Integer> live = new HashMap<>();
+            int docCount = in.readInt();
+            for (int i = 0; i < docCount; i++) {
+                Doc doc = new Doc(in.readUTF(), readLongUTF(in));
+                doc.live = in.readBoolean();
+                d.add(doc);
+                if (doc.live)
+                    live.put(doc.filename + "\0" + doc.filepath, i);
+            }
+            TreeMap<String, Postings> t = new TreeMap<>();
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = readLongUTF(in);
+                Postings p = new Postings();
+                p.docFreq = in.readInt();
+                p.lastDoc = in.readInt();
+                p.length = in.readInt();
+                p.data = new byte[Math.max(16, p.length)];
+                in.readFully(p.data, 0, p.length);
+                t.put(term, p);
+            }
+            synchronized (this) {
+                docs = d;
+                liveDocs = live;
+                terms = t;
+                changes = 0;
+            }
+        }
+    }
+
+    private void save() {
+        if (file == null)
+            return;
+        synchronized (this) {
+            if (changes == 0)
+                return;
+            Path target = file.toPath().toAbsolutePath();
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(docs.size());
+                for (Doc d : docs) {
+                    out.writeUTF(d.filename);
+                    writeLongUTF(out, d.filepath);
+                    out.writeBoolean(d.live);
+                }
+                out.writeInt(terms.size());
+                for (Map.Entry<String, Postings> e : terms.entrySet()) {
+                    Postings p = e.getValue();
+                    writeLongUTF(out, e.getKey());
+                    out.writeInt(p.docFreq);
+                    out.writeInt(p.lastDoc);
+                    out.writeInt(p.length);
+                    out.write(p.data, 0, p.length);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not save the file index: " + e.getMessage());
+                return;
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                try {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException ex) {
+                    System.err.println("Could not save the file index: " + ex.getMessage());
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Could not save the file index: " + e.getMessage());
+                return;
+            }
+            changes = 0;
+        }
+    }
+
+    // writeUTF is limited to 64 KB; words and paths can be longer
+    private static void writeLongUTF(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readLongUTF(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,135 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32C;
+
+// Opens a file without blocking the EDT: a worker reads it in chunks, detects the encoding from
+// the first chunk and decodes through a CharsetDecoder; the decoded text is handed to the EDT as
+// it arrives so the document fills in progressively. The content fingerprint is computed on the
+// way, so the file is read only once. Cancel with cancel(false).
+class FileLoader extends SwingWorker<FileChangeWatcher.Fingerprint, Void> {
+    // Called on the EDT
+    interface Listener {
+        void loaded(String text, long bytesRead, long totalBytes);
+
+        void finished(FileChangeWatcher.Fingerprint fp, TextBuffer.Encoding encoding);
+
+        void failed(IOException e);
+
+        void cancelled();
+    }
+
+    private static final int CHUNK = 256 * 1024;
+
+    private final File file;
+    private final Listener listener;
+    private volatile long bytesRead, totalBytes;
+    private volatile TextBuffer.Encoding encoding;
+    private final StringBuilder pending = new StringBuilder();
+    private boolean flushScheduled;
+
+    FileLoader(File file, Listener listener) {
+        this.file = file;
+        this.listener = listener;
+    }
+
+    public File getFile() { return file; }
+
+    protected FileChangeWatcher.Fingerprint doInBackground() throws IOException {
+        long modified = file.lastModified();
+        CRC32C crc = new CRC32C();
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            totalBytes = ch.size();
+            ByteBuffer in = ByteBuffer.allocate(CHUNK);
+            CharBuffer out = CharBuffer.allocate(CHUNK);
+
+            boolean eof = fill(ch, in, crc);
+            encoding = TextBuffer.detectEncoding(in.array(), in.position());
+            CharsetDecoder decoder = encoding.newDecoder();
+            in.flip();
+            in.position(Math.min(encoding.bomLength(), in.limit()));
+
+            while (!isCancelled()) {
+                CoderResult r;
+                do {
+                    r = decoder.decode(in, out, eof);
+                    drain(out);
+                } while (r.isOverflow());
+                if (eof)
+                    break;
+                in.compact();
+                eof = fill(ch, in, crc);
+                in.flip();
+            }
+            if (isCancelled())
+                return null;
+            while (decoder.flush(out).isOverflow())
+                drain(out);
+            drain(out);
+        }
+        return new FileChangeWatcher.Fingerprint(bytesRead, modified, crc.getValue());
+    }
+
+    // Reads until the buffer is full or the file ends; returns true at end of file
+    private boolean fill(FileChannel ch, ByteBuffer in, CRC32C crc) throws IOException {
+        while (in.hasRemaining()) {
+            int start = in.position();
+            int n = ch.read(in);
+            if (n < 0)
+                return true;
+            crc.update(in.array(), start, n);
+            bytesRead += n;
+        }
+        return false;
+    }
+
+    // Text decoded since the last flush goes to the EDT as one insert; at most one flush is queued.
+    // (Not publish/process: SwingWorker may deliver the last chunks after done().)
+    private void drain(CharBuffer out) {
+        out.flip();
+        if (out.hasRemaining()) {
+            synchronized (pending) {
+                pending.append(out);
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    SwingUtilities.invokeLater(this::flush);
+                }
+            }
+        }
+        out.clear();
+    }
+
+    private void flush() {
+        String text;
+        synchronized (pending) {
+            text = pending.toString();
+            pending.setLength(0);
+            flushScheduled = false;
+        }
+        if (!isCancelled() && !text.isEmpty())
+            listener.loaded(text, bytesRead, totalBytes);
+    }
+
+    protected void done() {
+        try {
+            FileChangeWatcher.Fingerprint fp = get();
+            flush();
+            listener.finished(fp, encoding);
+        } catch (CancellationException e) {
+            listener.cancelled();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            listener.failed(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+        } catch (InterruptedException e) {
+            listener.cancelled();
+        }
+    }
+}
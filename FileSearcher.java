@@ -0,0 +1,402 @@
+import javax.swing.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Find in Files: walks a folder and searches the files on a pool of threads while the walk goes on.
+// Files up to BUFFER_BYTES are read whole into a buffer each thread keeps (not mapped: a mapping
+// would hold the file open until it is collected, and on Windows stop the editor saving it) and
+// searched as bytes where the encoding allows (UTF-8 and single-byte encodings, an ASCII pattern
+// when ignoring case), so only the lines that match are decoded. Regular expressions are matched
+// line by line, and UTF-16 files and bigger files are read through a decoding reader. Files that
+// look binary (a NUL byte near the start) are skipped. Matching lines are published as they are found.
+class FileSearcher extends SwingWorker<Void, FileSearcher.Match> {
+    // Files bigger than this are streamed rather than read whole, -Deditor.findBufferMB=...
+    static final int BUFFER_BYTES = (int) Math.min(Integer.MAX_VALUE - 8, Long.getLong("editor.findBufferMB", 16) << 20);
+    static final int MAX_MATCHES = Integer.getInteger("editor.findMaxMatches", 10000);
+    private static final int BINARY_CHECK_BYTES = 8192;
+    private static final int MAX_LINE_CHARS = 300;
+
+    // One matching line
+    static final class Match {
+        final File file;
+        final int line;    // 1-based
+        final int column;  // 0-based, of the first match in the line
+        final String text; // the line, cut down around the match when it is long
+
+        Match(File file, int line, int column, String text) {
+            this.file = file;
+            this.line = line;
+            this.column = column;
+            this.text = text;
+        }
+    }
+
+    // Called on the EDT
+    interface Listener {
+        void found(List<Match> matches);
+
+        // error is null when the search ran to the end (or was cancelled)
+        void finished(String error);
+    }
+
+    private final Path root;
+    private final String find;
+    private final boolean regex, matchCase;
+    private final List<PathMatcher> includes, excludes;
+    private final Listener listener;
+    private final int threads = Runtime.getRuntime().availableProcessors();
+
+    private final Pattern pattern; // regex, or a literal ignoring case; null for a literal matching case
+
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1 << 16));
+
+    private final AtomicInteger filesScanned = new AtomicInteger();
+    private final AtomicInteger filesMatched = new AtomicInteger();
+    private final AtomicInteger filesSkipped = new AtomicInteger();
+    private final AtomicInteger matchCount = new AtomicInteger();
+    private final AtomicLong bytesScanned = new AtomicLong();
+    private volatile long startNanos, endNanos;
+    private volatile boolean truncated;
+
+    // includes/excludes: comma-separated globs, matched against the file (or folder) name and its
+    // path below the root; nothing included means every file. Throws PatternSyntaxException for a
+    // bad regular expression and IllegalArgumentException for a bad glob.
+    FileSearcher(File root, String find, boolean regex, boolean matchCase, String includes, String excludes, Listener listener) {
+        this.root = root.toPath().toAbsolutePath();
+        this.find = find;
+        this.regex = regex;
+        this.matchCase = matchCase;
+        this.includes = globs(includes);
+        this.excludes = globs(excludes);
+        this.listener = listener;
+        int flags = matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        this.pattern = regex ? Pattern.compile(find, flags) : matchCase ? null : Pattern.compile(Pattern.quote(find), flags);
+    }
+
+    private static List<PathMatcher> globs(String list) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String g : list.split("[,;]")) {
+            g = g.trim();
+            if (!g.isEmpty())
+                matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + g));
+        }
+        return matchers;
+    }
+
+    public int getFilesScanned() { return filesScanned.get(); }
+    public int getFilesMatched() { return filesMatched.get(); }
+    public int getFilesSkipped() { return filesSkipped.get(); }
+    public int getMatchCount() { return matchCount.get(); }
+    public long getBytesScanned() { return bytesScanned.get(); }
+    // Stopped at MAX_MATCHES
+    public boolean isTruncated() { return truncated; }
+
+    public long getElapsedNanos() {
+        long start = startNanos;
+        long end = endNanos;
+        return start == 0 ? 0 : (end != 0 ? end : System.nanoTime()) - start;
+    }
+
+    private boolean stopped() {
+        return isCancelled() || truncated;
+    }
+
+    protected Void doInBackground() throws Exception {
+        startNanos = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "find-in-files");
+            t.setDaemon(true);
+            return t;
+        });
+        // Keeps the walk only a little ahead of the scanners
+        Semaphore queued = new Semaphore(threads * 4);
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (stopped())
+                        return FileVisitResult.TERMINATE;
+                    return !dir.equals(root) && matches(excludes, dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (stopped())
+                        return FileVisitResult.TERMINATE;
+                    if (!attrs.isRegularFile() || matches(excludes, file) || (!includes.isEmpty() && !matches(includes, file)))
+                        return FileVisitResult.CONTINUE;
+                    try {
+                        queued.acquire();
+                    } catch (InterruptedException e) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    long size = attrs.size();
+                    pool.execute(() -> {
+                        try {
+                            if (!stopped())
+                                scan(file, size);
+                        } finally {
+                            queued.release();
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    filesSkipped.incrementAndGet();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            pool.shutdownNow();
+            endNanos = System.nanoTime();
+        }
+        return null;
+    }
+
+    private boolean matches(List<PathMatcher> globs, Path p) {
+        Path name = p.getFileName();
+        Path relative = root.relativize(p);
+        for (PathMatcher m : globs) {
+            if ((name != null && m.matches(name)) || m.matches(relative))
+                return true;
+        }
+        return false;
+    }
+
+    protected void process(List<Match> chunks) {
+        if (!isCancelled())
+            listener.found(chunks);
+    }
+
+    protected void done() {
+        String message = null;
+        if (!isCancelled()) {
+            try {
+                get();
+            } catch (ExecutionException e) {
+                message = e.getCause().getMessage();
+            } catch (InterruptedException | CancellationException ignored) {
+            }
+        }
+        listener.finished(message);
+    }
+
+    // ---------- SCANNING ----------
+
+    private void scan(Path path, long size) {
+        File file = path.toFile();
+        int before = matchCount.get();
+        try {
+            if (size == 0)
+                return;
+            ByteBuffer bytes = size <= BUFFER_BYTES ? readWhole(path, (int) size) : null;
+            byte[] head = new byte[TextBuffer.DETECT_BYTES];
+            int headLength;
+            if (bytes != null) {
+                headLength = Math.min(bytes.limit(), head.length);
+                bytes.get(0, head, 0, headLength);
+            } else {
+                try (InputStream in = Files.newInputStream(path)) {
+                    headLength = in.readNBytes(head, 0, head.length);
+                }
+            }
+            TextBuffer.Encoding enc = TextBuffer.detectEncoding(head, headLength);
+            boolean utf16 = enc.charset.equals(StandardCharsets.UTF_16LE) || enc.charset.equals(StandardCharsets.UTF_16BE);
+            if (utf16) {
+                scanReader(file, path, enc);
+                return;
+            }
+            for (int i = 0; i < Math.min(headLength, BINARY_CHECK_BYTES); i++) {
+                if (head[i] == 0) {
+                    filesSkipped.incrementAndGet();
+                    return;
+                }
+            }
+            if (bytes == null) {
+                scanReader(file, path, enc);
+                return;
+            }
+            byte[] needle = regex ? null : encodable(enc.charset);
+            if (needle != null && (matchCase || isAscii(find)))
+                scanBytes(file, bytes, enc, needle);
+            else if (!regex && needle == null)
+                return; // the text cannot occur in this encoding
+            else
+                scanLines(file, bytes, enc);
+        } catch (IOException | UncheckedIOException e) {
+            filesSkipped.incrementAndGet();
+        } finally {
+            filesScanned.incrementAndGet();
+            bytesScanned.addAndGet(size);
+            if (matchCount.get() > before)
+                filesMatched.incrementAndGet();
+        }
+    }
+
+    // The file's bytes in this thread's buffer, which grows to the biggest file it has held; up to
+    // size of them, in case the file has grown since it was listed
+    private ByteBuffer readWhole(Path path, int size) throws IOException {
+        ByteBuffer buf = buffers.get();
+        if (buf.capacity() < size) {
+            buf = ByteBuffer.allocate(size);
+            buffers.set(buf);
+        }
+        buf.clear().limit(size);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) < 0)
+                    break;
+            }
+        }
+        return buf.flip();
+    }
+
+    private byte[] encodable(Charset cs) {
+        CharsetEncoder encoder = cs.newEncoder();
+        if (!encoder.canEncode(find))
+            return null;
+        return find.getBytes(cs);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80)
+                return false;
+        }
+        return true;
+    }
+
+    // A literal searched as bytes; ignoring case only for an ASCII pattern, by folding ASCII letters
+    private void scanBytes(File file, ByteBuffer buf, TextBuffer.Encoding enc, byte[] needle) {
+        if (needle.length == 0)
+            return;
+        if (!matchCase) {
+            for (int i = 0; i < needle.length; i++)
+                needle[i] = lower(needle[i]);
+        }
+        int start = enc.bomLength();
+        int end = buf.limit() - needle.length;
+        byte first = needle[0];
+        int line = 1;
+        int counted = start; // newlines before here are in line
+        for (int pos = start; pos <= end; pos++) {
+            if ((pos & 0xFFFFF) == 0 && stopped())
+                return;
+            byte b = matchCase ? buf.get(pos) : lower(buf.get(pos));
+            if (b != first || !matchesAt(buf, pos, needle))
+                continue;
+            for (int i = counted; i < pos; i++) {
+                if (buf.get(i) == '\n')
+                    line++;
+            }
+            int lineStart = pos;
+            while (lineStart > start && buf.get(lineStart - 1) != '\n')
+                lineStart--;
+            int lineEnd = pos;
+            while (lineEnd < buf.limit() && buf.get(lineEnd) != '\n')
+                lineEnd++;
+            String text = decode(buf, lineStart, lineEnd, enc.charset);
+            String prefix = decode(buf, lineStart, pos, enc.charset);
+            if (!add(file, line, prefix.length(), text))
+                return;
+            // One result per line: go on after it
+            pos = lineEnd;
+            counted = lineEnd;
+        }
+    }
+
+    private boolean matchesAt(ByteBuffer buf, int pos, byte[] needle) {
+        for (int i = 1; i < needle.length; i++) {
+            byte b = buf.get(pos + i);
+            if ((matchCase ? b : lower(b)) != needle[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    // Lines split at \n bytes (safe in UTF-8 and single-byte encodings) and decoded one at a time
+    private void scanLines(File file, ByteBuffer buf, TextBuffer.Encoding enc) {
+        int pos = enc.bomLength();
+        int limit = buf.limit();
+        int line = 1;
+        while (pos < limit) {
+            if ((line & 0x3FF) == 0 && stopped())
+                return;
+            int end = pos;
+            while (end < limit && buf.get(end) != '\n')
+                end++;
+            if (!matchLine(file, line, decode(buf, pos, end, enc.charset)))
+                return;
+            pos = end + 1;
+            line++;
+        }
+    }
+
+    private void scanReader(File file, Path path, TextBuffer.Encoding enc) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), enc.newDecoder()), 1 << 16)) {
+            int line = 1;
+            for (String text = reader.readLine(); text != null; text = reader.readLine(), line++) {
+                if (line == 1 && !text.isEmpty() && text.charAt(0) == '\uFEFF')
+                    text = text.substring(1);
+                if (((line & 0x3FF) == 0 && stopped()) || !matchLine(file, line, text))
+                    return;
+            }
+        }
+    }
+
+    // False once the search should stop
+    private boolean matchLine(File file, int line, String text) {
+        if (text.endsWith("\r"))
+            text = text.substring(0, text.length() - 1);
+        int column;
+        if (pattern != null) {
+            Matcher m = pattern.matcher(text);
+            column = m.find() ? m.start() : -1;
+        } else {
+            column = text.indexOf(find);
+        }
+        return column < 0 || add(file, line, column, text);
+    }
+
+    private static String decode(ByteBuffer buf, int from, int to, Charset cs) {
+        byte[] b = new byte[to - from];
+        buf.get(from, b);
+        return new String(b, cs);
+    }
+
+    private boolean add(File file, int line, int column, String text) {
+        if (stopped())
+            return false;
+        if (matchCount.incrementAndGet() > MAX_MATCHES) {
+            matchCount.decrementAndGet();
+            truncated = true;
+            return false;
+        }
+        if (text.endsWith("\r"))
+            text = text.substring(0, text.length() - 1);
+        if (text.length() > MAX_LINE_CHARS) {
+            int from = Math.max(0, Math.min(column - MAX_LINE_CHARS / 3, text.length() - MAX_LINE_CHARS));
+            text = (from > 0 ? "..." : "") + text.substring(from, from + MAX_LINE_CHARS) + "...";
+        }
+        publish(new Match(file, line, column, text));
+        return true;
+    }
+}
@@ -0,0 +1,359 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Two-way sync between a folder and the rows whose paths lie below it. One query fetches what the
+// database knows about every such row (the size, mtime and hash of the file it last matched, and
+// whether it was saved since), and one walk stats the files; a file whose size and mtime are as
+// recorded, with a row not saved since, costs nothing more. The rest is decided per file:
+//   changed on disk only         upload (read and hashed on a pool of threads first, so a touched
+//                                file with the same bytes only has its mtime recorded)
+//   changed in the database only download (also rows whose file is missing)
+//   both, or never synced        compare the texts; the same is recorded as synced, else a conflict
+// Uploads go out in batched transactions and only overwrite rows not saved since they were looked
+// at; downloads are fetched in batches, written to a temporary file and moved over the file only if
+// it still has the size and mtime seen by the walk. Either race is reported as a conflict and left
+// for the next run. Nothing is deleted on either side.
+class FileSynchronizer extends BulkWorker<Void> implements BulkProgress {
+    private static final int FETCH_ROWS = 200;
+    private static final long FETCH_BYTES = 32L << 20;
+    private static final int MAX_REPORTED_CONFLICTS = 50;
+
+    // A row on its way from the pool to a transaction: an upload, or a file recorded as matching its
+    // row (touched with the same bytes, found equal, or just downloaded)
+    private enum Kind { UPLOAD, SAME, DOWNLOADED }
+
+    private static final class Pending {
+        final DatabaseManager.ImportRow row;
+        final Kind kind;
+
+        Pending(DatabaseManager.ImportRow row, Kind kind) {
+            this.row = row;
+            this.kind = kind;
+        }
+    }
+
+    // A file that needs more than a stat: its row (null for a new file) and what the walk saw
+    private static final class Candidate {
+        final File file;
+        final DatabaseManager.SourceInfo info;
+        final long size, modified; // -1 when the file is missing
+
+        Candidate(File file, DatabaseManager.SourceInfo info, long size, long modified) {
+            this.file = file;
+            this.info = info;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private final DatabaseManager dbManager;
+    private final File root;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int batchSize = FileImporter.BATCH_SIZE, commitRows = FileImporter.COMMIT_ROWS;
+
+    private final AtomicInteger filesTotal = new AtomicInteger(-1);
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+    private final AtomicInteger filesUnchanged = new AtomicInteger();
+    private final AtomicInteger uploaded = new AtomicInteger();
+    private final AtomicInteger downloaded = new AtomicInteger();
+    private final AtomicInteger conflicts = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final List<String> conflictPaths = new ArrayList<>();
+
+    // Filled by the pools, drained into transactions by this worker's thread; bounded, so readers
+    // wait for the database instead of holding every file in memory
+    private BlockingQueue<Pending> rows;
+    private final Map<Long, Candidate> toFetch = new ConcurrentHashMap<>();
+
+    // listener: error is null when the sync ran to the end (or was cancelled)
+    FileSynchronizer(DatabaseManager dbManager, File root, Listener listener) {
+        super(listener);
+        this.dbManager = dbManager;
+        this.root = root.getAbsoluteFile();
+    }
+
+    // Before execute()
+    void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    void setBatching(int batchSize, int commitRows) {
+        this.batchSize = Math.max(1, batchSize);
+        this.commitRows = Math.max(1, commitRows);
+    }
+
+    public String getTitle() { return "Synchronizing with Database"; }
+    public int getThreads() { return threads; }
+    public int getFilesTotal() { return filesTotal.get(); }
+    public int getFilesDone() { return filesDone.get(); }
+    public int getFilesFailed() { return filesFailed.get(); }
+    public int getFilesUnchanged() { return filesUnchanged.get(); }
+    public long getBytesDone() { return bytesDone.get(); }
+    public int getUploaded() { return uploaded.get(); }
+    public int getDownloaded() { return downloaded.get(); }
+    public int getConflicts() { return conflicts.get(); }
+
+    public synchronized List<String> getConflictPaths() {
+        return new ArrayList<>(conflictPaths);
+    }
+
+    protected void work() throws InterruptedException {
+        rows = new ArrayBlockingQueue<>(Math.min(batchSize * 2, 2000));
+        ExecutorService pool = newPool("sync-reader");
+        try {
+            Map<String, DatabaseManager.SourceInfo> known = new HashMap<>(dbManager.getSourceInfo(root.getPath() + File.separator));
+            List<Candidate> candidates = walk(known);
+            // Rows left over have no file: download them
+            for (DatabaseManager.SourceInfo info : known.values())
+                candidates.add(new Candidate(new File(info.filepath), info, -1, -1));
+            filesTotal.set(filesUnchanged.get() + candidates.size());
+
+            // Decide on the pool; uploads and recorded files come back through rows
+            for (Candidate c : candidates)
+                pool.execute(() -> {
+                    if (!isCancelled())
+                        decide(c);
+                });
+            pool.shutdown();
+            writeRows(pool);
+            if (!isCancelled())
+                download();
+        } catch (SQLException e) {
+            setError("Database error: " + e.getMessage());
+        } catch (IOException | UncheckedIOException e) {
+            setError("Could not read " + root + ": " + e.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private ExecutorService newPool(String name) {
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private void queue(DatabaseManager.ImportRow row, Kind kind) {
+        try {
+            rows.put(new Pending(row, kind));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The stat walk: files matching their unchanged rows are only counted
+    private List<Candidate> walk(Map<String, DatabaseManager.SourceInfo> known) throws IOException {
+        List<Candidate> candidates = new ArrayList<>();
+        Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(Path p, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile() || p.getFileName().toString().endsWith(".sync"))
+                    return FileVisitResult.CONTINUE;
+                String path = p.toString();
+                DatabaseManager.SourceInfo info = known.remove(path);
+                long size = attrs.size(), modified = attrs.lastModifiedTime().toMillis();
+                FileChangeWatcher.Fingerprint fp = info != null ? info.fingerprint : null;
+                if (fp != null && !info.changedInDatabase && fp.size == size && fp.modified == modified) {
+                    filesUnchanged.incrementAndGet();
+                    filesDone.incrementAndGet();
+                } else
+                    candidates.add(new Candidate(p.toFile(), info, size, modified));
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFileFailed(Path p, IOException e) {
+                System.err.println("Could not read " + p + ": " + e.getMessage());
+                filesFailed.incrementAndGet();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return candidates;
+    }
+
+    // On the pool: reads the file if it may have changed and picks what to do with it
+    private void decide(Candidate c) {
+        DatabaseManager.SourceInfo info = c.info;
+        if (c.size < 0) {
+            toFetch.put(info.id, c);
+            return;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(c.file.toPath());
+            FileChangeWatcher.Fingerprint fp = FileChangeWatcher.Fingerprint.of(bytes, c.modified);
+            boolean changedOnDisk = info == null || !fp.sameContent(info.fingerprint);
+            boolean changedInDatabase = info != null && (info.changedInDatabase || info.fingerprint == null);
+            if (changedOnDisk && !changedInDatabase) {
+                TextBuffer.Encoding enc = TextBuffer.detectEncoding(bytes, Math.min(bytes.length, TextBuffer.DETECT_BYTES));
+                queue(new DatabaseManager.ImportRow(info != null ? info.id : null, c.file.getName(), c.file.getPath(),
+                        TextBuffer.decode(bytes, enc), fp, info != null ? info.lastModified : null), Kind.UPLOAD);
+            } else if (!changedOnDisk && !changedInDatabase) {
+                // Touched, same bytes
+                queue(new DatabaseManager.ImportRow(info.id, c.file.getName(), c.file.getPath(), null, fp, info.lastModified), Kind.SAME);
+            } else {
+                toFetch.put(info.id, c);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            failed(c.file, e);
+        }
+    }
+
+    // Writes what the pool queues, commitRows rows (or COMMIT_BYTES) to a transaction, until the
+    // pool (already shut down) has finished
+    private void writeRows(ExecutorService pool) throws InterruptedException, SQLException {
+        List<Pending> batch = new ArrayList<>();
+        List<DatabaseManager.ImportRow> batchRows = new ArrayList<>();
+        long batchBytes = 0;
+        while (!isCancelled()) {
+            Pending p = rows.poll(50, TimeUnit.MILLISECONDS);
+            if (p != null) {
+                batch.add(p);
+                batchRows.add(p.row);
+                batchBytes += p.kind == Kind.UPLOAD ? p.row.fingerprint.size : 0;
+            }
+            boolean drained = p == null && pool.isTerminated() && rows.isEmpty();
+            if (batch.size() >= commitRows || batchBytes >= FileImporter.COMMIT_BYTES || (drained && !batch.isEmpty())) {
+                boolean[] written = dbManager.syncFiles(batchRows, batchSize);
+                for (int i = 0; i < written.length; i++) {
+                    Pending done = batch.get(i);
+                    if (!written[i])
+                        conflict(done.row.filepath);
+                    else if (done.kind == Kind.SAME)
+                        filesUnchanged.incrementAndGet();
+                    else if (done.kind == Kind.UPLOAD) {
+                        uploaded.incrementAndGet();
+                        bytesDone.addAndGet(done.row.fingerprint.size);
+                    }
+                    filesDone.incrementAndGet();
+                }
+                batch.clear();
+                batchRows.clear();
+                batchBytes = 0;
+            }
+            if (drained)
+                return;
+        }
+    }
+
+    // Fetches the rows to download or compare, FETCH_ROWS (or FETCH_BYTES of text) at a time, and
+    // writes each fetch's files on a pool before the next, which bounds the memory
+    private void download() throws InterruptedException, SQLException {
+        List<Long> ids = new ArrayList<>(toFetch.keySet());
+        Collections.sort(ids);
+        for (int from = 0; from < ids.size() && !isCancelled(); ) {
+            List<Long> fetch = new ArrayList<>(ids.subList(from, Math.min(from + FETCH_ROWS, ids.size())));
+            ExecutorService writers = newPool("sync-writer");
+            long[] chars = {0};
+            int[] taken = {0};
+            try {
+                dbManager.fetchFiles(fetch, (id, filename, filepath, content, lastModified) -> {
+                    Candidate c = toFetch.remove(id);
+                    if (c == null)
+                        return true;
+                    writers.execute(() -> apply(c, content, lastModified));
+                    taken[0]++;
+                    chars[0] += content.length();
+                    return !isCancelled() && 2 * chars[0] < FETCH_BYTES;
+                });
+            } finally {
+                writers.shutdown();
+            }
+            writeRows(writers);
+            // Rows cut off by FETCH_BYTES are fetched again; rows gone from the table are not
+            if (taken[0] > 0 && taken[0] < fetch.size()) {
+                for (Long id : fetch) {
+                    if (toFetch.containsKey(id))
+                        ids.add(id);
+                }
+            }
+            from += fetch.size();
+        }
+        // Rows deleted from the database since the metadata query
+        for (Candidate c : toFetch.values()) {
+            filesDone.incrementAndGet();
+            if (c.size >= 0)
+                conflict(c.file.getPath());
+        }
+    }
+
+    // On a writer thread: the row's content against the file
+    private void apply(Candidate c, String content, Timestamp lastModified) {
+        DatabaseManager.SourceInfo info = c.info;
+        try {
+            if (c.size >= 0) {
+                byte[] bytes = Files.readAllBytes(c.file.toPath());
+                TextBuffer.Encoding enc = TextBuffer.detectEncoding(bytes, Math.min(bytes.length, TextBuffer.DETECT_BYTES));
+                FileChangeWatcher.Fingerprint fp = FileChangeWatcher.Fingerprint.of(bytes, c.modified);
+                if (TextBuffer.decode(bytes, enc).equals(content)) {
+                    queue(new DatabaseManager.ImportRow(info.id, c.file.getName(), c.file.getPath(), null, fp, lastModified), Kind.SAME);
+                    return;
+                }
+                // Only the database changed since the file was last synced: the file may be overwritten
+                if (info.fingerprint == null || !fp.sameContent(info.fingerprint)) {
+                    conflict(c.file.getPath());
+                    filesDone.incrementAndGet();
+                    return;
+                }
+                write(c, content, enc, lastModified);
+            } else {
+                write(c, content, TextBuffer.Encoding.DEFAULT, lastModified);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            failed(c.file, e);
+        }
+    }
+
+    private void write(Candidate c, String content, TextBuffer.Encoding enc, Timestamp lastModified) throws IOException {
+        Path target = c.file.toPath();
+        Path tmp = target.resolveSibling("." + target.getFileName() + "." + Thread.currentThread().getId() + ".sync");
+        byte[] bytes = ((enc.bom ? "\uFEFF" : "") + content).getBytes(enc.charset);
+        try {
+            Files.createDirectories(target.getParent());
+            Files.write(tmp, bytes);
+            // The file must still be what was compared against; this narrows the race to the move
+            boolean same = c.size < 0 ? !Files.exists(target)
+                    : Files.size(target) == c.size && Files.getLastModifiedTime(target).toMillis() == c.modified;
+            if (!same) {
+                Files.delete(tmp);
+                conflict(c.file.getPath());
+                filesDone.incrementAndGet();
+                return;
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        downloaded.incrementAndGet();
+        bytesDone.addAndGet(bytes.length);
+        FileChangeWatcher.Fingerprint fp = FileChangeWatcher.Fingerprint.of(bytes, c.file.lastModified());
+        // Recorded as matching the file, unless the row was saved again meanwhile
+        queue(new DatabaseManager.ImportRow(c.info.id, c.file.getName(), c.file.getPath(), null, fp, lastModified), Kind.DOWNLOADED);
+    }
+
+    private synchronized void conflict(String path) {
+        conflicts.incrementAndGet();
+        if (conflictPaths.size() < MAX_REPORTED_CONFLICTS)
+            conflictPaths.add(path);
+    }
+
+    private void failed(File f, Exception e) {
+        System.err.println("Could not sync " + f + ": " + e.getMessage());
+        filesFailed.incrementAndGet();
+        filesDone.incrementAndGet();
+    }
+}
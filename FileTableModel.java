@@ -0,0 +1,211 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+
+// Rows of the files table for the Database Manager, fetched a page at a time as the table asks
+// for them. Sorting and filtering happen in the database; only the pages near what is on screen
+// are kept. A page that follows one already loaded is fetched by keyset (rows after the last one
+// seen, which an index can answer directly); a jump into the middle (dragging the scroll bar)
+// falls back to OFFSET. Rows that are not loaded yet show as blank and fill in when their page
+// arrives. Called on the EDT; pages are fetched on SwingWorkers.
+class FileTableModel extends AbstractTableModel {
+    static final int PAGE_SIZE = 200;
+    private static final int MAX_PAGES = 25;
+
+    // Column order of the table; also what the database can sort by
+    enum Column {
+        ID("ID"), FILENAME("Filename"), PATH("Path"), SIZE("Size"), LAST_MODIFIED("Last Modified");
+
+        final String title;
+
+        Column(String title) {
+            this.title = title;
+        }
+    }
+
+    // One file's metadata, without its content
+    static final class Row {
+        final long id;
+        final String filename, filepath;
+        final long size;
+        final Timestamp lastModified;
+
+        Row(long id, String filename, String filepath, long size, Timestamp lastModified) {
+            this.id = id;
+            this.filename = filename;
+            this.filepath = filepath;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        // The value the database sorts by (nulls sort as the earliest time, as in the query)
+        Object key(Column c) {
+            switch (c) {
+                case ID: return id;
+                case FILENAME: return filename;
+                case PATH: return filepath;
+                case SIZE: return size;
+                default: return lastModified != null ? lastModified : DatabaseManager.NO_TIMESTAMP;
+            }
+        }
+
+        Object get(Column c) {
+            switch (c) {
+                case ID: return id;
+                case FILENAME: return filename;
+                case PATH: return filepath;
+                case SIZE: return size + " chars";
+                default: return lastModified;
+            }
+        }
+    }
+
+    // What is shown: the sort and the filter (a substring of the name or path, "" for all)
+    static final class Query {
+        final Column sort;
+        final boolean ascending;
+        final String filter;
+
+        Query(Column sort, boolean ascending, String filter) {
+            this.sort = sort;
+            this.ascending = ascending;
+            this.filter = filter;
+        }
+    }
+
+    // Called on the EDT when the row count is known or a fetch failed
+    interface Listener {
+        void counted(int rows);
+
+        void failed(SQLException e);
+    }
+
+    private final DatabaseManager db;
+    private final Listener listener;
+    private Query query = new Query(Column.LAST_MODIFIED, false, "");
+    private int rowCount;
+    private int generation; // bumped whenever the query changes; late pages of older ones are dropped
+    private final Map<Integer, List<Row>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Row>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final Set<Integer> fetching = new HashSet<>();
+
+    FileTableModel(DatabaseManager db, Listener listener) {
+        this.db = db;
+        this.listener = listener;
+    }
+
+    Query getQuery() {
+        return query;
+    }
+
+    void setQuery(Query q) {
+        query = q;
+        refresh();
+    }
+
+    // Drops everything loaded and counts again
+    void refresh() {
+        int gen = ++generation;
+        Query q = query;
+        pages.clear();
+        fetching.clear();
+        rowCount = 0;
+        fireTableDataChanged();
+        new SwingWorker<Integer, Void>() {
+            protected Integer doInBackground() throws SQLException {
+                return db.countFiles(q.filter);
+            }
+
+            protected void done() {
+                if (gen != generation)
+                    return;
+                try {
+                    rowCount = get();
+                    fireTableDataChanged();
+                    listener.counted(rowCount);
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+        }.execute();
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return Column.values().length;
+    }
+
+    public String getColumnName(int column) {
+        return Column.values()[column].title;
+    }
+
+    public Object getValueAt(int row, int column) {
+        Row r = getRow(row);
+        return r == null ? null : r.get(Column.values()[column]);
+    }
+
+    // The row if its page is loaded; otherwise null, and the page is on its way
+    Row getRow(int row) {
+        if (row < 0 || row >= rowCount)
+            return null;
+        int page = row / PAGE_SIZE;
+        List<Row> rows = pages.get(page);
+        if (rows == null) {
+            fetch(page);
+            return null;
+        }
+        int i = row % PAGE_SIZE;
+        return i < rows.size() ? rows.get(i) : null;
+    }
+
+    private void fetch(int page) {
+        if (!fetching.add(page))
+            return;
+        int gen = generation;
+        Query q = query;
+        // Keyset from the previous page when it is around; peeking must not reorder the LRU
+        List<Row> previous = page > 0 && pages.containsKey(page - 1) ? pagesPeek(page - 1) : null;
+        Row after = previous != null && previous.size() == PAGE_SIZE ? previous.get(PAGE_SIZE - 1) : null;
+        new SwingWorker<List<Row>, Void>() {
+            protected List<Row> doInBackground() throws SQLException {
+                return db.getFilePage(q, after, after != null ? 0 : (long) page * PAGE_SIZE, PAGE_SIZE);
+            }
+
+            protected void done() {
+                if (gen != generation)
+                    return;
+                try {
+                    pages.put(page, get());
+                    fetching.remove(page); // a failed page stays marked, so it is not retried on every paint
+                    int first = page * PAGE_SIZE;
+                    int last = Math.min(rowCount, first + PAGE_SIZE) - 1;
+                    if (last >= first)
+                        fireTableRowsUpdated(first, last);
+                } catch (Exception e) {
+                    fail(e);
+                }
+            }
+        }.execute();
+    }
+
+    private List<Row> pagesPeek(int page) {
+        for (Map.Entry<Integer, List<Row>> e : pages.entrySet()) {
+            if (e.getKey() == page)
+                return e.getValue();
+        }
+        return null;
+    }
+
+    private void fail(Exception e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        listener.failed(cause instanceof SQLException ? (SQLException) cause : new SQLException(cause.getMessage(), cause));
+    }
+}
@@ -0,0 +1,298 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+// Hex dump of a file of any size: offset, sixteen bytes in hex and the same bytes as ASCII per row.
+// Opening it only asks the file for its size; the bytes are read through memory mappings of
+// WINDOW bytes, mapped when a row in them is first shown and kept in a small LRU. Painting works
+// out the rows in the clip from the top row and draws just those. A 4 GB file has more rows than a
+// component can be pixels tall, so the view scrolls itself: it keeps the top row as a long and
+// drives its own scroll bar, in units of several rows when there are more than an int holds.
+class HexView extends JComponent implements Closeable {
+    static final int BYTES_PER_ROW = 16;
+    private static final int WINDOW_BITS = 26; // 64 MB mappings
+    private static final long WINDOW = 1L << WINDOW_BITS;
+    private static final int MAPPED_WINDOWS = 8;
+    private static final int SEARCH_BLOCK = 1 << 20;
+    private static final Color SELECTION = new Color(184, 207, 229);
+    private static final Color OFFSET_TEXT = new Color(140, 140, 140);
+    private static final Color GUTTER = new Color(245, 245, 245);
+
+    private final FileChannel channel;
+    private final long size;
+    private final long rows;
+    private final Map<Long, MappedByteBuffer> windows = new LinkedHashMap<>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+            return size() > MAPPED_WINDOWS;
+        }
+    };
+    private final JScrollBar scrollBar = new JScrollBar(JScrollBar.VERTICAL);
+    private final long rowsPerUnit; // scroll bar units are this many rows
+    private final int offsetDigits;
+    private long topRow;
+    private boolean movingScrollBar; // the bar is being set from topRow, not the other way round
+    private long selectionStart = -1;
+    private int selectionLength;
+    private int lineHeight, ascent, charWidth;
+    private Runnable selectionListener = () -> { };
+
+    HexView(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+        rows = (size + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+        rowsPerUnit = Math.max(1, (rows + (1 << 30) - 1) >> 30);
+        offsetDigits = Math.max(8, Long.toHexString(Math.max(0, size - 1)).length());
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        setOpaque(true);
+        setBackground(Color.WHITE);
+        setForeground(Color.BLACK);
+        setFocusable(true);
+
+        scrollBar.addAdjustmentListener(e -> {
+            if (movingScrollBar)
+                return;
+            long row = Math.min(e.getValue() * rowsPerUnit, maxTopRow());
+            if (row != topRow) {
+                topRow = row;
+                repaint();
+            }
+        });
+        addComponentListener(new ComponentAdapter() {
+            public void componentResized(ComponentEvent e) {
+                updateScrollBar();
+            }
+        });
+        addMouseWheelListener(e -> scrollTo(topRow + 3L * e.getWheelRotation()));
+        addMouseListener(new MouseAdapter() {
+            public void mousePressed(MouseEvent e) {
+                requestFocusInWindow();
+                long offset = offsetAt(e.getX(), e.getY());
+                if (offset >= 0)
+                    select(offset, 1);
+            }
+        });
+        addKeyListener(new KeyAdapter() {
+            public void keyPressed(KeyEvent e) {
+                int page = Math.max(1, visibleRows() - 1);
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_PAGE_DOWN: scrollTo(topRow + page); break;
+                    case KeyEvent.VK_PAGE_UP: scrollTo(topRow - page); break;
+                    case KeyEvent.VK_DOWN: scrollTo(topRow + 1); break;
+                    case KeyEvent.VK_UP: scrollTo(topRow - 1); break;
+                    case KeyEvent.VK_HOME: scrollTo(0); break;
+                    case KeyEvent.VK_END: scrollTo(rows); break;
+                }
+            }
+        });
+    }
+
+    JScrollBar getScrollBar() {
+        return scrollBar;
+    }
+
+    long getFileSize() { return size; }
+    long getSelectionStart() { return selectionStart; }
+    int getSelectionLength() { return selectionLength; }
+
+    // Called on the EDT when the selection changes
+    void setSelectionListener(Runnable listener) {
+        selectionListener = listener;
+    }
+
+    public void setFont(Font font) {
+        super.setFont(font);
+        FontMetrics fm = getFontMetrics(font);
+        lineHeight = fm.getHeight();
+        ascent = fm.getAscent();
+        charWidth = Math.max(1, fm.charWidth('0'));
+        updateScrollBar();
+        repaint();
+    }
+
+    public void close() throws IOException {
+        synchronized (this) {
+            windows.clear();
+        }
+        channel.close();
+    }
+
+    // ---------- BYTES ----------
+
+    private synchronized MappedByteBuffer window(long index) throws IOException {
+        MappedByteBuffer w = windows.get(index);
+        if (w == null) {
+            long start = index << WINDOW_BITS;
+            w = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+            windows.put(index, w);
+        }
+        return w;
+    }
+
+    // Copies up to length bytes at offset into buf, across mappings; returns how many
+    private int read(long offset, byte[] buf, int length) throws IOException {
+        if (offset >= size)
+            return 0;
+        int n = (int) Math.min(length, size - offset);
+        int done = 0;
+        while (done < n) {
+            long pos = offset + done;
+            MappedByteBuffer w = window(pos >> WINDOW_BITS);
+            int at = (int) (pos & (WINDOW - 1));
+            int chunk = Math.min(n - done, w.capacity() - at);
+            w.get(at, buf, done, chunk);
+            done += chunk;
+        }
+        return n;
+    }
+
+    // First offset at or after from where pattern starts, or -1; reads a block at a time, each
+    // overlapping the last by pattern.length - 1 bytes. May be called off the EDT.
+    long find(byte[] pattern, long from, BooleanSupplier cancelled) throws IOException {
+        if (pattern.length == 0)
+            return -1;
+        byte[] block = new byte[SEARCH_BLOCK + pattern.length - 1];
+        byte first = pattern[0];
+        for (long pos = Math.max(0, from); pos <= size - pattern.length; pos += SEARCH_BLOCK) {
+            if (cancelled.getAsBoolean())
+                return -1;
+            int n = read(pos, block, block.length);
+            for (int i = 0, last = n - pattern.length; i <= last; i++) {
+                if (block[i] != first)
+                    continue;
+                int k = 1;
+                while (k < pattern.length && block[i + k] == pattern[k])
+                    k++;
+                if (k == pattern.length)
+                    return pos + i;
+            }
+        }
+        return -1;
+    }
+
+    // ---------- SCROLLING ----------
+
+    private int visibleRows() {
+        return Math.max(1, getHeight() / Math.max(1, lineHeight));
+    }
+
+    private long maxTopRow() {
+        return Math.max(0, rows - visibleRows());
+    }
+
+    private void scrollTo(long row) {
+        topRow = Math.max(0, Math.min(row, maxTopRow()));
+        movingScrollBar = true;
+        scrollBar.setValue((int) (topRow / rowsPerUnit));
+        movingScrollBar = false;
+        repaint();
+    }
+
+    private void updateScrollBar() {
+        int units = (int) ((rows + rowsPerUnit - 1) / rowsPerUnit);
+        int visible = (int) Math.max(1, visibleRows() / rowsPerUnit);
+        topRow = Math.min(topRow, maxTopRow());
+        movingScrollBar = true;
+        scrollBar.setValues((int) (topRow / rowsPerUnit), Math.min(visible, Math.max(1, units)), 0, Math.max(1, units));
+        scrollBar.setBlockIncrement(visible);
+        scrollBar.setUnitIncrement(1);
+        movingScrollBar = false;
+    }
+
+    // Selects length bytes at offset and scrolls them into view, a third of the way down if off screen
+    void select(long offset, int length) {
+        if (offset < 0 || offset >= size)
+            return;
+        selectionStart = offset;
+        selectionLength = Math.max(1, length);
+        long row = offset / BYTES_PER_ROW;
+        if (row < topRow || row >= topRow + visibleRows())
+            scrollTo(row - visibleRows() / 3);
+        repaint();
+        selectionListener.run();
+    }
+
+    private boolean selected(long offset) {
+        return selectionStart >= 0 && offset >= selectionStart && offset < selectionStart + selectionLength;
+    }
+
+    // ---------- PAINTING ----------
+
+    private int hexX(int column) {
+        return (offsetDigits + 2 + column * 3 + (column >= 8 ? 1 : 0)) * charWidth;
+    }
+
+    private int asciiX(int column) {
+        return (offsetDigits + 2 + BYTES_PER_ROW * 3 + 2 + column) * charWidth;
+    }
+
+    // The byte under a point, or -1
+    private long offsetAt(int x, int y) {
+        long row = topRow + y / lineHeight;
+        for (int c = 0; c < BYTES_PER_ROW; c++) {
+            if ((x >= hexX(c) && x < hexX(c) + 2 * charWidth) || (x >= asciiX(c) && x < asciiX(c) + charWidth)) {
+                long offset = row * BYTES_PER_ROW + c;
+                return offset < size ? offset : -1;
+            }
+        }
+        return -1;
+    }
+
+    public Dimension getPreferredSize() {
+        return new Dimension(asciiX(BYTES_PER_ROW) + charWidth, 30 * lineHeight);
+    }
+
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        g.setColor(GUTTER);
+        g.fillRect(0, clip.y, (offsetDigits + 1) * charWidth, clip.height);
+        g.setFont(getFont());
+
+        byte[] bytes = new byte[BYTES_PER_ROW];
+        char[] hex = new char[2];
+        int first = clip.y / lineHeight;
+        int last = (clip.y + clip.height) / lineHeight;
+        for (int r = first; r <= last; r++) {
+            long row = topRow + r;
+            if (row >= rows)
+                break;
+            long offset = row * BYTES_PER_ROW;
+            int n;
+            try {
+                n = read(offset, bytes, BYTES_PER_ROW);
+            } catch (IOException e) {
+                g.setColor(Color.RED);
+                g.drawString("Read error: " + e.getMessage(), hexX(0), r * lineHeight + ascent);
+                break;
+            }
+            int y = r * lineHeight;
+            g.setColor(OFFSET_TEXT);
+            String off = Long.toHexString(offset).toUpperCase();
+            g.drawString("0".repeat(Math.max(0, offsetDigits - off.length())) + off, 0, y + ascent);
+            for (int c = 0; c < n; c++) {
+                int b = bytes[c] & 0xFF;
+                if (selected(offset + c)) {
+                    g.setColor(SELECTION);
+                    g.fillRect(hexX(c), y, 2 * charWidth, lineHeight);
+                    g.fillRect(asciiX(c), y, charWidth, lineHeight);
+                }
+                g.setColor(getForeground());
+                hex[0] = Character.toUpperCase(Character.forDigit(b >> 4, 16));
+                hex[1] = Character.toUpperCase(Character.forDigit(b & 0xF, 16));
+                g.drawChars(hex, 0, 2, hexX(c), y + ascent);
+                hex[0] = b >= 0x20 && b < 0x7F ? (char) b : '.';
+                g.drawChars(hex, 0, 1, asciiX(c), y + ascent);
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Line-based block diff used to patch an open document in place. Common leading and trailing
+// lines are trimmed first; what remains is diffed line by line with Myers' O(ND) algorithm.
+// diffLines is the variant for the compare view, which has to cope with whole files of any size.
+final class LineDiff {
+
+    // A changed region as character offsets: old [oldStart, oldEnd) becomes new [newStart, newEnd)
+    static final class Hunk {
+        final int oldStart, oldEnd, newStart, newEnd;
+
+        Hunk(int oldStart, int oldEnd, int newStart, int newEnd) {
+            this.oldStart = oldStart;
+            this.oldEnd = oldEnd;
+            this.newStart = newStart;
+            this.newEnd = newEnd;
+        }
+    }
+
+    private LineDiff() {
+    }
+
+    // Hunks in document order; empty when the texts are equal. When more than maxEdits line edits
+    // would be needed, the whole region between the common prefix and suffix is one hunk.
+    static List<Hunk> diff(String a, String b, int maxEdits) {
+        int prefix = 0;
+        int limit = Math.min(a.length(), b.length());
+        while (prefix < limit && a.charAt(prefix) == b.charAt(prefix))
+            prefix++;
+        if (prefix == a.length() && prefix == b.length())
+            return Collections.emptyList();
+        prefix = a.lastIndexOf('\n', prefix - 1) + 1;
+
+        int suffix = 0;
+        while (suffix < limit - prefix && a.charAt(a.length() - 1 - suffix) == b.charAt(b.length() - 1 - suffix))
+            suffix++;
+        // The suffix has to start at a line start in both texts
+        while (suffix > 0 && !(lineStart(a, a.length() - suffix, prefix) && lineStart(b, b.length() - suffix, prefix)))
+            suffix--;
+
+        int aEnd = a.length() - suffix, bEnd = b.length() - suffix;
+        int[] aLines = lineStarts(a, prefix, aEnd);
+        int[] bLines = lineStarts(b, prefix, bEnd);
+        int n = aLines.length - 1, m = bLines.length - 1;
+
+        List<Hunk> hunks = new ArrayList<>();
+        if (n == 0 || m == 0) {
+            hunks.add(new Hunk(prefix, aEnd, prefix, bEnd));
+            return hunks;
+        }
+
+        int[] aHash = hashes(a, aLines), bHash = hashes(b, bLines);
+        int[] matches = myers(a, aLines, aHash, b, bLines, bHash, maxEdits);
+        if (matches == null) {
+            hunks.add(new Hunk(prefix, aEnd, prefix, bEnd));
+            return hunks;
+        }
+
+        // matches holds matched (aLine, bLine) pairs in increasing order; the gaps are the hunks
+        int ai = 0, bi = 0;
+        for (int i = 0; i <= matches.length; i += 2) {
+            int ma = i < matches.length ? matches[i] : n;
+            int mb = i < matches.length ? matches[i + 1] : m;
+            if (ma > ai || mb > bi)
+                hunks.add(new Hunk(aLines[ai], aLines[ma], bLines[bi], bLines[mb]));
+            ai = ma + 1;
+            bi = mb + 1;
+        }
+        return hunks;
+    }
+
+    private static boolean lineStart(String s, int offset, int prefix) {
+        return offset == prefix || s.charAt(offset - 1) == '\n';
+    }
+
+    // Start offsets of the lines in [from, to), plus a final entry for to
+    static int[] lineStarts(String s, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '\n')
+                count++;
+        }
+        if (to > from && s.charAt(to - 1) != '\n')
+            count++;
+        int[] starts = new int[count + 1];
+        int k = 0;
+        starts[k++] = from;
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '\n' && k <= count)
+                starts[k++] = i + 1;
+        }
+        starts[count] = to;
+        return starts;
+    }
+
+    private static int[] hashes(String s, int[] lines) {
+        int[] h = new int[lines.length - 1];
+        for (int i = 0; i < h.length; i++) {
+            int hash = 0;
+            for (int j = lines[i]; j < lines[i + 1]; j++)
+                hash = 31 * hash + s.charAt(j);
+            h[i] = hash;
+        }
+        return h;
+    }
+
+    private static boolean lineEquals(String a, int[] aLines, int[] aHash, int x, String b, int[] bLines, int[] bHash, int y) {
+        int len = aLines[x + 1] - aLines[x];
+        return aHash[x] == bHash[y] && len == bLines[y + 1] - bLines[y]
+                && a.regionMatches(aLines[x], b, bLines[y], len);
+    }
+
+    // Greedy forward Myers; returns matched line pairs (a0, b0, a1, b1, ...) or null past maxEdits
+    private static int[] myers(String a, int[] aLines, int[] aHash, String b, int[] bLines, int[] bHash, int maxEdits) {
+        int n = aLines.length - 1, m = bLines.length - 1;
+        int max = Math.min(n + m, maxEdits);
+        int off = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+
+        for (int d = 0; d <= max; d++) {
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[off + k - 1] < v[off + k + 1])) ? v[off + k + 1] : v[off + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && lineEquals(a, aLines, aHash, x, b, bLines, bHash, y)) {
+                    x++;
+                    y++;
+                }
+                v[off + k] = x;
+                if (x >= n && y >= m)
+                    return backtrack(trace, off, n, m, d);
+            }
+        }
+        return null;
+    }
+
+    private static int[] backtrack(List<int[]> trace, int off, int n, int m, int dEnd) {
+        int[] pairs = new int[2 * Math.min(n, m)];
+        int count = 0;
+        int x = n, y = m;
+        for (int d = dEnd; d > 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK = (k == -d || (k != d && v[off + k - 1] < v[off + k + 1])) ? k + 1 : k - 1;
+            int prevX = v[off + prevK];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                pairs[count++] = y;
+                pairs[count++] = x;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            pairs[count++] = y;
+            pairs[count++] = x;
+        }
+        // Collected back to front as (b, a); reverse into (a, b) order
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++)
+            result[i] = pairs[count - 1 - i];
+        return result;
+    }
+
+    // ---------- COMPARE VIEW ----------
+
+    // A changed region as line numbers: old lines [oldLine, oldLine + oldCount) become new
+    // [newLine, newLine + newCount)
+    static final class LineHunk {
+        final int oldLine, oldCount, newLine, newCount;
+
+        LineHunk(int oldLine, int oldCount, int newLine, int newCount) {
+            this.oldLine = oldLine;
+            this.oldCount = oldCount;
+            this.newLine = newLine;
+            this.newCount = newCount;
+        }
+    }
+
+    // Line diff for texts of any size (aLines and bLines as from lineStarts). Every line is numbered
+    // by its content, lines that occur on one side only are set aside (they can never match), and
+    // what is left is diffed with the divide-and-conquer form of Myers' algorithm, which needs no
+    // memory for the edit path. A part of the texts whose edit cost goes past costLimit is split at
+    // the furthest point reached instead of the best one, which bounds the time for very different
+    // texts at the price of a longer diff there.
+    static List<LineHunk> diffLines(String a, int[] aLines, String b, int[] bLines, int costLimit) {
+        int n = aLines.length - 1, m = bLines.length - 1;
+        int[] aIds = new int[n], bIds = new int[m];
+        int ids = numberLines(a, aLines, aIds, b, bLines, bIds);
+
+        // Only lines found on both sides take part
+        boolean[] inA = new boolean[ids], inB = new boolean[ids];
+        for (int id : aIds)
+            inA[id] = true;
+        for (int id : bIds)
+            inB[id] = true;
+        int[] aKept = kept(aIds, inB), bKept = kept(bIds, inA);
+        int[] ra = new int[aKept.length], rb = new int[bKept.length];
+        for (int i = 0; i < ra.length; i++)
+            ra[i] = aIds[aKept[i]];
+        for (int i = 0; i < rb.length; i++)
+            rb[i] = bIds[bKept[i]];
+
+        int[] match = new int[ra.length];
+        Arrays.fill(match, -1);
+        bisectAll(ra, rb, match, Math.max(1, costLimit));
+
+        // The gaps between matched lines are the hunks
+        List<LineHunk> hunks = new ArrayList<>();
+        int ai = 0, bi = 0;
+        for (int i = 0; i <= ra.length; i++) {
+            if (i < ra.length && match[i] < 0)
+                continue;
+            int ma = i < ra.length ? aKept[i] : n;
+            int mb = i < ra.length ? bKept[match[i]] : m;
+            if (ma > ai || mb > bi)
+                hunks.add(new LineHunk(ai, ma - ai, bi, mb - bi));
+            ai = ma + 1;
+            bi = mb + 1;
+        }
+        return hunks;
+    }
+
+    // Gives equal lines the same id, through one open-addressing table over both texts; returns
+    // the number of ids
+    private static int numberLines(String a, int[] aLines, int[] aIds, String b, int[] bLines, int[] bIds) {
+        int total = aIds.length + bIds.length;
+        int cap = Integer.highestOneBit(Math.max(16, total)) << 2;
+        int[] table = new int[cap]; // id + 1; 0 is a free slot
+        int[] idHash = new int[total];
+        String[] idText = new String[total];
+        int[] idStart = new int[total], idEnd = new int[total];
+        int ids = 0;
+        for (int side = 0; side < 2; side++) {
+            String s = side == 0 ? a : b;
+            int[] lines = side == 0 ? aLines : bLines;
+            int[] out = side == 0 ? aIds : bIds;
+            for (int i = 0; i < out.length; i++) {
+                int start = lines[i], end = lines[i + 1];
+                int hash = 0;
+                for (int j = start; j < end; j++)
+                    hash = 31 * hash + s.charAt(j);
+                int slot = (hash ^ (hash >>> 16)) * 0x9E3779B9 >>> 1 & (cap - 1);
+                int id;
+                while (true) {
+                    id = table[slot] - 1;
+                    if (id < 0) {
+                        id = ids++;
+                        table[slot] = id + 1;
+                        idHash[id] = hash;
+                        idText[id] = s;
+                        idStart[id] = start;
+                        idEnd[id] = end;
+                        break;
+                    }
+                    if (idHash[id] == hash && idEnd[id] - idStart[id] == end - start
+                            && idText[id].regionMatches(idStart[id], s, start, end - start))
+                        break;
+                    slot = (slot + 1) & (cap - 1);
+                }
+                out[i] = id;
+            }
+        }
+        return ids;
+    }
+
+    private static int[] kept(int[] ids, boolean[] onOtherSide) {
+        int count = 0;
+        for (int id : ids) {
+            if (onOtherSide[id])
+                count++;
+        }
+        int[] kept = new int[count];
+        count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (onOtherSide[ids[i]])
+                kept[count++] = i;
+        }
+        return kept;
+    }
+
+    // Fills match[i] with the line of b that a's line i is matched with. Works through the
+    // sub-problems with a stack instead of recursion, so very different texts cannot overflow it.
+    private static void bisectAll(int[] a, int[] b, int[] match, int costLimit) {
+        int vLength = 2 * (Math.min(costLimit, (a.length + b.length + 1) / 2) + 1);
+        int[] v1 = new int[vLength], v2 = new int[vLength];
+        int[] split = new int[2];
+        ArrayDeque<int[]> todo = new ArrayDeque<>();
+        todo.push(new int[]{0, a.length, 0, b.length});
+        while (!todo.isEmpty()) {
+            int[] p = todo.pop();
+            int lo1 = p[0], hi1 = p[1], lo2 = p[2], hi2 = p[3];
+            while (lo1 < hi1 && lo2 < hi2 && a[lo1] == b[lo2])
+                match[lo1++] = lo2++;
+            while (lo1 < hi1 && lo2 < hi2 && a[hi1 - 1] == b[hi2 - 1])
+                match[--hi1] = --hi2;
+            if (lo1 == hi1 || lo2 == hi2)
+                continue;
+            if (!bisect(a, lo1, hi1, b, lo2, hi2, v1, v2, costLimit, split))
+                continue;
+            int x = split[0], y = split[1];
+            if ((x == lo1 && y == lo2) || (x == hi1 && y == hi2))
+                continue; // no progress possible: leave it as one change
+            todo.push(new int[]{x, hi1, y, hi2});
+            todo.push(new int[]{lo1, x, lo2, y});
+        }
+    }
+
+    // Finds where the forward and backward searches of Myers' algorithm meet (the middle of an
+    // edit path) and stores it in split; false when the ranges have nothing in common
+    private static boolean bisect(int[] a, int lo1, int hi1, int[] b, int lo2, int hi2,
+                                  int[] v1, int[] v2, int costLimit, int[] split) {
+        int n = hi1 - lo1, m = hi2 - lo2;
+        int maxD = (n + m + 1) / 2;
+        int dLimit = Math.min(maxD, costLimit);
+        int vOffset = dLimit + 1;
+        int vLength = 2 * vOffset;
+        Arrays.fill(v1, 0, vLength, -1);
+        Arrays.fill(v2, 0, vLength, -1);
+        v1[vOffset + 1] = 0;
+        v2[vOffset + 1] = 0;
+        int delta = n - m;
+        boolean front = (delta & 1) != 0;
+        // Diagonals that ran off the ranges are no longer extended
+        int k1start = 0, k1end = 0, k2start = 0, k2end = 0;
+        for (int d = 0; d < dLimit; d++) {
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1Offset = vOffset + k1;
+                int x1 = k1 == -d || (k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1]) ? v1[k1Offset + 1] : v1[k1Offset - 1] + 1;
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[lo1 + x1] == b[lo2 + y1]) {
+                    x1++;
+                    y1++;
+                }
+                v1[k1Offset] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2Offset = vOffset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < vLength && v2[k2Offset] != -1 && x1 >= n - v2[k2Offset]) {
+                        split[0] = lo1 + x1;
+                        split[1] = lo2 + y1;
+                        return true;
+                    }
+                }
+            }
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2Offset = vOffset + k2;
+                int x2 = k2 == -d || (k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1]) ? v2[k2Offset + 1] : v2[k2Offset - 1] + 1;
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[hi1 - 1 - x2] == b[hi2 - 1 - y2]) {
+                    x2++;
+                    y2++;
+                }
+                v2[k2Offset] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1Offset = vOffset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < vLength && v1[k1Offset] != -1) {
+                        int x1 = v1[k1Offset];
+                        if (x1 >= n - x2) {
+                            split[0] = lo1 + x1;
+                            split[1] = lo2 + x1 - (k1Offset - vOffset);
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        if (dLimit == maxD)
+            return false;
+        // Over the cost limit: split where the forward search got furthest
+        int best = -1;
+        for (int k1 = -dLimit + 1; k1 <= dLimit - 1; k1++) {
+            int x1 = v1[vOffset + k1];
+            int y1 = x1 - k1;
+            if (x1 >= 0 && x1 <= n && y1 >= 0 && y1 <= m && x1 + y1 > best) {
+                best = x1 + y1;
+                split[0] = lo1 + x1;
+                split[1] = lo2 + y1;
+            }
+        }
+        return best > 0;
+    }
+}
@@ -0,0 +1,556 @@
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+import java.io.*;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Sort Lines, Unique Lines and Count Duplicates over text of any size, with an external merge sort.
+// Lines are read into runs of up to MEMORY_BYTES / (threads + 1); each full run is sorted (and its
+// duplicates collapsed) on a pool of threads while the next one is read, and written to a spill
+// file. Input that fits in one run is never spilled. The runs are then merged MERGE_WAYS at a time,
+// the groups of a round in parallel, until one last merge writes the result. The sort is stable, so
+// Unique Lines keeps the first of equal lines (which matters when case is ignored). Count Duplicates
+// writes each distinct line once behind its count, as uniq -c does. The result goes to a temporary
+// file next to the output that is then moved over it; the input ends up in memory a run at a time.
+class LineSorter extends BulkWorker<Void> {
+    enum Mode { SORT, UNIQUE, COUNT }
+
+    // Lines held while runs are built, -Deditor.sortMemoryMB=...
+    static final long MEMORY_BYTES = Math.max(1, Long.getLong("editor.sortMemoryMB", 256)) << 20;
+    // Runs merged at once; with more, they are merged in rounds
+    static final int MERGE_WAYS = 64;
+    private static final int LINE_OVERHEAD = 48; // a String and its array, besides the characters
+    private static final int IO_BUFFER = 1 << 16;
+
+    private final Reader in;
+    private final long inputChars;
+    private final Mode mode;
+    private final Comparator<String> order;
+    private final File output;
+    private final TextBuffer.Encoding encoding;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicLong charsRead = new AtomicLong();
+    private final AtomicLong linesIn = new AtomicLong();
+    private final AtomicLong linesOut = new AtomicLong();
+    private final AtomicLong recordsMerged = new AtomicLong();
+    private final AtomicInteger runs = new AtomicInteger();
+    private volatile long recordsToMerge;
+    private volatile boolean merging;
+
+    private Path spillDir;
+    private int merges;
+    private String newline = "\n";
+    private boolean endsWithNewline;
+
+    // in: the lines to sort, inputChars characters long (for progress; 0 if not known). The result
+    // goes to output in the given encoding. listener: error is null when the sort went through (or
+    // was cancelled).
+    LineSorter(Reader in, long inputChars, Mode mode, boolean ignoreCase, boolean descending,
+               File output, TextBuffer.Encoding encoding, Listener listener) {
+        super(listener);
+        this.in = in;
+        this.inputChars = inputChars;
+        this.mode = mode;
+        Comparator<String> c = ignoreCase ? String.CASE_INSENSITIVE_ORDER : Comparator.naturalOrder();
+        this.order = descending ? c.reversed() : c;
+        this.output = output;
+        this.encoding = encoding;
+    }
+
+    // Before execute()
+    void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public Mode getMode() { return mode; }
+    public int getThreads() { return threads; }
+    public long getCharsRead() { return charsRead.get(); }
+    public long getLinesIn() { return linesIn.get(); }
+    public long getLinesOut() { return linesOut.get(); }
+    // Runs spilled to disk; 0 when the input was sorted in memory
+    public int getRuns() { return runs.get(); }
+    public boolean isMerging() { return merging; }
+
+    // Reading, then merging, each as a percentage; also reported through setProgress
+    public int getPercentDone() {
+        if (!merging)
+            return inputChars <= 0 ? 0 : (int) Math.min(100, charsRead.get() * 100 / inputChars);
+        long total = recordsToMerge;
+        return total <= 0 ? 100 : (int) Math.min(100, recordsMerged.get() * 100 / total);
+    }
+
+    // [start, end) of a document, read a slice at a time under its read lock instead of copied out whole
+    static Reader documentReader(Document doc, int start, int end) {
+        return new Reader() {
+            private final Segment segment = new Segment();
+            private int pos = start;
+
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                if (pos >= end)
+                    return -1;
+                int n = Math.min(len, Math.min(end - pos, IO_BUFFER));
+                BadLocationException[] failed = new BadLocationException[1];
+                doc.render(() -> {
+                    try {
+                        doc.getText(pos, n, segment);
+                        System.arraycopy(segment.array, segment.offset, cbuf, off, n);
+                    } catch (BadLocationException e) {
+                        failed[0] = e;
+                    }
+                });
+                if (failed[0] != null)
+                    throw new IOException("The document changed while it was read");
+                pos += n;
+                return n;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    // A result written as UTF-16BE, mapped rather than read, to be streamed into a document
+    static CharBuffer mapResult(File f) throws IOException {
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE)
+                throw new IOException("The result is too big for the editor; write it to a new file instead");
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).asCharBuffer();
+        }
+    }
+
+    protected void work() throws Exception {
+        Path target = output.toPath().toAbsolutePath();
+        Path tmp = target.resolveSibling("." + target.getFileName() + ".sort");
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "line-sorter");
+            t.setDaemon(true);
+            return t;
+        });
+        boolean written = false;
+        try {
+            List<Source> sources;
+            // Closed before anything is written: the output may replace the input file
+            try (Reader r = in) {
+                sources = readRuns(new LineInput(r), pool);
+            }
+            if (sources == null)
+                return;
+            sources = mergeRounds(sources, pool);
+            if (sources == null)
+                return;
+            try (Writer w = TextBuffer.newWriter(tmp.toFile(), encoding)) {
+                ResultWriter result = new ResultWriter(w);
+                if (!merge(sources, result))
+                    return;
+                result.finish();
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            written = true;
+        } catch (IOException | UncheckedIOException e) {
+            setError("Sort failed: " + e.getMessage());
+        } catch (ExecutionException e) {
+            setError("Sort failed: " + e.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+            if (!written)
+                Files.deleteIfExists(tmp);
+            deleteSpills();
+        }
+    }
+
+    // ---------- RUNS ----------
+
+    // The input as sorted runs: one in memory if it all fit, otherwise spill files in input order.
+    // Null when cancelled.
+    private List<Source> readRuns(LineInput lines, ExecutorService pool)
+            throws IOException, InterruptedException, ExecutionException {
+        long runBytes = Math.max(1 << 20, MEMORY_BYTES / (threads + 1));
+        // At most threads runs being sorted while the next is read
+        Semaphore slots = new Semaphore(threads);
+        List<Future<Source>> spilled = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (String line; (line = lines.next()) != null; ) {
+            batch.add(line);
+            batchBytes += LINE_OVERHEAD + 2L * line.length();
+            if ((batch.size() & 0xFFF) == 0) {
+                charsRead.set(lines.chars);
+                setProgress(getPercentDone());
+                if (isCancelled())
+                    return null;
+            }
+            if (batchBytes >= runBytes) {
+                slots.acquire();
+                spilled.add(spill(batch, pool, slots));
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+        }
+        charsRead.set(lines.chars);
+        linesIn.set(lines.count);
+        newline = lines.newline;
+        endsWithNewline = lines.endsWithNewline;
+
+        if (spilled.isEmpty())
+            return Collections.singletonList(new Source(sortRun(batch, true)));
+        if (!batch.isEmpty()) {
+            slots.acquire();
+            spilled.add(spill(batch, pool, slots));
+        }
+        List<Source> sources = new ArrayList<>(spilled.size());
+        for (Future<Source> f : spilled) {
+            Source s = f.get();
+            if (s == null)
+                return null;
+            sources.add(s);
+        }
+        return sources;
+    }
+
+    private Future<Source> spill(List<String> batch, ExecutorService pool, Semaphore slots) throws IOException {
+        if (spillDir == null)
+            spillDir = Files.createTempDirectory("texteditor-sort");
+        Path file = spillDir.resolve("run" + runs.incrementAndGet());
+        return pool.submit(() -> {
+            try {
+                if (isCancelled())
+                    return null;
+                Run run = sortRun(batch, false);
+                try (SpillWriter w = new SpillWriter(file)) {
+                    for (int i = 0; i < run.size; i++)
+                        w.write(run.lines[i], run.counts != null ? run.counts[i] : 1);
+                }
+                return new Source(file, run.size);
+            } finally {
+                slots.release();
+            }
+        });
+    }
+
+    // Sorted, and with equal lines collapsed into the first of them unless this is a plain sort.
+    // parallel: the only run, so the sort may have every core to itself.
+    private Run sortRun(List<String> batch, boolean parallel) {
+        String[] lines = batch.toArray(new String[0]);
+        batch.clear();
+        // Both stable
+        if (parallel)
+            Arrays.parallelSort(lines, order);
+        else
+            Arrays.sort(lines, order);
+        if (mode == Mode.SORT)
+            return new Run(lines, null, lines.length);
+        long[] counts = mode == Mode.COUNT ? new long[lines.length] : null;
+        int n = 0;
+        for (int i = 0; i < lines.length; i++) {
+            if (n > 0 && order.compare(lines[n - 1], lines[i]) == 0) {
+                if (counts != null)
+                    counts[n - 1]++;
+                continue;
+            }
+            lines[n] = lines[i];
+            if (counts != null)
+                counts[n] = 1;
+            n++;
+        }
+        return new Run(lines, counts, n);
+    }
+
+    // ---------- MERGE ----------
+
+    // Merges groups of MERGE_WAYS runs into one, the groups in parallel, until MERGE_WAYS or fewer
+    // are left for the last merge. Null when cancelled.
+    private List<Source> mergeRounds(List<Source> sources, ExecutorService pool)
+            throws IOException, InterruptedException, ExecutionException {
+        while (sources.size() > MERGE_WAYS) {
+            List<Future<Source>> merged = new ArrayList<>();
+            for (int from = 0; from < sources.size(); from += MERGE_WAYS) {
+                List<Source> group = sources.subList(from, Math.min(sources.size(), from + MERGE_WAYS));
+                Path file = spillDir.resolve("merge" + merges++);
+                merged.add(pool.submit(() -> {
+                    try (SpillWriter w = new SpillWriter(file)) {
+                        return merge(group, w) ? new Source(file, w.records) : null;
+                    }
+                }));
+            }
+            List<Source> next = new ArrayList<>(merged.size());
+            for (Future<Source> f : merged) {
+                Source s = f.get();
+                if (s == null)
+                    return null;
+                next.add(s);
+            }
+            sources = next;
+        }
+        merging = true;
+        recordsToMerge = sources.stream().mapToLong(s -> s.records).sum();
+        return sources;
+    }
+
+    private interface RecordWriter {
+        void write(String line, long count) throws IOException;
+    }
+
+    // k-way merge; ties go to the earlier source, which keeps the sort stable. False when cancelled.
+    private boolean merge(List<Source> sources, RecordWriter out) throws IOException {
+        PriorityQueue<Source> heap = new PriorityQueue<>(Math.max(1, sources.size()), (x, y) -> {
+            int c = order.compare(x.line, y.line);
+            return c != 0 ? c : Integer.compare(x.index, y.index);
+        });
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                Source s = sources.get(i);
+                s.index = i;
+                if (s.advance())
+                    heap.add(s);
+            }
+            String line = null;
+            long count = 0;
+            long n = 0;
+            while (!heap.isEmpty()) {
+                if ((++n & 0xFFF) == 0) {
+                    if (isCancelled())
+                        return false;
+                    if (merging)
+                        setProgress(getPercentDone());
+                }
+                Source s = heap.poll();
+                if (line != null && (mode == Mode.SORT || order.compare(line, s.line) != 0)) {
+                    out.write(line, count);
+                    line = null;
+                }
+                if (line == null) {
+                    line = s.line;
+                    count = s.count;
+                } else {
+                    count += s.count;
+                }
+                if (s.advance())
+                    heap.add(s);
+                if (merging)
+                    recordsMerged.incrementAndGet();
+            }
+            if (line != null)
+                out.write(line, count);
+            return true;
+        } finally {
+            for (Source s : sources)
+                s.close();
+        }
+    }
+
+    // The final output: lines (behind their counts for Count Duplicates) with the input's line
+    // separator, and a last one only if the input had one
+    private final class ResultWriter implements RecordWriter {
+        private final Writer w;
+
+        ResultWriter(Writer w) {
+            this.w = w;
+        }
+
+        public void write(String line, long count) throws IOException {
+            if (linesOut.getAndIncrement() > 0)
+                w.write(newline);
+            if (mode == Mode.COUNT) {
+                String c = Long.toString(count);
+                for (int i = c.length(); i < 7; i++)
+                    w.write(' ');
+                w.write(c);
+                w.write(' ');
+            }
+            w.write(line);
+        }
+
+        void finish() throws IOException {
+            if (linesOut.get() > 0 && endsWithNewline)
+                w.write(newline);
+        }
+    }
+
+    // ---------- SPILL FILES ----------
+    // UTF-8, one record per line ("count\tline" for Count Duplicates); the lines were split at
+    // every kind of line break, so none is left inside one
+
+    private final class SpillWriter implements RecordWriter, Closeable {
+        private final Writer w;
+        long records;
+
+        SpillWriter(Path file) throws IOException {
+            w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), IO_BUFFER);
+        }
+
+        public void write(String line, long count) throws IOException {
+            if (mode == Mode.COUNT) {
+                w.write(Long.toString(count));
+                w.write('\t');
+            }
+            w.write(line);
+            w.write('\n');
+            records++;
+        }
+
+        public void close() throws IOException {
+            w.close();
+        }
+    }
+
+    private static final class Run {
+        final String[] lines;
+        final long[] counts; // Count Duplicates only
+        final int size;
+
+        Run(String[] lines, long[] counts, int size) {
+            this.lines = lines;
+            this.counts = counts;
+            this.size = size;
+        }
+    }
+
+    // A sorted run being merged, from memory or from its spill file (deleted once read)
+    private final class Source {
+        private final Run run;
+        private final Path file;
+        private BufferedReader reader;
+        private int next;
+        final long records;
+        int index;
+        String line;
+        long count;
+
+        Source(Run run) {
+            this.run = run;
+            this.file = null;
+            this.records = run.size;
+        }
+
+        Source(Path file, long records) {
+            this.run = null;
+            this.file = file;
+            this.records = records;
+        }
+
+        boolean advance() throws IOException {
+            if (run != null) {
+                if (next >= run.size)
+                    return false;
+                line = run.lines[next];
+                count = run.counts != null ? run.counts[next] : 1;
+                next++;
+                return true;
+            }
+            if (reader == null)
+                reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), IO_BUFFER / 2);
+            String s = reader.readLine();
+            if (s == null)
+                return false;
+            if (mode == Mode.COUNT) {
+                int tab = s.indexOf('\t');
+                count = Long.parseLong(s.substring(0, tab));
+                s = s.substring(tab + 1);
+            } else {
+                count = 1;
+            }
+            line = s;
+            return true;
+        }
+
+        void close() throws IOException {
+            if (reader != null)
+                reader.close();
+            if (file != null)
+                Files.deleteIfExists(file);
+        }
+    }
+
+    private void deleteSpills() {
+        if (spillDir == null)
+            return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spillDir)) {
+            for (Path p : files)
+                Files.deleteIfExists(p);
+            Files.deleteIfExists(spillDir);
+        } catch (IOException e) {
+            System.err.println("Could not remove " + spillDir + ": " + e.getMessage());
+        }
+    }
+
+    // Splits text into lines at \n, \r\n and \r, noting the first separator it meets and whether
+    // the text ended with one
+    private static final class LineInput {
+        private final Reader reader;
+        private final char[] buf = new char[IO_BUFFER];
+        private int pos, limit;
+        private boolean afterCR, firstCR;
+        long chars, count;
+        String newline = "\n";
+        private boolean sawNewline;
+        boolean endsWithNewline;
+
+        LineInput(Reader reader) {
+            this.reader = reader;
+        }
+
+        String next() throws IOException {
+            StringBuilder sb = null;
+            while (true) {
+                if (pos == limit) {
+                    limit = reader.read(buf, 0, buf.length);
+                    pos = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        if (sb == null)
+                            return null;
+                        endsWithNewline = false;
+                        count++;
+                        return sb.toString();
+                    }
+                    chars += limit;
+                }
+                if (afterCR) {
+                    afterCR = false;
+                    boolean lf = buf[pos] == '\n';
+                    if (firstCR && lf)
+                        newline = "\r\n";
+                    firstCR = false;
+                    if (lf) {
+                        pos++;
+                        continue;
+                    }
+                }
+                int start = pos;
+                while (pos < limit && buf[pos] != '\n' && buf[pos] != '\r')
+                    pos++;
+                if (pos == limit) {
+                    if (sb == null)
+                        sb = new StringBuilder(Math.max(16, pos - start));
+                    sb.append(buf, start, pos - start);
+                    continue;
+                }
+                String line = sb == null ? new String(buf, start, pos - start) : sb.append(buf, start, pos - start).toString();
+                char c = buf[pos++];
+                if (c == '\r') {
+                    afterCR = true;
+                    if (!sawNewline) {
+                        newline = "\r";
+                        firstCR = true;
+                    }
+                }
+                sawNewline = true;
+                endsWithNewline = true;
+                count++;
+                return line;
+            }
+        }
+    }
+}
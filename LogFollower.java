@@ -0,0 +1,169 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+// Follows a growing file: a background thread waits for changes (WatchService, with a polling
+// timeout as fallback for file systems that don't report them), reads only the bytes appended
+// since the last read through a FileChannel position, and hands the decoded text to the EDT in
+// batches. Truncation or rotation restarts from the beginning of the new file.
+class LogFollower implements Runnable {
+    // Called on the EDT
+    interface Listener {
+        void appended(String text);
+
+        void reset();
+
+        void failed(IOException e);
+    }
+
+    private static final int READ_CHUNK = 256 * 1024;
+
+    private final Path path;
+    private final CharsetDecoder decoder;
+    private final Listener listener;
+    private final long pollMillis;
+    private long position;
+    private Object fileKey;
+    private boolean skipPartialLine;
+    private volatile boolean running;
+    private Thread thread;
+
+    private final ByteBuffer in = ByteBuffer.allocate(READ_CHUNK);
+    private final CharBuffer out = CharBuffer.allocate(READ_CHUNK);
+    private final StringBuilder pending = new StringBuilder();
+    private boolean flushScheduled;
+
+    // Starts at startPosition; when that is inside the file, the partial first line is dropped
+    LogFollower(File file, Charset charset, long startPosition, long pollMillis, Listener listener) {
+        this.path = file.toPath();
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.position = startPosition;
+        this.skipPartialLine = startPosition > 0;
+        this.pollMillis = pollMillis;
+        this.listener = listener;
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this, "follow-" + path.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    public void run() {
+        WatchService watcher = null;
+        try {
+            try {
+                Path dir = path.toAbsolutePath().getParent();
+                watcher = dir.getFileSystem().newWatchService();
+                dir.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            } catch (IOException | UnsupportedOperationException e) {
+                watcher = null; // fall back to plain polling
+            }
+            while (running) {
+                readAppended();
+                if (watcher != null) {
+                    WatchKey key = watcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                } else {
+                    Thread.sleep(pollMillis);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        } catch (IOException e) {
+            if (running)
+                SwingUtilities.invokeLater(() -> listener.failed(e));
+        } finally {
+            try {
+                if (watcher != null)
+                    watcher.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void readAppended() throws IOException {
+        if (!Files.exists(path))
+            return; // rotated away; wait for the new file
+        Object key = Files.readAttributes(path, java.nio.file.attribute.BasicFileAttributes.class).fileKey();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            boolean replaced = fileKey != null && key != null && !key.equals(fileKey);
+            fileKey = key;
+            if (size < position || replaced) {
+                position = 0;
+                skipPartialLine = false;
+                in.clear();
+                decoder.reset();
+                synchronized (pending) {
+                    pending.setLength(0);
+                }
+                SwingUtilities.invokeLater(listener::reset);
+            }
+            while (running && position < size) {
+                int n = ch.read(in, position);
+                if (n <= 0)
+                    break;
+                position += n;
+                in.flip();
+                decoder.decode(in, out, false);
+                in.compact();
+                out.flip();
+                publish(out);
+                out.clear();
+            }
+        }
+    }
+
+    // Appends to the pending batch; at most one flush is queued on the EDT at a time
+    private void publish(CharBuffer chars) {
+        if (skipPartialLine) {
+            while (chars.hasRemaining()) {
+                if (chars.get() == '\n') {
+                    skipPartialLine = false;
+                    break;
+                }
+            }
+        }
+        if (!chars.hasRemaining())
+            return;
+        synchronized (pending) {
+            pending.append(chars);
+            if (flushScheduled)
+                return;
+            flushScheduled = true;
+        }
+        SwingUtilities.invokeLater(this::flush);
+    }
+
+    private void flush() {
+        String text;
+        synchronized (pending) {
+            text = pending.toString();
+            pending.setLength(0);
+            flushScheduled = false;
+        }
+        if (running && !text.isEmpty())
+            listener.appended(text);
+    }
+}
@@ -0,0 +1,770 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Text view for documents with very long lines (minified JSON, single-line logs). Character
+// advances of the font are cached per char, long lines keep a sparse index of x positions, and
+// painting only touches the columns inside the clip. With wrapping, a line's row breaks are
+// computed when it is first painted or measured and cached; lines that were never laid out count
+// with an estimate from their length. Both are filled in from the line start only as far as
+// something needs them, and an edit inside a line keeps everything before the edit point.
+class LongLineView extends View {
+    private static final String CLIENT_KEY = "LongLineView";
+    // Documents with a line at least this long are opened in long-line mode
+    static final int LONG_LINE_CHARS = 10_000;
+    // Characters between cached x positions, so placing any offset walks at most this many
+    private static final int CHECKPOINT = 1024;
+    private static final int LAYOUT_CACHE_LINES = 256;
+    private static final int CHUNK = 16 * 1024;
+
+    // Cached per line element; cut back to the edit point when the line changes
+    private static final class LineLayout {
+        float[] checkpoints; // no wrap: x at every CHECKPOINT chars from the line start
+        int known;           // checkpoints filled in so far
+        int[] breaks;        // wrap: row start offsets relative to the line start
+        int rows;            // breaks filled in so far
+        boolean complete;    // the last row has been reached
+    }
+
+    // Rows per line with prefix sums (a Fenwick tree), for wrapped y <-> line lookups
+    private static final class RowIndex {
+        final int size;
+        final int[] rows, tree;
+        final boolean[] exact;
+        int total;
+
+        RowIndex(int size) {
+            this.size = size;
+            rows = new int[size];
+            tree = new int[size + 1];
+            exact = new boolean[size];
+        }
+
+        void build() {
+            total = 0;
+            for (int i = 0; i < size; i++) {
+                tree[i + 1] += rows[i];
+                total += rows[i];
+                int parent = (i + 1) + ((i + 1) & -(i + 1));
+                if (parent <= size)
+                    tree[parent] += tree[i + 1];
+            }
+        }
+
+        // Rows in lines [0, line)
+        int before(int line) {
+            int sum = 0;
+            for (int i = line; i > 0; i -= i & -i)
+                sum += tree[i];
+            return sum;
+        }
+
+        boolean set(int line, int n, boolean isExact) {
+            exact[line] = isExact;
+            int delta = n - rows[line];
+            if (delta == 0)
+                return false;
+            rows[line] = n;
+            total += delta;
+            for (int i = line + 1; i <= size; i += i & -i)
+                tree[i] += delta;
+            return true;
+        }
+
+        // The line containing the given row
+        int lineAtRow(int row) {
+            int pos = 0;
+            for (int step = Integer.highestOneBit(Math.max(size, 1)); step > 0; step >>= 1) {
+                if (pos + step <= size && tree[pos + step] <= row) {
+                    pos += step;
+                    row -= tree[pos];
+                }
+            }
+            return Math.min(pos, size - 1);
+        }
+    }
+
+    private final boolean wrap, wordWrap;
+    private Font font;
+    private FontMetrics metrics;
+    private int lineHeight, ascent, charWidth, tabWidth;
+    private final int[] advances = new int[65536];
+
+    private final Map<Element, LineLayout> layouts = new LinkedHashMap<>(64, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Element, LineLayout> eldest) {
+            return size() > LAYOUT_CACHE_LINES;
+        }
+    };
+    private final Segment seg = new Segment();
+    private float walkX;
+    private float rowX; // where the row being drawn starts; tab stops count from there
+
+    private float maxWidth = -1; // no wrap: widest line, -1 when it has to be found again
+    private Element longestLine;
+    private int longestChars;
+    private float wrapWidth;
+    private RowIndex rowIndex;
+    private boolean sizeChanged;
+
+    LongLineView(Element elem, boolean wrap, boolean wordWrap) {
+        super(elem);
+        this.wrap = wrap;
+        this.wordWrap = wordWrap;
+        seg.setPartialReturn(true);
+    }
+
+    static boolean isEnabled(JTextArea area) {
+        return Boolean.TRUE.equals(area.getClientProperty(CLIENT_KEY));
+    }
+
+    // Switches the text area to (or back from) this view. Home/End go through the view as well:
+    // the default actions find row boundaries by probing one character at a time.
+    static void setEnabled(JTextArea area, boolean on) {
+        if (isEnabled(area) == on)
+            return;
+        area.putClientProperty(CLIENT_KEY, on ? Boolean.TRUE : null);
+        SyntaxHighlighter.forTextArea(area);
+        if (area.getUI() instanceof SyntaxHighlighter.SyntaxTextAreaUI)
+            ((SyntaxHighlighter.SyntaxTextAreaUI) area.getUI()).rebuildViews();
+
+        ActionMap map = area.getActionMap();
+        String[] names = { DefaultEditorKit.beginLineAction, DefaultEditorKit.endLineAction,
+                DefaultEditorKit.selectionBeginLineAction, DefaultEditorKit.selectionEndLineAction };
+        for (int i = 0; i < names.length; i++) {
+            if (on)
+                map.put(names[i], new RowBoundaryAction(names[i], (i & 1) == 1, i >= 2));
+            else
+                map.remove(names[i]);
+        }
+    }
+
+    static int longestLine(Document doc) {
+        Element root = doc.getDefaultRootElement();
+        int longest = 0;
+        for (int i = 0, n = root.getElementCount(); i < n; i++) {
+            Element el = root.getElement(i);
+            longest = Math.max(longest, el.getEndOffset() - el.getStartOffset() - 1);
+        }
+        return longest;
+    }
+
+    private static class RowBoundaryAction extends TextAction {
+        private final boolean end, select;
+
+        RowBoundaryAction(String name, boolean end, boolean select) {
+            super(name);
+            this.end = end;
+            this.select = select;
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            JTextComponent c = getTextComponent(e);
+            if (c == null)
+                return;
+            View root = c.getUI().getRootView(c);
+            View v = root.getViewCount() > 0 ? root.getView(0) : null;
+            if (!(v instanceof LongLineView))
+                return;
+            int target = ((LongLineView) v).rowBoundary(c.getCaretPosition(), end);
+            if (select)
+                c.moveCaretPosition(target);
+            else
+                c.setCaretPosition(target);
+        }
+    }
+
+    // ---------- MEASURING ----------
+    private void sync() {
+        Component c = getContainer();
+        Font f = c.getFont();
+        Object ts = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+        int tabSize = ts instanceof Integer ? (Integer) ts : 8;
+        if (f != font || metrics == null || tabWidth != tabSize * metrics.charWidth(' ')) {
+            font = f;
+            metrics = c.getFontMetrics(f);
+            lineHeight = metrics.getHeight();
+            ascent = metrics.getAscent();
+            charWidth = Math.max(1, metrics.charWidth('m'));
+            tabWidth = Math.max(1, tabSize * metrics.charWidth(' '));
+            Arrays.fill(advances, -1);
+            layouts.clear();
+            maxWidth = -1;
+            rowIndex = null;
+        }
+    }
+
+    private int advance(char c) {
+        int w = advances[c];
+        if (w < 0)
+            w = advances[c] = metrics.charWidth(c);
+        return w;
+    }
+
+    private float tabStop(float x) {
+        return ((int) x / tabWidth + 1) * tabWidth;
+    }
+
+    // Walks [from, to) from x (relative to the row start) and stops before the first character that
+    // would end past limit. Returns the offset reached; the x there is left in walkX.
+    private int walk(int from, int to, float x, float limit) {
+        Document doc = getDocument();
+        int pos = from;
+        try {
+            while (pos < to) {
+                doc.getText(pos, Math.min(to - pos, CHUNK), seg);
+                char[] a = seg.array;
+                for (int i = seg.offset, end = seg.offset + seg.count; i < end; i++) {
+                    char c = a[i];
+                    float w;
+                    if (c == '\t')
+                        w = tabStop(x) - x;
+                    else if (Character.isHighSurrogate(c) && i + 1 < end)
+                        w = metrics.charWidth(Character.toCodePoint(c, a[i + 1]));
+                    else if (Character.isLowSurrogate(c))
+                        w = 0;
+                    else
+                        w = advance(c);
+                    if (x + w > limit) {
+                        walkX = x;
+                        return pos + i - seg.offset;
+                    }
+                    x += w;
+                }
+                pos += seg.count;
+            }
+        } catch (BadLocationException ignored) {
+        }
+        walkX = x;
+        return pos;
+    }
+
+    private static int contentEnd(Element line) {
+        return line.getEndOffset() - 1;
+    }
+
+    // ---------- NO WRAP ----------
+    private LineLayout longLayout(Element line) {
+        LineLayout l = layouts.get(line);
+        if (l == null || l.checkpoints == null) {
+            l = new LineLayout();
+            l.checkpoints = new float[(contentEnd(line) - line.getStartOffset()) / CHECKPOINT + 1];
+            l.known = 1;
+            layouts.put(line, l);
+        }
+        return l;
+    }
+
+    // Walks one more block of the line; the last one also settles the line's width
+    private void extend(LineLayout l, Element line) {
+        int start = line.getStartOffset(), end = contentEnd(line);
+        int from = start + (l.known - 1) * CHECKPOINT;
+        walk(from, Math.min(from + CHECKPOINT, end), l.checkpoints[l.known - 1], Float.MAX_VALUE);
+        l.checkpoints[l.known++] = walkX;
+        if (l.known == l.checkpoints.length)
+            noteWidth(width(l, line));
+    }
+
+    // Exact once every checkpoint is known, otherwise estimated from the remaining length
+    private float width(LineLayout l, Element line) {
+        int last = l.known - 1;
+        int from = line.getStartOffset() + last * CHECKPOINT;
+        if (l.known < l.checkpoints.length)
+            return l.checkpoints[last] + (float) (contentEnd(line) - from) * charWidth;
+        walk(from, contentEnd(line), l.checkpoints[last], Float.MAX_VALUE);
+        return walkX;
+    }
+
+    private boolean isLong(Element line) {
+        return contentEnd(line) - line.getStartOffset() >= CHECKPOINT;
+    }
+
+    private float xAt(Element line, int offset) {
+        int start = line.getStartOffset();
+        if (!isLong(line)) {
+            walk(start, offset, 0, Float.MAX_VALUE);
+        } else {
+            LineLayout l = longLayout(line);
+            int k = (offset - start) / CHECKPOINT;
+            while (l.known <= k)
+                extend(l, line);
+            walk(start + k * CHECKPOINT, offset, l.checkpoints[k], Float.MAX_VALUE);
+        }
+        return walkX;
+    }
+
+    // First offset of the line whose character ends past x; its own x is left in walkX
+    private int seek(Element line, float x) {
+        int start = line.getStartOffset();
+        if (!isLong(line))
+            return walk(start, contentEnd(line), 0, x);
+        LineLayout l = longLayout(line);
+        float[] cp = l.checkpoints;
+        while (l.known < cp.length && cp[l.known - 1] <= x)
+            extend(l, line);
+        int lo = 0, hi = l.known - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (cp[mid] <= x)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return walk(start + lo * CHECKPOINT, contentEnd(line), cp[lo], x);
+    }
+
+    private float lineWidth(Element line) {
+        return isLong(line) ? width(longLayout(line), line) : xAt(line, contentEnd(line));
+    }
+
+    private void noteWidth(float w) {
+        if (w > maxWidth && maxWidth >= 0) {
+            maxWidth = w;
+            sizeChanged = true;
+        }
+    }
+
+    // The longest line by characters sets the width; wider lines (tabs) widen it once measured
+    private float maxWidth() {
+        if (maxWidth < 0) {
+            Element root = getElement();
+            Element longest = root.getElement(0);
+            for (int i = 1, n = root.getElementCount(); i < n; i++) {
+                Element el = root.getElement(i);
+                if (el.getEndOffset() - el.getStartOffset() > longest.getEndOffset() - longest.getStartOffset())
+                    longest = el;
+            }
+            longestLine = longest;
+            longestChars = contentEnd(longest) - longest.getStartOffset();
+            maxWidth = 0;
+            maxWidth = lineWidth(longest);
+        }
+        return maxWidth;
+    }
+
+    // ---------- WRAP ----------
+    private RowIndex rows() {
+        Element root = getElement();
+        int n = root.getElementCount();
+        if (rowIndex == null || rowIndex.size != n) {
+            rowIndex = new RowIndex(n);
+            for (int i = 0; i < n; i++) {
+                Element el = root.getElement(i);
+                LineLayout l = layouts.get(el);
+                boolean laidOut = l != null && l.breaks != null;
+                rowIndex.rows[i] = laidOut ? rowCount(l, el) : estimateRows(el, 0);
+                rowIndex.exact[i] = laidOut && l.complete;
+            }
+            rowIndex.build();
+        }
+        return rowIndex;
+    }
+
+    private int estimateRows(Element line, int from) {
+        if (wrapWidth <= charWidth)
+            return 1;
+        long width = (long) (contentEnd(line) - line.getStartOffset() - from) * charWidth;
+        return (int) Math.max(1, (width + (long) wrapWidth - 1) / (long) wrapWidth);
+    }
+
+    // Rows found so far, plus an estimate for the rest of the line
+    private int rowCount(LineLayout l, Element line) {
+        return l.complete ? l.rows : l.rows - 1 + estimateRows(line, l.breaks[l.rows - 1]);
+    }
+
+    // The line's wrap layout with breaks found at least through the given row and past the given
+    // offset (relative to the line start), or to the end of the line
+    private LineLayout wrapLayout(int index, Element line, int row, int rel) {
+        LineLayout l = layouts.get(line);
+        if (l == null || l.breaks == null) {
+            l = new LineLayout();
+            l.breaks = new int[16];
+            l.rows = 1;
+            layouts.put(line, l);
+        }
+        int start = line.getStartOffset(), end = contentEnd(line);
+        while (!l.complete && (l.rows <= row + 1 || l.breaks[l.rows - 1] <= rel)) {
+            int pos = rowEnd(start + l.breaks[l.rows - 1], end);
+            if (pos >= end) {
+                l.complete = true;
+            } else {
+                if (l.rows == l.breaks.length)
+                    l.breaks = Arrays.copyOf(l.breaks, l.rows * 2);
+                l.breaks[l.rows++] = pos - start;
+            }
+        }
+        if (rows().set(index, rowCount(l, line), l.complete))
+            sizeChanged = true;
+        return l;
+    }
+
+    // Keeps what an edit at rel cannot have moved. The row before the edited one goes too: with
+    // word wrap its break depends on the characters just past it.
+    private void truncate(LineLayout l, Element line, int rel) {
+        if (l.checkpoints != null) {
+            int n = (contentEnd(line) - line.getStartOffset()) / CHECKPOINT + 1;
+            l.known = Math.min(l.known, Math.min(n, rel / CHECKPOINT + 1));
+            if (n != l.checkpoints.length)
+                l.checkpoints = Arrays.copyOf(l.checkpoints, n);
+        }
+        if (l.breaks != null) {
+            l.rows = Math.max(1, rowOf(l, rel, false) - 1);
+            l.complete = false;
+        }
+    }
+
+    private int rowEnd(int from, int lineEnd) {
+        if (wrapWidth <= charWidth)
+            return lineEnd;
+        int end = walk(from, lineEnd, 0, wrapWidth);
+        if (end >= lineEnd)
+            return lineEnd;
+        if (end == from)
+            return from + 1;
+        if (wordWrap) {
+            Segment s = new Segment();
+            try {
+                getDocument().getText(from, end - from, s);
+                for (int i = s.count - 1; i > 0; i--) {
+                    if (Character.isWhitespace(s.array[s.offset + i]))
+                        return from + i + 1;
+                }
+            } catch (BadLocationException ignored) {
+            }
+        }
+        return end;
+    }
+
+    private static int rowOf(LineLayout l, int rel, boolean backward) {
+        int[] breaks = l.breaks;
+        int lo = 0, hi = l.rows - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (breaks[mid] <= rel)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        // The offset right at a break shows at the end of the previous row when biased backward
+        if (backward && lo > 0 && breaks[lo] == rel)
+            lo--;
+        return lo;
+    }
+
+    // Offset of the start (or the last offset) of the visual row containing offset
+    int rowBoundary(int offset, boolean end) {
+        sync();
+        Element root = getElement();
+        int index = root.getElementIndex(offset);
+        Element line = root.getElement(index);
+        int start = line.getStartOffset();
+        if (!wrap)
+            return end ? contentEnd(line) : start;
+        LineLayout l = wrapLayout(index, line, 0, offset - start);
+        int r = rowOf(l, offset - start, false);
+        if (!end)
+            return start + l.breaks[r];
+        return r + 1 < l.rows ? start + l.breaks[r + 1] - 1 : contentEnd(line);
+    }
+
+    // ---------- VIEW ----------
+    public float getPreferredSpan(int axis) {
+        sync();
+        if (axis == X_AXIS)
+            return wrap ? charWidth : maxWidth();
+        int rows = wrap ? rows().total : getElement().getElementCount();
+        return (float) rows * lineHeight;
+    }
+
+    public int getResizeWeight(int axis) {
+        return wrap && axis == X_AXIS ? 1 : 0;
+    }
+
+    public void setSize(float width, float height) {
+        if (wrap && width != wrapWidth) {
+            sync();
+            wrapWidth = width;
+            layouts.clear();
+            rowIndex = null;
+            preferenceChanged(null, false, true);
+        }
+    }
+
+    public void paint(Graphics g, Shape a) {
+        sync();
+        Rectangle alloc = a.getBounds();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            clip = alloc;
+        JTextComponent host = (JTextComponent) getContainer();
+        Highlighter h = host.getHighlighter();
+        LayeredHighlighter layered = h instanceof LayeredHighlighter ? (LayeredHighlighter) h : null;
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setFont(font);
+        Element root = getElement();
+        int lines = root.getElementCount();
+        int clipBottom = clip.y + clip.height;
+
+        try {
+            if (!wrap) {
+                float left = clip.x - alloc.x, right = clip.x + clip.width - alloc.x;
+                int first = Math.max(0, (clip.y - alloc.y) / lineHeight);
+                int last = Math.min(lines - 1, (clipBottom - alloc.y) / lineHeight);
+                for (int i = first; i <= last; i++) {
+                    Element line = root.getElement(i);
+                    int y = alloc.y + i * lineHeight;
+                    if (layered != null)
+                        layered.paintLayeredHighlights(g, line.getStartOffset(), line.getEndOffset(), a, host, this);
+                    // Only the columns inside the clip, plus the character cut by each edge
+                    int p0 = seek(line, left);
+                    float x0 = walkX;
+                    int p1 = walk(p0, contentEnd(line), x0, right);
+                    rowX = alloc.x;
+                    drawText(g2, host, alloc.x + x0, y + ascent, p0, Math.min(p1 + 1, contentEnd(line)));
+                }
+            } else {
+                RowIndex index = rows();
+                int firstRow = Math.max(0, (clip.y - alloc.y) / lineHeight);
+                for (int i = index.lineAtRow(firstRow); i < lines; i++) {
+                    Element line = root.getElement(i);
+                    int base = index.before(i);
+                    if (alloc.y + base * lineHeight > clipBottom)
+                        break;
+                    LineLayout l = wrapLayout(i, line, (clipBottom - alloc.y) / lineHeight - base, -1);
+                    int[] b = l.breaks;
+                    int start = line.getStartOffset();
+                    for (int r = Math.max(0, firstRow - base); r < l.rows; r++) {
+                        int y = alloc.y + (base + r) * lineHeight;
+                        if (y > clipBottom)
+                            break;
+                        int rowStart = start + b[r];
+                        int rowEnd = r + 1 < l.rows ? start + b[r + 1] : contentEnd(line);
+                        if (layered != null)
+                            layered.paintLayeredHighlights(g, rowStart, r + 1 < l.rows ? rowEnd : line.getEndOffset(), a, host, this);
+                        rowX = alloc.x;
+                        drawText(g2, host, alloc.x, y + ascent, rowStart, rowEnd);
+                    }
+                }
+            }
+        } catch (BadLocationException ignored) {
+        }
+
+        if (sizeChanged) {
+            sizeChanged = false;
+            SwingUtilities.invokeLater(() -> preferenceChanged(null, !wrap, wrap));
+        }
+    }
+
+    // Selected text in the selection color; the rest through the syntax highlighter if there is one
+    private void drawText(Graphics2D g, JTextComponent host, float x, float y, int p0, int p1) throws BadLocationException {
+        if (p1 <= p0)
+            return;
+        int sel0 = host.getSelectionStart(), sel1 = host.getSelectionEnd();
+        boolean showSel = sel0 != sel1 && host.getCaret().isSelectionVisible() && host.getSelectedTextColor() != null;
+        int a = showSel ? Math.max(p0, Math.min(sel0, p1)) : p1;
+        int b = showSel ? Math.max(a, Math.min(sel1, p1)) : p1;
+        x = drawUnselected(g, host, x, y, p0, a);
+        if (b > a) {
+            g.setColor(host.getSelectedTextColor());
+            x = drawRun(g, x, y, a, b);
+        }
+        drawUnselected(g, host, x, y, b, p1);
+    }
+
+    private float drawUnselected(Graphics2D g, JTextComponent host, float x, float y, int p0, int p1) throws BadLocationException {
+        if (p1 <= p0)
+            return x;
+        SyntaxHighlighter h = SyntaxHighlighter.get(host);
+        if (h != null)
+            return h.paint(g, x, y, p0, p1, this::drawRun);
+        g.setColor(host.isEnabled() ? host.getForeground() : host.getDisabledTextColor());
+        return drawRun(g, x, y, p0, p1);
+    }
+
+    // Draws with the cached advances so glyphs land exactly where modelToView puts them. Tabs are
+    // measured from the row start, which is where x was when the row began.
+    private float drawRun(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+        Segment s = new Segment();
+        getDocument().getText(p0, p1 - p0, s);
+        char[] a = s.array;
+        int runStart = s.offset;
+        float runX = x;
+        for (int i = s.offset, end = s.offset + s.count; i < end; i++) {
+            char c = a[i];
+            if (c == '\t' || c == '\n' || Character.isSurrogate(c)) {
+                if (i > runStart)
+                    g.drawChars(a, runStart, i - runStart, (int) runX, (int) y);
+                if (c == '\t') {
+                    x = rowX + tabStop(x - rowX);
+                } else if (Character.isHighSurrogate(c) && i + 1 < end) {
+                    g.drawChars(a, i, 2, (int) x, (int) y);
+                    x += metrics.charWidth(Character.toCodePoint(c, a[i + 1]));
+                    i++;
+                }
+                runStart = i + 1;
+                runX = x;
+            } else {
+                x += advance(c);
+            }
+        }
+        if (s.offset + s.count > runStart)
+            g.drawChars(a, runStart, s.offset + s.count - runStart, (int) runX, (int) y);
+        return x;
+    }
+
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        sync();
+        Document doc = getDocument();
+        if (pos < 0 || pos > doc.getLength())
+            throw new BadLocationException("Invalid offset", pos);
+        Rectangle alloc = a.getBounds();
+        Element root = getElement();
+        int index = root.getElementIndex(pos);
+        Element line = root.getElement(index);
+        if (!wrap) {
+            float x = xAt(line, pos);
+            noteWidth(x);
+            return new Rectangle(alloc.x + (int) x, alloc.y + index * lineHeight, 1, lineHeight);
+        }
+        int start = line.getStartOffset();
+        if (pos == start) // line starts (the gutter) don't need the line laid out
+            return new Rectangle(alloc.x, alloc.y + rows().before(index) * lineHeight, 1, lineHeight);
+        LineLayout l = wrapLayout(index, line, 0, pos - start);
+        int r = rowOf(l, pos - start, b == Position.Bias.Backward);
+        walk(start + l.breaks[r], pos, 0, Float.MAX_VALUE);
+        return new Rectangle(alloc.x + (int) walkX, alloc.y + (rows().before(index) + r) * lineHeight, 1, lineHeight);
+    }
+
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        sync();
+        bias[0] = Position.Bias.Forward;
+        Rectangle alloc = a.getBounds();
+        Element root = getElement();
+        float x = fx - alloc.x;
+        float y = fy - alloc.y;
+        if (y < 0)
+            return 0;
+        float half = charWidth / 2f;
+        if (!wrap) {
+            int index = (int) (y / lineHeight);
+            if (index >= root.getElementCount())
+                return getDocument().getLength();
+            Element line = root.getElement(index);
+            return x <= 0 ? line.getStartOffset() : seek(line, x + half);
+        }
+        RowIndex rows = rows();
+        int row = (int) (y / lineHeight);
+        if (row >= rows.total)
+            return getDocument().getLength();
+        int index = rows.lineAtRow(row);
+        Element line = root.getElement(index);
+        int r = Math.max(0, row - rows.before(index));
+        LineLayout l = wrapLayout(index, line, r, -1);
+        r = Math.min(l.rows - 1, r);
+        int start = line.getStartOffset();
+        int rowStart = start + l.breaks[r];
+        int rowEnd = r + 1 < l.rows ? start + l.breaks[r + 1] : contentEnd(line);
+        int pos = x <= 0 ? rowStart : walk(rowStart, rowEnd, 0, x + half);
+        if (pos == rowEnd && r + 1 < l.rows)
+            bias[0] = Position.Bias.Backward;
+        return pos;
+    }
+
+    // Up/down from the view's own geometry; the default walks row boundaries character by character
+    public int getNextVisualPositionFrom(int pos, Position.Bias b, Shape a, int direction, Position.Bias[] biasRet)
+            throws BadLocationException {
+        if (direction != NORTH && direction != SOUTH)
+            return super.getNextVisualPositionFrom(pos, b, a, direction, biasRet);
+        biasRet[0] = Position.Bias.Forward;
+        if (pos == -1)
+            return direction == NORTH ? getDocument().getLength() : 0;
+        Rectangle r = modelToView(pos, a, b).getBounds();
+        JTextComponent c = (JTextComponent) getContainer();
+        Point magic = c.getCaret().getMagicCaretPosition();
+        float x = magic != null ? magic.x : r.x;
+        int y = direction == NORTH ? r.y - lineHeight / 2 : r.y + lineHeight + lineHeight / 2;
+        if (y < a.getBounds().y)
+            return pos;
+        return viewToModel(x, y, a, biasRet);
+    }
+
+    // ---------- DOCUMENT CHANGES ----------
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        changed(e, a);
+    }
+
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        changed(e, a);
+    }
+
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        changed(e, a);
+    }
+
+    private void changed(DocumentEvent e, Shape a) {
+        Element root = getElement();
+        DocumentEvent.ElementChange ec = e.getChange(root);
+        int first = root.getElementIndex(e.getOffset());
+        int last = e.getType() == DocumentEvent.EventType.INSERT ? root.getElementIndex(e.getOffset() + e.getLength()) : first;
+        // Lines that were replaced lose their layout; a line edited in place keeps it up to the edit
+        List<Element> removed = ec != null ? Arrays.asList(ec.getChildrenRemoved()) : List.of();
+        for (Element el : removed)
+            layouts.remove(el);
+        for (int i = first; i <= last; i++) {
+            Element el = root.getElement(i);
+            LineLayout l = layouts.get(el);
+            if (l != null)
+                truncate(l, el, Math.max(0, e.getOffset() - el.getStartOffset()));
+        }
+        if (metrics == null)
+            return;
+
+        boolean resized = ec != null;
+        if (!wrap && maxWidth >= 0) {
+            // A longer line takes over; if the widest one shrank or went away, find it again when asked
+            Element longest = null;
+            int chars = -1;
+            for (int i = first; i <= last; i++) {
+                Element el = root.getElement(i);
+                if (contentEnd(el) - el.getStartOffset() > chars) {
+                    longest = el;
+                    chars = contentEnd(el) - el.getStartOffset();
+                }
+            }
+            if (chars >= longestChars) {
+                longestLine = longest;
+                longestChars = chars;
+                maxWidth = Math.max(maxWidth, lineWidth(longest));
+                resized = true;
+            } else if (removed.contains(longestLine) || (longestLine.getStartOffset() >= root.getElement(first).getStartOffset()
+                    && longestLine.getEndOffset() <= root.getElement(last).getEndOffset())) {
+                maxWidth = -1;
+                resized = true;
+            }
+        } else if (rowIndex != null && ec == null) {
+            for (int i = first; i <= last; i++) {
+                Element el = root.getElement(i);
+                LineLayout l = layouts.get(el);
+                resized |= rowIndex.set(i, l != null && l.breaks != null ? rowCount(l, el) : estimateRows(el, 0), false);
+            }
+        }
+        if (resized)
+            preferenceChanged(null, !wrap, true);
+
+        Component host = getContainer();
+        if (host == null || a == null)
+            return;
+        Rectangle alloc = a.getBounds();
+        int y0 = alloc.y + (wrap ? rows().before(first) : first) * lineHeight;
+        if (wrap || ec != null)
+            host.repaint(alloc.x, y0, alloc.width, alloc.y + alloc.height - y0);
+        else
+            host.repaint(alloc.x, y0, alloc.width, (last - first + 1) * lineHeight);
+    }
+}
@@ -0,0 +1,172 @@
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Runtime counters for jconsole/VisualVM, registered as MBeans under "TextEditor:type=...":
+//   Database        calls, failures, bytes and latency percentiles per DatabaseManager method
+//   Search          find/replace in the editor and batch find/replace jobs
+//   Editor          open documents, the active document, undo history and the buffer pool
+//   Responsiveness  the EdtMonitor histograms
+// Each bean is a DynamicMBean over named suppliers, read-only apart from a reset operation.
+final class Metrics {
+    static final String DOMAIN = "TextEditor";
+
+    // One instrumented operation
+    static final class Op {
+        final String name;
+        final LatencyHistogram latency;
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+
+        Op(String name) {
+            this.name = name;
+            this.latency = new LatencyHistogram(name);
+        }
+
+        // bytes: what the call moved, counted as UTF-16 (what Java hands to or gets from the driver)
+        void done(long startNanos, long bytes, boolean ok) {
+            latency.recordNanos(System.nanoTime() - startNanos);
+            this.bytes.addAndGet(bytes);
+            if (!ok)
+                errors.incrementAndGet();
+        }
+
+        void reset() {
+            latency.reset();
+            errors.set(0);
+            bytes.set(0);
+        }
+
+        void addAttributes(Map<String, Supplier<?>> into) {
+            into.put(name + "Calls", latency::getCount);
+            into.put(name + "Errors", errors::get);
+            into.put(name + "Bytes", bytes::get);
+            into.put(name + "MeanMs", () -> latency.getMeanMicros() / 1000.0);
+            addPercentiles(into, name, latency);
+        }
+    }
+
+    static final Op DB_SAVE = new Op("saveFileToDatabase");
+    static final Op DB_SAVE_BATCH = new Op("saveFilesToDatabase");
+    static final Op DB_GET_ALL = new Op("getAllFiles");
+    static final Op DB_PAGE = new Op("getFilePage");
+    static final Op DB_REPLACE = new Op("replaceContents");
+    static final Op DB_IMPORT = new Op("importFiles");
+    static final Op DB_SYNC = new Op("syncFiles");
+    static final List<Op> DATABASE = List.of(DB_SAVE, DB_SAVE_BATCH, DB_GET_ALL, DB_PAGE, DB_REPLACE, DB_IMPORT, DB_SYNC);
+
+    static final Op FIND_NEXT = new Op("findNext");
+    static final Op REPLACE_ALL = new Op("replaceAll");
+    static final Op BATCH_JOB = new Op("batchJob");
+    static final List<Op> SEARCH = List.of(FIND_NEXT, REPLACE_ALL, BATCH_JOB);
+    static final AtomicLong batchFiles = new AtomicLong();
+    static final AtomicLong batchMatches = new AtomicLong();
+
+    private Metrics() {
+    }
+
+    static long textBytes(String s) {
+        return s == null ? 0 : 2L * s.length();
+    }
+
+    static void addPercentiles(Map<String, Supplier<?>> into, String prefix, LatencyHistogram h) {
+        into.put(prefix + "P50Ms", () -> h.getPercentileMicros(50) / 1000.0);
+        into.put(prefix + "P90Ms", () -> h.getPercentileMicros(90) / 1000.0);
+        into.put(prefix + "P99Ms", () -> h.getPercentileMicros(99) / 1000.0);
+        into.put(prefix + "P999Ms", () -> h.getPercentileMicros(99.9) / 1000.0);
+        into.put(prefix + "MaxMs", () -> h.getMaxMicros() / 1000.0);
+    }
+
+    // The beans that exist in every mode (the editor registers its own)
+    static void registerDefaults() {
+        Map<String, Supplier<?>> db = new LinkedHashMap<>();
+        for (Op op : DATABASE)
+            op.addAttributes(db);
+        register("Database", "DatabaseManager calls", db, () -> DATABASE.forEach(Op::reset));
+
+        Map<String, Supplier<?>> search = new LinkedHashMap<>();
+        for (Op op : SEARCH)
+            op.addAttributes(search);
+        search.put("batchFiles", batchFiles::get);
+        search.put("batchMatches", batchMatches::get);
+        register("Search", "Find/replace and batch jobs", search, () -> {
+            SEARCH.forEach(Op::reset);
+            batchFiles.set(0);
+            batchMatches.set(0);
+        });
+    }
+
+    static void register(String type, String description, Map<String, Supplier<?>> attributes, Runnable reset) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN, "type", type);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(new Bean(description, attributes, reset), name);
+        } catch (JMException e) {
+            System.err.println("Could not register " + type + " MBean: " + e.getMessage());
+        }
+    }
+
+    private static final class Bean implements DynamicMBean {
+        private final Map<String, Supplier<?>> attributes;
+        private final Runnable reset;
+        private final MBeanInfo info;
+
+        Bean(String description, Map<String, Supplier<?>> attributes, Runnable reset) {
+            this.attributes = attributes;
+            this.reset = reset;
+            MBeanAttributeInfo[] attrs = new MBeanAttributeInfo[attributes.size()];
+            int i = 0;
+            for (Map.Entry<String, Supplier<?>> e : attributes.entrySet()) {
+                Object value = e.getValue().get();
+                String type = value != null ? value.getClass().getName() : String.class.getName();
+                attrs[i++] = new MBeanAttributeInfo(e.getKey(), type, e.getKey(), true, false, false);
+            }
+            MBeanOperationInfo[] ops = {
+                new MBeanOperationInfo("reset", "Clears the counters", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION)
+            };
+            info = new MBeanInfo(Bean.class.getName(), description, attrs, null, ops, null);
+        }
+
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Supplier<?> s = attributes.get(attribute);
+            if (s == null)
+                throw new AttributeNotFoundException(attribute);
+            return s.get();
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String n : names) {
+                Supplier<?> s = attributes.get(n);
+                if (s != null)
+                    list.add(new Attribute(n, s.get()));
+            }
+            return list;
+        }
+
+        public AttributeList setAttributes(AttributeList list) {
+            return new AttributeList();
+        }
+
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if (!actionName.equals("reset"))
+                throw new ReflectionException(new NoSuchMethodException(actionName));
+            reset.run();
+            return null;
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+}
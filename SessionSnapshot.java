@@ -0,0 +1,337 @@
+import javax.swing.text.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// The open tabs and view settings of a session, saved to one file that is read back by mapping it.
+// Layout:
+//
+//   header   (big-endian) magic, version, color scheme, wrap, active tab, tab count, then per tab:
+//            path, the fingerprint the content belongs to, encoding, flags, lexer, caret, scroll
+//            position and where its content and line index are
+//   data     (little-endian, as on x86 and ARM, so reading it is a plain copy) per tab with
+//            content: its text as UTF-16 chars, then the start offset of every line as ints; both
+//            aligned, so they are read as CharBuffer/IntBuffer views of the mapping
+//
+// Restoring a tab from here skips reading and decoding the file and scanning it for lines: the
+// document is built straight from the chars and the line index. Tabs not shown yet read from the
+// mapping for the rest of the session, and a mapped file cannot be replaced on Windows, so read
+// first moves the snapshot aside (RESTORED_SUFFIX) and maps it there; later snapshots are written
+// under the original name. The whole file is one mapping, so it stays under MAX_SIZE.
+final class SessionSnapshot {
+    private static final int MAGIC = 0x54455353; // "TESS"
+    private static final int VERSION = 1;
+    private static final int FLAG_MODIFIED = 1, FLAG_BOM = 2;
+    private static final ByteOrder DATA_ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+    private static final String RESTORED_SUFFIX = ".restored";
+    private static final Object WRITE_LOCK = new Object(); // the periodic and the exit snapshot share the temp file
+
+    static final class Tab {
+        String path;   // null for an Untitled tab
+        FileChangeWatcher.Fingerprint fingerprint;
+        String charset = "UTF-8";
+        boolean bom;
+        boolean modified;
+        String lexer;  // null for plain text
+        int caret;
+        int scrollX, scrollY;
+
+        // Set when writing: the document text, or null to reopen the file instead
+        String text;
+
+        // Set when reading a tab that has content: views of the mapped file
+        CharBuffer content;
+        IntBuffer lineStarts;
+
+        // Where the content is in the file, filled in while writing or reading the header
+        private long textOffset = -1, linesOffset;
+        private int textChars, lineCount;
+
+        boolean hasContent() {
+            return content != null;
+        }
+
+        int getChars() {
+            return textChars;
+        }
+
+        int getLineCount() {
+            return lineCount;
+        }
+    }
+
+    String colorScheme;
+    boolean wrap;
+    int activeTab;
+    final List<Tab> tabs = new ArrayList<>();
+
+    // Writes to a temporary file next to the target and moves it into place, so a crash never
+    // leaves half a snapshot. Tabs whose text would end past MAX_SIZE go in by path only. Runs off
+    // the EDT: everything it needs is in the fields.
+    void write(File file) throws IOException {
+        synchronized (WRITE_LOCK) {
+            writeLocked(file);
+        }
+    }
+
+    private void writeLocked(File file) throws IOException {
+        List<int[]> lineStarts = new ArrayList<>();
+        for (Tab t : tabs)
+            lineStarts.add(t.text != null ? lineStarts(t.text) : null);
+
+        // Offsets are fixed width, so the header has the same length before and after they are known
+        long offset = align(header().length, 8);
+        for (int i = 0; i < tabs.size(); i++) {
+            Tab t = tabs.get(i);
+            if (t.text == null) {
+                t.textOffset = -1;
+                continue;
+            }
+            long linesOffset = align(offset + 2L * t.text.length(), 4);
+            long next = align(linesOffset + 4L * lineStarts.get(i).length, 8);
+            if (next > MAX_SIZE) {
+                t.text = null;
+                t.textOffset = -1;
+                continue;
+            }
+            t.textOffset = offset;
+            t.textChars = t.text.length();
+            t.linesOffset = linesOffset;
+            t.lineCount = lineStarts.get(i).length;
+            offset = next;
+        }
+        byte[] header = header();
+
+        Path target = file.toPath().toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.wrap(header), 0);
+            for (int i = 0; i < tabs.size(); i++) {
+                Tab t = tabs.get(i);
+                if (t.text == null)
+                    continue;
+                // Written through a heap buffer a slice at a time: mapping for writing would pin
+                // the file on Windows until the mapping is collected
+                writeChars(ch, t.textOffset, t.text);
+                writeInts(ch, t.linesOffset, lineStarts.get(i));
+            }
+            ch.truncate(offset);
+            ch.force(false);
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Whether there is a snapshot to read: the last one written, or the one restored last time if
+    // the editor stopped before writing another
+    static boolean exists(File file) {
+        return file.isFile() || restoredFile(file).isFile();
+    }
+
+    private static File restoredFile(File file) {
+        return new File(file.getPath() + RESTORED_SUFFIX);
+    }
+
+    // The views stay valid after the method returns; the mapping goes away with the last of them
+    static SessionSnapshot read(File file) throws IOException {
+        File restored = restoredFile(file);
+        if (file.isFile())
+            Files.move(file.toPath(), restored.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        SessionSnapshot s = new SessionSnapshot();
+        try (FileChannel ch = FileChannel.open(restored.toPath(), StandardOpenOption.READ)) {
+            if (ch.size() > MAX_SIZE)
+                throw new IOException("Session snapshot too large: " + file);
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (map.getInt() != MAGIC)
+                throw new IOException("Not a session snapshot: " + file);
+            int version = map.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported session snapshot version " + version);
+            s.colorScheme = readString(map);
+            s.wrap = map.get() != 0;
+            s.activeTab = map.getInt();
+            int count = map.getInt();
+            for (int i = 0; i < count; i++) {
+                Tab t = new Tab();
+                t.path = readString(map);
+                long size = map.getLong(), modified = map.getLong(), hash = map.getLong();
+                if (size >= 0)
+                    t.fingerprint = new FileChangeWatcher.Fingerprint(size, modified, hash);
+                t.charset = readString(map);
+                int flags = map.get();
+                t.bom = (flags & FLAG_BOM) != 0;
+                t.modified = (flags & FLAG_MODIFIED) != 0;
+                t.lexer = readString(map);
+                t.caret = map.getInt();
+                t.scrollX = map.getInt();
+                t.scrollY = map.getInt();
+                t.textOffset = map.getLong();
+                t.textChars = map.getInt();
+                t.linesOffset = map.getLong();
+                t.lineCount = map.getInt();
+                s.tabs.add(t);
+            }
+            for (Tab t : s.tabs) {
+                if (t.textOffset < 0)
+                    continue;
+                t.content = data(map, t.textOffset).asCharBuffer().limit(t.textChars);
+                t.lineStarts = data(map, t.linesOffset).asIntBuffer().limit(t.lineCount);
+            }
+        } catch (RuntimeException e) {
+            // Truncated or garbled: BufferUnderflowException, IllegalArgumentException, ...
+            throw new IOException("Damaged session snapshot " + file + ": " + e, e);
+        }
+        return s;
+    }
+
+    private static ByteBuffer data(ByteBuffer map, long offset) {
+        return map.duplicate().position((int) offset).slice().order(DATA_ORDER);
+    }
+
+    // A document holding the tab's content, with its line elements made from the stored index
+    // rather than by scanning the text
+    static PlainDocument document(Tab t) {
+        return new IndexedDocument(t.content.duplicate(), t.lineStarts.duplicate());
+    }
+
+    private static final class IndexedDocument extends PlainDocument {
+        IndexedDocument(CharBuffer text, IntBuffer lineStarts) {
+            super(new FilledContent(text));
+            int length = getLength();
+            writeLock();
+            try {
+                BranchElement root = (BranchElement) getDefaultRootElement();
+                int n = lineStarts.remaining();
+                Element[] lines = new Element[n];
+                for (int i = 0; i < n; i++) {
+                    int end = i + 1 < n ? lineStarts.get(i + 1) : length + 1;
+                    lines[i] = createLeafElement(root, null, lineStarts.get(i), end);
+                }
+                root.replace(0, root.getElementCount(), lines);
+            } finally {
+                writeUnlock();
+            }
+        }
+    }
+
+    // Starts out holding the text, copied in once (insertString would go through a String twice)
+    private static final class FilledContent extends GapContent {
+        FilledContent(CharBuffer text) {
+            super(text.remaining() + 1);
+            char[] chars = new char[text.remaining()];
+            text.get(chars);
+            replace(0, 0, chars, chars.length);
+        }
+    }
+
+    private byte[] header() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, colorScheme);
+        out.writeBoolean(wrap);
+        out.writeInt(activeTab);
+        out.writeInt(tabs.size());
+        for (Tab t : tabs) {
+            writeString(out, t.path);
+            FileChangeWatcher.Fingerprint fp = t.fingerprint;
+            out.writeLong(fp != null ? fp.size : -1);
+            out.writeLong(fp != null ? fp.modified : 0);
+            out.writeLong(fp != null ? fp.hash : 0);
+            writeString(out, t.charset);
+            out.writeByte((t.modified ? FLAG_MODIFIED : 0) | (t.bom ? FLAG_BOM : 0));
+            writeString(out, t.lexer);
+            out.writeInt(t.caret);
+            out.writeInt(t.scrollX);
+            out.writeInt(t.scrollY);
+            out.writeLong(t.textOffset);
+            out.writeInt(t.textChars);
+            out.writeLong(t.linesOffset);
+            out.writeInt(t.lineCount);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Offsets where lines start, the way PlainDocument splits them: after every \n
+    private static int[] lineStarts(String text) {
+        int count = 1;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1))
+            count++;
+        int[] starts = new int[count];
+        int n = 1;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1))
+            starts[n++] = i + 1;
+        return starts;
+    }
+
+    private static final int WRITE_CHARS = 1 << 20;
+
+    private static void writeChars(FileChannel ch, long offset, String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(2 * Math.min(WRITE_CHARS, Math.max(1, text.length()))).order(DATA_ORDER);
+        CharBuffer chars = buf.asCharBuffer();
+        for (int from = 0; from < text.length(); from += WRITE_CHARS) {
+            int to = Math.min(text.length(), from + WRITE_CHARS);
+            chars.clear();
+            chars.put(text, from, to);
+            buf.clear().limit(2 * (to - from));
+            offset += writeFully(ch, buf, offset);
+        }
+    }
+
+    private static void writeInts(FileChannel ch, long offset, int[] values) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4 * Math.min(WRITE_CHARS, Math.max(1, values.length))).order(DATA_ORDER);
+        IntBuffer ints = buf.asIntBuffer();
+        for (int from = 0; from < values.length; from += WRITE_CHARS) {
+            int to = Math.min(values.length, from + WRITE_CHARS);
+            ints.clear();
+            ints.put(values, from, to - from);
+            buf.clear().limit(4 * (to - from));
+            offset += writeFully(ch, buf, offset);
+        }
+    }
+
+    private static int writeFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        int n = 0;
+        while (buf.hasRemaining())
+            n += ch.write(buf, offset + n);
+        return n;
+    }
+
+    private static long align(long offset, int to) {
+        return (offset + to - 1) / to * to;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int n = in.getInt();
+        if (n < 0)
+            return null;
+        byte[] b = new byte[n];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,120 @@
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+// Inserts a large paste a chunk at a time on the EDT, so the window keeps painting and the paste
+// can be cancelled. Each slice inserts chunks for up to SLICE_NANOS and then queues the next one
+// behind whatever input and paint events have arrived meanwhile. An insert also costs time in
+// proportion to the lines already in the document (the line elements are copied), so chunks grow
+// while inserts stay well inside the slice and shrink when one overruns it. Line endings become
+// \n on the way. The text can be any CharSequence, such as a mapped file too big to have as a String.
+class StreamingPaste {
+    // Called on the EDT
+    interface Listener {
+        void progress(int charsDone, int charsTotal);
+
+        // Everything is in, or cancel() was called and the slices have stopped
+        void finished(boolean cancelled);
+    }
+
+    private static final int MIN_CHUNK = 16 * 1024, MAX_CHUNK = 8 << 20;
+    private static final long SLICE_NANOS = 20_000_000;
+
+    private final Document doc;
+    private final CharSequence text;
+    private final Listener listener;
+    private int offset; // where the next chunk goes
+    private int next;   // first character of text not inserted yet
+    private int chunk = 64 * 1024;
+    private boolean cancelled;
+
+    StreamingPaste(Document doc, int offset, CharSequence text, Listener listener) {
+        this.doc = doc;
+        this.offset = offset;
+        this.text = text;
+        this.listener = listener;
+    }
+
+    void start() {
+        SwingUtilities.invokeLater(this::slice);
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    private void slice() {
+        long deadline = System.nanoTime() + SLICE_NANOS;
+        try {
+            while (!cancelled && next < text.length()) {
+                long t0 = System.nanoTime();
+                int end = chunkEnd(next);
+                String s = lineFeeds(text, next, end);
+                doc.insertString(offset, s, null);
+                offset += s.length();
+                next = end;
+                long t1 = System.nanoTime();
+                if (t1 - t0 < SLICE_NANOS / 4)
+                    chunk = Math.min(MAX_CHUNK, chunk * 2);
+                else if (t1 - t0 > SLICE_NANOS)
+                    chunk = Math.max(MIN_CHUNK, chunk / 2);
+                if (t1 >= deadline)
+                    break;
+            }
+        } catch (BadLocationException e) {
+            cancelled = true;
+        }
+        if (cancelled || next == text.length()) {
+            listener.finished(cancelled);
+            return;
+        }
+        listener.progress(next, text.length());
+        SwingUtilities.invokeLater(this::slice);
+    }
+
+    // A \r\n or a surrogate pair is never split between chunks
+    private int chunkEnd(int from) {
+        int end = Math.min(text.length(), from + chunk);
+        if (end < text.length() && (text.charAt(end - 1) == '\r' || Character.isHighSurrogate(text.charAt(end - 1))))
+            end++;
+        return end;
+    }
+
+    // [from, to) of s with \r\n and lone \r turned into \n, as the default paste does
+    static String lineFeeds(CharSequence s, int from, int to) {
+        int cr = indexOf(s, '\r', from, to);
+        if (cr < 0)
+            return s.subSequence(from, to).toString();
+        StringBuilder sb = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c != '\r')
+                sb.append(c);
+            else if (i + 1 >= to || s.charAt(i + 1) != '\n')
+                sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    static int longestLine(CharSequence s) {
+        int longest = 0;
+        int start = 0;
+        for (int nl = indexOf(s, '\n', 0, s.length()); nl >= 0; nl = indexOf(s, '\n', start, s.length())) {
+            longest = Math.max(longest, nl - start);
+            start = nl + 1;
+        }
+        return Math.max(longest, s.length() - start);
+    }
+
+    private static int indexOf(CharSequence s, char c, int from, int to) {
+        if (s instanceof String) {
+            int i = ((String) s).indexOf(c, from);
+            return i < to ? i : -1;
+        }
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c)
+                return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,678 @@
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.*;
+import java.awt.*;
+import java.util.*;
+
+// Incremental syntax highlighting for a JTextArea. The lexer state at the start of every line is
+// kept in an int array; after an edit only the damaged line is relexed, continuing downwards until
+// the computed state matches the stored one again. States past the last painted line are computed
+// lazily, and tokens are only produced for lines that are actually painted.
+class SyntaxHighlighter implements DocumentListener {
+    private static final String CLIENT_KEY = "SyntaxHighlighter";
+    private static final int TOKEN_CACHE_LINES = 512;
+    // Longer lines (minified files) are drawn plain rather than holding tokens for megabytes of text
+    private static final int MAX_TOKENIZED_LINE = 100_000;
+
+    // Token types
+    static final int KEYWORD = 0, STRING = 1, NUMBER = 2, COMMENT = 3, ANNOTATION = 4,
+            ERROR = 5, WARNING = 6, INFO = 7, DEBUG = 8, TIMESTAMP = 9;
+
+    private static final Color[] LIGHT = {
+        new Color(0, 0, 160), new Color(163, 21, 21), new Color(9, 134, 88), new Color(0, 128, 0),
+        new Color(128, 128, 0), new Color(205, 0, 0), new Color(190, 110, 0), new Color(0, 100, 180),
+        new Color(120, 120, 120), new Color(110, 60, 150)
+    };
+    private static final Color[] DARK = {
+        new Color(86, 156, 214), new Color(206, 145, 120), new Color(181, 206, 168), new Color(106, 153, 85),
+        new Color(220, 220, 170), new Color(244, 71, 71), new Color(229, 192, 123), new Color(97, 175, 239),
+        new Color(150, 150, 150), new Color(197, 134, 192)
+    };
+
+    interface TokenSink {
+        void token(int start, int length, int type);
+    }
+
+    // Draws [p0, p1) of one line at x in the current color and returns the x after it
+    interface RangePainter {
+        float draw(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException;
+    }
+
+    interface Lexer {
+        String getName();
+
+        // Lexes one line (without its line separator) starting in the given state and returns the
+        // state at the start of the next line. The sink is null when only the state is wanted.
+        int lexLine(CharSequence line, int state, TokenSink sink);
+    }
+
+    static final Lexer[] LEXERS = { new JavaLexer(), new SqlLexer(), new JsonLexer(), new LogLexer() };
+
+    private final JTextArea textArea;
+    private Document doc;
+    private Lexer lexer;
+    private int[] states = new int[256];
+    private int lineCount;
+    private int validUpTo;
+    private final Map<Integer, int[]> tokenCache = new HashMap<>();
+    private final Segment segment = new Segment();
+
+    private SyntaxHighlighter(JTextArea textArea) {
+        this.textArea = textArea;
+        bind(textArea.getDocument());
+        // Buffers swapped out by the pool get a new document on restore
+        textArea.addPropertyChangeListener("document", e -> bind(textArea.getDocument()));
+    }
+
+    // Returns the text area's highlighter, installing it (and the highlighting views) on first use
+    static SyntaxHighlighter forTextArea(JTextArea textArea) {
+        SyntaxHighlighter h = (SyntaxHighlighter) textArea.getClientProperty(CLIENT_KEY);
+        if (h == null) {
+            h = new SyntaxHighlighter(textArea);
+            textArea.putClientProperty(CLIENT_KEY, h);
+            textArea.setUI(new SyntaxTextAreaUI());
+        }
+        return h;
+    }
+
+    static SyntaxHighlighter get(Component c) {
+        return c instanceof JComponent ? (SyntaxHighlighter) ((JComponent) c).getClientProperty(CLIENT_KEY) : null;
+    }
+
+    static Lexer lexerFor(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".java")) return LEXERS[0];
+        if (name.endsWith(".sql")) return LEXERS[1];
+        if (name.endsWith(".json")) return LEXERS[2];
+        if (name.endsWith(".log")) return LEXERS[3];
+        return null;
+    }
+
+    public Lexer getLexer() {
+        return lexer;
+    }
+
+    public void setLexer(Lexer lexer) {
+        if (this.lexer == lexer)
+            return;
+        this.lexer = lexer;
+        reset();
+        textArea.repaint();
+    }
+
+    private void bind(Document newDoc) {
+        if (doc != null)
+            doc.removeDocumentListener(this);
+        doc = newDoc;
+        doc.addDocumentListener(this);
+        reset();
+    }
+
+    private void reset() {
+        lineCount = doc.getDefaultRootElement().getElementCount();
+        ensureCapacity(lineCount);
+        states[0] = 0;
+        validUpTo = 1;
+        tokenCache.clear();
+    }
+
+    private void ensureCapacity(int n) {
+        if (states.length < n)
+            states = Arrays.copyOf(states, Math.max(n, states.length + (states.length >> 1)));
+    }
+
+    // ---------- DOCUMENT CHANGES ----------
+    public void insertUpdate(DocumentEvent e) {
+        linesChanged(e);
+    }
+
+    public void removeUpdate(DocumentEvent e) {
+        linesChanged(e);
+    }
+
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    private void linesChanged(DocumentEvent e) {
+        tokenCache.clear();
+        Element root = doc.getDefaultRootElement();
+        int firstLine = root.getElementIndex(e.getOffset());
+        int oldCount = lineCount;
+        lineCount = root.getElementCount();
+        int delta = lineCount - oldCount;
+        int tail = oldCount - firstLine - 1;
+
+        if (delta > 0) {
+            ensureCapacity(lineCount);
+            System.arraycopy(states, firstLine + 1, states, firstLine + 1 + delta, tail);
+            if (validUpTo > firstLine + 1)
+                validUpTo += delta;
+        } else if (delta < 0) {
+            System.arraycopy(states, firstLine + 1 - delta, states, firstLine + 1, tail + delta);
+            if (validUpTo > firstLine + 1)
+                validUpTo = Math.max(firstLine + 1, validUpTo + delta);
+        }
+
+        if (lexer == null || firstLine >= validUpTo)
+            return;
+        int lastChanged = firstLine + Math.max(delta, 0);
+        int last = relex(firstLine, lastChanged);
+        if (last > lastChanged)
+            repaintLines(lastChanged + 1, last + 1);
+    }
+
+    // Relexes from the damaged line until the state converges (or the lazily lexed region ends);
+    // returns the last line whose successor state was recomputed
+    private int relex(int from, int lastChanged) {
+        int i = from;
+        for (; i + 1 < lineCount; i++) {
+            int end = lexLine(i, states[i], null);
+            if (i >= lastChanged && i + 1 < validUpTo && states[i + 1] == end)
+                break;
+            states[i + 1] = end;
+            if (i + 1 >= validUpTo) {
+                validUpTo = i + 2;
+                break;
+            }
+        }
+        return i;
+    }
+
+    private void ensureStates(int line) {
+        while (validUpTo <= line) {
+            int i = validUpTo - 1;
+            states[validUpTo] = lexLine(i, states[i], null);
+            validUpTo++;
+        }
+    }
+
+    private int lexLine(int line, int state, TokenSink sink) {
+        Element el = doc.getDefaultRootElement().getElement(line);
+        int start = el.getStartOffset();
+        int end = Math.min(el.getEndOffset(), doc.getLength());
+        try {
+            doc.getText(start, end - start, segment);
+        } catch (BadLocationException ex) {
+            return state;
+        }
+        int len = segment.count;
+        if (len > 0 && segment.array[segment.offset + len - 1] == '\n')
+            segment.count = len - 1;
+        return lexer.lexLine(segment, state, sink);
+    }
+
+    private int[] tokensFor(int line) {
+        int[] tokens = tokenCache.get(line);
+        if (tokens == null) {
+            ensureStates(line);
+            int[][] buf = { new int[24] };
+            int[] n = { 0 };
+            lexLine(line, states[line], (start, length, type) -> {
+                if (n[0] + 3 > buf[0].length)
+                    buf[0] = Arrays.copyOf(buf[0], buf[0].length * 2);
+                buf[0][n[0]++] = start;
+                buf[0][n[0]++] = length;
+                buf[0][n[0]++] = type;
+            });
+            tokens = Arrays.copyOf(buf[0], n[0]);
+            if (tokenCache.size() > TOKEN_CACHE_LINES)
+                tokenCache.clear();
+            tokenCache.put(line, tokens);
+        }
+        return tokens;
+    }
+
+    private void repaintLines(int fromLine, int toLine) {
+        if (!textArea.isShowing())
+            return;
+        Element root = doc.getDefaultRootElement();
+        try {
+            Rectangle r0 = textArea.modelToView2D(root.getElement(fromLine).getStartOffset()).getBounds();
+            Rectangle r1 = textArea.modelToView2D(root.getElement(Math.min(toLine, lineCount - 1)).getStartOffset()).getBounds();
+            textArea.repaint(0, r0.y, textArea.getWidth(), r1.y + r1.height - r0.y);
+        } catch (BadLocationException | NullPointerException ex) {
+            textArea.repaint();
+        }
+    }
+
+    // ---------- PAINTING ----------
+    // Draws [p0, p1) of one line in token colors; returns the x after the last glyph
+    float paint(Graphics2D g, TabExpander expander, float x, float y, int p0, int p1) throws BadLocationException {
+        return paint(g, x, y, p0, p1, (g2, x2, y2, a, b) -> drawRange(g2, expander, x2, y2, a, b));
+    }
+
+    // Same, with the glyphs drawn by the caller's view
+    float paint(Graphics2D g, float x, float y, int p0, int p1, RangePainter painter) throws BadLocationException {
+        Color plain = textArea.getForeground();
+        if (lexer == null) {
+            g.setColor(plain);
+            return painter.draw(g, x, y, p0, p1);
+        }
+        Color[] palette = isDark(textArea.getBackground()) ? DARK : LIGHT;
+        int line = doc.getDefaultRootElement().getElementIndex(p0);
+        Element el = doc.getDefaultRootElement().getElement(line);
+        int lineStart = el.getStartOffset();
+        if (el.getEndOffset() - lineStart > MAX_TOKENIZED_LINE) {
+            g.setColor(plain);
+            return painter.draw(g, x, y, p0, p1);
+        }
+        int[] tokens = tokensFor(line);
+
+        int pos = p0;
+        for (int t = 0; t < tokens.length && pos < p1; t += 3) {
+            int ts = lineStart + tokens[t];
+            int te = ts + tokens[t + 1];
+            if (te <= pos)
+                continue;
+            if (ts >= p1)
+                break;
+            if (ts > pos) {
+                g.setColor(plain);
+                x = painter.draw(g, x, y, pos, ts);
+                pos = ts;
+            }
+            int end = Math.min(te, p1);
+            g.setColor(palette[tokens[t + 2]]);
+            x = painter.draw(g, x, y, pos, end);
+            pos = end;
+        }
+        if (pos < p1) {
+            g.setColor(plain);
+            x = painter.draw(g, x, y, pos, p1);
+        }
+        return x;
+    }
+
+    private float drawRange(Graphics2D g, TabExpander expander, float x, float y, int p0, int p1) throws BadLocationException {
+        Segment s = new Segment();
+        doc.getText(p0, p1 - p0, s);
+        return Utilities.drawTabbedText(s, x, y, g, expander, p0);
+    }
+
+    private static boolean isDark(Color c) {
+        return c != null && (c.getRed() * 299 + c.getGreen() * 587 + c.getBlue() * 114) / 1000 < 128;
+    }
+
+    static class SyntaxTextAreaUI extends BasicTextAreaUI {
+        @Override
+        public View create(Element elem) {
+            if (Boolean.TRUE.equals(elem.getDocument().getProperty("i18n")))
+                return super.create(elem);
+            JTextArea area = (JTextArea) getComponent();
+            if (LongLineView.isEnabled(area))
+                return new LongLineView(elem, area.getLineWrap(), area.getWrapStyleWord());
+            return area.getLineWrap() ? new SyntaxWrappedView(elem, area.getWrapStyleWord()) : new SyntaxView(elem);
+        }
+
+        // Recreates the views, e.g. after switching long-line mode
+        void rebuildViews() {
+            modelChanged();
+        }
+    }
+
+    static class SyntaxView extends PlainView {
+        SyntaxView(Element elem) {
+            super(elem);
+        }
+
+        @Override
+        protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+            SyntaxHighlighter h = get(getContainer());
+            return h != null ? h.paint(g, this, x, y, p0, p1) : super.drawUnselectedText(g, x, y, p0, p1);
+        }
+    }
+
+    static class SyntaxWrappedView extends WrappedPlainView {
+        SyntaxWrappedView(Element elem, boolean wordWrap) {
+            super(elem, wordWrap);
+        }
+
+        @Override
+        protected float drawUnselectedText(Graphics2D g, float x, float y, int p0, int p1) throws BadLocationException {
+            SyntaxHighlighter h = get(getContainer());
+            return h != null ? h.paint(g, this, x, y, p0, p1) : super.drawUnselectedText(g, x, y, p0, p1);
+        }
+    }
+
+    // ---------- LEXERS ----------
+    abstract static class AbstractLexer implements Lexer {
+        static final int NORMAL = 0;
+
+        static void emit(TokenSink sink, int start, int end, int type) {
+            if (sink != null && end > start)
+                sink.token(start, end - start, type);
+        }
+
+        static int indexOf(CharSequence s, String str, int from) {
+            int n = s.length() - str.length();
+            outer:
+            for (int i = from; i <= n; i++) {
+                for (int j = 0; j < str.length(); j++) {
+                    if (s.charAt(i + j) != str.charAt(j))
+                        continue outer;
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        static boolean startsWith(CharSequence s, int at, String str) {
+            if (at + str.length() > s.length())
+                return false;
+            for (int j = 0; j < str.length(); j++) {
+                if (s.charAt(at + j) != str.charAt(j))
+                    return false;
+            }
+            return true;
+        }
+
+        // End of a quoted run starting at i (exclusive), honouring backslash escapes; line end if unterminated
+        static int skipQuoted(CharSequence s, int i, char quote) {
+            int n = s.length();
+            for (int j = i + 1; j < n; j++) {
+                char c = s.charAt(j);
+                if (c == '\\')
+                    j++;
+                else if (c == quote)
+                    return j + 1;
+            }
+            return n;
+        }
+
+        static int skipNumber(CharSequence s, int i) {
+            int n = s.length();
+            while (i < n && (Character.isLetterOrDigit(s.charAt(i)) || s.charAt(i) == '.' || s.charAt(i) == '_'))
+                i++;
+            return i;
+        }
+
+        static int skipIdentifier(CharSequence s, int i) {
+            int n = s.length();
+            while (i < n && Character.isJavaIdentifierPart(s.charAt(i)))
+                i++;
+            return i;
+        }
+
+        static Set<String> words(String list) {
+            return new HashSet<>(Arrays.asList(list.split(" ")));
+        }
+    }
+
+    static class JavaLexer extends AbstractLexer {
+        private static final int BLOCK_COMMENT = 1, TEXT_BLOCK = 2;
+        private static final Set<String> KEYWORDS = words(
+                "abstract assert boolean break byte case catch char class const continue default do double else enum "
+                + "extends final finally float for goto if implements import instanceof int interface long native new "
+                + "package private protected public return short static strictfp super switch synchronized this throw "
+                + "throws transient try void volatile while var record yield sealed permits true false null");
+
+        public String getName() {
+            return "Java";
+        }
+
+        public int lexLine(CharSequence s, int state, TokenSink sink) {
+            int n = s.length();
+            int i = 0;
+            if (state == BLOCK_COMMENT || state == TEXT_BLOCK) {
+                String close = state == BLOCK_COMMENT ? "*/" : "\"\"\"";
+                int end = indexOf(s, close, 0);
+                if (end < 0) {
+                    emit(sink, 0, n, state == BLOCK_COMMENT ? COMMENT : STRING);
+                    return state;
+                }
+                i = end + close.length();
+                emit(sink, 0, i, state == BLOCK_COMMENT ? COMMENT : STRING);
+            }
+            while (i < n) {
+                char c = s.charAt(i);
+                if (c == '/' && i + 1 < n && s.charAt(i + 1) == '/') {
+                    emit(sink, i, n, COMMENT);
+                    return NORMAL;
+                } else if (c == '/' && i + 1 < n && s.charAt(i + 1) == '*') {
+                    int end = indexOf(s, "*/", i + 2);
+                    if (end < 0) {
+                        emit(sink, i, n, COMMENT);
+                        return BLOCK_COMMENT;
+                    }
+                    emit(sink, i, end + 2, COMMENT);
+                    i = end + 2;
+                } else if (startsWith(s, i, "\"\"\"")) {
+                    int end = indexOf(s, "\"\"\"", i + 3);
+                    if (end < 0) {
+                        emit(sink, i, n, STRING);
+                        return TEXT_BLOCK;
+                    }
+                    emit(sink, i, end + 3, STRING);
+                    i = end + 3;
+                } else if (c == '"' || c == '\'') {
+                    int end = skipQuoted(s, i, c);
+                    emit(sink, i, end, STRING);
+                    i = end;
+                } else if (Character.isDigit(c)) {
+                    int end = skipNumber(s, i);
+                    emit(sink, i, end, NUMBER);
+                    i = end;
+                } else if (c == '@' && i + 1 < n && Character.isJavaIdentifierStart(s.charAt(i + 1))) {
+                    int end = skipIdentifier(s, i + 1);
+                    emit(sink, i, end, ANNOTATION);
+                    i = end;
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    int end = skipIdentifier(s, i);
+                    if (sink != null && KEYWORDS.contains(s.subSequence(i, end).toString()))
+                        emit(sink, i, end, KEYWORD);
+                    i = end;
+                } else {
+                    i++;
+                }
+            }
+            return NORMAL;
+        }
+    }
+
+    static class SqlLexer extends AbstractLexer {
+        private static final int BLOCK_COMMENT = 1, STRING_LITERAL = 2;
+        private static final Set<String> KEYWORDS = words(
+                "SELECT FROM WHERE AND OR NOT IN IS NULL LIKE BETWEEN INSERT INTO VALUES UPDATE SET DELETE CREATE "
+                + "ALTER DROP TABLE VIEW INDEX SEQUENCE TRIGGER PRIMARY KEY FOREIGN REFERENCES UNIQUE DEFAULT CHECK "
+                + "CONSTRAINT JOIN INNER LEFT RIGHT FULL OUTER CROSS ON AS GROUP BY ORDER HAVING DISTINCT UNION ALL "
+                + "EXISTS CASE WHEN THEN ELSE END BEGIN COMMIT ROLLBACK DECLARE FETCH FIRST NEXT ROWS ONLY LIMIT "
+                + "OFFSET ASC DESC MERGE USING MATCHED WITH REPLACE FOR EACH ROW BEFORE AFTER NUMBER VARCHAR2 "
+                + "VARCHAR CHAR CLOB BLOB INTEGER INT DATE TIMESTAMP BOOLEAN TRUE FALSE COUNT SUM MIN MAX AVG");
+
+        public String getName() {
+            return "SQL";
+        }
+
+        public int lexLine(CharSequence s, int state, TokenSink sink) {
+            int n = s.length();
+            int i = 0;
+            if (state == BLOCK_COMMENT) {
+                int end = indexOf(s, "*/", 0);
+                if (end < 0) {
+                    emit(sink, 0, n, COMMENT);
+                    return BLOCK_COMMENT;
+                }
+                i = end + 2;
+                emit(sink, 0, i, COMMENT);
+            } else if (state == STRING_LITERAL) {
+                int end = closeQuote(s, 0);
+                if (end < 0) {
+                    emit(sink, 0, n, STRING);
+                    return STRING_LITERAL;
+                }
+                i = end;
+                emit(sink, 0, i, STRING);
+            }
+            while (i < n) {
+                char c = s.charAt(i);
+                if (c == '-' && i + 1 < n && s.charAt(i + 1) == '-') {
+                    emit(sink, i, n, COMMENT);
+                    return NORMAL;
+                } else if (c == '/' && i + 1 < n && s.charAt(i + 1) == '*') {
+                    int end = indexOf(s, "*/", i + 2);
+                    if (end < 0) {
+                        emit(sink, i, n, COMMENT);
+                        return BLOCK_COMMENT;
+                    }
+                    emit(sink, i, end + 2, COMMENT);
+                    i = end + 2;
+                } else if (c == '\'') {
+                    int end = closeQuote(s, i + 1);
+                    if (end < 0) {
+                        emit(sink, i, n, STRING);
+                        return STRING_LITERAL;
+                    }
+                    emit(sink, i, end, STRING);
+                    i = end;
+                } else if (c == '"') {
+                    int end = skipQuoted(s, i, '"');
+                    i = end;
+                } else if (Character.isDigit(c)) {
+                    int end = skipNumber(s, i);
+                    emit(sink, i, end, NUMBER);
+                    i = end;
+                } else if (Character.isLetter(c) || c == '_') {
+                    int end = skipIdentifier(s, i);
+                    if (sink != null && KEYWORDS.contains(s.subSequence(i, end).toString().toUpperCase(Locale.ROOT)))
+                        emit(sink, i, end, KEYWORD);
+                    i = end;
+                } else if (c == ':' && i + 1 < n && Character.isLetter(s.charAt(i + 1))) {
+                    int end = skipIdentifier(s, i + 1);
+                    emit(sink, i, end, ANNOTATION);
+                    i = end;
+                } else {
+                    i++;
+                }
+            }
+            return NORMAL;
+        }
+
+        // SQL strings escape quotes by doubling them; returns the offset after the closing quote or -1
+        private static int closeQuote(CharSequence s, int from) {
+            int n = s.length();
+            for (int j = from; j < n; j++) {
+                if (s.charAt(j) == '\'') {
+                    if (j + 1 < n && s.charAt(j + 1) == '\'')
+                        j++;
+                    else
+                        return j + 1;
+                }
+            }
+            return -1;
+        }
+    }
+
+    static class JsonLexer extends AbstractLexer {
+        public String getName() {
+            return "JSON";
+        }
+
+        public int lexLine(CharSequence s, int state, TokenSink sink) {
+            if (sink == null)
+                return NORMAL; // no construct spans lines
+            int n = s.length();
+            int i = 0;
+            while (i < n) {
+                char c = s.charAt(i);
+                if (c == '"') {
+                    int end = skipQuoted(s, i, '"');
+                    int j = end;
+                    while (j < n && Character.isWhitespace(s.charAt(j)))
+                        j++;
+                    emit(sink, i, end, j < n && s.charAt(j) == ':' ? ANNOTATION : STRING);
+                    i = end;
+                } else if (c == '-' || Character.isDigit(c)) {
+                    int end = i + 1;
+                    while (end < n && "0123456789.eE+-".indexOf(s.charAt(end)) >= 0)
+                        end++;
+                    emit(sink, i, end, NUMBER);
+                    i = end;
+                } else if (Character.isLetter(c)) {
+                    int end = skipIdentifier(s, i);
+                    String word = s.subSequence(i, end).toString();
+                    if (word.equals("true") || word.equals("false") || word.equals("null"))
+                        emit(sink, i, end, KEYWORD);
+                    i = end;
+                } else {
+                    i++;
+                }
+            }
+            return NORMAL;
+        }
+    }
+
+    static class LogLexer extends AbstractLexer {
+        public String getName() {
+            return "Log";
+        }
+
+        public int lexLine(CharSequence s, int state, TokenSink sink) {
+            if (sink == null)
+                return NORMAL; // every log line stands alone
+            int n = s.length();
+            int i = 0;
+            while (i < n && Character.isWhitespace(s.charAt(i)))
+                i++;
+            // Stack trace frames and "Caused by" lines
+            if (startsWith(s, i, "at ") || startsWith(s, i, "... ") || startsWith(s, i, "Caused by:")) {
+                emit(sink, i, n, COMMENT);
+                return NORMAL;
+            }
+            // Leading timestamp: digits with date/time punctuation
+            int ts = i;
+            while (ts < n && "0123456789-:./T, +Z".indexOf(s.charAt(ts)) >= 0)
+                ts++;
+            while (ts > i && s.charAt(ts - 1) == ' ')
+                ts--;
+            if (ts - i >= 8) {
+                emit(sink, i, ts, TIMESTAMP);
+                i = ts;
+            }
+            while (i < n) {
+                char c = s.charAt(i);
+                if (c == '"') {
+                    int end = skipQuoted(s, i, '"');
+                    emit(sink, i, end, STRING);
+                    i = end;
+                } else if (Character.isUpperCase(c)) {
+                    int end = skipIdentifier(s, i);
+                    int type = level(s.subSequence(i, end).toString());
+                    if (type >= 0)
+                        emit(sink, i, end, type);
+                    i = end;
+                } else if (Character.isDigit(c)) {
+                    int end = skipNumber(s, i);
+                    emit(sink, i, end, NUMBER);
+                    i = end;
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    i = skipIdentifier(s, i);
+                } else {
+                    i++;
+                }
+            }
+            return NORMAL;
+        }
+
+        private static int level(String word) {
+            switch (word) {
+                case "ERROR":
+                case "FATAL":
+                case "SEVERE":
+                    return ERROR;
+                case "WARN":
+                case "WARNING":
+                    return WARNING;
+                case "INFO":
+                    return INFO;
+                case "DEBUG":
+                case "TRACE":
+                case "FINE":
+                    return DEBUG;
+                default:
+                    return -1;
+            }
+        }
+    }
+}
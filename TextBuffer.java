@@ -0,0 +1,241 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.*;
+import java.nio.file.Files;
+
+// UI-free text buffer and the editing commands that operate on it. The Swing editor and the
+// batch CLI both go through these so they behave identically.
+class TextBuffer {
+    // How a file's bytes map to text: the charset and whether the file starts with a byte order mark
+    static final class Encoding {
+        static final Encoding DEFAULT = new Encoding(StandardCharsets.UTF_8, false);
+
+        final Charset charset;
+        final boolean bom;
+
+        Encoding(Charset charset, boolean bom) {
+            this.charset = charset;
+            this.bom = bom;
+        }
+
+        int bomLength() {
+            return !bom ? 0 : charset.equals(StandardCharsets.UTF_8) ? 3 : 2;
+        }
+
+        CharsetDecoder newDecoder() {
+            return charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        public String toString() {
+            return charset.name() + (bom ? " BOM" : "");
+        }
+    }
+
+    // Bytes looked at when guessing the encoding of a file without a byte order mark
+    static final int DETECT_BYTES = 64 * 1024;
+
+    private final File file;
+    private final Encoding encoding;
+    private String text;
+    private boolean modified;
+
+    TextBuffer(File file, String text, Encoding encoding) {
+        this.file = file;
+        this.text = text;
+        this.encoding = encoding;
+    }
+
+    static TextBuffer load(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Encoding enc = detectEncoding(bytes, Math.min(bytes.length, DETECT_BYTES));
+        return new TextBuffer(file, decode(bytes, enc), enc);
+    }
+
+    public File getFile() { return file; }
+    public Encoding getEncoding() { return encoding; }
+    public Charset getCharset() { return encoding.charset; }
+    public String getText() { return text; }
+    public boolean isModified() { return modified; }
+
+    public void setText(String text) {
+        this.text = text;
+        modified = true;
+    }
+
+    public int find(String find, int from) {
+        return findNext(text, find, from);
+    }
+
+    // Returns the number of replacements made
+    public int replaceAll(String find, String replace) {
+        int n = countMatches(text, find);
+        if (n > 0)
+            setText(replaceAll(text, find, replace));
+        return n;
+    }
+
+    public void save() throws IOException {
+        write(file, text, encoding);
+        modified = false;
+    }
+
+    // ---------- COMMANDS ----------
+    static String read(File f) throws IOException {
+        return load(f).getText();
+    }
+
+    static String read(File f, Encoding enc) throws IOException {
+        return decode(Files.readAllBytes(f.toPath()), enc);
+    }
+
+    static String decode(byte[] bytes, Encoding enc) throws IOException {
+        int skip = enc.bomLength();
+        return enc.newDecoder().decode(ByteBuffer.wrap(bytes, skip, bytes.length - skip)).toString();
+    }
+
+    static void write(File f, String text, Encoding enc) throws IOException {
+        try (Writer w = newWriter(f, enc)) {
+            w.write(text);
+        }
+    }
+
+    // Writes the byte order mark (if the encoding has one) before anything else
+    static Writer newWriter(File f, Encoding enc) throws IOException {
+        return newWriter(new FileOutputStream(f), enc);
+    }
+
+    static Writer newWriter(OutputStream out, Encoding enc) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, enc.charset));
+        if (enc.bom)
+            w.write('\uFEFF');
+        return w;
+    }
+
+    // Skips the byte order mark (if the encoding has one)
+    static Reader newReader(File f, Encoding enc) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            in.skipNBytes(enc.bomLength());
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return new InputStreamReader(in, enc.newDecoder());
+    }
+
+    // From the head of the file, for reading it as a stream
+    static Encoding detectEncoding(File f) throws IOException {
+        byte[] head = head(f);
+        return detectEncoding(head, head.length);
+    }
+
+    // Whether the head of the file looks like something other than text (see below)
+    static boolean looksBinary(File f) throws IOException {
+        byte[] head = head(f);
+        return looksBinary(head, head.length);
+    }
+
+    // Up to DETECT_BYTES from the start of the file
+    private static byte[] head(File f) throws IOException {
+        try (InputStream in = new FileInputStream(f)) {
+            return in.readNBytes(DETECT_BYTES);
+        }
+    }
+
+    // Neither a byte order mark nor UTF-16, and a NUL byte or more than one byte in ten a control
+    // character that text does not use
+    static boolean looksBinary(byte[] head, int len) {
+        Encoding enc = detectEncoding(head, len);
+        if (enc.bom || enc.charset.equals(StandardCharsets.UTF_16LE) || enc.charset.equals(StandardCharsets.UTF_16BE))
+            return false;
+        int control = 0;
+        for (int i = 0; i < len; i++) {
+            int b = head[i] & 0xFF;
+            if (b == 0)
+                return true;
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != '\b' && b != 0x1B)
+                control++;
+        }
+        return control > len / 10;
+    }
+
+    // Byte order mark first; otherwise UTF-16 if every other byte is mostly zero, UTF-8 if the head
+    // decodes cleanly as UTF-8 (plain ASCII included), and windows-1252 for anything else
+    static Encoding detectEncoding(byte[] head, int len) {
+        if (len >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF)
+            return new Encoding(StandardCharsets.UTF_8, true);
+        if (len >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE)
+            return new Encoding(StandardCharsets.UTF_16LE, true);
+        if (len >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF)
+            return new Encoding(StandardCharsets.UTF_16BE, true);
+
+        int evenZeros = 0, oddZeros = 0;
+        for (int i = 0; i + 1 < len; i += 2) {
+            if (head[i] == 0) evenZeros++;
+            if (head[i + 1] == 0) oddZeros++;
+        }
+        int pairs = len / 2;
+        if (pairs >= 2 && oddZeros > pairs * 3 / 10 && evenZeros < pairs / 20)
+            return new Encoding(StandardCharsets.UTF_16LE, false);
+        if (pairs >= 2 && evenZeros > pairs * 3 / 10 && oddZeros < pairs / 20)
+            return new Encoding(StandardCharsets.UTF_16BE, false);
+
+        // Not end of input: a multi-byte sequence cut off at the end of the head is fine
+        CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CoderResult r = utf8.decode(ByteBuffer.wrap(head, 0, len), CharBuffer.allocate(len), false);
+        if (!r.isError())
+            return Encoding.DEFAULT;
+        return new Encoding(Charset.isSupported("windows-1252") ? Charset.forName("windows-1252") : StandardCharsets.ISO_8859_1, false);
+    }
+
+    // Same result as text.trim().split("\\s+").length for a non-blank text, without the regex and the array
+    static int countWords(CharSequence text) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            boolean ws = c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f' || c == 0x0B;
+            if (!ws && !inWord)
+                words++;
+            inWord = !ws;
+        }
+        return words;
+    }
+
+    static int countLines(CharSequence text) {
+        int lines = 1;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            if (text.charAt(i) == '\n')
+                lines++;
+        }
+        return lines;
+    }
+
+    // Next occurrence at or after from, wrapping around to the start; -1 when absent
+    static int findNext(String text, String find, int from) {
+        if (find.isEmpty())
+            return -1;
+        int idx = text.indexOf(find, from);
+        if (idx < 0 && from > 0)
+            idx = text.indexOf(find, 0);
+        return idx;
+    }
+
+    static int countMatches(String text, String find) {
+        if (find.isEmpty())
+            return 0;
+        int n = 0;
+        for (int idx = text.indexOf(find); idx >= 0; idx = text.indexOf(find, idx + find.length()))
+            n++;
+        return n;
+    }
+
+    static String replaceAll(String text, String find, String replace) {
+        return find.isEmpty() ? text : text.replace(find, replace);
+    }
+}
@@ -9,31 +9,92 @@ import java.awt.datatransfer.DataFlavor;
 import java.awt.dnd.*;
 import java.awt.event.*;
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
 
 public class TextEditor extends JFrame {
 
+    private static final int TAB_SIZE = 4;
+    // Follow mode starts this far from the end of the file
+    private static final long FOLLOW_INITIAL_BYTES = 8L << 20;
+    // External changes: how often open files are checked, and how much diffing a reload may do
+    private static final int CHANGE_POLL_MS = 2000;
+    private static final int RELOAD_MAX_LINE_EDITS = 1000;
+    // Edit cost past which the compare view settles for a longer diff (see LineDiff.diffLines)
+    private static final int DIFF_COST_LIMIT = 256;
+    // A drop of more files than this can only go to the database
+    private static final int MAX_DROP_TABS = 50;
+    // Session snapshot: -Deditor.session=file (or "off"), how often it is refreshed, and how much
+    // document text it may carry (it is mapped in one piece, so at most 1 GB)
+    private static final String SESSION_PATH = System.getProperty("editor.session",
+            new File(System.getProperty("user.home"), ".texteditor-session").getPath());
+    private static final int SESSION_SAVE_SEC = Integer.getInteger("editor.sessionSaveSec", 60);
+    private static final long SESSION_CONTENTS_BYTES = Math.min(1024, Long.getLong("editor.sessionContentsMB", 512)) << 20;
+    // Full-text index of the database files: -Deditor.index=file (or "off")
+    private static final String INDEX_PATH = System.getProperty("editor.index",
+            new File(System.getProperty("user.home"), ".texteditor-index").getPath());
+
+    // Components of the active tab
     private JTextArea textArea;
     private JScrollPane scrollPane;
-    private JFileChooser fileChooser;
-    private File currentFile;
-    private boolean isModified = false;
-    private JLabel statusLabel, posLabel, fileLabel;
     private UndoManager undoManager;
-    private JCheckBoxMenuItem wrapItem;
+    private LineNumberGutter lineGutter;
+
+    private JTabbedPane tabbedPane;
+    private final List<EditorTab> tabs = new ArrayList<>();
+    private EditorTab activeTab;
+    private int untitledCount = 0;
+    private BufferPool bufferPool;
+    private FileChangeWatcher changeWatcher;
+    private EdtMonitor edtMonitor;
+    private volatile EditorFigures editorFigures = new EditorFigures();
+    private long sessionSignature;
+    private boolean sessionSaving;
+
+    private JFileChooser fileChooser;
+    private JLabel statusLabel, posLabel, fileLabel, encodingLabel;
+    private JButton cancelLoadButton;
+    private JToolBar toolbar;
+    private JCheckBoxMenuItem wrapItem, longLineItem;
     private JToggleButton wrapToggleButton, themeToggleButton;
     private JButton colorThemeBtn;
     private ColorScheme currentColorScheme = ColorScheme.DEFAULT;
     private JMenuItem undoMenuItem, redoMenuItem;
-    private LineNumberGutter lineGutter;
+    private final List<JRadioButtonMenuItem> syntaxItems = new ArrayList<>();
     private DatabaseManager dbManager;
+    // Database copies of saved files, in the order of the saves and off the EDT, which would
+    // otherwise wait for any database job that holds the connection
+    private final ExecutorService databaseSaves = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "database-save");
+        t.setDaemon(true);
+        return t;
+    });
+    private FileIndex fileIndex;
+    private FindInFilesDialog findInFilesDialog;
+    private boolean statusUpdatePending;
 
     public TextEditor() {
+        edtMonitor = EdtMonitor.install();
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception ignored) {
@@ -47,33 +108,36 @@ public class TextEditor extends JFrame {
         // Initialize database
         dbManager = new DatabaseManager();
         dbManager.initializeDatabase();
+        if (!INDEX_PATH.equals("off")) {
+            fileIndex = new FileIndex(new File(INDEX_PATH));
+            dbManager.setIndex(fileIndex);
+        }
 
         initComponents();
         initMenuBar();
         initToolBar();
         initListeners();
+        if (!restoreSession())
+            addTab();
+        new Timer(SESSION_SAVE_SEC * 1000, e -> saveSessionInBackground()).start();
+
+        changeWatcher = new FileChangeWatcher(CHANGE_POLL_MS, () -> tabs);
+        changeWatcher.start();
+        registerMetrics();
     }
 
     private void initComponents() {
-        textArea = new JTextArea();
-        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
-        textArea.setLineWrap(false);
-        textArea.setWrapStyleWord(true);
-        textArea.setTabSize(4);
-        textArea.setMargin(new Insets(6, 6, 6, 6));
-
-        undoManager = new UndoManager();
-        textArea.getDocument().addUndoableEditListener(e -> {
-            undoManager.addEdit(e.getEdit());
-            updateUndoRedo();
+        // Shared heap budget for all open buffers, -Deditor.memoryBudgetMB=...
+        bufferPool = new BufferPool(Long.getLong("editor.memoryBudgetMB", 256L) << 20);
+
+        tabbedPane = new JTabbedPane();
+        tabbedPane.setTabLayoutPolicy(JTabbedPane.SCROLL_TAB_LAYOUT);
+        tabbedPane.addChangeListener(e -> {
+            EditorTab tab = tabFor(tabbedPane.getSelectedComponent());
+            if (tab != null && tab != activeTab)
+                activateTab(tab);
         });
-
-        // Line numbers
-        lineGutter = new LineNumberGutter(textArea);
-        scrollPane = new JScrollPane(textArea);
-        scrollPane.setRowHeaderView(lineGutter);
-        scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
-        add(scrollPane, BorderLayout.CENTER);
+        add(tabbedPane, BorderLayout.CENTER);
 
         fileChooser = new JFileChooser();
         fileChooser.setAcceptAllFileFilterUsed(true);
@@ -93,75 +157,75 @@ public class TextEditor extends JFrame {
         posLabel = new JLabel("Ln: 1  Col: 1");
         posLabel.setForeground(new Color(34, 139, 34)); // Forest green
 
+        encodingLabel = new JLabel(TextBuffer.Encoding.DEFAULT.toString());
+
+        // Only shown while the active tab is still loading
+        cancelLoadButton = new JButton("Cancel");
+        cancelLoadButton.setMargin(new Insets(0, 6, 0, 6));
+        cancelLoadButton.setVisible(false);
+        cancelLoadButton.addActionListener(e -> {
+            if (activeTab.loader != null)
+                activeTab.loader.cancel(false);
+            if (activeTab.paste != null)
+                activeTab.paste.cancel();
+            if (activeTab.sorter != null)
+                activeTab.sorter.cancel(false);
+            if (activeTab.transformer != null)
+                activeTab.transformer.stop();
+        });
+
         JPanel left = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
         left.setOpaque(false);
         left.add(fileLabel);
         left.add(new JSeparator(SwingConstants.VERTICAL));
         left.add(statusLabel);
+        left.add(cancelLoadButton);
 
         JPanel right = new JPanel(new FlowLayout(FlowLayout.RIGHT, 8, 0));
         right.setOpaque(false);
+        right.add(encodingLabel);
         right.add(posLabel);
 
         statusBar.add(left, BorderLayout.WEST);
         statusBar.add(right, BorderLayout.EAST);
 
         add(statusBar, BorderLayout.SOUTH);
+    }
 
-        // Document listener
-        textArea.getDocument().addDocumentListener(new DocumentListener() {
-            public void insertUpdate(DocumentEvent e) {
-                changed();
-            }
-
-            public void removeUpdate(DocumentEvent e) {
-                changed();
-            }
-
-            public void changedUpdate(DocumentEvent e) {
-                changed();
-            }
-
-            private void changed() {
-                isModified = true;
-                updateStatus();
-                lineGutter.repaint();
-            }
-        });
-
-        // Caret listener
-        textArea.addCaretListener(e -> updateCaretPosition());
-
-        // Context menu
+    private JPopupMenu createPopupMenu(JTextArea ta) {
         JPopupMenu popup = new JPopupMenu();
-        JMenuItem cut = mkMenuItem("Cut", e -> textArea.cut());
-        JMenuItem copy = mkMenuItem("Copy", e -> textArea.copy());
-        JMenuItem paste = mkMenuItem("Paste", e -> textArea.paste());
-        JMenuItem selAll = mkMenuItem("Select All", e -> textArea.selectAll());
+        JMenuItem cut = mkMenuItem("Cut", e -> ta.cut());
+        JMenuItem copy = mkMenuItem("Copy", e -> ta.copy());
+        JMenuItem paste = mkMenuItem("Paste", e -> ta.paste());
+        JMenuItem selAll = mkMenuItem("Select All", e -> ta.selectAll());
         popup.add(cut);
         popup.add(copy);
         popup.add(paste);
         popup.addSeparator();
         popup.add(selAll);
-        textArea.setComponentPopupMenu(popup);
+        return popup;
+    }
 
-        // Drag & Drop
-        new DropTarget(textArea, new DropTargetAdapter() {
+    private DropTargetAdapter createDropHandler() {
+        return new DropTargetAdapter() {
             public void drop(DropTargetDropEvent dtde) {
                 try {
                     dtde.acceptDrop(DnDConstants.ACTION_COPY);
                     java.util.List<?> dropped = (java.util.List<?>) dtde.getTransferable()
                             .getTransferData(DataFlavor.javaFileListFlavor);
-                    if (!dropped.isEmpty()) {
-                        File f = (File) dropped.get(0);
-                        if (f.isFile() && confirmSaveIfNeeded()) {
-                            openFile(f);
-                        }
-                    }
+                    List<File> files = new ArrayList<>();
+                    for (Object o : dropped)
+                        files.add((File) o);
+                    dtde.dropComplete(true);
+                    // A single file opens as before; several files or a folder are imported
+                    if (files.size() == 1 && files.get(0).isFile())
+                        openChecked(files.get(0));
+                    else if (!files.isEmpty())
+                        SwingUtilities.invokeLater(() -> importFiles(files));
                 } catch (Exception ignored) {
                 }
             }
-        });
+        };
     }
 
     private JMenuItem mkMenuItem(String text, ActionListener al) {
@@ -180,9 +244,14 @@ public class TextEditor extends JFrame {
         JMenuItem openItem = mkMenuItem("Open...", e -> openFile());
         JMenuItem saveItem = mkMenuItem("Save", e -> saveFile());
         JMenuItem saveAsItem = mkMenuItem("Save As...", e -> saveFileAs());
+        JMenuItem closeTabItem = mkMenuItem("Close Tab", e -> closeTab(activeTab));
+        JMenuItem compareDiskItem = mkMenuItem("Compare with Saved File", e -> compareWith(false));
+        JMenuItem compareDBItem = mkMenuItem("Compare with Database Copy", e -> compareWith(true));
         JMenuItem openFromDBItem = mkMenuItem("Open from Database...", e -> openFromDatabase());
         JMenuItem listDBFilesItem = mkMenuItem("List Database Files", e -> listDatabaseFiles());
         JMenuItem dbManagerItem = mkMenuItem("Database Manager", e -> showDatabaseManager());
+        JMenuItem dbReplaceItem = mkMenuItem("Replace in Database...", e -> new DatabaseReplaceDialog(this, dbManager).setVisible(true));
+        JMenuItem dbSyncItem = mkMenuItem("Sync Folder with Database...", e -> syncFolder());
         JMenuItem exitItem = mkMenuItem("Exit", e -> exitApplication());
 
         newItem.setAccelerator(
@@ -191,16 +260,23 @@ public class TextEditor extends JFrame {
                 KeyStroke.getKeyStroke(KeyEvent.VK_O, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
         saveItem.setAccelerator(
                 KeyStroke.getKeyStroke(KeyEvent.VK_S, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        closeTabItem.setAccelerator(
+                KeyStroke.getKeyStroke(KeyEvent.VK_W, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
 
         fileMenu.add(newItem);
         fileMenu.add(openItem);
         fileMenu.addSeparator();
         fileMenu.add(saveItem);
         fileMenu.add(saveAsItem);
+        fileMenu.add(closeTabItem);
+        fileMenu.add(compareDiskItem);
+        fileMenu.add(compareDBItem);
         fileMenu.addSeparator();
         fileMenu.add(openFromDBItem);
         fileMenu.add(listDBFilesItem);
         fileMenu.add(dbManagerItem);
+        fileMenu.add(dbReplaceItem);
+        fileMenu.add(dbSyncItem);
         fileMenu.addSeparator();
         fileMenu.add(exitItem);
 
@@ -213,6 +289,12 @@ public class TextEditor extends JFrame {
         JMenuItem pasteItem = mkMenuItem("Paste", e -> textArea.paste());
         JMenuItem selectAllItem = mkMenuItem("Select All", e -> textArea.selectAll());
         JMenuItem findItem = mkMenuItem("Find / Replace", e -> new FindReplaceDialog(this, textArea).setVisible(true));
+        JMenuItem findInFilesItem = mkMenuItem("Find in Files...", e -> findInFiles());
+        JMenuItem sortLinesItem = mkMenuItem("Sort Lines...", e -> sortLines(LineSorter.Mode.SORT, "Sort Lines"));
+        JMenuItem uniqueLinesItem = mkMenuItem("Unique Lines...", e -> sortLines(LineSorter.Mode.UNIQUE, "Unique Lines"));
+        JMenuItem countLinesItem = mkMenuItem("Count Duplicates...", e -> sortLines(LineSorter.Mode.COUNT, "Count Duplicates"));
+        findInFilesItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx() | InputEvent.SHIFT_DOWN_MASK));
 
         undoMenuItem.setEnabled(false);
         redoMenuItem.setEnabled(false);
@@ -226,24 +308,62 @@ public class TextEditor extends JFrame {
         editMenu.add(selectAllItem);
         editMenu.addSeparator();
         editMenu.add(findItem);
+        editMenu.add(findInFilesItem);
+        editMenu.addSeparator();
+        editMenu.add(sortLinesItem);
+        editMenu.add(uniqueLinesItem);
+        editMenu.add(countLinesItem);
 
         // Format Menu
         JMenu formatMenu = new JMenu("Format");
         wrapItem = new JCheckBoxMenuItem("Line Wrap");
         JMenuItem colorItem = mkMenuItem("Text Color...", e -> chooseColor());
+        JMenuItem transformItem = mkMenuItem("Transform Text...", e -> transformText());
         wrapItem.addActionListener(e -> {
             toggleWrap(wrapItem.isSelected());
             wrapToggleButton.setSelected(wrapItem.isSelected());
         });
+        JMenu syntaxMenu = new JMenu("Syntax");
+        ButtonGroup syntaxGroup = new ButtonGroup();
+        for (int i = 0; i <= SyntaxHighlighter.LEXERS.length; i++) {
+            SyntaxHighlighter.Lexer lexer = i == 0 ? null : SyntaxHighlighter.LEXERS[i - 1];
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(lexer == null ? "Plain Text" : lexer.getName(), lexer == null);
+            item.addActionListener(e -> setSyntax(activeTab, lexer));
+            syntaxGroup.add(item);
+            syntaxMenu.add(item);
+            syntaxItems.add(item);
+        }
         formatMenu.add(wrapItem);
+        formatMenu.add(syntaxMenu);
+        formatMenu.addSeparator();
+        formatMenu.add(transformItem);
         formatMenu.addSeparator();
         formatMenu.add(colorItem);
 
         // View Menu
         JMenu viewMenu = new JMenu("View");
         JMenuItem toggleLineNumbers = mkMenuItem("Toggle Line Numbers",
-                e -> lineGutter.setVisible(!lineGutter.isVisible()));
+                e -> toggleLineNumbers());
+        JMenuItem bufferMemoryItem = mkMenuItem("Buffer Memory...",
+                e -> new BufferMemoryDialog(this, bufferPool).setVisible(true));
+        JMenuItem edtItem = mkMenuItem("Responsiveness...",
+                e -> new EdtDiagnosticsDialog(this, edtMonitor).setVisible(true));
+        JMenuItem recordingItem = mkMenuItem("Start Flight Recording...",
+                e -> toggleFlightRecording((JMenuItem) e.getSource()));
+        longLineItem = new JCheckBoxMenuItem("Long Line Mode");
+        longLineItem.addActionListener(e -> LongLineView.setEnabled(textArea, longLineItem.isSelected()));
+        JMenuItem hexItem = mkMenuItem("Hex View...", e -> openHex());
+        JMenuItem followItem = mkMenuItem("Follow File (Tail)...", e -> followFile());
+        JMenuItem stopFollowItem = mkMenuItem("Stop Following", e -> stopFollowing(activeTab));
         viewMenu.add(toggleLineNumbers);
+        viewMenu.add(longLineItem);
+        viewMenu.add(bufferMemoryItem);
+        viewMenu.add(edtItem);
+        viewMenu.add(recordingItem);
+        viewMenu.addSeparator();
+        viewMenu.add(hexItem);
+        viewMenu.add(followItem);
+        viewMenu.add(stopFollowItem);
 
         // Help Menu
         JMenu helpMenu = new JMenu("Help");
@@ -258,8 +378,8 @@ public class TextEditor extends JFrame {
         setJMenuBar(menuBar);
 
         // Keyboard shortcuts
-        InputMap im = textArea.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
-        ActionMap am = textArea.getActionMap();
+        InputMap im = getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        ActionMap am = getRootPane().getActionMap();
 
         im.put(KeyStroke.getKeyStroke(KeyEvent.VK_F, Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), "find");
         am.put("find", new AbstractAction() {
@@ -284,7 +404,7 @@ public class TextEditor extends JFrame {
     }
 
     private void initToolBar() {
-        JToolBar toolbar = new JToolBar();
+        toolbar = new JToolBar();
         toolbar.setFloatable(false);
         toolbar.setBorder(new EmptyBorder(6, 6, 6, 6));
 
@@ -389,69 +509,290 @@ public class TextEditor extends JFrame {
             public void windowClosing(WindowEvent e) {
                 exitApplication();
             }
-        });
-        textArea.addComponentListener(new ComponentAdapter() {
-            public void componentResized(ComponentEvent e) {
-                updateCaretPosition();
+
+            public void windowActivated(WindowEvent e) {
+                if (changeWatcher != null)
+                    changeWatcher.poll();
             }
         });
     }
 
     // ---------- FILE OPERATIONS ----------
     private void newFile() {
-        if (!confirmSaveIfNeeded())
-            return;
-        textArea.setText("");
-        currentFile = null;
-        isModified = false;
-        setTitle("Java Text Editor with Oracle XE Backend");
-        fileLabel.setText("Untitled");
-        undoManager.discardAllEdits();
-        updateUndoRedo();
-        updateStatus();
+        addTab();
     }
 
     private void openFile() {
-        if (!confirmSaveIfNeeded())
-            return;
         int res = fileChooser.showOpenDialog(this);
         if (res == JFileChooser.APPROVE_OPTION)
-            openFile(fileChooser.getSelectedFile());
+            openChecked(fileChooser.getSelectedFile());
     }
 
-    private void openFile(File f) {
+    // Opens the file in a tab, or in the hex viewer if it looks binary and the user would rather
+    private void openChecked(File f) {
         try {
-            String content = Files.readString(f.toPath());
-            textArea.setText(content);
-            currentFile = f;
-            isModified = false;
-            setTitle(f.getName() + " - Java Text Editor with SQL Backend");
-            fileLabel.setText(f.getAbsolutePath());
-            undoManager.discardAllEdits();
-            updateUndoRedo();
-            updateStatus();
-        } catch (IOException ex) {
-            showError("Could not open file:\n" + ex.getMessage());
+            if (findTab(f) == null && TextBuffer.looksBinary(f)) {
+                int choice = JOptionPane.showOptionDialog(this, f.getName() + " does not look like a text file.",
+                        "Open File", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE, null,
+                        new Object[]{"Hex View", "Open as Text", "Cancel"}, "Hex View");
+                if (choice == 0)
+                    openHex(f);
+                if (choice != 1)
+                    return;
+            }
+        } catch (IOException ignored) {
+            // Opening it as text reports the error
+        }
+        openFile(f);
+    }
+
+    // Constant time whatever the size: the viewer maps the file and reads only the rows it shows
+    private void openHex(File f) {
+        try {
+            new HexViewDialog(this, f, new HexView(f)).setVisible(true);
+        } catch (IOException e) {
+            showError("Could not open file:\n" + e.getMessage());
+        }
+    }
+
+    private void openHex() {
+        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION)
+            openHex(fileChooser.getSelectedFile());
+    }
+
+    private void findInFiles() {
+        if (findInFilesDialog == null)
+            findInFilesDialog = new FindInFilesDialog(this);
+        findInFilesDialog.showFor(textArea.getSelectedText());
+    }
+
+    // Opens the file (or switches to its tab) with the caret at the start of the line
+    private void openFileAt(File f, int line) {
+        openFile(f);
+        EditorTab tab = findTab(f);
+        if (tab == null)
+            return;
+        if (tab.loader != null)
+            tab.pendingLine = line;
+        else
+            goToLine(tab, line);
+    }
+
+    private void goToLine(EditorTab tab, int line) {
+        Element root = tab.textArea.getDocument().getDefaultRootElement();
+        Element e = root.getElement(Math.max(0, Math.min(line - 1, root.getElementCount() - 1)));
+        tab.textArea.setCaretPosition(e.getStartOffset());
+        tab.textArea.requestFocusInWindow();
+    }
+
+    private void openFile(File f) {
+        EditorTab open = findTab(f);
+        if (open != null) {
+            tabbedPane.setSelectedComponent(open.scrollPane);
+            return;
+        }
+        EditorEvents.OpenFile event = new EditorEvents.OpenFile();
+        event.begin();
+        event.path = f.getAbsolutePath();
+        event.fileSize = f.length();
+        EditorTab tab = tabForOpen();
+        tab.file = f;
+        tab.textArea.setEditable(false);
+        tab.loader = new FileLoader(f, new FileLoader.Listener() {
+            public void loaded(String text, long bytesRead, long totalBytes) {
+                Document doc = tab.textArea.getDocument();
+                try {
+                    doc.insertString(doc.getLength(), text, null);
+                } catch (BadLocationException ignored) {
+                }
+                if (tab == activeTab)
+                    statusLabel.setText("Loading " + f.getName() + ": "
+                            + (totalBytes > 0 ? bytesRead * 100 / totalBytes : 100) + "% of " + (totalBytes >> 10) + " KB");
+            }
+
+            public void finished(FileChangeWatcher.Fingerprint fp, TextBuffer.Encoding encoding) {
+                loadFinished(tab);
+                tab.fingerprint = fp;
+                tab.encoding = encoding;
+                tab.textArea.setCaretPosition(0);
+                documentLoaded(tab);
+                if (tab.pendingLine > 0) {
+                    goToLine(tab, tab.pendingLine);
+                    tab.pendingLine = 0;
+                }
+                event.chars = tab.getLength();
+                event.lines = tab.getLineCount();
+                event.encoding = encoding.toString();
+                event.outcome = "loaded";
+                event.commit();
+            }
+
+            public void failed(IOException e) {
+                event.outcome = "failed";
+                event.commit();
+                loadAbandoned(tab);
+                showError("Could not open file:\n" + e.getMessage());
+            }
+
+            public void cancelled() {
+                event.outcome = "cancelled";
+                event.commit();
+                loadAbandoned(tab);
+                if (tab == activeTab)
+                    statusLabel.setText("Open cancelled");
+            }
+        });
+        updateTabTitle(tab);
+        if (tab == activeTab) {
+            updateFrameTitle();
+            updateLoadControls();
+        }
+        tab.loader.execute();
+    }
+
+    private void loadFinished(EditorTab tab) {
+        tab.loader = null;
+        tab.textArea.setEditable(true);
+        if (tab == activeTab)
+            updateLoadControls();
+    }
+
+    // Cancelled or failed: drop the partial text and forget the file
+    private void loadAbandoned(EditorTab tab) {
+        tab.textArea.setText("");
+        loadFinished(tab);
+        tab.file = null;
+        tab.encoding = TextBuffer.Encoding.DEFAULT;
+        if (!tabs.contains(tab))
+            return;
+        documentLoaded(tab);
+        discardIfEmpty(tab);
+    }
+
+    private void updateLoadControls() {
+        cancelLoadButton.setVisible(activeTab.loader != null || activeTab.paste != null || activeTab.sorter != null
+                || activeTab.transformer != null);
+        encodingLabel.setText(activeTab.encoding.toString());
+    }
+
+    // Reads the files (and everything under the folders) in parallel, into tabs or the database
+    private void importFiles(List<File> roots) {
+        int folders = 0;
+        for (File f : roots) {
+            if (f.isDirectory())
+                folders++;
         }
+        String what = roots.size() + " item" + (roots.size() == 1 ? "" : "s")
+                + (folders > 0 ? " (" + folders + " folder" + (folders == 1 ? "" : "s") + ")" : "");
+        Object[] options = {"Open in Tabs", "Save to Database", "Cancel"};
+        int choice = JOptionPane.showOptionDialog(this, "Import " + what + ":", "Import Files",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+        if (choice != 0 && choice != 1)
+            return;
+
+        FileImporter.Mode mode = choice == 0 ? FileImporter.Mode.OPEN : FileImporter.Mode.DATABASE;
+        TransferProgressDialog[] dialog = new TransferProgressDialog[1];
+        FileImporter importer = new FileImporter(roots, mode, MAX_DROP_TABS, dbManager, new FileImporter.Listener() {
+            public void opened(List<FileImporter.Loaded> files) {
+                for (FileImporter.Loaded loaded : files)
+                    openLoaded(loaded);
+            }
+
+            public void finished(String error) {
+                dialog[0].finished(error);
+            }
+        });
+        dialog[0] = new TransferProgressDialog(this, importer);
+        importer.execute();
+        dialog[0].setVisible(true);
+    }
+
+    // Two-way sync of a folder with its files' rows; conflicts are listed once it is done
+    private void syncFolder() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setDialogTitle("Sync Folder with Database");
+        if (chooser.showDialog(this, "Sync") != JFileChooser.APPROVE_OPTION)
+            return;
+
+        TransferProgressDialog[] dialog = new TransferProgressDialog[1];
+        FileSynchronizer[] sync = new FileSynchronizer[1];
+        sync[0] = new FileSynchronizer(dbManager, chooser.getSelectedFile(), error -> {
+            dialog[0].finished(error);
+            if (error != null || sync[0].isCancelled())
+                return;
+            StringBuilder sb = new StringBuilder(sync[0].getUploaded() + " uploaded, " + sync[0].getDownloaded()
+                    + " downloaded, " + sync[0].getFilesUnchanged() + " unchanged");
+            if (sync[0].getConflicts() > 0) {
+                sb.append("\n\n").append(sync[0].getConflicts()).append(" changed on both sides (left as they are):");
+                for (String path : sync[0].getConflictPaths())
+                    sb.append('\n').append(path);
+            }
+            JOptionPane.showMessageDialog(dialog[0], sb.toString(), "Sync Folder with Database",
+                    sync[0].getConflicts() > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+        });
+        dialog[0] = new TransferProgressDialog(this, sync[0]);
+        sync[0].execute();
+        dialog[0].setVisible(true);
+    }
+
+    private void openLoaded(FileImporter.Loaded loaded) {
+        if (findTab(loaded.file) != null)
+            return;
+        EditorTab tab = tabForOpen();
+        tab.textArea.setText(loaded.text);
+        tab.file = loaded.file;
+        tab.encoding = loaded.encoding;
+        tab.fingerprint = loaded.fingerprint;
+        documentLoaded(tab);
     }
 
     private void saveFile() {
+        if (activeTab.loader != null) {
+            showError("The file is still loading.");
+            return;
+        }
+        if (activeTab.paste != null) {
+            showError("A paste is still in progress.");
+            return;
+        }
+        File currentFile = activeTab.file;
         if (currentFile == null) {
             saveFileAs();
             return;
         }
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(currentFile))) {
-            textArea.write(bw);
-            isModified = false;
-            setTitle(currentFile.getName() + " - Java Text Editor with SQL Backend");
+        if (!confirmOverwriteExternalChange(activeTab))
+            return;
+        EditorEvents.SaveFile event = new EditorEvents.SaveFile();
+        event.begin();
+        event.path = currentFile.getAbsolutePath();
+        event.chars = activeTab.getLength();
+        event.encoding = activeTab.encoding.toString();
+        try {
+            CRC32C crc = new CRC32C(); // fingerprints the file as it is written
+            try (OutputStream out = new CheckedOutputStream(new FileOutputStream(currentFile), crc);
+                 Writer bw = TextBuffer.newWriter(out, activeTab.encoding)) {
+                textArea.write(bw);
+            }
+            event.fileSize = currentFile.length();
+            event.succeeded = true;
+            activeTab.fingerprint = FileChangeWatcher.Fingerprint.written(currentFile, crc);
+            activeTab.setModified(false);
+            updateFrameTitle();
             updateStatus();
-            fileLabel.setText(currentFile.getAbsolutePath());
             
             // Also save to database
-            dbManager.saveFileToDatabase(currentFile.getName(), textArea.getText(), currentFile.getAbsolutePath());
-            
+            String name = currentFile.getName(), path = currentFile.getAbsolutePath(), text = textArea.getText();
+            databaseSaves.execute(() -> {
+                try {
+                    dbManager.saveFileToDatabase(name, text, path);
+                } finally {
+                    event.commit(); // spans the database copy too
+                }
+            });
         } catch (IOException ex) {
             showError("Could not save file:\n" + ex.getMessage());
+            event.commit();
         }
     }
 
@@ -461,7 +802,8 @@ public class TextEditor extends JFrame {
             File f = fileChooser.getSelectedFile();
             if (!f.getName().contains("."))
                 f = new File(f.getAbsolutePath() + ".txt");
-            currentFile = f;
+            activeTab.file = f;
+            activeTab.fingerprint = null;
             saveFile();
         }
     }
@@ -478,16 +820,11 @@ public class TextEditor extends JFrame {
         
         DatabaseFile selectedFile = dialog.getSelectedFile();
         if (selectedFile != null) {
-            if (!confirmSaveIfNeeded()) return;
-            
-            textArea.setText(selectedFile.getContent());
-            currentFile = new File(selectedFile.getFilePath());
-            isModified = false;
-            setTitle(selectedFile.getFileName() + " - Java Text Editor with SQL Backend");
-            fileLabel.setText(selectedFile.getFilePath());
-            undoManager.discardAllEdits();
-            updateUndoRedo();
-            updateStatus();
+            EditorTab tab = tabForOpen();
+            tab.textArea.setText(selectedFile.getContent());
+            tab.file = new File(selectedFile.getFilePath());
+            tab.encoding = TextBuffer.Encoding.DEFAULT;
+            documentLoaded(tab);
         }
     }
 
@@ -518,14 +855,14 @@ public class TextEditor extends JFrame {
     }
 
     private boolean confirmSaveIfNeeded() {
-        if (!isModified)
+        if (!activeTab.modified)
             return true;
-        int choice = JOptionPane.showConfirmDialog(this, "You have unsaved changes. Save now?", "Unsaved Changes",
-                JOptionPane.YES_NO_CANCEL_OPTION);
+        int choice = JOptionPane.showConfirmDialog(this, "You have unsaved changes in " + activeTab.getName() + ". Save now?",
+                "Unsaved Changes", JOptionPane.YES_NO_CANCEL_OPTION);
         switch (choice) {
             case JOptionPane.YES_OPTION:
                 saveFile();
-                return !isModified;
+                return !activeTab.modified;
             case JOptionPane.NO_OPTION:
                 return true;
             default:
@@ -534,544 +871,2949 @@ public class TextEditor extends JFrame {
     }
 
     private void exitApplication() {
-        if (!confirmSaveIfNeeded())
-            return;
+        for (EditorTab tab : new ArrayList<>(tabs)) {
+            if (tab.modified) {
+                tabbedPane.setSelectedComponent(tab.scrollPane);
+                if (!confirmSaveIfNeeded())
+                    return;
+            }
+        }
+        saveSession(); // while swapped-out buffers can still be read
+        for (EditorTab tab : tabs)
+            stopFollowing(tab);
+        changeWatcher.stop();
+        bufferPool.close();
+        databaseSaves.shutdown(); // pending copies still update the index
+        try {
+            databaseSaves.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+        if (fileIndex != null)
+            fileIndex.close();
         dbManager.closeConnection();
+        writeEdtReport();
+        EditorEvents.stopRecording();
         dispose();
         System.exit(0);
     }
 
-    // ---------- UNDO / REDO ----------
-    private void performUndo() {
-        try {
-            if (undoManager.canUndo())
-                undoManager.undo();
-        } catch (CannotUndoException ignored) {
+    // -Deditor.edtReport=file keeps the responsiveness figures of the session
+    private void writeEdtReport() {
+        String path = System.getProperty("editor.edtReport");
+        if (path == null)
+            return;
+        try (PrintWriter out = new PrintWriter(new FileWriter(path, StandardCharsets.UTF_8))) {
+            edtMonitor.writeReport(out);
+        } catch (IOException e) {
+            System.err.println("Could not write " + path + ": " + e.getMessage());
         }
-        updateUndoRedo();
     }
 
-    private void performRedo() {
+    // Starts a Flight Recording to a chosen file, or stops the running one and writes it out
+    private void toggleFlightRecording(JMenuItem item) {
+        if (EditorEvents.isRecording()) {
+            File out = EditorEvents.stopRecording().toFile();
+            item.setText("Start Flight Recording...");
+            statusLabel.setText("Flight recording saved");
+            JOptionPane.showMessageDialog(this, "Recording written to\n" + out.getAbsolutePath()
+                    + " (" + (out.length() >> 10) + " KB)\nOpen it in JDK Mission Control.", "Flight Recording",
+                    JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("editor-" + System.currentTimeMillis() / 1000 + ".jfr"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
         try {
-            if (undoManager.canRedo())
-                undoManager.redo();
-        } catch (CannotRedoException ignored) {
+            EditorEvents.startRecording(chooser.getSelectedFile().toPath());
+            item.setText("Stop Flight Recording");
+            statusLabel.setText("Flight recording started");
+        } catch (IOException | RuntimeException ex) {
+            showError("Could not start the recording:\n" + ex.getMessage());
         }
-        updateUndoRedo();
     }
 
-    private void updateUndoRedo() {
-        undoMenuItem.setEnabled(undoManager.canUndo());
-        redoMenuItem.setEnabled(undoManager.canRedo());
+    // ---------- TABS ----------
+    private EditorTab addTab() {
+        EditorTab tab = new EditorTab();
+        tabs.add(tab);
+        tabbedPane.addTab(tab.getName(), tab.scrollPane);
+        tabbedPane.setSelectedComponent(tab.scrollPane);
+        return tab;
     }
 
-    // ---------- FORMAT ----------
-    private void toggleWrap(boolean wrap) {
-        textArea.setLineWrap(wrap);
-        textArea.setWrapStyleWord(wrap);
-        lineGutter.repaint();
+    private void closeTab(EditorTab tab) {
+        tabbedPane.setSelectedComponent(tab.scrollPane);
+        if (!confirmSaveIfNeeded())
+            return;
+        removeTab(tab);
     }
 
-    private void chooseColor() {
-        Color c = JColorChooser.showDialog(this, "Choose Text Color", textArea.getForeground());
-        if (c != null)
-            textArea.setForeground(c);
+    private void removeTab(EditorTab tab) {
+        stopFollowing(tab);
+        if (tab.loader != null)
+            tab.loader.cancel(false);
+        if (tab.paste != null)
+            tab.paste.cancel();
+        if (tab.sorter != null)
+            tab.sorter.cancel(false);
+        if (tab.transformer != null)
+            tab.transformer.stop();
+        tabs.remove(tab);
+        bufferPool.remove(tab.poolEntry);
+        tabbedPane.remove(tab.scrollPane);
+        if (tabs.isEmpty())
+            addTab();
     }
 
-    private void toggleTheme(boolean dark) {
-        if (dark) {
-            applyColorScheme(ColorScheme.DARK);
-        } else {
-            applyColorScheme(ColorScheme.DEFAULT);
-        }
+    // A pristine Untitled tab is reused for the next open; anything else gets a new tab
+    private EditorTab tabForOpen() {
+        if (activeTab != null && activeTab.file == null && !activeTab.modified && activeTab.getLength() == 0
+                && activeTab.sessionContent == null)
+            return activeTab;
+        return addTab();
     }
 
-    private void applyColorScheme(ColorScheme scheme) {
-        currentColorScheme = scheme;
-        
-        // Apply to text area
-        textArea.setBackground(scheme.textAreaBackground);
-        textArea.setForeground(scheme.textAreaForeground);
-        textArea.setCaretColor(scheme.caretColor);
-        
-        // Apply to line gutter
-        lineGutter.setBackgroundColor(scheme.lineGutterBackground);
-        lineGutter.setForegroundColor(scheme.lineGutterForeground);
-        
-        // Apply to status bar
-        getContentPane().setBackground(scheme.statusBarBackground);
-        
-        // Apply to toolbar
-        JToolBar toolbar = (JToolBar) getContentPane().getComponent(0);
-        toolbar.setBackground(scheme.toolbarBackground);
-        
-        // Apply to menu bar
-        JMenuBar menuBar = getJMenuBar();
-        if (menuBar != null) {
-            menuBar.setBackground(scheme.menuBarBackground);
-            menuBar.setForeground(scheme.menuBarForeground);
+    private void discardIfEmpty(EditorTab tab) {
+        if (tab.file == null && tab.getLength() == 0 && tabs.size() > 1)
+            removeTab(tab);
+    }
+
+    private void documentLoaded(EditorTab tab) {
+        setSyntax(tab, tab.file != null ? SyntaxHighlighter.lexerFor(tab.file.getName()) : null);
+        // Minified files and single-line logs get the long-line view
+        if (LongLineView.longestLine(tab.textArea.getDocument()) >= LongLineView.LONG_LINE_CHARS)
+            LongLineView.setEnabled(tab.textArea, true);
+        tab.undoManager.discardAllEdits();
+        tab.textArea.setCaretPosition(0);
+        tab.setModified(false);
+        if (tab.sessionView != null)
+            restoreView(tab);
+        updateTabTitle(tab);
+        if (tab == activeTab) {
+            updateFrameTitle();
+            updateUndoRedo();
+            updateStatus();
+            updateLoadControls();
+            longLineItem.setSelected(LongLineView.isEnabled(textArea));
         }
-        
-        lineGutter.repaint();
-        repaint();
+        bufferPool.enforceBudget();
     }
 
-    private void showColorThemeSelector() {
-        ColorThemeSelectorDialog dialog = new ColorThemeSelectorDialog(this);
-        dialog.setVisible(true);
-        
-        ColorScheme selectedScheme = dialog.getSelectedScheme();
-        if (selectedScheme != null) {
-            applyColorScheme(selectedScheme);
+    private EditorTab findTab(File f) {
+        for (EditorTab tab : tabs) {
+            if (tab.file != null && tab.file.getAbsoluteFile().equals(f.getAbsoluteFile()))
+                return tab;
         }
+        return null;
     }
 
-    // ---------- STATUS / CARET ----------
-    private void updateStatus() {
-        SwingUtilities.invokeLater(() -> {
-            String text = textArea.getText();
-            int chars = text.length();
-            int words = text.isBlank() ? 0 : text.trim().split("\\s+").length;
-            statusLabel.setText("Words: " + words + "  Characters: " + chars + (isModified ? "  *" : ""));
-            updateCaretPosition();
-        });
+    private EditorTab tabFor(Component c) {
+        for (EditorTab tab : tabs) {
+            if (tab.scrollPane == c)
+                return tab;
+        }
+        return null;
     }
 
-    private void updateCaretPosition() {
-        int caretPos = textArea.getCaretPosition();
+    private void activateTab(EditorTab tab) {
+        activeTab = tab;
+        textArea = tab.textArea;
+        scrollPane = tab.scrollPane;
+        undoManager = tab.undoManager;
+        lineGutter = tab.gutter;
         try {
-            int line = textArea.getLineOfOffset(caretPos);
-            int col = caretPos - textArea.getLineStartOffset(line);
-            posLabel.setText("Ln: " + (line + 1) + "  Col: " + (col + 1));
-        } catch (BadLocationException ex) {
-            posLabel.setText("Ln: 1  Col: 1");
+            bufferPool.touch(tab.poolEntry);
+        } catch (UncheckedIOException ex) {
+            showError(ex.getMessage() + ":\n" + ex.getCause().getMessage());
         }
+        updateFrameTitle();
+        updateUndoRedo();
+        updateStatus();
+        updateSyntaxMenu();
+        updateLoadControls();
+        longLineItem.setSelected(LongLineView.isEnabled(textArea));
+        textArea.requestFocusInWindow();
+        bufferPool.enforceBudget();
     }
 
-    // ---------- NESTED CLASSES ----------
-    private static class LineNumberGutter extends JPanel {
-        private final JTextArea textArea;
-        private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 14);
-        private Color backgroundColor = new Color(230, 230, 230);
-        private Color foregroundColor = Color.BLACK;
+    private void updateTabTitle(EditorTab tab) {
+        int index = tabbedPane.indexOfComponent(tab.scrollPane);
+        if (index >= 0) {
+            tabbedPane.setTitleAt(index, (tab.follower != null ? "[Follow] " : "") + tab.getName() + (tab.modified ? " *" : ""));
+            tabbedPane.setToolTipTextAt(index, tab.file != null ? tab.file.getAbsolutePath() : null);
+        }
+    }
 
-        public LineNumberGutter(JTextArea ta) {
-            textArea = ta;
-            setFont(font);
-            setBackground(backgroundColor);
+    private void updateFrameTitle() {
+        if (activeTab.file == null) {
+            setTitle("Java Text Editor with Oracle XE Backend");
+            fileLabel.setText("Untitled");
+        } else {
+            setTitle(activeTab.file.getName() + " - Java Text Editor with SQL Backend");
+            fileLabel.setText(activeTab.file.getAbsolutePath());
+        }
+    }
 
-            textArea.getDocument().addDocumentListener(new DocumentListener() {
-                public void insertUpdate(DocumentEvent e) {
-                    repaint();
-                }
+    private void setSyntax(EditorTab tab, SyntaxHighlighter.Lexer lexer) {
+        // Plain tabs keep the look-and-feel's own text view until highlighting is first used
+        if (lexer != null || SyntaxHighlighter.get(tab.textArea) != null)
+            SyntaxHighlighter.forTextArea(tab.textArea).setLexer(lexer);
+        if (tab == activeTab)
+            updateSyntaxMenu();
+    }
 
-                public void removeUpdate(DocumentEvent e) {
-                    repaint();
-                }
+    private void updateSyntaxMenu() {
+        SyntaxHighlighter h = SyntaxHighlighter.get(textArea);
+        SyntaxHighlighter.Lexer lexer = h != null ? h.getLexer() : null;
+        for (int i = 0; i < syntaxItems.size(); i++)
+            syntaxItems.get(i).setSelected(i == 0 ? lexer == null : SyntaxHighlighter.LEXERS[i - 1] == lexer);
+    }
 
-                public void changedUpdate(DocumentEvent e) {
-                    repaint();
-                }
-            });
+    // ---------- FOLLOW MODE ----------
+    private void followFile() {
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        File f = fileChooser.getSelectedFile();
+        String max = JOptionPane.showInputDialog(this, "Maximum lines to keep (0 = unlimited):", "100000");
+        if (max == null)
+            return;
+        int maxLines;
+        try {
+            maxLines = Integer.parseInt(max.trim());
+        } catch (NumberFormatException ex) {
+            showError("Not a number: " + max);
+            return;
+        }
+        EditorTab open = findTab(f);
+        if (open != null && !confirmClose(open))
+            return;
+        if (open != null)
+            removeTab(open);
+        followFile(f, maxLines);
+    }
 
-            textArea.addComponentListener(new ComponentAdapter() {
-                public void componentResized(ComponentEvent e) {
-                    repaint();
-                }
-            });
+    private boolean confirmClose(EditorTab tab) {
+        tabbedPane.setSelectedComponent(tab.scrollPane);
+        return confirmSaveIfNeeded();
+    }
 
-            textArea.addCaretListener(e -> repaint());
-            setPreferredSize(new Dimension(40, Integer.MAX_VALUE));
-        }
+    // Read-only tab that appends whatever gets written to the file
+    private void followFile(File f, int maxLines) {
+        EditorTab tab = tabForOpen();
+        tab.file = f;
+        tab.maxFollowLines = maxLines;
+        tab.textArea.setEditable(false);
+        long size = f.length();
+        tab.follower = new LogFollower(f, StandardCharsets.UTF_8, Math.max(0, size - FOLLOW_INITIAL_BYTES), 500,
+                new LogFollower.Listener() {
+                    public void appended(String text) {
+                        appendFollowed(tab, text);
+                    }
 
-        public void setForegroundColor(Color c) {
-            foregroundColor = c;
-            repaint();
-        }
+                    public void reset() {
+                        tab.textArea.setText("");
+                    }
 
-        public void setBackgroundColor(Color c) {
-            backgroundColor = c;
+                    public void failed(IOException e) {
+                        stopFollowing(tab);
+                        showError("Stopped following " + f.getName() + ":\n" + e.getMessage());
+                    }
+                });
+        documentLoaded(tab);
+        if (SyntaxHighlighter.get(tab.textArea) == null || SyntaxHighlighter.get(tab.textArea).getLexer() == null)
+            setSyntax(tab, SyntaxHighlighter.lexerFor("follow.log"));
+        tab.follower.start();
+    }
+
+    private void appendFollowed(EditorTab tab, String text) {
+        Document doc = tab.textArea.getDocument();
+        boolean atEnd = tab.textArea.getCaretPosition() == doc.getLength();
+        try {
+            doc.insertString(doc.getLength(), text, null);
+            // Trim the head in steps of a tenth so removal is amortized over many batches
+            Element root = doc.getDefaultRootElement();
+            int lines = root.getElementCount();
+            int max = tab.maxFollowLines;
+            if (max > 0 && lines > max + max / 10)
+                doc.remove(0, root.getElement(lines - max).getStartOffset());
+        } catch (BadLocationException ignored) {
+        }
+        if (atEnd)
+            tab.textArea.setCaretPosition(doc.getLength());
+    }
+
+    private void stopFollowing(EditorTab tab) {
+        if (tab.follower == null)
+            return;
+        tab.follower.stop();
+        tab.follower = null;
+        tab.textArea.setEditable(true);
+        updateTabTitle(tab);
+    }
+
+    // ---------- EXTERNAL CHANGES ----------
+    // Unmodified tabs follow the file on disk silently; with unsaved edits the user decides
+    private void changedOnDisk(EditorTab tab, FileChangeWatcher.Fingerprint fp, String text) {
+        if (tab.modified) {
+            tabbedPane.setSelectedComponent(tab.scrollPane);
+            int choice = JOptionPane.showConfirmDialog(this,
+                    tab.file.getName() + " has been changed by another program.\nReload it and lose your changes?",
+                    "File Changed", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+            // Either way the user has seen this version; saving over it later is deliberate
+            tab.fingerprint = fp;
+            if (choice != JOptionPane.YES_OPTION)
+                return;
+        }
+        reloadInPlace(tab, text);
+        tab.fingerprint = fp;
+        tab.setModified(false);
+        if (tab == activeTab)
+            updateStatus();
+    }
+
+    // Applies only the changed line blocks, so caret, scroll position and undo history survive.
+    // The reload is one undoable edit. Rewriting most of the file falls back to a plain setText.
+    private void reloadInPlace(EditorTab tab, String text) {
+        Document doc = tab.textArea.getDocument();
+        String old = tab.textArea.getText();
+        List<LineDiff.Hunk> hunks = LineDiff.diff(old, text, RELOAD_MAX_LINE_EDITS);
+        long replaced = 0;
+        for (LineDiff.Hunk h : hunks)
+            replaced += h.oldEnd - h.oldStart;
+
+        tab.beginEditGroup();
+        try {
+            if (replaced > old.length() * 9L / 10) {
+                int caret = tab.textArea.getCaretPosition();
+                tab.textArea.setText(text);
+                tab.textArea.setCaretPosition(Math.min(caret, doc.getLength()));
+            } else {
+                // Back to front, so earlier offsets stay valid
+                for (int i = hunks.size() - 1; i >= 0; i--) {
+                    LineDiff.Hunk h = hunks.get(i);
+                    if (h.oldEnd > h.oldStart)
+                        doc.remove(h.oldStart, h.oldEnd - h.oldStart);
+                    if (h.newEnd > h.newStart)
+                        doc.insertString(h.oldStart, text.substring(h.newStart, h.newEnd), null);
+                }
+            }
+        } catch (BadLocationException ignored) {
+        } finally {
+            tab.endEditGroup();
+        }
+    }
+
+    // Diffs the buffer against the file on disk or the database's copy of it, off the EDT
+    private void compareWith(boolean database) {
+        EditorTab tab = activeTab;
+        if (tab.loader != null || tab.paste != null) {
+            showError("The file is still loading.");
+            return;
+        }
+        if (tab.file == null) {
+            showError("The document has not been saved yet, so there is nothing to compare it with.");
+            return;
+        }
+        File file = tab.file;
+        String current = tab.textArea.getText();
+        String title = (database ? "Database copy of " : "Saved ") + file.getName() + " ↔ editor";
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<Object[], Void>() {
+            protected Object[] doInBackground() throws Exception {
+                String stored = database ? databaseText(file) : TextBuffer.read(file);
+                if (stored == null)
+                    throw new IOException("The database has no copy of " + file.getAbsolutePath());
+                int[] storedLines = LineDiff.lineStarts(stored, 0, stored.length());
+                int[] currentLines = LineDiff.lineStarts(current, 0, current.length());
+                return new Object[]{stored, storedLines, currentLines,
+                        LineDiff.diffLines(stored, storedLines, current, currentLines, DIFF_COST_LIMIT)};
+            }
+
+            @SuppressWarnings("unchecked")
+            protected void done() {
+                setCursor(Cursor.getDefaultCursor());
+                Object[] r;
+                try {
+                    r = get();
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    showError("Could not compare:\n" + cause.getMessage());
+                    return;
+                }
+                DiffView view = new DiffView((String) r[0], (int[]) r[1], current, (int[]) r[2], (List<LineDiff.LineHunk>) r[3]);
+                new CompareDialog(TextEditor.this, title, view, (List<LineDiff.LineHunk>) r[3]).setVisible(true);
+            }
+        }.execute();
+    }
+
+    // The content of the row saved from this file, or null
+    private String databaseText(File file) throws SQLException {
+        FileTableModel.Row row = dbManager.findFile(file.getName(), file.getAbsolutePath());
+        if (row == null)
+            return null;
+        String[] content = new String[1];
+        dbManager.fetchFiles(List.of(row.id), (id, filename, filepath, text, lastModified) -> {
+            content[0] = text;
+            return false;
+        });
+        return content[0];
+    }
+
+    // Saving must not silently overwrite a version written by someone else since we last looked.
+    // A file whose size changed is asked about right away; one that may only have been touched is
+    // hashed on a worker, and the save goes on from there (false: not now).
+    private boolean confirmOverwriteExternalChange(EditorTab tab) {
+        FileChangeWatcher.Fingerprint known = tab.fingerprint;
+        File file = tab.file;
+        if (known == null || !file.isFile() || known.sameStat(file))
+            return true;
+        if (file.length() != known.size)
+            return askOverwriteExternalChange(tab);
+        new SwingWorker<FileChangeWatcher.Fingerprint, Void>() {
+            protected FileChangeWatcher.Fingerprint doInBackground() throws IOException {
+                return FileChangeWatcher.Fingerprint.of(file);
+            }
+
+            protected void done() {
+                // Saved, reloaded or closed meanwhile
+                if (tab.fingerprint != known || tab.file != file || !tabs.contains(tab))
+                    return;
+                FileChangeWatcher.Fingerprint now = null;
+                try {
+                    now = get();
+                } catch (InterruptedException | ExecutionException ignored) {
+                }
+                if (now != null && known.sameContent(now))
+                    tab.fingerprint = now;
+                else if (askOverwriteExternalChange(tab))
+                    tab.fingerprint = null; // overwrite without asking again
+                else
+                    return;
+                tabbedPane.setSelectedComponent(tab.scrollPane);
+                saveFile();
+            }
+        }.execute();
+        return false;
+    }
+
+    private boolean askOverwriteExternalChange(EditorTab tab) {
+        int choice = JOptionPane.showConfirmDialog(this,
+                tab.file.getName() + " has been changed by another program since it was opened.\nOverwrite those changes?",
+                "File Changed", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+        return choice == JOptionPane.YES_OPTION;
+    }
+
+    private void toggleLineNumbers() {
+        boolean visible = !lineGutter.isVisible();
+        for (EditorTab tab : tabs)
+            tab.gutter.setVisible(visible);
+    }
+
+    // One open document: its text area, undo history and file, registered with the buffer pool
+    private class EditorTab implements BufferPool.Buffer, FileChangeWatcher.Target {
+        final JTextArea textArea = new JTextArea();
+        final SizedUndoManager undoManager = new SizedUndoManager();
+        final LineNumberGutter gutter;
+        final JScrollPane scrollPane;
+        final BufferPool.Entry poolEntry;
+        final String untitledName = "Untitled " + (++untitledCount);
+        File file;
+        boolean modified;
+        LogFollower follower;
+        int maxFollowLines;
+        FileChangeWatcher.Fingerprint fingerprint;
+        FileLoader loader;
+        StreamingPaste paste;
+        LineSorter sorter;
+        TransformWorker transformer;
+        TextBuffer.Encoding encoding = TextBuffer.Encoding.DEFAULT;
+        private CompoundEdit editGroup;
+        private int editGroupChars;
+        private int editCount;     // changes so far, to tell whether the session snapshot is stale
+        int sessionCaret;          // where to put the caret and view once the document is loaded
+        Point sessionView;
+        SessionSnapshot.Tab sessionContent; // the tab's text until it is first shown
+        int pendingLine;           // where to put the caret once the file is loaded (Find in Files), 0 for the top
+        private int savedCaret;
+
+        EditorTab() {
+            textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+            textArea.setLineWrap(wrapItem.isSelected());
+            textArea.setWrapStyleWord(true);
+            textArea.setTabSize(TAB_SIZE);
+            textArea.setMargin(new Insets(6, 6, 6, 6));
+            bindDocument(textArea.getDocument());
+
+            // Line numbers
+            gutter = new LineNumberGutter(textArea);
+            scrollPane = new JScrollPane(textArea);
+            scrollPane.setRowHeaderView(gutter);
+            scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+
+            // New tabs look like the active one (scheme or custom text color)
+            if (activeTab != null) {
+                textArea.setBackground(activeTab.textArea.getBackground());
+                textArea.setForeground(activeTab.textArea.getForeground());
+                textArea.setCaretColor(activeTab.textArea.getCaretColor());
+                gutter.setBackgroundColor(activeTab.gutter.backgroundColor);
+                gutter.setForegroundColor(activeTab.gutter.foregroundColor);
+                gutter.setVisible(activeTab.gutter.isVisible());
+            }
+
+            textArea.addCaretListener(e -> {
+                if (this == activeTab)
+                    updateCaretPosition();
+            });
+            textArea.addComponentListener(new ComponentAdapter() {
+                public void componentResized(ComponentEvent e) {
+                    if (EditorTab.this == activeTab)
+                        updateCaretPosition();
+                }
+            });
+            textArea.setComponentPopupMenu(createPopupMenu(textArea));
+            textArea.setTransferHandler(new TextTransfer((c, text) -> pasteLarge(this, text)));
+            new DropTarget(textArea, createDropHandler());
+
+            poolEntry = bufferPool.add(this);
+        }
+
+        private void bindDocument(Document doc) {
+            doc.addUndoableEditListener(e -> {
+                // Followed logs are read-only; keeping their appends as undo edits would only grow.
+                // Text streamed in by the loader is the starting point, not an edit.
+                if (follower != null || loader != null)
+                    return;
+                int chars = e.getEdit() instanceof DocumentEvent ? ((DocumentEvent) e.getEdit()).getLength() : 0;
+                if (editGroup != null) {
+                    editGroup.addEdit(e.getEdit());
+                    editGroupChars += chars;
+                    return;
+                }
+                undoManager.addEdit(e.getEdit(), chars);
+                if (this == activeTab)
+                    updateUndoRedo();
+            });
+            doc.addDocumentListener(new DocumentListener() {
+                public void insertUpdate(DocumentEvent e) {
+                    changed();
+                }
+
+                public void removeUpdate(DocumentEvent e) {
+                    changed();
+                }
+
+                public void changedUpdate(DocumentEvent e) {
+                    changed();
+                }
+
+                private void changed() {
+                    editCount++;
+                    gutter.repaint();
+                    if (loader != null || paste != null || transformer != null)
+                        return; // progress is shown instead of counts while loading, pasting or transforming
+                    if (follower == null)
+                        setModified(true);
+                    if (EditorTab.this == activeTab)
+                        updateStatus();
+                }
+            });
+        }
+
+        // Edits between begin and end undo as one step
+        void beginEditGroup() {
+            editGroup = new CompoundEdit();
+            editGroupChars = 0;
+        }
+
+        void endEditGroup() {
+            CompoundEdit group = editGroup;
+            editGroup = null;
+            group.end();
+            undoManager.addEdit(group, editGroupChars);
+            if (this == activeTab)
+                updateUndoRedo();
+        }
+
+        // Takes the edits since beginEditGroup back out of the document instead
+        void cancelEditGroup() {
+            CompoundEdit group = editGroup;
+            editGroup = null;
+            group.end();
+            TextTransfer.settle(textArea.getDocument());
+            group.undo();
+        }
+
+        void setModified(boolean m) {
+            if (modified != m) {
+                modified = m;
+                updateTabTitle(this);
+            }
+        }
+
+        public String getName() {
+            return file != null ? file.getName() : untitledName;
+        }
+
+        public boolean isActive() {
+            return this == activeTab;
+        }
+
+        // A followed log keeps receiving appends, a loading or pasting one is still being filled, and
+        // a sorted or transformed one is read by the worker and then edited with its result: all
+        // stay resident
+        public boolean isSwappable() {
+            return follower == null && loader == null && paste == null && sorter == null && transformer == null;
+        }
+
+        public int getLength() {
+            return textArea.getDocument().getLength();
+        }
+
+        public int getLineCount() {
+            return textArea.getLineCount();
+        }
+
+        // Swapped-out tabs keep an empty placeholder document; undo history does not survive a swap
+        public String detachText() {
+            savedCaret = textArea.getCaretPosition();
+            String text = textArea.getText();
+            textArea.setDocument(new PlainDocument());
+            undoManager.discardAllEdits();
+            return text;
+        }
+
+        // Swapped-out and followed tabs are checked once they are live documents again
+        public File getWatchedFile() {
+            return follower == null && loader == null && paste == null && sorter == null && transformer == null
+                    && poolEntry.getState() == BufferPool.State.RESIDENT ? file : null;
+        }
+
+        public TextBuffer.Encoding getEncoding() {
+            return encoding;
+        }
+
+        public FileChangeWatcher.Fingerprint getFingerprint() {
+            return fingerprint;
+        }
+
+        public void setFingerprint(FileChangeWatcher.Fingerprint fp) {
+            fingerprint = fp;
+        }
+
+        public void changedOnDisk(FileChangeWatcher.Fingerprint fp, String text) {
+            TextEditor.this.changedOnDisk(this, fp, text);
+        }
+
+        public void attachText(String text) {
+            PlainDocument doc = new PlainDocument();
+            try {
+                doc.insertString(0, text, null);
+            } catch (BadLocationException ignored) {
+            }
+            attachDocument(doc);
+            textArea.setCaretPosition(Math.min(savedCaret, doc.getLength()));
+        }
+
+        public void attachMapped() {
+            SessionSnapshot.Tab t = sessionContent;
+            sessionContent = null;
+            loadFromSnapshot(this, t);
+        }
+
+        void attachDocument(PlainDocument doc) {
+            doc.putProperty(PlainDocument.tabSizeAttribute, TAB_SIZE);
+            bindDocument(doc);
+            textArea.setDocument(doc);
+        }
+    }
+
+    // ---------- PASTE ----------
+    // Too big for one insert: the tab is read-only while the text streams in, the whole paste
+    // undoes as one step and Cancel takes it back out
+    private void pasteLarge(EditorTab tab, CharSequence text) {
+        if (tab.paste != null)
+            return;
+        JTextArea ta = tab.textArea;
+        if (!LongLineView.isEnabled(ta) && StreamingPaste.longestLine(text) >= LongLineView.LONG_LINE_CHARS) {
+            LongLineView.setEnabled(ta, true);
+            if (tab == activeTab)
+                longLineItem.setSelected(true);
+        }
+        boolean wasModified = tab.modified;
+        tab.beginEditGroup();
+        ta.replaceSelection("");
+        tab.setModified(true);
+        ta.setEditable(false);
+        tab.paste = new StreamingPaste(ta.getDocument(), ta.getCaretPosition(), text, new StreamingPaste.Listener() {
+            public void progress(int charsDone, int charsTotal) {
+                if (tab == activeTab)
+                    statusLabel.setText("Pasting: " + (long) charsDone * 100 / charsTotal + "% of " + (charsTotal >> 10) + "K characters");
+            }
+
+            public void finished(boolean cancelled) {
+                tab.paste = null;
+                ta.setEditable(true);
+                if (cancelled) {
+                    tab.cancelEditGroup();
+                    tab.setModified(wasModified);
+                } else {
+                    tab.endEditGroup();
+                }
+                if (tab == activeTab) {
+                    updateLoadControls();
+                    updateStatus();
+                }
+            }
+        });
+        if (tab == activeTab)
+            updateLoadControls();
+        tab.paste.start();
+    }
+
+    // ---------- SORT LINES ----------
+    // The selected lines, or the whole document, through a LineSorter: back into the document in
+    // place of the lines (one undo step, streamed in like a large paste) or into a new file. The tab
+    // is read-only while the sorter reads it.
+    private void sortLines(LineSorter.Mode mode, String title) {
+        EditorTab tab = activeTab;
+        if (tab.loader != null || tab.paste != null || tab.sorter != null || tab.transformer != null) {
+            showError("The document is still busy; try again when it is done.");
+            return;
+        }
+        if (tab.follower != null) {
+            showError("Stop following the file first.");
+            return;
+        }
+        JTextArea ta = tab.textArea;
+        int[] range = selectedLines(ta);
+        if (range == null)
+            return;
+        // The sorter keeps a last line break if there was one
+        int start = range[0], end = range[1];
+        if (end <= start)
+            return;
+
+        JCheckBox ignoreCase = new JCheckBox("Ignore case");
+        JCheckBox descending = new JCheckBox("Descending");
+        JRadioButton inPlace = new JRadioButton(start == 0 && end == ta.getDocument().getLength()
+                ? "Replace the document" : "Replace the selected lines", true);
+        JRadioButton toFile = new JRadioButton("Write to a new file...");
+        ButtonGroup target = new ButtonGroup();
+        target.add(inPlace);
+        target.add(toFile);
+        JPanel options = new JPanel(new GridLayout(0, 1));
+        options.add(ignoreCase);
+        options.add(descending);
+        options.add(inPlace);
+        options.add(toFile);
+        if (JOptionPane.showConfirmDialog(this, options, title, JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+            return;
+
+        File out;
+        TextBuffer.Encoding encoding;
+        if (toFile.isSelected()) {
+            JFileChooser chooser = new JFileChooser(tab.file != null ? tab.file.getParentFile() : null);
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+                return;
+            out = chooser.getSelectedFile();
+            encoding = tab.encoding;
+        } else {
+            try {
+                out = File.createTempFile("texteditor-sort", ".txt");
+            } catch (IOException e) {
+                showError("Could not create a temporary file:\n" + e.getMessage());
+                return;
+            }
+            // Mapped and streamed back in as chars
+            encoding = new TextBuffer.Encoding(StandardCharsets.UTF_16BE, false);
+        }
+
+        int from = start, to = end;
+        ta.setEditable(false);
+        tab.sorter = new LineSorter(LineSorter.documentReader(ta.getDocument(), from, to), to - from, mode,
+                ignoreCase.isSelected(), descending.isSelected(), out, encoding, error -> {
+            LineSorter sorter = tab.sorter;
+            tab.sorter = null;
+            ta.setEditable(true);
+            if (tab == activeTab) {
+                updateLoadControls();
+                updateStatus();
+            }
+            if (error != null || sorter.isCancelled() || !tabs.contains(tab)) {
+                if (inPlace.isSelected())
+                    out.delete();
+                if (error != null)
+                    showError(error);
+                return;
+            }
+            String summary = sorter.getLinesIn() + " lines in, " + sorter.getLinesOut() + " out";
+            if (toFile.isSelected()) {
+                statusLabel.setText(title + ": " + summary + ", written to " + out.getName());
+                return;
+            }
+            CharSequence result;
+            try {
+                result = LineSorter.mapResult(out);
+            } catch (IOException e) {
+                showError(e.getMessage());
+                out.delete();
+                return;
+            }
+            // The mapping outlives the file where the system allows it
+            if (!out.delete())
+                out.deleteOnExit();
+            ta.select(from, to);
+            pasteLarge(tab, result);
+        });
+        tab.sorter.addPropertyChangeListener(e -> {
+            LineSorter sorter = tab.sorter;
+            if (sorter != null && tab == activeTab)
+                statusLabel.setText(title + ": " + (sorter.isMerging() ? "merging " + sorter.getRuns() + " runs, " : "reading, ")
+                        + sorter.getPercentDone() + "%");
+        });
+        updateLoadControls();
+        tab.sorter.execute();
+    }
+
+    // ---------- TRANSFORM ----------
+    // Runs a TextTransform of the stages picked over the selected lines or the whole document (one
+    // undo step; the tab is read-only until it is done), or streams a file on disk into another
+    private void transformText() {
+        EditorTab tab = activeTab;
+        JComboBox<String> caseBox = new JComboBox<>(new String[]{"Leave case", "UPPER CASE", "lower case"});
+        JCheckBox trim = new JCheckBox("Trim trailing whitespace");
+        JComboBox<String> tabsBox = new JComboBox<>(new String[]{"Leave tabs", "Tabs to spaces", "Indentation to tabs"});
+        JComboBox<String> eolBox = new JComboBox<>(new String[]{"Leave line endings", "LF line endings",
+                "CRLF line endings", "CR line endings"});
+        JCheckBox regex = new JCheckBox("Replace regex (per line):");
+        JTextField pattern = new JTextField(20);
+        JTextField replacement = new JTextField(20);
+        JRadioButton inDocument = new JRadioButton(tab.textArea.getSelectionStart() != tab.textArea.getSelectionEnd()
+                ? "The selected lines" : "The document", true);
+        JRadioButton onFile = new JRadioButton("A file on disk, into another file...");
+        ButtonGroup target = new ButtonGroup();
+        target.add(inDocument);
+        target.add(onFile);
+
+        JPanel regexPanel = new JPanel(new GridLayout(2, 2, 4, 2));
+        regexPanel.add(new JLabel("Find:"));
+        regexPanel.add(pattern);
+        regexPanel.add(new JLabel("Replace with:"));
+        regexPanel.add(replacement);
+        JPanel options = new JPanel();
+        options.setLayout(new BoxLayout(options, BoxLayout.Y_AXIS));
+        for (JComponent c : new JComponent[]{regex, regexPanel, caseBox, tabsBox, trim, eolBox,
+                new JLabel("Apply to:"), inDocument, onFile}) {
+            c.setAlignmentX(Component.LEFT_ALIGNMENT);
+            options.add(c);
+        }
+        if (JOptionPane.showConfirmDialog(this, options, "Transform Text", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+            return;
+
+        // Stages in a fixed order: rewrites first, line endings last
+        TextTransform transform = new TextTransform();
+        try {
+            if (regex.isSelected() && !pattern.getText().isEmpty())
+                transform.regex(Pattern.compile(pattern.getText()), replacement.getText());
+        } catch (PatternSyntaxException e) {
+            showError("Invalid regular expression:\n" + e.getMessage());
+            return;
+        }
+        if (caseBox.getSelectedIndex() == 1)
+            transform.upperCase();
+        else if (caseBox.getSelectedIndex() == 2)
+            transform.lowerCase();
+        if (tabsBox.getSelectedIndex() == 1)
+            transform.tabsToSpaces(TAB_SIZE);
+        else if (tabsBox.getSelectedIndex() == 2)
+            transform.spacesToTabs(TAB_SIZE);
+        if (trim.isSelected())
+            transform.trimTrailing();
+        if (eolBox.getSelectedIndex() > 0)
+            transform.lineEndings(new String[]{"\n", "\r\n", "\r"}[eolBox.getSelectedIndex() - 1]);
+        if (transform.isEmpty())
+            return;
+
+        if (onFile.isSelected())
+            transformFile(transform);
+        else
+            transformDocument(tab, transform);
+    }
+
+    private void transformDocument(EditorTab tab, TextTransform transform) {
+        if (tab.loader != null || tab.paste != null || tab.sorter != null || tab.transformer != null) {
+            showError("The document is still busy; try again when it is done.");
+            return;
+        }
+        if (tab.follower != null) {
+            showError("Stop following the file first.");
+            return;
+        }
+        JTextArea ta = tab.textArea;
+        int[] range = selectedLines(ta);
+        if (range == null || range[1] <= range[0])
+            return;
+        boolean wasModified = tab.modified;
+        ta.setEditable(false);
+        tab.beginEditGroup();
+        tab.transformer = TransformWorker.forDocument(transform, ta.getDocument(), range[0], range[1], error -> {
+            TransformWorker worker = tab.transformer;
+            tab.transformer = null;
+            ta.setEditable(true);
+            if (error != null || worker.isStopped() || worker.getEditCount() == 0) {
+                tab.cancelEditGroup();
+                tab.setModified(wasModified);
+            } else {
+                tab.endEditGroup();
+                tab.setModified(true);
+            }
+            if (tab == activeTab) {
+                updateLoadControls();
+                updateStatus();
+            }
+            if (error != null)
+                showError(error);
+            else if (!worker.isStopped() && tab == activeTab)
+                statusLabel.setText("Transform: " + (worker.getEditCount() == 0 ? "nothing to change"
+                        : worker.getEditCount() + " change(s) made"));
+        });
+        tab.transformer.addPropertyChangeListener(e -> {
+            TransformWorker worker = tab.transformer;
+            if (worker != null && tab == activeTab)
+                statusLabel.setText("Transform (" + transform + "): " + (worker.isApplying() ? "applying, " : "")
+                        + worker.getPercentDone() + "%");
+        });
+        updateLoadControls();
+        tab.transformer.execute();
+    }
+
+    private void transformFile(TextTransform transform) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("File to Transform");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        File input = chooser.getSelectedFile();
+        chooser.setDialogTitle("Write the Result To");
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        File output = chooser.getSelectedFile();
+        if (output.exists() && JOptionPane.showConfirmDialog(this, output.getName() + " will be replaced.",
+                "Transform Text", JOptionPane.OK_CANCEL_OPTION) != JOptionPane.OK_OPTION)
+            return;
+        TransferProgressDialog[] dialog = new TransferProgressDialog[1];
+        TransformWorker worker = TransformWorker.forFile(transform, input, output, error -> {
+            dialog[0].finished(error);
+            statusLabel.setText("Transform of " + input.getName() + (error == null ? " finished" : " stopped"));
+        });
+        dialog[0] = new TransferProgressDialog(this, worker);
+        worker.execute();
+        dialog[0].setVisible(true);
+    }
+
+    // The lines the selection touches, or the whole document: [start, end) with the last line's
+    // break; null if the text area cannot tell
+    private static int[] selectedLines(JTextArea ta) {
+        if (ta.getSelectionStart() == ta.getSelectionEnd())
+            return new int[]{0, ta.getDocument().getLength()};
+        try {
+            int start = ta.getLineStartOffset(ta.getLineOfOffset(ta.getSelectionStart()));
+            // A selection ending at the start of a line leaves that line out
+            int last = ta.getLineOfOffset(ta.getSelectionEnd());
+            if (last > 0 && ta.getLineStartOffset(last) == ta.getSelectionEnd())
+                last--;
+            return new int[]{start, ta.getLineEndOffset(last)};
+        } catch (BadLocationException e) {
+            return null;
+        }
+    }
+
+    // ---------- UNDO / REDO ----------
+    private void performUndo() {
+        if (activeTab.paste != null || activeTab.sorter != null || activeTab.transformer != null)
+            return;
+        TextTransfer.settle(textArea.getDocument());
+        try {
+            if (undoManager.canUndo())
+                undoManager.undo();
+        } catch (CannotUndoException ignored) {
+        }
+        updateUndoRedo();
+    }
+
+    private void performRedo() {
+        if (activeTab.paste != null || activeTab.sorter != null || activeTab.transformer != null)
+            return;
+        TextTransfer.settle(textArea.getDocument());
+        try {
+            if (undoManager.canRedo())
+                undoManager.redo();
+        } catch (CannotRedoException ignored) {
+        }
+        updateUndoRedo();
+    }
+
+    private void updateUndoRedo() {
+        undoMenuItem.setEnabled(undoManager.canUndo());
+        redoMenuItem.setEnabled(undoManager.canRedo());
+    }
+
+    // ---------- FORMAT ----------
+    private void toggleWrap(boolean wrap) {
+        for (EditorTab tab : tabs) {
+            tab.textArea.setLineWrap(wrap);
+            tab.textArea.setWrapStyleWord(wrap);
+            tab.gutter.repaint();
+        }
+    }
+
+    private void chooseColor() {
+        Color c = JColorChooser.showDialog(this, "Choose Text Color", textArea.getForeground());
+        if (c != null)
+            textArea.setForeground(c);
+    }
+
+    private void toggleTheme(boolean dark) {
+        if (dark) {
+            applyColorScheme(ColorScheme.DARK);
+        } else {
+            applyColorScheme(ColorScheme.DEFAULT);
+        }
+    }
+
+    private void applyColorScheme(ColorScheme scheme) {
+        EditorEvents.ApplyColorScheme event = new EditorEvents.ApplyColorScheme();
+        event.begin();
+        currentColorScheme = scheme;
+        
+        for (EditorTab tab : tabs) {
+            // Apply to text area
+            tab.textArea.setBackground(scheme.textAreaBackground);
+            tab.textArea.setForeground(scheme.textAreaForeground);
+            tab.textArea.setCaretColor(scheme.caretColor);
+
+            // Apply to line gutter
+            tab.gutter.setBackgroundColor(scheme.lineGutterBackground);
+            tab.gutter.setForegroundColor(scheme.lineGutterForeground);
+        }
+        
+        // Apply to status bar
+        getContentPane().setBackground(scheme.statusBarBackground);
+        
+        // Apply to toolbar
+        toolbar.setBackground(scheme.toolbarBackground);
+        
+        // Apply to menu bar
+        JMenuBar menuBar = getJMenuBar();
+        if (menuBar != null) {
+            menuBar.setBackground(scheme.menuBarBackground);
+            menuBar.setForeground(scheme.menuBarForeground);
+        }
+        
+        lineGutter.repaint();
+        repaint();
+        event.scheme = scheme.name();
+        event.tabs = tabs.size();
+        event.commit();
+    }
+
+    private void showColorThemeSelector() {
+        ColorThemeSelectorDialog dialog = new ColorThemeSelectorDialog(this);
+        dialog.setVisible(true);
+        
+        ColorScheme selectedScheme = dialog.getSelectedScheme();
+        if (selectedScheme != null) {
+            applyColorScheme(selectedScheme);
+        }
+    }
+
+    // ---------- STATUS / CARET ----------
+    // Coalesced: a burst of document events (paste, follow mode batches) costs one recount
+    private void updateStatus() {
+        if (statusUpdatePending)
+            return;
+        statusUpdatePending = true;
+        SwingUtilities.invokeLater(() -> {
+            statusUpdatePending = false;
+            String text = textArea.getText();
+            int chars = text.length();
+            int words = TextBuffer.countWords(text);
+            statusLabel.setText("Words: " + words + "  Characters: " + chars + (activeTab.modified ? "  *" : ""));
+            updateCaretPosition();
+        });
+    }
+
+    private void updateCaretPosition() {
+        int caretPos = textArea.getCaretPosition();
+        try {
+            int line = textArea.getLineOfOffset(caretPos);
+            int col = caretPos - textArea.getLineStartOffset(line);
+            posLabel.setText("Ln: " + (line + 1) + "  Col: " + (col + 1));
+        } catch (BadLocationException ex) {
+            posLabel.setText("Ln: 1  Col: 1");
+        }
+    }
+
+    // ---------- JMX ----------
+
+    // What the Editor MBean reports; taken on the EDT, since documents and the pool belong to it
+    private static final class EditorFigures {
+        int openDocuments;
+        long activeDocumentChars, activeDocumentLines, totalChars, undoBytes;
+        int buffersCompressed, buffersSpilled;
+        long bufferHeapBytes;
+    }
+
+    private void registerMetrics() {
+        Map<String, Supplier<?>> editor = new LinkedHashMap<>();
+        editor.put("openDocuments", () -> editorFigures.openDocuments);
+        editor.put("activeDocumentChars", () -> editorFigures.activeDocumentChars);
+        editor.put("activeDocumentLines", () -> editorFigures.activeDocumentLines);
+        editor.put("totalChars", () -> editorFigures.totalChars);
+        editor.put("undoBytes", () -> editorFigures.undoBytes);
+        editor.put("bufferHeapBytes", () -> editorFigures.bufferHeapBytes);
+        editor.put("bufferBudgetBytes", bufferPool::getBudgetBytes);
+        editor.put("buffersCompressed", () -> editorFigures.buffersCompressed);
+        editor.put("buffersSpilled", () -> editorFigures.buffersSpilled);
+        editor.put("bufferHits", bufferPool::getHits);
+        editor.put("bufferRestores", bufferPool::getRestores);
+        editor.put("bufferCompressions", bufferPool::getCompressions);
+        editor.put("bufferSpills", bufferPool::getSpills);
+        Metrics.register("Editor", "Open documents, undo history and the buffer pool", editor, bufferPool::resetCounters);
+
+        Map<String, Supplier<?>> edt = new LinkedHashMap<>();
+        edt.put("keyToPaintCount", edtMonitor.keyToPaint::getCount);
+        Metrics.addPercentiles(edt, "keyToPaint", edtMonitor.keyToPaint);
+        edt.put("edtEventCount", edtMonitor.tasks::getCount);
+        Metrics.addPercentiles(edt, "edtEvent", edtMonitor.tasks);
+        edt.put("paintCount", edtMonitor.paints::getCount);
+        Metrics.addPercentiles(edt, "paint", edtMonitor.paints);
+        edt.put("stalls", () -> edtMonitor.getStalls().size());
+        Metrics.register("Responsiveness", "Event dispatch thread latencies", edt, edtMonitor::reset);
+
+        Timer sampler = new Timer(1000, e -> sampleEditorFigures());
+        sampler.start();
+        sampleEditorFigures();
+    }
+
+    private void sampleEditorFigures() {
+        EditorFigures f = new EditorFigures();
+        f.openDocuments = tabs.size();
+        if (activeTab != null) {
+            f.activeDocumentChars = activeTab.getLength();
+            f.activeDocumentLines = activeTab.getLineCount();
+        }
+        for (EditorTab tab : tabs) {
+            f.totalChars += tab.poolEntry.getChars();
+            f.undoBytes += tab.undoManager.getTextBytes();
+        }
+        for (BufferPool.Entry entry : bufferPool.getEntries()) {
+            if (entry.getState() == BufferPool.State.COMPRESSED)
+                f.buffersCompressed++;
+            else if (entry.getState() == BufferPool.State.SPILLED)
+                f.buffersSpilled++;
+        }
+        f.bufferHeapBytes = bufferPool.getTotalHeapBytes();
+        editorFigures = f;
+    }
+
+    // ---------- SESSION ----------
+    private File sessionFile() {
+        return SESSION_PATH.equals("off") ? null : new File(SESSION_PATH);
+    }
+
+    // Reopens the tabs of the last session. Tabs whose text is in the snapshot and whose file has
+    // not changed since (or that had unsaved changes) come straight from it; the rest are read
+    // from disk as usual.
+    private boolean restoreSession() {
+        File f = sessionFile();
+        if (f == null || !SessionSnapshot.exists(f))
+            return false;
+        long t0 = System.nanoTime();
+        SessionSnapshot s;
+        try {
+            s = SessionSnapshot.read(f);
+        } catch (IOException e) {
+            System.err.println("Could not restore the session: " + e.getMessage());
+            return false;
+        }
+        wrapItem.setSelected(s.wrap);
+        wrapToggleButton.setSelected(s.wrap);
+
+        EditorTab active = null;
+        int fromSnapshot = 0;
+        for (int i = 0; i < s.tabs.size(); i++) {
+            SessionSnapshot.Tab t = s.tabs.get(i);
+            File file = t.path != null ? new File(t.path) : null;
+            EditorTab tab;
+            if (t.hasContent() && (file == null || t.modified || t.fingerprint != null && t.fingerprint.sameStat(file))) {
+                // Only the tab that is shown becomes a document now; the others when first focused
+                tab = addTab();
+                tab.file = file;
+                tab.fingerprint = t.fingerprint;
+                tab.encoding = encodingOf(t);
+                if (i == s.activeTab) {
+                    loadFromSnapshot(tab, t);
+                } else {
+                    tab.sessionContent = t;
+                    bufferPool.mapped(tab.poolEntry, t.getChars(), t.getLineCount());
+                    tab.setModified(t.modified);
+                    updateTabTitle(tab);
+                }
+                fromSnapshot++;
+            } else if (file != null && file.isFile() && findTab(file) == null) {
+                openFile(file);
+                tab = findTab(file);
+                tab.sessionCaret = t.caret;
+                tab.sessionView = new Point(t.scrollX, t.scrollY);
+            } else {
+                continue;
+            }
+            if (i == s.activeTab)
+                active = tab;
+        }
+        if (tabs.isEmpty())
+            return false;
+        // The last tab added is selected, but may have been mapped after that
+        EditorTab show = active != null ? active : tabs.get(tabs.size() - 1);
+        if (tabbedPane.getSelectedComponent() == show.scrollPane)
+            activateTab(show);
+        else
+            tabbedPane.setSelectedComponent(show.scrollPane);
+        try {
+            applyColorScheme(ColorScheme.valueOf(s.colorScheme));
+        } catch (IllegalArgumentException | NullPointerException ignored) {
+        }
+        sessionSignature = sessionSignature();
+        statusLabel.setText("Session restored: " + tabs.size() + " tab" + (tabs.size() == 1 ? "" : "s") + ", "
+                + fromSnapshot + " from the snapshot, in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+        return true;
+    }
+
+    private void loadFromSnapshot(EditorTab tab, SessionSnapshot.Tab t) {
+        tab.attachDocument(SessionSnapshot.document(t));
+        tab.sessionCaret = t.caret;
+        tab.sessionView = new Point(t.scrollX, t.scrollY);
+        documentLoaded(tab);
+        SyntaxHighlighter.Lexer lexer = null;
+        for (SyntaxHighlighter.Lexer l : SyntaxHighlighter.LEXERS) {
+            if (l.getName().equals(t.lexer))
+                lexer = l;
+        }
+        setSyntax(tab, lexer);
+        tab.setModified(t.modified);
+    }
+
+    private static TextBuffer.Encoding encodingOf(SessionSnapshot.Tab t) {
+        try {
+            return new TextBuffer.Encoding(Charset.forName(t.charset), t.bom);
+        } catch (IllegalArgumentException e) {
+            return TextBuffer.Encoding.DEFAULT;
+        }
+    }
+
+    // The caret first; the view once the frame is laid out
+    private void restoreView(EditorTab tab) {
+        Point view = tab.sessionView;
+        tab.sessionView = null;
+        tab.textArea.setCaretPosition(Math.min(Math.max(0, tab.sessionCaret), tab.getLength()));
+        SwingUtilities.invokeLater(() -> tab.scrollPane.getViewport().setViewPosition(view));
+    }
+
+    // On exit: the text of tabs that match their file goes in, so the next start skips reading
+    // them. Unsaved changes stay out; the user has just been asked about them.
+    private void saveSession() {
+        File f = sessionFile();
+        if (f == null)
+            return;
+        try {
+            captureSession(true).write(f);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not save the session: " + e.getMessage());
+        }
+    }
+
+    // Periodically, when anything changed: tabs with unsaved changes and Untitled tabs go in with
+    // their text, so they survive a crash; the rest by path only. Written off the EDT.
+    private void saveSessionInBackground() {
+        File f = sessionFile();
+        long signature = sessionSignature();
+        if (f == null || sessionSaving || signature == sessionSignature)
+            return;
+        SessionSnapshot s = captureSession(false);
+        sessionSignature = signature;
+        sessionSaving = true;
+        new SwingWorker<Void, Void>() {
+            protected Void doInBackground() throws IOException {
+                s.write(f);
+                return null;
+            }
+
+            protected void done() {
+                sessionSaving = false;
+                try {
+                    get();
+                } catch (Exception e) {
+                    System.err.println("Could not save the session: " + e.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    private long sessionSignature() {
+        long h = currentColorScheme.ordinal() * 31L + (wrapItem.isSelected() ? 1 : 0);
+        h = h * 31 + tabs.indexOf(activeTab);
+        for (EditorTab tab : tabs) {
+            h = h * 31 + (tab.file != null ? tab.file.hashCode() : 0);
+            h = h * 31 + tab.editCount;
+            h = h * 31 + (tab.modified ? 1 : 0);
+            h = h * 31 + tab.textArea.getCaretPosition();
+        }
+        return h;
+    }
+
+    private SessionSnapshot captureSession(boolean atExit) {
+        SessionSnapshot s = new SessionSnapshot();
+        s.colorScheme = currentColorScheme.name();
+        s.wrap = wrapItem.isSelected();
+        long contents = 0;
+        for (EditorTab tab : tabs) {
+            boolean busy = tab.loader != null || tab.paste != null || tab.follower != null;
+            boolean wantText = !busy && (atExit ? !tab.modified && tab.file != null && tab.fingerprint != null
+                    : tab.modified || tab.file == null);
+            long bytes = 2L * tab.poolEntry.getChars();
+            String text = null;
+            if (wantText && bytes > 0 && contents + bytes <= SESSION_CONTENTS_BYTES) {
+                text = textOf(tab);
+                if (text != null)
+                    contents += bytes;
+            }
+            if (tab.file == null && text == null)
+                continue;
+
+            SessionSnapshot.Tab t = new SessionSnapshot.Tab();
+            t.path = tab.file != null ? tab.file.getAbsolutePath() : null;
+            t.text = text;
+            t.modified = text != null && tab.modified;
+            t.fingerprint = tab.fingerprint;
+            t.charset = tab.encoding.charset.name();
+            t.bom = tab.encoding.bom;
+            SyntaxHighlighter h = SyntaxHighlighter.get(tab.textArea);
+            t.lexer = h != null && h.getLexer() != null ? h.getLexer().getName() : null;
+            boolean resident = tab.poolEntry.getState() == BufferPool.State.RESIDENT;
+            Point view = tab.scrollPane.getViewport().getViewPosition();
+            if (tab.sessionContent != null) {
+                t.caret = tab.sessionContent.caret;
+                view = new Point(tab.sessionContent.scrollX, tab.sessionContent.scrollY);
+            } else {
+                t.caret = resident ? tab.textArea.getCaretPosition() : tab.savedCaret;
+                if (!resident)
+                    view = new Point();
+            }
+            t.scrollX = view.x;
+            t.scrollY = view.y;
+            if (tab == activeTab)
+                s.activeTab = s.tabs.size();
+            s.tabs.add(t);
+        }
+        return s;
+    }
+
+    // Swapped-out tabs are read from the buffer pool, and not yet shown ones from the old snapshot,
+    // without bringing them in
+    private String textOf(EditorTab tab) {
+        if (tab.sessionContent != null)
+            return tab.sessionContent.content.duplicate().toString();
+        if (tab.poolEntry.getState() == BufferPool.State.RESIDENT)
+            return tab.textArea.getText();
+        try {
+            return bufferPool.peekText(tab.poolEntry);
+        } catch (IOException e) {
+            System.err.println("Could not read " + tab.getName() + " for the session: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // ---------- NESTED CLASSES ----------
+    static class LineNumberGutter extends JPanel {
+        private final JTextArea textArea;
+        private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 14);
+        private Color backgroundColor = new Color(230, 230, 230);
+        private Color foregroundColor = Color.BLACK;
+
+        private final DocumentListener repaintOnChange = new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                repaint();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                repaint();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                repaint();
+            }
+        };
+
+        public LineNumberGutter(JTextArea ta) {
+            textArea = ta;
+            setFont(font);
+            setBackground(backgroundColor);
+
+            textArea.getDocument().addDocumentListener(repaintOnChange);
+            // Buffers swapped out by the pool get a new document on restore
+            textArea.addPropertyChangeListener("document", e -> {
+                if (e.getOldValue() != null)
+                    ((Document) e.getOldValue()).removeDocumentListener(repaintOnChange);
+                if (e.getNewValue() != null)
+                    ((Document) e.getNewValue()).addDocumentListener(repaintOnChange);
+                repaint();
+            });
+
+            textArea.addComponentListener(new ComponentAdapter() {
+                public void componentResized(ComponentEvent e) {
+                    repaint();
+                }
+            });
+
+            textArea.addCaretListener(e -> repaint());
+            setPreferredSize(new Dimension(40, Integer.MAX_VALUE));
+        }
+
+        public void setForegroundColor(Color c) {
+            foregroundColor = c;
+            repaint();
+        }
+
+        public void setBackgroundColor(Color c) {
+            backgroundColor = c;
             setBackground(c);
             repaint();
         }
 
-        protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            g.setColor(foregroundColor);
-            FontMetrics fm = textArea.getFontMetrics(textArea.getFont());
-            int lineHeight = fm.getHeight();
-            int startLine = 0;
-            int endLine = textArea.getLineCount();
-            for (int i = startLine; i < endLine; i++) {
-                try {
-                    int y = (int) textArea.modelToView2D(textArea.getLineStartOffset(i)).getBounds().getY()
-                            + fm.getAscent();
-                    g.drawString(String.valueOf(i + 1), 5, y);
-                } catch (Exception ignored) {
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            g.setColor(foregroundColor);
+            FontMetrics fm = textArea.getFontMetrics(textArea.getFont());
+            // Only the lines inside the clip
+            Rectangle clip = g.getClipBounds();
+            int startLine = 0;
+            int endLine = textArea.getLineCount();
+            if (clip != null) {
+                Element root = textArea.getDocument().getDefaultRootElement();
+                startLine = root.getElementIndex(textArea.viewToModel2D(new Point(0, clip.y)));
+                endLine = Math.min(endLine, root.getElementIndex(textArea.viewToModel2D(new Point(0, clip.y + clip.height))) + 1);
+            }
+            for (int i = startLine; i < endLine; i++) {
+                try {
+                    int y = (int) textArea.modelToView2D(textArea.getLineStartOffset(i)).getBounds().getY()
+                            + fm.getAscent();
+                    g.drawString(String.valueOf(i + 1), 5, y);
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    static class FindReplaceDialog extends JDialog {
+        private final JTextArea textArea;
+        private JTextField findField, replaceField;
+        private JButton findNextBtn, replaceBtn, replaceAllBtn;
+
+        public FindReplaceDialog(JFrame owner, JTextArea ta) {
+            super(owner, "Find / Replace", false);
+            textArea = ta;
+            init();
+        }
+
+        private void init() {
+            setLayout(new GridBagLayout());
+            GridBagConstraints gbc = new GridBagConstraints();
+            gbc.insets = new Insets(4, 4, 4, 4);
+            gbc.fill = GridBagConstraints.HORIZONTAL;
+
+            gbc.gridx = 0;
+            gbc.gridy = 0;
+            add(new JLabel("Find:"), gbc);
+            gbc.gridx = 1;
+            gbc.gridy = 0;
+            findField = new JTextField(20);
+            add(findField, gbc);
+            gbc.gridx = 0;
+            gbc.gridy = 1;
+            add(new JLabel("Replace:"), gbc);
+            gbc.gridx = 1;
+            gbc.gridy = 1;
+            replaceField = new JTextField(20);
+            add(replaceField, gbc);
+
+            gbc.gridx = 0;
+            gbc.gridy = 2;
+            findNextBtn = new JButton("Find Next");
+            add(findNextBtn, gbc);
+            gbc.gridx = 1;
+            gbc.gridy = 2;
+            replaceBtn = new JButton("Replace");
+            add(replaceBtn, gbc);
+            gbc.gridx = 1;
+            gbc.gridy = 3;
+            replaceAllBtn = new JButton("Replace All");
+            add(replaceAllBtn, gbc);
+
+            findNextBtn.addActionListener(e -> findNext());
+            replaceBtn.addActionListener(e -> replace());
+            replaceAllBtn.addActionListener(e -> replaceAll());
+
+            pack();
+            setLocationRelativeTo(getOwner());
+        }
+
+        private void findNext() {
+            String find = findField.getText();
+            if (find.isEmpty())
+                return;
+            if (findNext(textArea, find) >= 0)
+                textArea.requestFocus();
+            else
+                JOptionPane.showMessageDialog(this, "Text not found!");
+        }
+
+        // Selects the next occurrence after the caret, wrapping to the top; returns its offset or -1
+        static int findNext(JTextArea textArea, String find) {
+            EditorEvents.FindNext event = new EditorEvents.FindNext();
+            event.begin();
+            long t0 = System.nanoTime();
+            String text = textArea.getText();
+            int idx = TextBuffer.findNext(text, find, textArea.getCaretPosition());
+            Metrics.FIND_NEXT.done(t0, Metrics.textBytes(text), true);
+            event.patternLength = find.length();
+            event.documentChars = text.length();
+            event.matchOffset = idx;
+            event.commit();
+            if (idx >= 0) {
+                textArea.setSelectionStart(idx);
+                textArea.setSelectionEnd(idx + find.length());
+            }
+            return idx;
+        }
+
+        private void replace() {
+            if (textArea.getSelectedText() != null && !textArea.getSelectedText().isEmpty()) {
+                textArea.replaceSelection(replaceField.getText());
+            }
+            findNext();
+        }
+
+        private void replaceAll() {
+            replaceAll(textArea, findField.getText(), replaceField.getText());
+        }
+
+        static void replaceAll(JTextArea textArea, String find, String replace) {
+            EditorEvents.ReplaceAll event = new EditorEvents.ReplaceAll();
+            event.begin();
+            long t0 = System.nanoTime();
+            String text = textArea.getText();
+            textArea.setText(TextBuffer.replaceAll(text, find, replace));
+            Metrics.REPLACE_ALL.done(t0, Metrics.textBytes(text), true);
+            event.end();
+            if (event.shouldCommit()) {
+                // A second pass over the text, so only while recording
+                event.patternLength = find.length();
+                event.documentChars = text.length();
+                event.matches = find.isEmpty() ? 0 : TextBuffer.countMatches(text, find);
+                event.commit();
+            }
+        }
+    }
+
+    private static class DatabaseFileSelector extends JDialog {
+        private DatabaseFile selectedFile;
+        private JList<DatabaseFile> fileList;
+
+        public DatabaseFileSelector(JFrame owner, List<DatabaseFile> files) {
+            super(owner, "Select File from Database", true);
+            init(files);
+        }
+
+        private void init(List<DatabaseFile> files) {
+            setLayout(new BorderLayout());
+            
+            DefaultListModel<DatabaseFile> model = new DefaultListModel<>();
+            for (DatabaseFile file : files) {
+                model.addElement(file);
+            }
+            
+            fileList = new JList<>(model);
+            fileList.setCellRenderer(new DatabaseFileRenderer());
+            fileList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            
+            JScrollPane scrollPane = new JScrollPane(fileList);
+            add(scrollPane, BorderLayout.CENTER);
+            
+            JPanel buttonPanel = new JPanel(new FlowLayout());
+            JButton openBtn = new JButton("Open");
+            JButton cancelBtn = new JButton("Cancel");
+            
+            openBtn.addActionListener(e -> {
+                selectedFile = fileList.getSelectedValue();
+                dispose();
+            });
+            
+            cancelBtn.addActionListener(e -> {
+                selectedFile = null;
+                dispose();
+            });
+            
+            buttonPanel.add(openBtn);
+            buttonPanel.add(cancelBtn);
+            add(buttonPanel, BorderLayout.SOUTH);
+            
+            setSize(500, 300);
+            setLocationRelativeTo(getOwner());
+        }
+
+        public DatabaseFile getSelectedFile() {
+            return selectedFile;
+        }
+    }
+
+    private static class DatabaseFileRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            
+            if (value instanceof DatabaseFile) {
+                DatabaseFile file = (DatabaseFile) value;
+                setText("<html><b>" + file.getFileName() + "</b><br>" +
+                       "<font size='2'>" + file.getFilePath() + "<br>" +
+                       "Modified: " + file.getLastModified() + " | Size: " + file.getContent().length() + " chars</font></html>");
+            }
+            
+            return this;
+        }
+    }
+
+    // Pages of file metadata come from the database as the table scrolls (FileTableModel); a
+    // header click sorts and the filter field filters, both in the database
+    private static class DatabaseManagerDialog extends JDialog {
+        private static final int MAX_SEARCH_HITS = 500;
+
+        private final DatabaseManager dbManager;
+        private final FileIndex fileIndex; // null when indexing is off
+        private JTable fileTable;
+        private FileTableModel tableModel;
+        private JTextArea contentArea;
+        private JLabel statusLabel;
+        private JTextField filterField;
+        private Timer filterTimer;
+        private JTabbedPane listTabs;
+        private JTextField searchField;
+        private JTable hitTable;
+        private DefaultTableModel hitModel;
+        private List<FileIndex.Hit> hits = new ArrayList<>();
+        private int searchGeneration;
+        private int previewGeneration;
+        private FileTableModel.Row hitRow; // the selected hit's row, once its preview has looked it up
+        private Future<Integer> indexing;
+
+        public DatabaseManagerDialog(JFrame owner, DatabaseManager dbManager, FileIndex fileIndex) {
+            super(owner, "Oracle XE Database Manager", true);
+            this.dbManager = dbManager;
+            this.fileIndex = fileIndex;
+            init();
+            loadFiles();
+            if (fileIndex != null)
+                checkIndex();
+        }
+
+        private void init() {
+            setLayout(new BorderLayout());
+            setSize(800, 600);
+            setLocationRelativeTo(getOwner());
+
+            // Top panel with buttons
+            JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            JButton refreshBtn = new JButton("Refresh");
+            JButton openBtn = new JButton("Open File");
+            JButton deleteBtn = new JButton("Delete File");
+            JButton showDbPathBtn = new JButton("Show DB Info");
+            JButton exportBtn = new JButton("Export...");
+
+            refreshBtn.addActionListener(e -> loadFiles());
+            openBtn.addActionListener(e -> openSelectedFile());
+            deleteBtn.addActionListener(e -> deleteSelectedFile());
+            showDbPathBtn.addActionListener(e -> showDatabasePath());
+            exportBtn.addActionListener(e -> exportFiles());
+
+            // Filter as you type, once typing pauses
+            filterField = new JTextField(16);
+            filterTimer = new Timer(300, e -> applyQuery(tableModel.getQuery().sort, tableModel.getQuery().ascending));
+            filterTimer.setRepeats(false);
+            filterField.getDocument().addDocumentListener(new DocumentListener() {
+                public void insertUpdate(DocumentEvent e) {
+                    filterTimer.restart();
+                }
+
+                public void removeUpdate(DocumentEvent e) {
+                    filterTimer.restart();
+                }
+
+                public void changedUpdate(DocumentEvent e) {
+                    filterTimer.restart();
+                }
+            });
+
+            topPanel.add(refreshBtn);
+            topPanel.add(openBtn);
+            topPanel.add(deleteBtn);
+            topPanel.add(showDbPathBtn);
+            topPanel.add(exportBtn);
+            topPanel.add(new JLabel("Filter:"));
+            topPanel.add(filterField);
+
+            // Search file contents through the full-text index
+            searchField = new JTextField(16);
+            searchField.setEnabled(fileIndex != null);
+            searchField.setToolTipText("<html>Words that must all occur, \"an exact phrase\", prefix*</html>");
+            searchField.addActionListener(e -> searchContents());
+            JButton reindexBtn = new JButton("Rebuild Index");
+            reindexBtn.setEnabled(fileIndex != null);
+            reindexBtn.addActionListener(e -> rebuildIndex());
+            topPanel.add(new JLabel("Search:"));
+            topPanel.add(searchField);
+            topPanel.add(reindexBtn);
+
+            // Status label
+            statusLabel = new JLabel("Ready");
+            topPanel.add(new JSeparator(SwingConstants.VERTICAL));
+            topPanel.add(statusLabel);
+
+            add(topPanel, BorderLayout.NORTH);
+
+            // Split pane for table and content
+            JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
+            splitPane.setDividerLocation(400);
+
+            // File table
+            tableModel = new FileTableModel(dbManager, new FileTableModel.Listener() {
+                public void counted(int rows) {
+                    String filter = tableModel.getQuery().filter;
+                    statusLabel.setText(rows + " file" + (rows == 1 ? "" : "s") + (filter.isEmpty() ? "" : " matching \"" + filter + "\""));
+                }
+
+                public void failed(SQLException e) {
+                    statusLabel.setText("Error loading files: " + e.getMessage());
+                }
+            });
+            fileTable = new JTable(tableModel);
+            fileTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            fileTable.getTableHeader().setReorderingAllowed(false);
+            fileTable.getTableHeader().addMouseListener(new MouseAdapter() {
+                public void mouseClicked(MouseEvent e) {
+                    int column = fileTable.convertColumnIndexToModel(fileTable.getTableHeader().columnAtPoint(e.getPoint()));
+                    if (column < 0)
+                        return;
+                    FileTableModel.Column sort = FileTableModel.Column.values()[column];
+                    FileTableModel.Query q = tableModel.getQuery();
+                    applyQuery(sort, q.sort == sort ? !q.ascending : true);
+                }
+            });
+            fileTable.getSelectionModel().addListSelectionListener(e -> {
+                if (!e.getValueIsAdjusting()) {
+                    showFileContent();
+                }
+            });
+
+            JScrollPane tableScrollPane = new JScrollPane(fileTable);
+            tableScrollPane.setBorder(BorderFactory.createTitledBorder("Files in Database"));
+
+            // Search results
+            hitModel = new DefaultTableModel(new String[]{"Filename", "Path", "Matches"}, 0) {
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            };
+            hitTable = new JTable(hitModel);
+            hitTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            hitTable.getSelectionModel().addListSelectionListener(e -> {
+                if (!e.getValueIsAdjusting()) {
+                    showFileContent();
+                }
+            });
+            JScrollPane hitScrollPane = new JScrollPane(hitTable);
+            hitScrollPane.setBorder(BorderFactory.createTitledBorder("Files Containing the Search"));
+
+            listTabs = new JTabbedPane();
+            listTabs.addTab("Files", tableScrollPane);
+            listTabs.addTab("Search Results", hitScrollPane);
+            listTabs.addChangeListener(e -> showFileContent());
+            splitPane.setLeftComponent(listTabs);
+
+            // Content area
+            contentArea = new JTextArea();
+            contentArea.setEditable(false);
+            contentArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            contentArea.setBorder(BorderFactory.createTitledBorder("File Content Preview"));
+            JScrollPane contentScrollPane = new JScrollPane(contentArea);
+            splitPane.setRightComponent(contentScrollPane);
+
+            add(splitPane, BorderLayout.CENTER);
+
+            // Bottom panel
+            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            JButton closeBtn = new JButton("Close");
+            closeBtn.addActionListener(e -> dispose());
+            bottomPanel.add(closeBtn);
+            add(bottomPanel, BorderLayout.SOUTH);
+        }
+
+        private void loadFiles() {
+            statusLabel.setText("Loading...");
+            contentArea.setText("");
+            tableModel.refresh();
+            updateSortHeaders();
+        }
+
+        private void applyQuery(FileTableModel.Column sort, boolean ascending) {
+            statusLabel.setText("Loading...");
+            tableModel.setQuery(new FileTableModel.Query(sort, ascending, filterField.getText().trim()));
+            updateSortHeaders();
+        }
+
+        private void updateSortHeaders() {
+            FileTableModel.Query q = tableModel.getQuery();
+            for (int i = 0; i < fileTable.getColumnCount(); i++) {
+                TableColumn column = fileTable.getColumnModel().getColumn(i);
+                FileTableModel.Column c = FileTableModel.Column.values()[column.getModelIndex()];
+                column.setHeaderValue(c.title + (c == q.sort ? (q.ascending ? " \u25B2" : " \u25BC") : ""));
+            }
+            fileTable.getTableHeader().repaint();
+        }
+
+        // The selected row, if its page has arrived; on the search tab, the selected hit's row once
+        // the preview has looked it up
+        private FileTableModel.Row selectedRow() {
+            if (listTabs.getSelectedIndex() == 1)
+                return selectedHit() != null ? hitRow : null;
+            int selected = fileTable.getSelectedRow();
+            return selected >= 0 ? tableModel.getRow(selected) : null;
+        }
+
+        private FileIndex.Hit selectedHit() {
+            int selected = hitTable.getSelectedRow();
+            return selected >= 0 ? hits.get(hitTable.convertRowIndexToModel(selected)) : null;
+        }
+
+        // ---------- CONTENT SEARCH ----------
+
+        // Runs the query on a worker; results of a search overtaken by a newer one are dropped
+        private void searchContents() {
+            String query = searchField.getText().trim();
+            if (query.isEmpty())
+                return;
+            int gen = ++searchGeneration;
+            statusLabel.setText(indexing != null && !indexing.isDone() ? "Searching (index still building)..." : "Searching...");
+            new SwingWorker<List<FileIndex.Hit>, Void>() {
+                long millis;
+
+                protected List<FileIndex.Hit> doInBackground() {
+                    long t0 = System.nanoTime();
+                    List<FileIndex.Hit> found = fileIndex.search(query, MAX_SEARCH_HITS);
+                    millis = (System.nanoTime() - t0) / 1_000_000;
+                    return found;
+                }
+
+                protected void done() {
+                    if (gen != searchGeneration)
+                        return;
+                    try {
+                        hits = get();
+                    } catch (Exception e) {
+                        statusLabel.setText("Search failed: " + e.getMessage());
+                        return;
+                    }
+                    hitModel.setRowCount(0);
+                    for (FileIndex.Hit h : hits)
+                        hitModel.addRow(new Object[]{h.filename, h.filepath, h.matches});
+                    listTabs.setSelectedIndex(1);
+                    statusLabel.setText(hits.size() + (hits.size() == MAX_SEARCH_HITS ? "+" : "") + " file"
+                            + (hits.size() == 1 ? "" : "s") + " contain \"" + query + "\" (" + millis + " ms)");
+                }
+            }.execute();
+        }
+
+        // The index lives outside the database (which is also recreated on every start), so it is
+        // rebuilt whenever it does not hold as many files as the table
+        private void checkIndex() {
+            new SwingWorker<Boolean, Void>() {
+                protected Boolean doInBackground() throws SQLException {
+                    return dbManager.countFiles("") != fileIndex.getDocumentCount();
+                }
+
+                protected void done() {
+                    try {
+                        if (get())
+                            rebuildIndex();
+                    } catch (Exception e) {
+                        // Not connected: the index keeps what it has
+                    }
+                }
+            }.execute();
+        }
+
+        private void rebuildIndex() {
+            if (indexing != null && !indexing.isDone())
+                return;
+            statusLabel.setText("Indexing database files...");
+            indexing = fileIndex.rebuild(dbManager::forEachFile);
+            Future<Integer> job = indexing;
+            new SwingWorker<Integer, Void>() {
+                protected Integer doInBackground() throws Exception {
+                    return job.get();
+                }
+
+                protected void done() {
+                    try {
+                        int n = get();
+                        statusLabel.setText("Indexed " + n + " file" + (n == 1 ? "" : "s"));
+                    } catch (Exception e) {
+                        Throwable cause = e.getCause() instanceof ExecutionException ? e.getCause().getCause() : e.getCause();
+                        statusLabel.setText("Indexing failed: " + (cause != null ? cause.getMessage() : e.getMessage()));
+                    }
+                }
+            }.execute();
+        }
+
+        // ---------- EXPORT ----------
+
+        // Writes every file in the table to disk, offering to go on after an export that stopped
+        private void exportFiles() {
+            Object[] options = {"To Stored Paths", "Into Folder...", "Cancel"};
+            int choice = JOptionPane.showOptionDialog(this, "Write the files in the database to disk:", "Export Files",
+                    JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[1]);
+            if (choice != 0 && choice != 1)
+                return;
+            File root = null;
+            if (choice == 1) {
+                JFileChooser chooser = new JFileChooser();
+                chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+                chooser.setDialogTitle("Export Into Folder");
+                if (chooser.showDialog(this, "Export") != JFileChooser.APPROVE_OPTION)
+                    return;
+                root = chooser.getSelectedFile();
+            } else if (JOptionPane.showConfirmDialog(this, "Files on disk at the stored paths will be overwritten.",
+                    "Export Files", JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE) != JOptionPane.OK_OPTION) {
+                return;
+            }
+
+            File checkpoint = FileExporter.checkpointFor(root);
+            boolean resume = false;
+            long after = FileExporter.checkpointedId(checkpoint, root);
+            if (after > 0) {
+                int answer = JOptionPane.showConfirmDialog(this, "An earlier export to this place stopped after file #" + after
+                        + ".\nGo on from there?", "Export Files", JOptionPane.YES_NO_CANCEL_OPTION);
+                if (answer == JOptionPane.CANCEL_OPTION || answer == JOptionPane.CLOSED_OPTION)
+                    return;
+                resume = answer == JOptionPane.YES_OPTION;
+            }
+
+            TransferProgressDialog[] dialog = new TransferProgressDialog[1];
+            FileExporter exporter = new FileExporter(dbManager, root, checkpoint, resume, error -> {
+                dialog[0].finished(error);
+                statusLabel.setText("Export " + (error == null ? "finished" : "stopped"));
+            });
+            dialog[0] = new TransferProgressDialog(this, exporter);
+            exporter.execute();
+            dialog[0].setVisible(true);
+        }
+
+        // Reads the preview (and for a search hit, looks up its row) on a worker; a preview
+        // overtaken by a newer selection is dropped
+        private void showFileContent() {
+            int gen = ++previewGeneration;
+            FileIndex.Hit hit = listTabs.getSelectedIndex() == 1 ? selectedHit() : null;
+            FileTableModel.Row listed = hit == null ? selectedRow() : null;
+            hitRow = null;
+            if (hit == null && listed == null) {
+                contentArea.setText("");
+                return;
+            }
+            new SwingWorker<String, Void>() {
+                FileTableModel.Row row = listed;
+
+                protected String doInBackground() throws SQLException {
+                    if (row == null)
+                        row = dbManager.findFile(hit.filename, hit.filepath);
+                    // Show first 1000 characters for preview
+                    return row != null ? dbManager.getContentPreview(row.id, 1000) : null;
+                }
+
+                protected void done() {
+                    if (gen != previewGeneration)
+                        return;
+                    String content;
+                    try {
+                        content = get();
+                    } catch (Exception e) {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        contentArea.setText("Error loading content: " + cause.getMessage());
+                        return;
+                    }
+                    if (hit != null)
+                        hitRow = row;
+                    if (content == null)
+                        content = "(no longer in the database)";
+                    else if (row.size > 1000)
+                        content = content + "\n\n... (truncated, full content has " + row.size + " characters)";
+                    contentArea.setText(content);
+                    contentArea.setCaretPosition(0);
+                }
+            }.execute();
+        }
+
+        private void openSelectedFile() {
+            FileTableModel.Row file = selectedRow();
+            if (file != null) {
+                // Ask user if they want to open this file
+                int choice = JOptionPane.showConfirmDialog(this, 
+                    "Open file: " + file.filename + "?", 
+                    "Open File", 
+                    JOptionPane.YES_NO_OPTION);
+                
+                if (choice == JOptionPane.YES_OPTION) {
+                    // Close this dialog and notify parent to open the file
+                    dispose();
+                    // You would need to implement a callback mechanism here
+                    JOptionPane.showMessageDialog(getOwner(), 
+                        "File opened: " + file.filename + "\n" +
+                        "Path: " + file.filepath + "\n" +
+                        "Size: " + file.size + " characters",
+                        "File Opened", JOptionPane.INFORMATION_MESSAGE);
+                }
+            } else {
+                JOptionPane.showMessageDialog(this, "Please select a file to open.", "No Selection", JOptionPane.WARNING_MESSAGE);
+            }
+        }
+
+        private void deleteSelectedFile() {
+            FileTableModel.Row file = selectedRow();
+            if (file != null) {
+                int choice = JOptionPane.showConfirmDialog(this, 
+                    "Delete file from database: " + file.filename + "?\n\n" +
+                    "This will only remove it from the database, not from your local storage.",
+                    "Delete File", 
+                    JOptionPane.YES_NO_OPTION);
+                
+                if (choice == JOptionPane.YES_OPTION) {
+                    // Implement delete functionality in DatabaseManager
+                    JOptionPane.showMessageDialog(this, "Delete functionality not implemented yet.", "Info", JOptionPane.INFORMATION_MESSAGE);
+                    loadFiles(); // Refresh the list
                 }
+            } else {
+                JOptionPane.showMessageDialog(this, "Please select a file to delete.", "No Selection", JOptionPane.WARNING_MESSAGE);
+            }
+        }
+
+
+        private void showDatabasePath() {
+            String message = "Oracle XE Database Information:\n\n" +
+                           "Connection URL: jdbc:oracle:thin:@localhost:1521:XE\n" +
+                           "Username: system\n" +
+                           "Schema: SYSTEM\n" +
+                           "Table: FILES\n\n" +
+                           "You can access this database with:\n" +
+                           "• SQL*Plus command line tool\n" +
+                           "• Oracle SQL Developer\n" +
+                           "• Any Oracle-compatible tool\n" +
+                           "• JDBC applications";
+            
+            JOptionPane.showMessageDialog(this, message, "Database Information", JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
+
+    // Remembers how many characters each edit carries, so the Editor MBean can tell how much text
+    // the undo history holds on to (about twice that in bytes, plus the edit objects themselves)
+    private static class SizedUndoManager extends UndoManager {
+        private final Map<UndoableEdit, Integer> sizes = new WeakHashMap<>();
+
+        synchronized boolean addEdit(UndoableEdit edit, int chars) {
+            boolean added = addEdit(edit);
+            if (added)
+                sizes.put(edit, chars);
+            return added;
+        }
+
+        synchronized long getTextBytes() {
+            long chars = 0;
+            for (UndoableEdit edit : edits) {
+                Integer n = sizes.get(edit);
+                if (n != null)
+                    chars += n;
             }
+            return 2 * chars;
         }
     }
 
-    private static class FindReplaceDialog extends JDialog {
-        private final JTextArea textArea;
-        private JTextField findField, replaceField;
-        private JButton findNextBtn, replaceBtn, replaceAllBtn;
+    private static class BufferMemoryDialog extends JDialog {
+        private final BufferPool pool;
+        private DefaultTableModel tableModel;
+        private JLabel totalsLabel;
 
-        public FindReplaceDialog(JFrame owner, JTextArea ta) {
-            super(owner, "Find / Replace", false);
-            textArea = ta;
+        public BufferMemoryDialog(JFrame owner, BufferPool pool) {
+            super(owner, "Buffer Memory", false);
+            this.pool = pool;
             init();
+            refresh();
         }
 
         private void init() {
-            setLayout(new GridBagLayout());
-            GridBagConstraints gbc = new GridBagConstraints();
-            gbc.insets = new Insets(4, 4, 4, 4);
-            gbc.fill = GridBagConstraints.HORIZONTAL;
+            setLayout(new BorderLayout());
+            setSize(640, 320);
+            setLocationRelativeTo(getOwner());
 
-            gbc.gridx = 0;
-            gbc.gridy = 0;
-            add(new JLabel("Find:"), gbc);
-            gbc.gridx = 1;
-            gbc.gridy = 0;
-            findField = new JTextField(20);
-            add(findField, gbc);
-            gbc.gridx = 0;
-            gbc.gridy = 1;
-            add(new JLabel("Replace:"), gbc);
-            gbc.gridx = 1;
-            gbc.gridy = 1;
-            replaceField = new JTextField(20);
-            add(replaceField, gbc);
+            String[] columns = {"Buffer", "State", "Characters", "Lines", "Heap (KB)", "Compressed (KB)"};
+            tableModel = new DefaultTableModel(columns, 0) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            };
+            JTable table = new JTable(tableModel);
+            add(new JScrollPane(table), BorderLayout.CENTER);
 
-            gbc.gridx = 0;
-            gbc.gridy = 2;
-            findNextBtn = new JButton("Find Next");
-            add(findNextBtn, gbc);
-            gbc.gridx = 1;
-            gbc.gridy = 2;
-            replaceBtn = new JButton("Replace");
-            add(replaceBtn, gbc);
-            gbc.gridx = 1;
-            gbc.gridy = 3;
-            replaceAllBtn = new JButton("Replace All");
-            add(replaceAllBtn, gbc);
+            totalsLabel = new JLabel();
+            totalsLabel.setBorder(new EmptyBorder(6, 8, 6, 8));
+            add(totalsLabel, BorderLayout.NORTH);
 
-            findNextBtn.addActionListener(e -> findNext());
-            replaceBtn.addActionListener(e -> replace());
-            replaceAllBtn.addActionListener(e -> replaceAll());
+            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            JButton refreshBtn = new JButton("Refresh");
+            JButton closeBtn = new JButton("Close");
+            refreshBtn.addActionListener(e -> refresh());
+            closeBtn.addActionListener(e -> dispose());
+            bottomPanel.add(refreshBtn);
+            bottomPanel.add(closeBtn);
+            add(bottomPanel, BorderLayout.SOUTH);
+        }
 
-            pack();
+        private void refresh() {
+            tableModel.setRowCount(0);
+            for (BufferPool.Entry entry : pool.getEntries()) {
+                Object[] row = {
+                    entry.getBuffer().getName() + (entry.getBuffer().isActive() ? " (active)" : ""),
+                    entry.getState(),
+                    entry.getChars(),
+                    entry.getLines(),
+                    entry.getHeapBytes() / 1024,
+                    entry.getCompressedSize() / 1024
+                };
+                tableModel.addRow(row);
+            }
+            File swap = pool.getSwapFile();
+            totalsLabel.setText("Heap used by buffers: " + (pool.getTotalHeapBytes() >> 20) + " MB of "
+                    + (pool.getBudgetBytes() >> 20) + " MB budget"
+                    + (swap != null ? "   Swap file: " + swap.getAbsolutePath() + " (" + (swap.length() >> 10) + " KB)" : ""));
+        }
+    }
+
+    // Latency percentiles and captured stalls from the EdtMonitor, refreshed every second
+    private static class EdtDiagnosticsDialog extends JDialog {
+        private final EdtMonitor monitor;
+        private final Timer refreshTimer;
+        private DefaultTableModel tableModel;
+        private JTextArea stallsArea;
+        private long stallsShown = -1;
+
+        public EdtDiagnosticsDialog(JFrame owner, EdtMonitor monitor) {
+            super(owner, "Responsiveness", false);
+            this.monitor = monitor;
+            init();
+            refresh();
+            refreshTimer = new Timer(1000, e -> refresh());
+            refreshTimer.start();
+        }
+
+        private void init() {
+            setLayout(new BorderLayout());
+            setSize(760, 480);
+            setLocationRelativeTo(getOwner());
+            addWindowListener(new WindowAdapter() {
+                public void windowClosed(WindowEvent e) {
+                    refreshTimer.stop();
+                }
+            });
+
+            String[] columns = {"Measure (ms)", "Count", "Mean", "p50", "p90", "p99", "p99.9", "Max"};
+            tableModel = new DefaultTableModel(columns, 0) {
+                @Override
+                public boolean isCellEditable(int row, int column) {
+                    return false;
+                }
+            };
+            JTable table = new JTable(tableModel);
+            JScrollPane tableScroll = new JScrollPane(table);
+            tableScroll.setPreferredSize(new Dimension(0, 90));
+            add(tableScroll, BorderLayout.NORTH);
+
+            stallsArea = new JTextArea();
+            stallsArea.setEditable(false);
+            stallsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JScrollPane stallsScroll = new JScrollPane(stallsArea);
+            stallsScroll.setBorder(BorderFactory.createTitledBorder("Stalls over " + EdtMonitor.STALL_MS + " ms"));
+            add(stallsScroll, BorderLayout.CENTER);
+
+            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            JButton resetBtn = new JButton("Reset");
+            JButton saveBtn = new JButton("Save Report...");
+            JButton closeBtn = new JButton("Close");
+            resetBtn.addActionListener(e -> {
+                monitor.reset();
+                refresh();
+            });
+            saveBtn.addActionListener(e -> saveReport());
+            closeBtn.addActionListener(e -> dispose());
+            bottomPanel.add(resetBtn);
+            bottomPanel.add(saveBtn);
+            bottomPanel.add(closeBtn);
+            add(bottomPanel, BorderLayout.SOUTH);
+        }
+
+        private void refresh() {
+            tableModel.setRowCount(0);
+            for (LatencyHistogram h : monitor.getHistograms()) {
+                Object[] row = {
+                    h.getName(),
+                    h.getCount(),
+                    EdtMonitor.millis((long) h.getMeanMicros()),
+                    EdtMonitor.millis(h.getPercentileMicros(50)),
+                    EdtMonitor.millis(h.getPercentileMicros(90)),
+                    EdtMonitor.millis(h.getPercentileMicros(99)),
+                    EdtMonitor.millis(h.getPercentileMicros(99.9)),
+                    EdtMonitor.millis(h.getMaxMicros())
+                };
+                tableModel.addRow(row);
+            }
+            // Rewriting the text every second would keep resetting the scroll position
+            long shown = 0;
+            for (EdtMonitor.Stall st : monitor.getStalls())
+                shown = shown * 31 + st.when + st.millis;
+            if (shown != stallsShown) {
+                stallsShown = shown;
+                StringWriter sw = new StringWriter();
+                monitor.writeStalls(new PrintWriter(sw));
+                stallsArea.setText(sw.toString());
+                stallsArea.setCaretPosition(0);
+            }
+        }
+
+        private void saveReport() {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new File("edt-report.txt"));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+                return;
+            try (PrintWriter out = new PrintWriter(new FileWriter(chooser.getSelectedFile(), StandardCharsets.UTF_8))) {
+                monitor.writeReport(out);
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not save report:\n" + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    // Read-only hex view of a file; Go jumps to an offset and Find Next searches the bytes on a
+    // worker, so the file is never read in whole
+    private static class HexViewDialog extends JDialog {
+        private final HexView view;
+        private JTextField offsetField, findField;
+        private JRadioButton hexPattern;
+        private JButton findBtn;
+        private JLabel positionLabel;
+        private SwingWorker<Long, Void> search;
+
+        public HexViewDialog(JFrame owner, File file, HexView view) {
+            super(owner, file.getName() + " (" + view.getFileSize() + " bytes)", false);
+            this.view = view;
+            init();
+        }
+
+        private void init() {
+            setLayout(new BorderLayout());
+            setSize(900, 650);
             setLocationRelativeTo(getOwner());
+            setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+            JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            offsetField = new JTextField(12);
+            offsetField.setToolTipText("Decimal, or hex with 0x in front");
+            offsetField.addActionListener(e -> goToOffset());
+            JButton goBtn = new JButton("Go");
+            goBtn.addActionListener(e -> goToOffset());
+            findField = new JTextField(18);
+            findField.addActionListener(e -> findNext());
+            hexPattern = new JRadioButton("Hex", true);
+            JRadioButton textPattern = new JRadioButton("Text");
+            ButtonGroup patternKind = new ButtonGroup();
+            patternKind.add(hexPattern);
+            patternKind.add(textPattern);
+            findBtn = new JButton("Find Next");
+            findBtn.addActionListener(e -> findNext());
+            positionLabel = new JLabel(" ");
+            topPanel.add(new JLabel("Offset:"));
+            topPanel.add(offsetField);
+            topPanel.add(goBtn);
+            topPanel.add(new JSeparator(SwingConstants.VERTICAL));
+            topPanel.add(new JLabel("Find:"));
+            topPanel.add(findField);
+            topPanel.add(hexPattern);
+            topPanel.add(textPattern);
+            topPanel.add(findBtn);
+            add(topPanel, BorderLayout.NORTH);
+
+            JPanel center = new JPanel(new BorderLayout());
+            center.add(view, BorderLayout.CENTER);
+            center.add(view.getScrollBar(), BorderLayout.EAST);
+            add(center, BorderLayout.CENTER);
+
+            JPanel bottomPanel = new JPanel(new BorderLayout());
+            bottomPanel.add(positionLabel, BorderLayout.WEST);
+            JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            JButton closeBtn = new JButton("Close");
+            closeBtn.addActionListener(e -> dispose());
+            buttons.add(closeBtn);
+            bottomPanel.add(buttons, BorderLayout.EAST);
+            add(bottomPanel, BorderLayout.SOUTH);
+
+            view.setSelectionListener(() -> {
+                long at = view.getSelectionStart();
+                positionLabel.setText("  Offset 0x" + Long.toHexString(at).toUpperCase() + " (" + at + ")"
+                        + (view.getSelectionLength() > 1 ? ", " + view.getSelectionLength() + " bytes" : ""));
+            });
+            positionLabel.setText("  " + view.getFileSize() + " bytes");
+        }
+
+        private void goToOffset() {
+            String s = offsetField.getText().trim().replace("_", "");
+            long offset;
+            try {
+                offset = s.startsWith("0x") || s.startsWith("0X") ? Long.parseLong(s.substring(2), 16) : Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                positionLabel.setText("  Not an offset: " + s);
+                return;
+            }
+            if (offset < 0 || offset >= view.getFileSize()) {
+                positionLabel.setText("  Past the end of the file (" + view.getFileSize() + " bytes)");
+                return;
+            }
+            view.select(offset, 1);
+            view.requestFocusInWindow();
+        }
+
+        // Hex digits (spaces allowed between bytes), or text as UTF-8; null if not valid hex
+        private byte[] pattern() {
+            String s = findField.getText();
+            if (!hexPattern.isSelected())
+                return s.getBytes(StandardCharsets.UTF_8);
+            String digits = s.replaceAll("\\s+", "");
+            if (digits.length() % 2 != 0 || !digits.matches("[0-9A-Fa-f]*"))
+                return null;
+            byte[] bytes = new byte[digits.length() / 2];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = (byte) Integer.parseInt(digits.substring(2 * i, 2 * i + 2), 16);
+            return bytes;
         }
 
+        // Searches on from just after the selection; the button stops a search that is running
         private void findNext() {
-            String find = findField.getText();
-            if (find.isEmpty())
+            if (search != null) {
+                search.cancel(false);
                 return;
-            int start = textArea.getCaretPosition();
-            String text = textArea.getText();
-            int idx = text.indexOf(find, start);
-            if (idx < 0)
-                idx = text.indexOf(find, 0);
-            if (idx >= 0) {
-                textArea.setSelectionStart(idx);
-                textArea.setSelectionEnd(idx + find.length());
-                textArea.requestFocus();
-            } else
-                JOptionPane.showMessageDialog(this, "Text not found!");
+            }
+            byte[] pattern = pattern();
+            if (pattern == null || pattern.length == 0) {
+                positionLabel.setText(pattern == null ? "  Hex bytes like 4D 5A 90 00" : " ");
+                return;
+            }
+            long from = view.getSelectionStart() + 1;
+            findBtn.setText("Stop");
+            positionLabel.setText("  Searching...");
+            search = new SwingWorker<Long, Void>() {
+                protected Long doInBackground() throws IOException {
+                    return view.find(pattern, from, this::isCancelled);
+                }
+
+                protected void done() {
+                    search = null;
+                    findBtn.setText("Find Next");
+                    if (isCancelled()) {
+                        positionLabel.setText("  Search stopped");
+                        return;
+                    }
+                    try {
+                        long at = get();
+                        if (at >= 0)
+                            view.select(at, pattern.length);
+                        else
+                            positionLabel.setText("  Not found" + (from > 0 ? " after offset " + (from - 1) : ""));
+                    } catch (InterruptedException | ExecutionException e) {
+                        positionLabel.setText("  Search failed: " + (e.getCause() != null ? e.getCause().getMessage() : e));
+                    }
+                }
+            };
+            search.execute();
         }
 
-        private void replace() {
-            if (textArea.getSelectedText() != null && !textArea.getSelectedText().isEmpty()) {
-                textArea.replaceSelection(replaceField.getText());
+        public void dispose() {
+            if (search != null)
+                search.cancel(false);
+            try {
+                view.close();
+            } catch (IOException ignored) {
             }
-            findNext();
+            super.dispose();
+        }
+    }
+
+    // The stored version on the left, the editor's on the right, with unchanged runs folded
+    private static class CompareDialog extends JDialog {
+        private final DiffView view;
+        private final List<LineDiff.LineHunk> hunks;
+        private JLabel positionLabel;
+        private int current = -1;
+
+        public CompareDialog(JFrame owner, String title, DiffView view, List<LineDiff.LineHunk> hunks) {
+            super(owner, title, false);
+            this.view = view;
+            this.hunks = hunks;
+            init();
+        }
+
+        private void init() {
+            setLayout(new BorderLayout());
+            setSize(1100, 700);
+            setLocationRelativeTo(getOwner());
+
+            JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+            JButton prevBtn = new JButton("Previous Change");
+            JButton nextBtn = new JButton("Next Change");
+            prevBtn.addActionListener(e -> step(-1));
+            nextBtn.addActionListener(e -> step(1));
+            prevBtn.setEnabled(!hunks.isEmpty());
+            nextBtn.setEnabled(!hunks.isEmpty());
+            long removed = 0, added = 0;
+            for (LineDiff.LineHunk h : hunks) {
+                removed += h.oldCount;
+                added += h.newCount;
+            }
+            positionLabel = new JLabel(" ");
+            topPanel.add(prevBtn);
+            topPanel.add(nextBtn);
+            topPanel.add(new JSeparator(SwingConstants.VERTICAL));
+            topPanel.add(new JLabel(hunks.isEmpty() ? "No differences"
+                    : hunks.size() + " change" + (hunks.size() == 1 ? "" : "s") + ": " + removed + " line"
+                    + (removed == 1 ? "" : "s") + " removed, " + added + " added"));
+            topPanel.add(positionLabel);
+            add(topPanel, BorderLayout.NORTH);
+
+            JScrollPane scrollPane = new JScrollPane(view);
+            scrollPane.getVerticalScrollBar().setUnitIncrement(16);
+            add(scrollPane, BorderLayout.CENTER);
+
+            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            JButton closeBtn = new JButton("Close");
+            closeBtn.addActionListener(e -> dispose());
+            bottomPanel.add(closeBtn);
+            add(bottomPanel, BorderLayout.SOUTH);
+
+            if (!hunks.isEmpty())
+                SwingUtilities.invokeLater(() -> step(1));
+        }
+
+        private void step(int direction) {
+            int n = view.getChangeCount();
+            if (n == 0)
+                return;
+            current = Math.max(0, Math.min(n - 1, current + direction));
+            view.showChange(current);
+            positionLabel.setText("(" + (current + 1) + " of " + n + ")");
+        }
+    }
+
+    // Find in Files: the search runs on a FileSearcher; matching lines are listed as they come in,
+    // and double-clicking one (or Enter) opens the file at that line
+    private static class FindInFilesDialog extends JDialog {
+        private final TextEditor editor;
+        private FileSearcher searcher;
+        private final Timer refreshTimer;
+        private JTextField findField, folderField, includeField, excludeField;
+        private JCheckBox matchCaseBox, regexBox;
+        private JButton findBtn, cancelBtn;
+        private DefaultListModel<FileSearcher.Match> results;
+        private JList<FileSearcher.Match> resultList;
+        private JLabel statusLabel;
+
+        public FindInFilesDialog(TextEditor editor) {
+            super(editor, "Find in Files", false);
+            this.editor = editor;
+            init();
+            refreshTimer = new Timer(250, e -> refresh());
+        }
+
+        private void init() {
+            setLayout(new BorderLayout());
+            setSize(800, 560);
+            setLocationRelativeTo(getOwner());
+            setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+            addWindowListener(new WindowAdapter() {
+                public void windowClosing(WindowEvent e) {
+                    cancelSearch();
+                    setVisible(false);
+                }
+            });
+
+            JPanel form = new JPanel(new GridBagLayout());
+            form.setBorder(new EmptyBorder(8, 8, 4, 8));
+            GridBagConstraints gbc = new GridBagConstraints();
+            gbc.insets = new Insets(3, 4, 3, 4);
+            gbc.fill = GridBagConstraints.HORIZONTAL;
+
+            findField = new JTextField(30);
+            folderField = new JTextField(System.getProperty("user.dir"), 30);
+            includeField = new JTextField(30);
+            includeField.setToolTipText("Globs such as *.java, *.txt; empty for all files");
+            excludeField = new JTextField(".git, .svn, node_modules, target, build, *.class, *.jar", 30);
+            JButton browseBtn = new JButton("Browse...");
+            browseBtn.addActionListener(e -> chooseFolder());
+            matchCaseBox = new JCheckBox("Match case");
+            regexBox = new JCheckBox("Regular expression");
+
+            addRow(form, gbc, 0, "Find:", findField, null);
+            addRow(form, gbc, 1, "In folder:", folderField, browseBtn);
+            addRow(form, gbc, 2, "Include:", includeField, null);
+            addRow(form, gbc, 3, "Exclude:", excludeField, null);
+            JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+            options.add(matchCaseBox);
+            options.add(regexBox);
+            gbc.gridx = 1;
+            gbc.gridy = 4;
+            gbc.weightx = 1;
+            form.add(options, gbc);
+            add(form, BorderLayout.NORTH);
+
+            results = new DefaultListModel<>();
+            resultList = new JList<>(results);
+            resultList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            resultList.setPrototypeCellValue(new FileSearcher.Match(new File("x"), 1, 0, "x")); // fixed row height
+            resultList.setCellRenderer(new DefaultListCellRenderer() {
+                public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean selected, boolean focus) {
+                    FileSearcher.Match m = (FileSearcher.Match) value;
+                    return super.getListCellRendererComponent(list, displayPath(m.file) + ":" + m.line + ":  " + m.text.strip(),
+                            index, selected, focus);
+                }
+            });
+            resultList.addMouseListener(new MouseAdapter() {
+                public void mouseClicked(MouseEvent e) {
+                    if (e.getClickCount() == 2)
+                        openSelected();
+                }
+            });
+            resultList.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "openMatch");
+            resultList.getActionMap().put("openMatch", new AbstractAction() {
+                public void actionPerformed(ActionEvent e) {
+                    openSelected();
+                }
+            });
+            JScrollPane scroll = new JScrollPane(resultList);
+            scroll.setBorder(BorderFactory.createTitledBorder("Results"));
+            add(scroll, BorderLayout.CENTER);
+
+            JPanel bottomPanel = new JPanel(new BorderLayout());
+            statusLabel = new JLabel(" ");
+            statusLabel.setBorder(new EmptyBorder(0, 10, 0, 0));
+            JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            findBtn = new JButton("Find");
+            cancelBtn = new JButton("Cancel");
+            JButton closeBtn = new JButton("Close");
+            cancelBtn.setEnabled(false);
+            findBtn.addActionListener(e -> startSearch());
+            cancelBtn.addActionListener(e -> cancelSearch());
+            closeBtn.addActionListener(e -> {
+                cancelSearch();
+                setVisible(false);
+            });
+            buttons.add(findBtn);
+            buttons.add(cancelBtn);
+            buttons.add(closeBtn);
+            bottomPanel.add(statusLabel, BorderLayout.CENTER);
+            bottomPanel.add(buttons, BorderLayout.EAST);
+            add(bottomPanel, BorderLayout.SOUTH);
+            getRootPane().setDefaultButton(findBtn);
+        }
+
+        private static void addRow(JPanel form, GridBagConstraints gbc, int row, String label, JComponent field, JComponent extra) {
+            gbc.gridx = 0;
+            gbc.gridy = row;
+            gbc.weightx = 0;
+            form.add(new JLabel(label), gbc);
+            gbc.gridx = 1;
+            gbc.weightx = 1;
+            form.add(field, gbc);
+            if (extra != null) {
+                gbc.gridx = 2;
+                gbc.weightx = 0;
+                form.add(extra, gbc);
+            }
+        }
+
+        // Starts from the text selected in the editor, if it is on one line
+        void showFor(String selection) {
+            if (selection != null && !selection.isEmpty() && selection.indexOf('\n') < 0)
+                findField.setText(selection);
+            setVisible(true);
+            findField.requestFocusInWindow();
+            findField.selectAll();
+        }
+
+        private void chooseFolder() {
+            JFileChooser chooser = new JFileChooser(folderField.getText());
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION)
+                folderField.setText(chooser.getSelectedFile().getAbsolutePath());
         }
 
-        private void replaceAll() {
-            String find = findField.getText();
-            String replace = replaceField.getText();
-            textArea.setText(textArea.getText().replace(find, replace));
+        private String displayPath(File f) {
+            String root = new File(folderField.getText().trim()).getAbsolutePath();
+            String path = f.getAbsolutePath();
+            return path.startsWith(root + File.separator) ? path.substring(root.length() + 1) : path;
         }
-    }
 
-    private static class DatabaseFileSelector extends JDialog {
-        private DatabaseFile selectedFile;
-        private JList<DatabaseFile> fileList;
+        private void startSearch() {
+            String find = findField.getText();
+            File folder = new File(folderField.getText().trim());
+            if (find.isEmpty())
+                return;
+            if (!folder.isDirectory()) {
+                JOptionPane.showMessageDialog(this, "Not a folder: " + folder, "Find in Files", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            cancelSearch();
+            FileSearcher s;
+            try {
+                s = new FileSearcher(folder, find, regexBox.isSelected(), matchCaseBox.isSelected(),
+                        includeField.getText(), excludeField.getText(), new FileSearcher.Listener() {
+                            public void found(List<FileSearcher.Match> matches) {
+                                for (FileSearcher.Match m : matches)
+                                    results.addElement(m);
+                            }
+
+                            public void finished(String error) {
+                                searchFinished(error);
+                            }
+                        });
+            } catch (IllegalArgumentException e) { // PatternSyntaxException included
+                JOptionPane.showMessageDialog(this, e.getMessage(), "Find in Files", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            results.clear();
+            searcher = s;
+            findBtn.setEnabled(false);
+            cancelBtn.setEnabled(true);
+            refreshTimer.start();
+            s.execute();
+        }
 
-        public DatabaseFileSelector(JFrame owner, List<DatabaseFile> files) {
-            super(owner, "Select File from Database", true);
-            init(files);
+        private void cancelSearch() {
+            if (searcher != null && !searcher.isDone())
+                searcher.cancel(false);
         }
 
-        private void init(List<DatabaseFile> files) {
-            setLayout(new BorderLayout());
-            
-            DefaultListModel<DatabaseFile> model = new DefaultListModel<>();
-            for (DatabaseFile file : files) {
-                model.addElement(file);
-            }
-            
-            fileList = new JList<>(model);
-            fileList.setCellRenderer(new DatabaseFileRenderer());
-            fileList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-            
-            JScrollPane scrollPane = new JScrollPane(fileList);
-            add(scrollPane, BorderLayout.CENTER);
-            
-            JPanel buttonPanel = new JPanel(new FlowLayout());
-            JButton openBtn = new JButton("Open");
-            JButton cancelBtn = new JButton("Cancel");
-            
-            openBtn.addActionListener(e -> {
-                selectedFile = fileList.getSelectedValue();
-                dispose();
-            });
-            
-            cancelBtn.addActionListener(e -> {
-                selectedFile = null;
-                dispose();
-            });
-            
-            buttonPanel.add(openBtn);
-            buttonPanel.add(cancelBtn);
-            add(buttonPanel, BorderLayout.SOUTH);
-            
-            setSize(500, 300);
-            setLocationRelativeTo(getOwner());
+        private void searchFinished(String error) {
+            refreshTimer.stop();
+            refresh();
+            findBtn.setEnabled(true);
+            cancelBtn.setEnabled(false);
+            if (error != null)
+                JOptionPane.showMessageDialog(this, error, "Find in Files", JOptionPane.ERROR_MESSAGE);
         }
 
-        public DatabaseFile getSelectedFile() {
-            return selectedFile;
+        private void refresh() {
+            FileSearcher s = searcher;
+            if (s == null)
+                return;
+            double secs = Math.max(s.getElapsedNanos() / 1e9, 1e-9);
+            double mb = s.getBytesScanned() / (1024.0 * 1024.0);
+            String state = s.isCancelled() ? "Cancelled: " : s.isDone() ? "" : "Searching... ";
+            statusLabel.setText(state + s.getMatchCount() + " matching line" + (s.getMatchCount() == 1 ? "" : "s")
+                    + (s.isTruncated() ? " (stopped at " + FileSearcher.MAX_MATCHES + ")" : "")
+                    + " in " + s.getFilesMatched() + " of " + s.getFilesScanned() + " files"
+                    + (s.getFilesSkipped() > 0 ? ", " + s.getFilesSkipped() + " skipped" : "")
+                    + String.format(", %.1f MB in %.1f s", mb, secs));
         }
-    }
 
-    private static class DatabaseFileRenderer extends DefaultListCellRenderer {
-        @Override
-        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
-            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-            
-            if (value instanceof DatabaseFile) {
-                DatabaseFile file = (DatabaseFile) value;
-                setText("<html><b>" + file.getFileName() + "</b><br>" +
-                       "<font size='2'>" + file.getFilePath() + "<br>" +
-                       "Modified: " + file.getLastModified() + " | Size: " + file.getContent().length() + " chars</font></html>");
-            }
-            
-            return this;
+        private void openSelected() {
+            FileSearcher.Match m = resultList.getSelectedValue();
+            if (m != null)
+                editor.openFileAt(m.file, m.line);
         }
     }
 
-    private static class DatabaseManagerDialog extends JDialog {
+    // Find and replace across the database: Preview counts the matches per file without writing,
+    // Replace All writes the changes back through a DatabaseReplacer
+    private static class DatabaseReplaceDialog extends JDialog {
         private final DatabaseManager dbManager;
-        private JTable fileTable;
-        private DefaultTableModel tableModel;
-        private JTextArea contentArea;
+        private DatabaseReplacer replacer;
+        private final Timer refreshTimer;
+        private JTextField findField, replaceField;
+        private JCheckBox matchCaseBox, regexBox;
+        private JButton previewBtn, replaceBtn, cancelBtn;
+        private DefaultTableModel resultModel;
         private JLabel statusLabel;
 
-        public DatabaseManagerDialog(JFrame owner, DatabaseManager dbManager) {
-            super(owner, "Oracle XE Database Manager", true);
+        public DatabaseReplaceDialog(JFrame owner, DatabaseManager dbManager) {
+            super(owner, "Replace in Database", false);
             this.dbManager = dbManager;
             init();
-            loadFiles();
+            refreshTimer = new Timer(250, e -> refresh());
         }
 
         private void init() {
             setLayout(new BorderLayout());
-            setSize(800, 600);
+            setSize(760, 520);
             setLocationRelativeTo(getOwner());
+            setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+            addWindowListener(new WindowAdapter() {
+                public void windowClosing(WindowEvent e) {
+                    cancelOrClose();
+                }
+            });
 
-            // Top panel with buttons
-            JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-            JButton refreshBtn = new JButton("Refresh");
-            JButton openBtn = new JButton("Open File");
-            JButton deleteBtn = new JButton("Delete File");
-            JButton showDbPathBtn = new JButton("Show DB Info");
-
-            refreshBtn.addActionListener(e -> loadFiles());
-            openBtn.addActionListener(e -> openSelectedFile());
-            deleteBtn.addActionListener(e -> deleteSelectedFile());
-            showDbPathBtn.addActionListener(e -> showDatabasePath());
-
-            topPanel.add(refreshBtn);
-            topPanel.add(openBtn);
-            topPanel.add(deleteBtn);
-            topPanel.add(showDbPathBtn);
-
-            // Status label
-            statusLabel = new JLabel("Ready");
-            topPanel.add(new JSeparator(SwingConstants.VERTICAL));
-            topPanel.add(statusLabel);
-
-            add(topPanel, BorderLayout.NORTH);
-
-            // Split pane for table and content
-            JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT);
-            splitPane.setDividerLocation(400);
+            JPanel form = new JPanel(new GridBagLayout());
+            form.setBorder(new EmptyBorder(8, 8, 4, 8));
+            GridBagConstraints gbc = new GridBagConstraints();
+            gbc.insets = new Insets(3, 4, 3, 4);
+            gbc.fill = GridBagConstraints.HORIZONTAL;
+            findField = new JTextField(30);
+            replaceField = new JTextField(30);
+            matchCaseBox = new JCheckBox("Match case", true);
+            regexBox = new JCheckBox("Regular expression");
+            regexBox.setToolTipText("The replacement may refer to groups as $1, $2, ...");
+            gbc.gridx = 0;
+            gbc.gridy = 0;
+            form.add(new JLabel("Find:"), gbc);
+            gbc.gridx = 1;
+            gbc.weightx = 1;
+            form.add(findField, gbc);
+            gbc.gridx = 0;
+            gbc.gridy = 1;
+            gbc.weightx = 0;
+            form.add(new JLabel("Replace with:"), gbc);
+            gbc.gridx = 1;
+            gbc.weightx = 1;
+            form.add(replaceField, gbc);
+            JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+            options.add(matchCaseBox);
+            options.add(regexBox);
+            gbc.gridy = 2;
+            form.add(options, gbc);
+            add(form, BorderLayout.NORTH);
 
-            // File table
-            String[] columns = {"ID", "Filename", "Path", "Size", "Last Modified"};
-            tableModel = new DefaultTableModel(columns, 0) {
-                @Override
+            resultModel = new DefaultTableModel(new String[]{"ID", "Filename", "Path", "Matches", "Status"}, 0) {
                 public boolean isCellEditable(int row, int column) {
                     return false;
                 }
             };
-            fileTable = new JTable(tableModel);
-            fileTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-            fileTable.getSelectionModel().addListSelectionListener(e -> {
-                if (!e.getValueIsAdjusting()) {
-                    showFileContent();
-                }
-            });
-
-            JScrollPane tableScrollPane = new JScrollPane(fileTable);
-            tableScrollPane.setBorder(BorderFactory.createTitledBorder("Files in Database"));
-            splitPane.setLeftComponent(tableScrollPane);
-
-            // Content area
-            contentArea = new JTextArea();
-            contentArea.setEditable(false);
-            contentArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
-            contentArea.setBorder(BorderFactory.createTitledBorder("File Content Preview"));
-            JScrollPane contentScrollPane = new JScrollPane(contentArea);
-            splitPane.setRightComponent(contentScrollPane);
-
-            add(splitPane, BorderLayout.CENTER);
-
-            // Bottom panel
-            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
-            JButton closeBtn = new JButton("Close");
-            closeBtn.addActionListener(e -> dispose());
-            bottomPanel.add(closeBtn);
+            JTable resultTable = new JTable(resultModel);
+            resultTable.setAutoCreateRowSorter(true);
+            JScrollPane scroll = new JScrollPane(resultTable);
+            scroll.setBorder(BorderFactory.createTitledBorder("Files with Matches"));
+            add(scroll, BorderLayout.CENTER);
+
+            JPanel bottomPanel = new JPanel(new BorderLayout());
+            statusLabel = new JLabel(" ");
+            statusLabel.setBorder(new EmptyBorder(0, 10, 0, 0));
+            JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            previewBtn = new JButton("Preview");
+            replaceBtn = new JButton("Replace All");
+            cancelBtn = new JButton("Close");
+            previewBtn.addActionListener(e -> start(true));
+            replaceBtn.addActionListener(e -> start(false));
+            cancelBtn.addActionListener(e -> cancelOrClose());
+            buttons.add(previewBtn);
+            buttons.add(replaceBtn);
+            buttons.add(cancelBtn);
+            bottomPanel.add(statusLabel, BorderLayout.CENTER);
+            bottomPanel.add(buttons, BorderLayout.EAST);
             add(bottomPanel, BorderLayout.SOUTH);
+            getRootPane().setDefaultButton(previewBtn);
         }
 
-        private void loadFiles() {
+        private void start(boolean dryRun) {
+            String find = findField.getText();
+            if (find.isEmpty())
+                return;
+            if (!dryRun) {
+                int choice = JOptionPane.showConfirmDialog(this,
+                        "Replace every match of \"" + find + "\" in all files stored in the database?\n"
+                                + "Changes are committed in batches of " + DatabaseReplacer.BATCH_SIZE + " files and cannot be undone.",
+                        "Replace in Database", JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
+                if (choice != JOptionPane.OK_OPTION)
+                    return;
+            }
+            DatabaseReplacer r;
             try {
-                tableModel.setRowCount(0);
-                List<DatabaseFile> files = dbManager.getAllFiles();
-                
-                for (DatabaseFile file : files) {
-                    Object[] row = {
-                        files.indexOf(file) + 1,
-                        file.getFileName(),
-                        file.getFilePath(),
-                        file.getContent().length() + " chars",
-                        file.getLastModified()
-                    };
-                    tableModel.addRow(row);
-                }
-                
-                statusLabel.setText("Loaded " + files.size() + " files");
-            } catch (Exception e) {
-                statusLabel.setText("Error loading files: " + e.getMessage());
-                JOptionPane.showMessageDialog(this, "Error loading files: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                r = new DatabaseReplacer(dbManager, find, replaceField.getText(), regexBox.isSelected(), matchCaseBox.isSelected(),
+                        dryRun, new DatabaseReplacer.Listener() {
+                            public void found(List<DatabaseReplacer.FileResult> files) {
+                                for (DatabaseReplacer.FileResult f : files)
+                                    resultModel.addRow(new Object[]{f.id, f.filename, f.filepath, f.matches, statusText(f.status)});
+                            }
+
+                            public void finished(String error) {
+                                runFinished(error);
+                            }
+                        });
+            } catch (IllegalArgumentException e) {
+                JOptionPane.showMessageDialog(this, e.getMessage(), "Replace in Database", JOptionPane.ERROR_MESSAGE);
+                return;
             }
+            resultModel.setRowCount(0);
+            replacer = r;
+            previewBtn.setEnabled(false);
+            replaceBtn.setEnabled(false);
+            cancelBtn.setText("Cancel");
+            refreshTimer.start();
+            r.execute();
         }
 
-        private void showFileContent() {
-            int selectedRow = fileTable.getSelectedRow();
-            if (selectedRow >= 0) {
-                try {
-                    List<DatabaseFile> files = dbManager.getAllFiles();
-                    if (selectedRow < files.size()) {
-                        DatabaseFile file = files.get(selectedRow);
-                        String content = file.getContent();
-                        
-                        // Show first 1000 characters for preview
-                        if (content.length() > 1000) {
-                            content = content.substring(0, 1000) + "\n\n... (truncated, full content has " + content.length() + " characters)";
-                        }
-                        
-                        contentArea.setText(content);
-                        contentArea.setCaretPosition(0);
-                    }
-                } catch (Exception e) {
-                    contentArea.setText("Error loading content: " + e.getMessage());
-                }
-            } else {
-                contentArea.setText("");
+        private static String statusText(DatabaseReplacer.Status status) {
+            switch (status) {
+                case REPLACED: return "Replaced";
+                case CONFLICT: return "Skipped: changed meanwhile";
+                default: return "";
             }
         }
 
-        private void openSelectedFile() {
-            int selectedRow = fileTable.getSelectedRow();
-            if (selectedRow >= 0) {
-                try {
-                    List<DatabaseFile> files = dbManager.getAllFiles();
-                    if (selectedRow < files.size()) {
-                        DatabaseFile file = files.get(selectedRow);
-                        
-                        // Ask user if they want to open this file
-                        int choice = JOptionPane.showConfirmDialog(this, 
-                            "Open file: " + file.getFileName() + "?", 
-                            "Open File", 
-                            JOptionPane.YES_NO_OPTION);
-                        
-                        if (choice == JOptionPane.YES_OPTION) {
-                            // Close this dialog and notify parent to open the file
-                            dispose();
-                            // You would need to implement a callback mechanism here
-                            JOptionPane.showMessageDialog(getOwner(), 
-                                "File opened: " + file.getFileName() + "\n" +
-                                "Path: " + file.getFilePath() + "\n" +
-                                "Size: " + file.getContent().length() + " characters",
-                                "File Opened", JOptionPane.INFORMATION_MESSAGE);
-                        }
-                    }
-                } catch (Exception e) {
-                    JOptionPane.showMessageDialog(this, "Error opening file: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                }
-            } else {
-                JOptionPane.showMessageDialog(this, "Please select a file to open.", "No Selection", JOptionPane.WARNING_MESSAGE);
+        private void cancelOrClose() {
+            if (replacer != null && !replacer.isDone())
+                replacer.cancel(false);
+            else
+                dispose();
+        }
+
+        private void runFinished(String error) {
+            refreshTimer.stop();
+            refresh();
+            previewBtn.setEnabled(true);
+            replaceBtn.setEnabled(true);
+            cancelBtn.setText("Close");
+            if (error != null)
+                JOptionPane.showMessageDialog(this, error, "Replace in Database", JOptionPane.ERROR_MESSAGE);
+        }
+
+        private void refresh() {
+            DatabaseReplacer r = replacer;
+            if (r == null)
+                return;
+            double secs = Math.max(r.getElapsedNanos() / 1e9, 1e-9);
+            double mb = 2 * r.getCharsScanned() / (1024.0 * 1024.0);
+            String state = r.isCancelled() ? "Cancelled: " : r.isDone() ? "" : r.isDryRun() ? "Counting... " : "Replacing... ";
+            StringBuilder text = new StringBuilder(state)
+                    .append(r.getMatchCount()).append(" match").append(r.getMatchCount() == 1 ? "" : "es")
+                    .append(" in ").append(r.getFilesMatched()).append(" of ").append(r.getRowsScanned()).append(" files read");
+            if (!r.isDryRun()) {
+                text.append(", ").append(r.getFilesWritten()).append(" written");
+                if (r.getConflicts() > 0)
+                    text.append(", ").append(r.getConflicts()).append(" skipped");
             }
+            text.append(String.format(", %.1f MB in %.1f s on %d threads", mb, secs, r.getThreads()));
+            statusLabel.setText(text.toString());
         }
+    }
 
-        private void deleteSelectedFile() {
-            int selectedRow = fileTable.getSelectedRow();
-            if (selectedRow >= 0) {
-                try {
-                    List<DatabaseFile> files = dbManager.getAllFiles();
-                    if (selectedRow < files.size()) {
-                        DatabaseFile file = files.get(selectedRow);
-                        
-                        int choice = JOptionPane.showConfirmDialog(this, 
-                            "Delete file from database: " + file.getFileName() + "?\n\n" +
-                            "This will only remove it from the database, not from your local storage.",
-                            "Delete File", 
-                            JOptionPane.YES_NO_OPTION);
-                        
-                        if (choice == JOptionPane.YES_OPTION) {
-                            // Implement delete functionality in DatabaseManager
-                            JOptionPane.showMessageDialog(this, "Delete functionality not implemented yet.", "Info", JOptionPane.INFORMATION_MESSAGE);
-                            loadFiles(); // Refresh the list
-                        }
-                    }
-                } catch (Exception e) {
-                    JOptionPane.showMessageDialog(this, "Error deleting file: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+    // Progress of an import into tabs or the database, or of an export to disk. Non-modal: the
+    // editor stays usable while the transfer runs
+    private static class TransferProgressDialog extends JDialog {
+        private final BulkProgress transfer;
+        private final Timer refreshTimer;
+        private JProgressBar progressBar;
+        private JLabel filesLabel, rateLabel;
+        private JButton cancelBtn;
+
+        public TransferProgressDialog(Window owner, BulkProgress transfer) {
+            super(owner, transfer.getTitle(), ModalityType.MODELESS);
+            this.transfer = transfer;
+            init();
+            refreshTimer = new Timer(250, e -> refresh());
+            refreshTimer.start();
+        }
+
+        private void init() {
+            setLayout(new BorderLayout());
+            setSize(460, 170);
+            setLocationRelativeTo(getOwner());
+            setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
+            addWindowListener(new WindowAdapter() {
+                public void windowClosing(WindowEvent e) {
+                    cancelOrClose();
                 }
-            } else {
-                JOptionPane.showMessageDialog(this, "Please select a file to delete.", "No Selection", JOptionPane.WARNING_MESSAGE);
-            }
+            });
+
+            JPanel center = new JPanel(new GridLayout(3, 1, 0, 6));
+            center.setBorder(new EmptyBorder(10, 10, 10, 10));
+            progressBar = new JProgressBar();
+            progressBar.setIndeterminate(true);
+            progressBar.setStringPainted(true);
+            filesLabel = new JLabel("Scanning...");
+            rateLabel = new JLabel(" ");
+            center.add(progressBar);
+            center.add(filesLabel);
+            center.add(rateLabel);
+            add(center, BorderLayout.CENTER);
+
+            JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+            cancelBtn = new JButton("Cancel");
+            cancelBtn.addActionListener(e -> cancelOrClose());
+            bottomPanel.add(cancelBtn);
+            add(bottomPanel, BorderLayout.SOUTH);
         }
 
+        private void cancelOrClose() {
+            if (transfer.isDone())
+                dispose();
+            else
+                transfer.cancel(false);
+        }
 
-        private void showDatabasePath() {
-            String message = "Oracle XE Database Information:\n\n" +
-                           "Connection URL: jdbc:oracle:thin:@localhost:1521:XE\n" +
-                           "Username: system\n" +
-                           "Schema: SYSTEM\n" +
-                           "Table: FILES\n\n" +
-                           "You can access this database with:\n" +
-                           "• SQL*Plus command line tool\n" +
-                           "• Oracle SQL Developer\n" +
-                           "• Any Oracle-compatible tool\n" +
-                           "• JDBC applications";
-            
-            JOptionPane.showMessageDialog(this, message, "Database Information", JOptionPane.INFORMATION_MESSAGE);
+        private void refresh() {
+            int total = transfer.getFilesTotal();
+            int done = transfer.getFilesDone();
+            if (total >= 0) {
+                progressBar.setIndeterminate(false);
+                progressBar.setMaximum(Math.max(total, 1));
+                progressBar.setValue(done);
+            }
+            double secs = Math.max(transfer.getElapsedNanos() / 1e9, 1e-9);
+            double mb = transfer.getBytesDone() / (1024.0 * 1024.0);
+            filesLabel.setText(done + (total >= 0 ? " of " + total : "") + " files, "
+                    + String.format("%.1f MB", mb)
+                    + (transfer.getFilesUnchanged() > 0 ? ", " + transfer.getFilesUnchanged() + " unchanged" : "")
+                    + (transfer.getFilesFailed() > 0 ? ", " + transfer.getFilesFailed() + " failed" : ""));
+            rateLabel.setText(String.format("%.1f files/s, %.1f MB/s on %d threads", done / secs, mb / secs, transfer.getThreads()));
+        }
+
+        void finished(String error) {
+            refreshTimer.stop();
+            refresh();
+            progressBar.setIndeterminate(false);
+            cancelBtn.setText("Close");
+            if (transfer.isCancelled()) {
+                progressBar.setString("Cancelled");
+            } else if (error != null) {
+                progressBar.setString("Failed");
+                JOptionPane.showMessageDialog(this, error, transfer.getTitle(), JOptionPane.ERROR_MESSAGE);
+            } else {
+                progressBar.setValue(progressBar.getMaximum());
+                progressBar.setString("Done");
+            }
         }
     }
 
@@ -1089,10 +3831,14 @@ public class TextEditor extends JFrame {
     }
 
     private void showDatabaseManager() {
-        new DatabaseManagerDialog(this, dbManager).setVisible(true);
+        new DatabaseManagerDialog(this, dbManager, fileIndex).setVisible(true);
     }
 
     public static void main(String[] args) {
+        Metrics.registerDefaults();
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(BatchRunner.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
         SwingUtilities.invokeLater(() -> new TextEditor().setVisible(true));
     }
 }
@@ -1285,169 +4031,3 @@ class ColorThemeSelectorDialog extends JDialog {
         return selectedScheme;
     }
 }
-
-// Database-related classes
-class DatabaseManager {
-    private Connection connection;
-    private static final String DB_URL = "jdbc:oracle:thin:@localhost:1521:XE";
-    private static final String DB_USER = "system";
-    private static final String DB_PASSWORD = "manager";
-
-    public void initializeDatabase() {
-        try {
-            Class.forName("oracle.jdbc.driver.OracleDriver");
-            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            createTables();
-        } catch (ClassNotFoundException e) {
-            System.err.println("Oracle JDBC driver not found: " + e.getMessage());
-        } catch (SQLException e) {
-            System.err.println("Error initializing database: " + e.getMessage());
-        }
-    }
-
-    private void createTables() throws SQLException {
-        // Create sequence for auto-incrementing ID
-        String createSequenceSQL = """
-            CREATE SEQUENCE files_seq
-            START WITH 1
-            INCREMENT BY 1
-            NOCACHE
-            NOCYCLE
-        """;
-        
-        // Create table with Oracle-compatible syntax
-        String createTableSQL = """
-            CREATE TABLE files (
-                id NUMBER PRIMARY KEY,
-                filename VARCHAR2(255) NOT NULL,
-                filepath VARCHAR2(500) NOT NULL,
-                content CLOB NOT NULL,
-                last_modified TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
-                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-            )
-        """;
-        
-        // Create trigger for auto-incrementing ID
-        String createTriggerSQL = """
-            CREATE OR REPLACE TRIGGER files_trigger
-            BEFORE INSERT ON files
-            FOR EACH ROW
-            BEGIN
-                IF :NEW.id IS NULL THEN
-                    :NEW.id := files_seq.NEXTVAL;
-                END IF;
-            END;
-        """;
-        
-        try (Statement stmt = connection.createStatement()) {
-            // Drop sequence if exists (for clean reinstall)
-            try {
-                stmt.execute("DROP SEQUENCE files_seq");
-            } catch (SQLException e) {
-                // Sequence doesn't exist, which is fine
-            }
-            
-            // Drop table if exists (for clean reinstall)
-            try {
-                stmt.execute("DROP TABLE files");
-            } catch (SQLException e) {
-                // Table doesn't exist, which is fine
-            }
-            
-            // Create sequence
-            stmt.execute(createSequenceSQL);
-            
-            // Create table
-            stmt.execute(createTableSQL);
-            
-            // Create trigger
-            stmt.execute(createTriggerSQL);
-        }
-    }
-
-    public void saveFileToDatabase(String filename, String content, String filepath) {
-        // First try to update existing record
-        String updateSQL = """
-            UPDATE files 
-            SET content = ?, last_modified = CURRENT_TIMESTAMP 
-            WHERE filename = ? AND filepath = ?
-        """;
-        
-        String insertSQL = """
-            INSERT INTO files (filename, filepath, content, last_modified)
-            VALUES (?, ?, ?, CURRENT_TIMESTAMP)
-        """;
-        
-        try (PreparedStatement updateStmt = connection.prepareStatement(updateSQL)) {
-            updateStmt.setString(1, content);
-            updateStmt.setString(2, filename);
-            updateStmt.setString(3, filepath);
-            
-            int rowsUpdated = updateStmt.executeUpdate();
-            
-            // If no rows were updated, insert new record
-            if (rowsUpdated == 0) {
-                try (PreparedStatement insertStmt = connection.prepareStatement(insertSQL)) {
-                    insertStmt.setString(1, filename);
-                    insertStmt.setString(2, filepath);
-                    insertStmt.setString(3, content);
-                    insertStmt.executeUpdate();
-                }
-            }
-        } catch (SQLException e) {
-            System.err.println("Error saving file to database: " + e.getMessage());
-        }
-    }
-
-    public List<DatabaseFile> getAllFiles() {
-        List<DatabaseFile> files = new ArrayList<>();
-        String sql = "SELECT filename, filepath, content, last_modified FROM files ORDER BY last_modified DESC";
-        
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            while (rs.next()) {
-                DatabaseFile file = new DatabaseFile(
-                    rs.getString("filename"),
-                    rs.getString("filepath"),
-                    rs.getString("content"),
-                    rs.getString("last_modified")
-                );
-                files.add(file);
-            }
-        } catch (SQLException e) {
-            System.err.println("Error retrieving files from database: " + e.getMessage());
-        }
-        
-        return files;
-    }
-
-    public void closeConnection() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
-        } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
-        }
-    }
-}
-
-class DatabaseFile {
-    private String fileName;
-    private String filePath;
-    private String content;
-    private String lastModified;
-
-    public DatabaseFile(String fileName, String filePath, String content, String lastModified) {
-        this.fileName = fileName;
-        this.filePath = filePath;
-        this.content = content;
-        this.lastModified = lastModified;
-    }
-
-    public String getFileName() { return fileName; }
-    public String getFilePath() { return filePath; }
-    public String getContent() { return content; }
-    public String getLastModified() { return lastModified; }
-}
@@ -0,0 +1,243 @@
+import javax.swing.*;
+import javax.swing.text.*;
+import java.awt.datatransfer.*;
+import java.io.IOException;
+
+// Clipboard handling for the editor's text areas. Copy and cut publish a LazyText, which reads
+// the selection out of the document only when some application asks for it, or just before the
+// copied range is edited. Pastes of STREAM_CHARS or more go to the Paster to be streamed in;
+// smaller ones are inserted at once like the default handler does.
+class TextTransfer extends TransferHandler {
+    static final int STREAM_CHARS = 1 << 20;
+
+    interface Paster {
+        void paste(JTextComponent c, String text);
+    }
+
+    // What this application last put on the clipboard, until someone else replaces it
+    private static volatile LazyText published;
+
+    private final Paster paster;
+
+    TextTransfer(Paster paster) {
+        this.paster = paster;
+    }
+
+    // Undo and redo change the document without going through its filter: take the copied text
+    // out first if it comes from this document
+    static void settle(Document doc) {
+        LazyText t = published;
+        if (t != null && t.doc == doc)
+            t.capture();
+    }
+
+    public int getSourceActions(JComponent c) {
+        return ((JTextComponent) c).isEditable() ? COPY_OR_MOVE : COPY;
+    }
+
+    protected Transferable createTransferable(JComponent c) {
+        JTextComponent tc = (JTextComponent) c;
+        int p0 = tc.getSelectionStart(), p1 = tc.getSelectionEnd();
+        if (p0 == p1)
+            return null;
+        try {
+            return new LazyText(tc.getDocument(), p0, p1);
+        } catch (BadLocationException e) {
+            return null;
+        }
+    }
+
+    // As the default, except that the transferable owns the clipboard so it hears when it is replaced
+    public void exportToClipboard(JComponent comp, Clipboard clip, int action) throws IllegalStateException {
+        action &= getSourceActions(comp);
+        LazyText t = action == NONE ? null : (LazyText) createTransferable(comp);
+        if (t == null) {
+            exportDone(comp, null, NONE);
+            return;
+        }
+        try {
+            clip.setContents(t, t);
+        } catch (IllegalStateException e) {
+            exportDone(comp, t, NONE);
+            throw e;
+        }
+        published = t;
+        t.guard();
+        exportDone(comp, t, action);
+    }
+
+    protected void exportDone(JComponent source, Transferable data, int action) {
+        if (action != MOVE || !(data instanceof LazyText))
+            return;
+        LazyText t = (LazyText) data;
+        try {
+            int p0 = t.start.getOffset();
+            ((JTextComponent) source).getDocument().remove(p0, t.end.getOffset() - p0);
+        } catch (BadLocationException ignored) {
+        }
+    }
+
+    public boolean canImport(TransferSupport support) {
+        JTextComponent c = (JTextComponent) support.getComponent();
+        return !support.isDrop() && c.isEditable() && c.isEnabled()
+                && support.isDataFlavorSupported(DataFlavor.stringFlavor);
+    }
+
+    public boolean importData(TransferSupport support) {
+        if (!canImport(support))
+            return false;
+        JTextComponent c = (JTextComponent) support.getComponent();
+        Transferable t = support.getTransferable();
+        String text;
+        try {
+            text = t instanceof LazyText ? ((LazyText) t).getText() : (String) t.getTransferData(DataFlavor.stringFlavor);
+        } catch (UnsupportedFlavorException | IOException e) {
+            return false;
+        }
+        if (text.length() >= STREAM_CHARS)
+            paster.paste(c, text);
+        else
+            c.replaceSelection(StreamingPaste.lineFeeds(text, 0, text.length()));
+        return true;
+    }
+
+    // The selection as positions in its document. A guard filter on the document takes the text
+    // out just before an edit touches the range; after that, or once the clipboard has moved on,
+    // the document is let go.
+    static final class LazyText implements Transferable, ClipboardOwner {
+        final Position start, end;
+        private volatile Document doc;
+        private volatile String text;
+        private Guard guard;
+
+        LazyText(Document doc, int p0, int p1) throws BadLocationException {
+            this.doc = doc;
+            start = doc.createPosition(p0);
+            end = doc.createPosition(p1);
+        }
+
+        public DataFlavor[] getTransferDataFlavors() {
+            return new DataFlavor[] { DataFlavor.stringFlavor };
+        }
+
+        public boolean isDataFlavorSupported(DataFlavor flavor) {
+            return DataFlavor.stringFlavor.equals(flavor);
+        }
+
+        public Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+            if (!isDataFlavorSupported(flavor))
+                throw new UnsupportedFlavorException(flavor);
+            return getText();
+        }
+
+        // May be called off the EDT, by the toolkit serving another application
+        String getText() {
+            String t = text;
+            Document d = doc;
+            if (t != null || d == null)
+                return t != null ? t : "";
+            String[] read = new String[1];
+            d.render(() -> read[0] = extract(d));
+            // An edit that got in before the read lock already captured the text as it was
+            synchronized (this) {
+                if (text == null)
+                    text = read[0];
+            }
+            if (SwingUtilities.isEventDispatchThread())
+                release();
+            else
+                SwingUtilities.invokeLater(this::release);
+            return text;
+        }
+
+        public void lostOwnership(Clipboard clipboard, Transferable contents) {
+            release();
+        }
+
+        private String extract(Document d) {
+            try {
+                int p0 = start.getOffset();
+                return d.getText(p0, end.getOffset() - p0);
+            } catch (BadLocationException e) {
+                return "";
+            }
+        }
+
+        void guard() {
+            Document d = doc;
+            if (!(d instanceof AbstractDocument)) {
+                capture();
+                return;
+            }
+            AbstractDocument ad = (AbstractDocument) d;
+            DocumentFilter next = ad.getDocumentFilter();
+            while (next instanceof Guard && ((Guard) next).owner.doc == null)
+                next = ((Guard) next).next;
+            guard = new Guard(this, next);
+            ad.setDocumentFilter(guard);
+        }
+
+        // On the EDT, possibly under the document's write lock
+        void capture() {
+            Document d = doc;
+            if (d == null)
+                return;
+            synchronized (this) {
+                if (text == null)
+                    text = extract(d);
+            }
+            release();
+        }
+
+        private void release() {
+            Document d = doc;
+            doc = null;
+            if (published == this && text == null)
+                published = null;
+            if (guard != null && d instanceof AbstractDocument && ((AbstractDocument) d).getDocumentFilter() == guard)
+                ((AbstractDocument) d).setDocumentFilter(guard.next);
+            guard = null;
+        }
+    }
+
+    // Passes every edit on; one that reaches into the copied range captures the text first.
+    // A guard whose text has been taken stays a plain pass-through until it can be unlinked.
+    private static final class Guard extends DocumentFilter {
+        final LazyText owner;
+        final DocumentFilter next;
+
+        Guard(LazyText owner, DocumentFilter next) {
+            this.owner = owner;
+            this.next = next;
+        }
+
+        private void check(int offset, int length) {
+            if (owner.doc != null && offset <= owner.end.getOffset() && offset + length >= owner.start.getOffset())
+                owner.capture();
+        }
+
+        public void insertString(FilterBypass fb, int offset, String s, AttributeSet attr) throws BadLocationException {
+            check(offset, 0);
+            if (next != null)
+                next.insertString(fb, offset, s, attr);
+            else
+                super.insertString(fb, offset, s, attr);
+        }
+
+        public void remove(FilterBypass fb, int offset, int length) throws BadLocationException {
+            check(offset, length);
+            if (next != null)
+                next.remove(fb, offset, length);
+            else
+                super.remove(fb, offset, length);
+        }
+
+        public void replace(FilterBypass fb, int offset, int length, String s, AttributeSet attrs) throws BadLocationException {
+            check(offset, length);
+            if (next != null)
+                next.replace(fb, offset, length, s, attrs);
+            else
+                super.replace(fb, offset, length, s, attrs);
+        }
+    }
+}
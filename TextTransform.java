@@ -0,0 +1,273 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A pipeline of line-by-line text transforms (case, trailing whitespace, tabs and spaces, line
+// endings, regex rewrites), UI-free so the editor and the batch CLI share it. Every stage takes a
+// chunk of whole lines and returns whole lines, so text can be cut at line boundaries into chunks of
+// about CHUNK_CHARS, the chunks run through the stages in parallel on a fork-join pool, and the
+// results put back together in order. Only a window of chunks is in flight at a time, so text of
+// any length streams through in bounded memory.
+class TextTransform {
+    static final int CHUNK_CHARS = 1 << 20;
+
+    interface Stage {
+        // lines: whole lines, each with its line break except possibly the last one of the text
+        String apply(String lines);
+    }
+
+    // Called in input order; offset is where the chunk starts in the input
+    interface ChunkConsumer {
+        void accept(long offset, String original, String result) throws IOException;
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+
+    TextTransform add(String name, Stage stage) {
+        names.add(name);
+        stages.add(stage);
+        return this;
+    }
+
+    boolean isEmpty() {
+        return stages.isEmpty();
+    }
+
+    String apply(String lines) {
+        for (Stage s : stages)
+            lines = s.apply(lines);
+        return lines;
+    }
+
+    public String toString() {
+        return String.join(", ", names);
+    }
+
+    // ---------- STAGES ----------
+
+    TextTransform upperCase() {
+        return add("upper case", s -> s.toUpperCase(Locale.ROOT));
+    }
+
+    TextTransform lowerCase() {
+        return add("lower case", s -> s.toLowerCase(Locale.ROOT));
+    }
+
+    TextTransform trimTrailing() {
+        return add("trim trailing whitespace", s -> eachLine(s, (sb, line, eol) -> {
+            int end = line.length();
+            while (end > 0 && (line.charAt(end - 1) == ' ' || line.charAt(end - 1) == '\t'))
+                end--;
+            sb.append(line, 0, end).append(eol);
+        }));
+    }
+
+    // Every tab, to the next multiple of tabSize columns
+    TextTransform tabsToSpaces(int tabSize) {
+        return add("tabs to spaces", s -> {
+            if (s.indexOf('\t') < 0)
+                return s;
+            return eachLine(s, (sb, line, eol) -> {
+                int column = 0;
+                for (int i = 0; i < line.length(); i++) {
+                    char c = line.charAt(i);
+                    if (c == '\t') {
+                        do sb.append(' '); while (++column % tabSize != 0);
+                    } else {
+                        sb.append(c);
+                        column++;
+                    }
+                }
+                sb.append(eol);
+            });
+        });
+    }
+
+    // Leading indentation only, as tabs and then the spaces left over; text after it is left alone
+    TextTransform spacesToTabs(int tabSize) {
+        return add("spaces to tabs", s -> eachLine(s, (sb, line, eol) -> {
+            int column = 0, i = 0;
+            for (; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == ' ')
+                    column++;
+                else if (c == '\t')
+                    column += tabSize - column % tabSize;
+                else
+                    break;
+            }
+            for (int t = column / tabSize; t > 0; t--)
+                sb.append('\t');
+            for (int sp = column % tabSize; sp > 0; sp--)
+                sb.append(' ');
+            sb.append(line, i, line.length()).append(eol);
+        }));
+    }
+
+    // \n, \r\n and \r all become eol
+    TextTransform lineEndings(String eol) {
+        String name = eol.equals("\r\n") ? "CRLF" : eol.equals("\r") ? "CR" : "LF";
+        return add("line endings to " + name, s -> eachLine(s, (sb, line, old) -> {
+            sb.append(line);
+            if (!old.isEmpty())
+                sb.append(eol);
+        }));
+    }
+
+    // Matches within one line at a time (not its line break); the replacement as in Matcher.replaceAll
+    TextTransform regex(Pattern pattern, String replacement) {
+        return add("replace /" + pattern.pattern() + "/", s -> eachLine(s, (sb, line, eol) -> {
+            Matcher m = pattern.matcher(line);
+            sb.append(m.find() ? m.replaceAll(replacement) : line).append(eol);
+        }));
+    }
+
+    // Stages from the command line: upper, lower, trim, tabs-to-spaces, spaces-to-tabs, eol-lf,
+    // eol-crlf, eol-cr and regex <pattern> <replacement>
+    static TextTransform parse(List<String> args, int tabSize) {
+        TextTransform t = new TextTransform();
+        for (int i = 0; i < args.size(); i++) {
+            switch (args.get(i)) {
+                case "upper": t.upperCase(); break;
+                case "lower": t.lowerCase(); break;
+                case "trim": t.trimTrailing(); break;
+                case "tabs-to-spaces": t.tabsToSpaces(tabSize); break;
+                case "spaces-to-tabs": t.spacesToTabs(tabSize); break;
+                case "eol-lf": t.lineEndings("\n"); break;
+                case "eol-crlf": t.lineEndings("\r\n"); break;
+                case "eol-cr": t.lineEndings("\r"); break;
+                case "regex":
+                    if (i + 2 >= args.size())
+                        throw new IllegalArgumentException("regex needs a pattern and a replacement");
+                    t.regex(Pattern.compile(args.get(i + 1)), args.get(i + 2));
+                    i += 2;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown transform: " + args.get(i));
+            }
+        }
+        return t;
+    }
+
+    private interface LineEditor {
+        // eol: the line's break as it is, empty for a last line without one
+        void line(StringBuilder out, String line, String eol);
+    }
+
+    private static String eachLine(String s, LineEditor editor) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        int start = 0, n = s.length();
+        while (start < n) {
+            int end = start;
+            while (end < n && s.charAt(end) != '\n' && s.charAt(end) != '\r')
+                end++;
+            int next = end;
+            if (next < n)
+                next += s.charAt(next) == '\r' && next + 1 < n && s.charAt(next + 1) == '\n' ? 2 : 1;
+            String eol = next == end ? "" : next - end == 2 ? "\r\n" : s.charAt(end) == '\n' ? "\n" : "\r";
+            editor.line(sb, s.substring(start, end), eol);
+            start = next;
+        }
+        return sb.toString();
+    }
+
+    // ---------- CHUNKS ----------
+
+    // Reads in chunk by chunk and runs them on pool, at most two per thread in flight, handing each
+    // result to out in input order. Returns the characters read, or -1 if stopped.
+    long run(Reader in, ForkJoinPool pool, ChunkConsumer out, BooleanSupplier stopped) throws IOException {
+        ChunkReader chunks = new ChunkReader(in);
+        ArrayDeque<Pending> window = new ArrayDeque<>();
+        int limit = 2 * pool.getParallelism();
+        long offset = 0;
+        for (String chunk; (chunk = chunks.next()) != null; ) {
+            if (stopped.getAsBoolean())
+                return -1;
+            String c = chunk;
+            window.add(new Pending(offset, chunk, pool.submit(() -> apply(c))));
+            offset += chunk.length();
+            if (window.size() >= limit)
+                window.poll().deliver(out);
+        }
+        while (!window.isEmpty()) {
+            if (stopped.getAsBoolean())
+                return -1;
+            window.poll().deliver(out);
+        }
+        return offset;
+    }
+
+    private static final class Pending {
+        final long offset;
+        final String original;
+        final ForkJoinTask<String> result;
+
+        Pending(long offset, String original, ForkJoinTask<String> result) {
+            this.offset = offset;
+            this.original = original;
+            this.result = result;
+        }
+
+        void deliver(ChunkConsumer out) throws IOException {
+            out.accept(offset, original, result.join());
+        }
+    }
+
+    // Cuts text into chunks of at least CHUNK_CHARS ending at a line break (one line longer than
+    // that is a chunk of its own), never between \r and \n
+    private static final class ChunkReader {
+        private final Reader in;
+        private char[] buf = new char[CHUNK_CHARS + (CHUNK_CHARS >> 2)];
+        private int length;
+        private boolean eof;
+
+        ChunkReader(Reader in) {
+            this.in = in;
+        }
+
+        String next() throws IOException {
+            int scanned = 0;
+            while (true) {
+                while (!eof && length < Math.max(CHUNK_CHARS, scanned + 1)) {
+                    if (length == buf.length)
+                        buf = Arrays.copyOf(buf, buf.length * 2);
+                    int n = in.read(buf, length, buf.length - length);
+                    if (n < 0)
+                        eof = true;
+                    else
+                        length += n;
+                }
+                if (length == 0)
+                    return null;
+                // A \r last time may be followed by \n now
+                int cut = eof ? length : boundary(Math.max(0, scanned - 1));
+                if (cut > 0) {
+                    String chunk = new String(buf, 0, cut);
+                    System.arraycopy(buf, cut, buf, 0, length - cut);
+                    length -= cut;
+                    return chunk;
+                }
+                scanned = length; // no line break yet: read on
+            }
+        }
+
+        // After the last line break in the buffer whose end is known, or 0 if there is none
+        private int boundary(int from) {
+            for (int i = length - 1; i >= from; i--) {
+                if (buf[i] == '\n' || (buf[i] == '\r' && i + 1 < length))
+                    return i + 1;
+            }
+            return 0;
+        }
+    }
+}
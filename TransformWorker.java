@@ -0,0 +1,189 @@
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs a TextTransform over part of a document or over a file. On a document, each chunk that comes
+// out different is cut down to the span that changed; once every chunk is done the spans are
+// replaced on the EDT a slice at a time, last first so the offsets of the others still hold, and
+// the caller makes one undo step of them. On a file, the result streams into a temporary file next
+// to the output that is then moved over it, in the input's encoding.
+class TransformWorker extends BulkWorker<Void> implements BulkProgress {
+    private static final long SLICE_NANOS = 20_000_000;
+
+    // Replace [offset, offset + length) of the document with text
+    private static final class Edit {
+        final int offset, length;
+        final String text;
+
+        Edit(int offset, int length, String text) {
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+    }
+
+    private final TextTransform transform;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final Document doc;    // document mode
+    private final int start, end;
+    private final List<Edit> edits = new ArrayList<>();
+    private int nextEdit;
+
+    private final File input, output; // file mode
+
+    private final AtomicLong charsDone = new AtomicLong();
+    private volatile boolean stopped;
+
+    private TransformWorker(TextTransform transform, Document doc, int start, int end, File input, File output, Listener listener) {
+        super(listener);
+        this.transform = transform;
+        this.doc = doc;
+        this.start = start;
+        this.end = end;
+        this.input = input;
+        this.output = output;
+    }
+
+    // [start, end) of doc, which must not change until the listener is called. The listener is
+    // called after the edits; error is null when the transform went through or was stopped.
+    static TransformWorker forDocument(TextTransform transform, Document doc, int start, int end, Listener listener) {
+        return new TransformWorker(transform, doc, start, end, null, null, listener);
+    }
+
+    static TransformWorker forFile(TextTransform transform, File input, File output, Listener listener) {
+        return new TransformWorker(transform, null, 0, 0, input, output, listener);
+    }
+
+    // Before execute()
+    void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    // Stops reading, or taking back the edits not made yet; unlike cancel, also once the worker
+    // has finished and the edits are being made
+    void stop() {
+        stopped = true;
+        cancel(false);
+    }
+
+    boolean isStopped() { return stopped; }
+    // Spans replaced in the document
+    int getEditCount() { return edits.size(); }
+    boolean isApplying() { return doc != null && isDone() && !stopped; }
+
+    public String getTitle() { return "Transforming " + (input != null ? input.getName() : "Text"); }
+    public int getThreads() { return threads; }
+    public int getFilesTotal() { return 1; }
+    public int getFilesDone() { return hasEnded() ? 1 : 0; }
+    public int getFilesFailed() { return getError() != null ? 1 : 0; }
+    public int getFilesUnchanged() { return 0; }
+    // Characters, which is what a document has
+    public long getBytesDone() { return charsDone.get(); }
+
+    // Reading for a document, then making the edits
+    int getPercentDone() {
+        if (isApplying())
+            return edits.isEmpty() ? 100 : (edits.size() - 1 - nextEdit) * 100 / edits.size();
+        return end <= start ? 0 : (int) Math.min(100, charsDone.get() * 100 / (end - start));
+    }
+
+    protected void work() {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            if (doc != null)
+                transformDocument(pool);
+            else
+                transformFile(pool);
+        } catch (IOException | RuntimeException e) {
+            setError("Transform failed: " + e.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void transformDocument(ForkJoinPool pool) throws IOException {
+        transform.run(LineSorter.documentReader(doc, start, end), pool, (offset, original, result) -> {
+            charsDone.addAndGet(original.length());
+            setProgress(getPercentDone());
+            if (result.equals(original))
+                return;
+            // Only what changed, so the undo step (and the edit) is no bigger than it has to be
+            int prefix = 0, max = Math.min(original.length(), result.length());
+            while (prefix < max && original.charAt(prefix) == result.charAt(prefix))
+                prefix++;
+            int suffix = 0;
+            while (suffix < max - prefix
+                    && original.charAt(original.length() - 1 - suffix) == result.charAt(result.length() - 1 - suffix))
+                suffix++;
+            edits.add(new Edit(start + (int) offset + prefix, original.length() - prefix - suffix,
+                    result.substring(prefix, result.length() - suffix)));
+        }, this::isCancelled);
+    }
+
+    private void transformFile(ForkJoinPool pool) throws IOException {
+        TextBuffer.Encoding enc = TextBuffer.detectEncoding(input);
+        Path target = output.toPath().toAbsolutePath();
+        Path tmp = target.resolveSibling("." + target.getFileName() + ".transform");
+        long read;
+        try (Reader in = TextBuffer.newReader(input, enc);
+             Writer out = TextBuffer.newWriter(tmp.toFile(), enc)) {
+            read = transform.run(in, pool, (offset, original, result) -> {
+                out.write(result);
+                charsDone.addAndGet(original.length());
+            }, this::isCancelled);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (read < 0) {
+            Files.deleteIfExists(tmp);
+            return;
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    protected void done() {
+        String message = outcome();
+        if (message != null || isCancelled() || doc == null || edits.isEmpty()) {
+            finish(message);
+            return;
+        }
+        nextEdit = edits.size() - 1;
+        applySlice();
+    }
+
+    // The edits from the last one back, for up to SLICE_NANOS per event so the window keeps painting
+    private void applySlice() {
+        long deadline = System.nanoTime() + SLICE_NANOS;
+        try {
+            while (!stopped && nextEdit >= 0) {
+                Edit e = edits.get(nextEdit--);
+                if (e.length > 0)
+                    doc.remove(e.offset, e.length);
+                if (!e.text.isEmpty())
+                    doc.insertString(e.offset, e.text, null);
+                if (System.nanoTime() >= deadline)
+                    break;
+            }
+        } catch (BadLocationException e) {
+            setError("The document changed during the transform");
+        }
+        if (stopped || getError() != null || nextEdit < 0) {
+            finish(getError());
+            return;
+        }
+        setProgress(getPercentDone());
+        SwingUtilities.invokeLater(this::applySlice);
+    }
+}